@@ -48,8 +48,24 @@ public class CtlogControl {
    */
   public static final String KEY_SSLCONTEXT_NAME = "sslcontext.name";
 
+  /**
+   * Timeout in milliseconds to get the SCT from one CT Log server, default to 10000.
+   */
+  public static final String KEY_TIMEOUT = "timeout";
+
+  /**
+   * Number of valid SCTs required to issue the certificate, default to the number of servers.
+   */
+  public static final String KEY_QUORUM = "quorum";
+
+  public static final int DFLT_TIMEOUT = 10000;
+
   private boolean enabled;
 
+  private int timeout;
+
+  private int quorum;
+
   private String sslContextName;
 
   private List<String> servers;
@@ -70,11 +86,21 @@ public class CtlogControl {
       throw new InvalidConfException(KEY_SERVERS + " is not specified");
     }
 
+    // the defaults are not written to the conf, so that they can be changed later
+    timeout = getInt(pairs, KEY_TIMEOUT, DFLT_TIMEOUT);
+    quorum = getInt(pairs, KEY_QUORUM, servers.size());
+    checkTimeoutAndQuorum();
+
     this.conf = pairs.getEncoded();
   } // constructor
 
   public CtlogControl(Boolean enabled, List<String> servers, String sslContextName)
       throws InvalidConfException {
+    this(enabled, servers, sslContextName, null, null);
+  }
+
+  public CtlogControl(Boolean enabled, List<String> servers, String sslContextName,
+      Integer timeout, Integer quorum) throws InvalidConfException {
     Args.notEmpty(servers, "servers");
 
     ConfPairs pairs = new ConfPairs();
@@ -89,9 +115,30 @@ public class CtlogControl {
       pairs.putPair(KEY_SSLCONTEXT_NAME, sslContextName);
     }
 
+    this.timeout = (timeout == null) ? DFLT_TIMEOUT : timeout;
+    this.quorum = (quorum == null) ? servers.size() : quorum;
+    checkTimeoutAndQuorum();
+    if (timeout != null) {
+      pairs.putPair(KEY_TIMEOUT, Integer.toString(this.timeout));
+    }
+    if (quorum != null) {
+      pairs.putPair(KEY_QUORUM, Integer.toString(this.quorum));
+    }
+
     this.conf = pairs.getEncoded();
   } // constructor
 
+  private void checkTimeoutAndQuorum() throws InvalidConfException {
+    if (timeout < 1) {
+      throw new InvalidConfException(KEY_TIMEOUT + " must be positive: " + timeout);
+    }
+
+    if (quorum < 1 || quorum > servers.size()) {
+      throw new InvalidConfException(KEY_QUORUM + " must be between 1 and " + servers.size()
+          + ": " + quorum);
+    }
+  } // method checkTimeoutAndQuorum
+
   public boolean isEnabled() {
     return enabled;
   }
@@ -116,6 +163,14 @@ public class CtlogControl {
     this.servers = servers;
   }
 
+  public int getTimeout() {
+    return timeout;
+  }
+
+  public int getQuorum() {
+    return quorum;
+  }
+
   public void setEnabled(boolean enabled) {
     this.enabled = enabled;
   }
@@ -134,7 +189,9 @@ public class CtlogControl {
     return StringUtil.concatObjects(
         "  enabled: ", enabled,
         "\n  SSL context name: ", sslContextName,
-        "\n  Servers: ", servers);
+        "\n  Servers: ", servers,
+        "\n  timeout: ", timeout, " ms",
+        "\n  quorum: ", quorum);
   }
 
   @Override
@@ -155,4 +212,20 @@ public class CtlogControl {
     return ret;
   } // method getBoolean
 
+  private static int getInt(ConfPairs pairs, String key, int defaultValue)
+      throws InvalidConfException {
+    String str = pairs.value(key);
+    int ret;
+    if (StringUtil.isBlank(str)) {
+      ret = defaultValue;
+    } else {
+      try {
+        ret = Integer.parseInt(str.trim());
+      } catch (NumberFormatException ex) {
+        throw new InvalidConfException("invalid " + key + ": " + str);
+      }
+    }
+    return ret;
+  } // method getInt
+
 }
@@ -17,7 +17,10 @@
 
 package org.xipki.ca.api.profile;
 
+import java.io.IOException;
+
 import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
 import org.xipki.util.Args;
 
 /**
@@ -33,6 +36,8 @@ public class ExtensionValue {
 
   private final ASN1Encodable value;
 
+  private volatile byte[] encodedValue;
+
   public ExtensionValue(boolean critical, ASN1Encodable value) {
     this.critical = critical;
     this.value = Args.notNull(value, "value");
@@ -46,4 +51,22 @@ public class ExtensionValue {
     return value;
   }
 
+  /**
+   * Returns the DER encoded value. The value is encoded only once, so that the constant
+   * extension values of a profile are not encoded again for each certificate.
+   *
+   * @return the DER encoded value. Must not be modified.
+   * @throws IOException
+   *           If the value could not be encoded.
+   * @since 5.3.8
+   */
+  public byte[] getEncodedValue() throws IOException {
+    byte[] encoded = encodedValue;
+    if (encoded == null) {
+      encoded = value.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+      encodedValue = encoded;
+    }
+    return encoded;
+  } // method getEncodedValue
+
 }
@@ -18,6 +18,7 @@
 package org.xipki.ca.api.publisher;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Map;
 
 import org.bouncycastle.cert.X509CRLHolder;
@@ -81,6 +82,24 @@ public abstract class CertPublisher implements Closeable {
    */
   public abstract boolean certificateAdded(CertificateInfo certInfo);
 
+  /**
+   * Publishes certificates. The default implementation publishes them one by one via
+   * {@link #certificateAdded(CertificateInfo)}, publishers which can publish several
+   * certificates at once should overwrite it.
+   *
+   * @param certInfos
+   *          Certificates to be published. Must not be {@code null}.
+   * @return whether the certificates are published, the i-th element for the i-th certificate.
+   * @since 5.3.8
+   */
+  public boolean[] certificatesAdded(List<CertificateInfo> certInfos) {
+    boolean[] ret = new boolean[certInfos.size()];
+    for (int i = 0; i < ret.length; i++) {
+      ret[i] = certificateAdded(certInfos.get(i));
+    }
+    return ret;
+  } // method certificatesAdded
+
   /**
    * Publishes the revocation of a certificate.
    *
@@ -231,6 +231,12 @@ class CaCertstoreDbExporter extends DbPorter {
 
     Object entriesInCurrentFile = createContainer(type);
     PreparedStatement ps = prepareStatement(sql.toString());
+    try {
+      // read each page in one round trip
+      ps.setFetchSize(numEntriesPerSelect);
+    } catch (SQLException ex) {
+      LOG.warn("could not set the fetch size: {}", ex.getMessage());
+    }
 
     int numEntriesInCurrentFile = 0;
 
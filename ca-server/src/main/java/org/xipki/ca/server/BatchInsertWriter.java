@@ -0,0 +1,305 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Writes the rows of an INSERT statement submitted by concurrent threads in groups: all rows
+ * waiting in the queue are written in one JDBC batch and committed once. The submitting thread
+ * is blocked until its row has been committed, so that the durability is the same as writing
+ * the row directly.
+ *
+ * <p>If a batch cannot be written, e.g. because one of the rows violates a constraint, its
+ * rows are written again separately, so that only the faulty rows fail.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class BatchInsertWriter implements Closeable {
+
+  abstract static class Entry {
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private DataAccessException failure;
+
+    /**
+     * Sets the parameters of the INSERT statement.
+     *
+     * @param ps
+     *          Prepared statement of the INSERT statement.
+     * @throws SQLException
+     *           If the parameters cannot be set.
+     */
+    protected abstract void setParameters(PreparedStatement ps) throws SQLException;
+
+    private void complete(DataAccessException failure) {
+      this.failure = failure;
+      done.countDown();
+    }
+
+  } // class Entry
+
+  private static final Logger LOG = LoggerFactory.getLogger(BatchInsertWriter.class);
+
+  private final DataSourceWrapper datasource;
+
+  private final String sql;
+
+  private final int batchSize;
+
+  private final long maxDelayNanos;
+
+  private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+  private final ExecutorService executor;
+
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   *
+   * @param datasource
+   *          Datasource.
+   * @param sql
+   *          The INSERT statement.
+   * @param batchSize
+   *          Maximal number of rows written in one batch.
+   * @param maxDelayMs
+   *          Maximal time in milliseconds to wait for further rows if the batch is not full.
+   *          0 to write only the rows which are already in the queue.
+   */
+  BatchInsertWriter(DataSourceWrapper datasource, String sql, int batchSize, int maxDelayMs) {
+    this.datasource = Args.notNull(datasource, "datasource");
+    this.sql = Args.notBlank(sql, "sql");
+    this.batchSize = Args.positive(batchSize, "batchSize");
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Args.notNegative(maxDelayMs, "maxDelayMs"));
+
+    this.executor = Executors.newSingleThreadExecutor();
+    this.executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    });
+  } // constructor
+
+  /**
+   * Writes the row and waits until it has been committed.
+   *
+   * @param entry
+   *          The row to be written.
+   * @throws DataAccessException
+   *           If the row could not be written.
+   */
+  void write(Entry entry) throws DataAccessException {
+    Args.notNull(entry, "entry");
+    if (closed) {
+      throw new DataAccessException("BatchInsertWriter is closed");
+    }
+
+    queue.add(entry);
+
+    try {
+      while (!entry.done.await(1, TimeUnit.SECONDS)) {
+        if (closed && queue.remove(entry)) {
+          throw new DataAccessException("BatchInsertWriter is closed");
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new DataAccessException("interrupted while waiting for the commit", ex);
+    }
+
+    if (entry.failure != null) {
+      throw entry.failure;
+    }
+  } // method write
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    executor.shutdown();
+    try {
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      LOG.warn("interrupted while waiting for the writer thread");
+    }
+
+    Entry entry;
+    while ((entry = queue.poll()) != null) {
+      entry.complete(new DataAccessException("BatchInsertWriter is closed"));
+    }
+  } // method close
+
+  private void writeLoop() {
+    List<Entry> batch = new ArrayList<>(batchSize);
+    while (!closed) {
+      try {
+        Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+
+        if (maxDelayNanos > 0) {
+          waitForMoreEntries(batch);
+        }
+
+        writeBatch(batch);
+      } catch (InterruptedException ex) {
+        LOG.warn("interrupted: {}", ex.getMessage());
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while writing rows");
+        for (Entry entry : batch) {
+          entry.complete(new DataAccessException("could not write row: " + th.getMessage(), th));
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  } // method writeLoop
+
+  /**
+   * Adds further entries to the batch until it is full or the maxDelay is reached. If
+   * interrupted, it returns immediately, so that the collected entries are still written.
+   */
+  private void waitForMoreEntries(List<Entry> batch) {
+    long deadline = System.nanoTime() + maxDelayNanos;
+    try {
+      while (batch.size() < batchSize) {
+        long remaining = deadline - System.nanoTime();
+        Entry next = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+        if (next == null) {
+          break;
+        }
+
+        batch.add(next);
+        queue.drainTo(batch, batchSize - batch.size());
+      }
+    } catch (InterruptedException ex) {
+      LOG.warn("interrupted while waiting for more rows, write {} rows: {}", batch.size(),
+          ex.getMessage());
+    }
+  } // method waitForMoreEntries
+
+  private void writeBatch(List<Entry> batch) {
+    Connection conn;
+    try {
+      conn = datasource.getConnection();
+    } catch (DataAccessException ex) {
+      for (Entry entry : batch) {
+        entry.complete(ex);
+      }
+      return;
+    }
+
+    try {
+      if (batch.size() > 1 && writeInOneTransaction(conn, batch)) {
+        for (Entry entry : batch) {
+          entry.complete(null);
+        }
+        return;
+      }
+
+      // write the rows separately
+      for (Entry entry : batch) {
+        PreparedStatement ps = null;
+        try {
+          ps = datasource.prepareStatement(conn, sql);
+          entry.setParameters(ps);
+          ps.executeUpdate();
+          entry.complete(null);
+        } catch (DataAccessException ex) {
+          entry.complete(ex);
+        } catch (SQLException ex) {
+          entry.complete(datasource.translate(sql, ex));
+        } finally {
+          datasource.releaseResources(ps, null, false);
+        }
+      }
+    } finally {
+      datasource.returnConnection(conn);
+    }
+  } // method writeBatch
+
+  private boolean writeInOneTransaction(Connection conn, List<Entry> batch) {
+    PreparedStatement ps = null;
+    boolean origAutoCommit = true;
+    boolean successful = false;
+
+    try {
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      ps = datasource.prepareStatement(conn, sql);
+      for (Entry entry : batch) {
+        entry.setParameters(ps);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      conn.commit();
+      successful = true;
+      LOG.debug("wrote {} rows in one batch", batch.size());
+    } catch (DataAccessException | SQLException ex) {
+      LOG.warn("could not write {} rows in one batch, write them separately: {}",
+          batch.size(), ex.getMessage());
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LOG.warn("could not rollback: {}", ex2.getMessage());
+      }
+    } finally {
+      datasource.releaseResources(ps, null, false);
+      try {
+        conn.setAutoCommit(origAutoCommit);
+      } catch (SQLException ex) {
+        LOG.warn("could not restore the auto-commit mode of the connection");
+      }
+    }
+
+    return successful;
+  } // method writeInOneTransaction
+
+}
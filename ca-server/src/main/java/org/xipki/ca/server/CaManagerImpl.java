@@ -34,6 +34,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -88,6 +89,7 @@ import org.xipki.ca.api.profile.CertprofileFactoryRegister;
 import org.xipki.ca.api.publisher.CertPublisher;
 import org.xipki.ca.api.publisher.CertPublisherException;
 import org.xipki.ca.api.publisher.CertPublisherFactoryRegister;
+import org.xipki.ca.server.CaManagerQueryExecutor.ChangeEvent;
 import org.xipki.ca.server.CaManagerQueryExecutor.SystemEvent;
 import org.xipki.ca.server.SelfSignedCertBuilder.GenerateSelfSignedResult;
 import org.xipki.ca.server.cmp.CmpResponder;
@@ -211,6 +213,7 @@ public class CaManagerImpl implements CaManager, Closeable {
           restartCaSystem();
         } else {
           LOG.debug("received no event to restart CA");
+          applyChangeEvents();
         }
       } catch (Throwable th) {
         LogUtil.error(LOG, th, "ScheduledCaRestarter");
@@ -227,6 +230,10 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private static final String EVENT_CACHAGNE = "CA_CHANGE";
 
+  private static final long CHANGE_EVENT_KEEP_MS = 24L * 60 * 60 * 1000; // 1 DAY
+
+  private static final long CHANGE_EVENT_MARGIN_MS = 60L * 60 * 1000; // 1 HOUR
+
   private final String lockInstanceId;
 
   private final CaIdNameMap idNameMap = new CaIdNameMap();
@@ -302,6 +309,24 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private Date lastStartTime;
 
+  /**
+   * Entities changed since the last notification, each encoded via
+   * {@link ChangeEvent#encode(String, String)}. Used in master mode only.
+   */
+  private final Set<String> pendingChanges = new LinkedHashSet<>();
+
+  /**
+   * Lock held from the assignment of the time of a change event until it has been written.
+   */
+  private final Object changeEventLock = new Object();
+
+  /**
+   * Time of the last notified (master mode) or applied (slave mode) change event.
+   */
+  private long lastChangeEventTime;
+
+  private long lastChangeEventCheckTime;
+
   private CertprofileFactoryRegister certprofileFactoryRegister;
 
   private CertPublisherFactoryRegister certPublisherFactoryRegister;
@@ -310,6 +335,8 @@ public class CaManagerImpl implements CaManager, Closeable {
 
   private CertStore certstore;
 
+  private KeypairPool keypairPool;
+
   private SecurityFactory securityFactory;
 
   private CaManagerQueryExecutor queryExecutor;
@@ -348,6 +375,10 @@ public class CaManagerImpl implements CaManager, Closeable {
     this.restResponder = new RestResponder(this);
   } // constructor
 
+  KeypairPool getKeypairPool() {
+    return keypairPool;
+  }
+
   public SecurityFactory getSecurityFactory() {
     return securityFactory;
   }
@@ -424,6 +455,9 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     this.queryExecutor = new CaManagerQueryExecutor(this.datasource);
+    // the entities loaded below contain all changes notified until now
+    this.lastChangeEventTime = queryExecutor.getLastChangeEventTime();
+    this.lastChangeEventCheckTime = System.currentTimeMillis();
 
     if (masterMode) {
       lockCa(true);
@@ -435,12 +469,29 @@ public class CaManagerImpl implements CaManager, Closeable {
     final long epoch = DateUtil.parseUtcTimeyyyyMMdd("20100101").getTime();
     UniqueIdGenerator idGen = new UniqueIdGenerator(epoch, shardId);
 
+    if (this.certstore != null) {
+      this.certstore.close();
+    }
+
     try {
-      this.certstore = new CertStore(datasource, idGen);
+      this.certstore = new CertStore(datasource, idGen, caServerConf.getCertstoreFetchSize(),
+          caServerConf.getCertstoreInsertBatchSize(), caServerConf.getCertstoreInsertMaxDelay(),
+          caServerConf.getUserAuthCache());
     } catch (DataAccessException ex) {
       throw new CaMgmtException(ex.getMessage(), ex);
     }
 
+    if (this.keypairPool != null) {
+      this.keypairPool.close();
+      this.keypairPool = null;
+    }
+
+    CaServerConf.KeypairPoolConf keypairPoolConf = caServerConf.getKeypairPool();
+    if (keypairPoolConf != null && keypairPoolConf.isEnabled()) {
+      this.keypairPool = new KeypairPool(keypairPoolConf.getLowWatermark(),
+          keypairPoolConf.getHighWatermark(), keypairPoolConf.getThreads());
+    }
+
     initCaAliases();
     initCertprofiles();
     initPublishers();
@@ -546,6 +597,7 @@ public class CaManagerImpl implements CaManager, Closeable {
       throw new CaMgmtException("Unknown CA " + name);
     }
 
+    recordChange(ChangeEvent.TYPE_CA, name);
     if (createCa(name)) {
       CaInfo caInfo = caInfos.get(name);
       if (CaStatus.ACTIVE != caInfo.getCaEntry().getStatus()) {
@@ -573,19 +625,275 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
   } // method restartCaSystem
 
+  /**
+   * Notifies the slave CAs. If the changed entities are known, only these will be reloaded by
+   * the slave CAs, otherwise the slave CAs will restart.
+   */
   @Override
   public void notifyCaChange() throws CaMgmtException {
+    Set<String> changes;
+    synchronized (pendingChanges) {
+      changes = new LinkedHashSet<>(pendingChanges);
+      pendingChanges.clear();
+    }
+
     try {
-      SystemEvent systemEvent = new SystemEvent(EVENT_CACHAGNE, lockInstanceId,
-          System.currentTimeMillis() / 1000L);
-      queryExecutor.changeSystemEvent(systemEvent);
-      LOG.info("notified the change of CA system");
+      if (changes.isEmpty()) {
+        // the changes are unknown, e.g. made directly in the database
+        SystemEvent systemEvent = new SystemEvent(EVENT_CACHAGNE, lockInstanceId,
+            System.currentTimeMillis() / 1000L);
+        queryExecutor.changeSystemEvent(systemEvent);
+        LOG.info("notified the change of CA system");
+      } else {
+        // the slave CAs read the events after their last read time, hence the events must be
+        // committed in the order of their time.
+        synchronized (changeEventLock) {
+          long time = Math.max(System.currentTimeMillis(), lastChangeEventTime + 1);
+          queryExecutor.deleteChangeEvents(time - CHANGE_EVENT_KEEP_MS);
+          queryExecutor.addChangeEvents(time, changes);
+          lastChangeEventTime = time;
+        }
+        LOG.info("notified the change of CA system: {}", changes);
+      }
     } catch (CaMgmtException ex) {
+      synchronized (pendingChanges) {
+        pendingChanges.addAll(changes);
+      }
       LogUtil.warn(LOG, ex, "could not notify slave CAs to restart");
       throw ex;
     }
   } // method notifyCaChange
 
+  private void recordChange(String type, String name) {
+    synchronized (pendingChanges) {
+      pendingChanges.add(ChangeEvent.encode(type, name));
+    }
+  } // method recordChange
+
+  private void applyChangeEvents() throws CaMgmtException {
+    // The change events are deleted after CHANGE_EVENT_KEEP_MS. If they have not been read for
+    // nearly as long, some of them may be lost and only a restart loads all changes.
+    long now = System.currentTimeMillis();
+    if (now - lastChangeEventCheckTime > CHANGE_EVENT_KEEP_MS - CHANGE_EVENT_MARGIN_MS) {
+      LOG.warn("change events not read since {}, restart CA system",
+          new Date(lastChangeEventCheckTime));
+      restartCaSystem();
+      return;
+    }
+
+    List<ChangeEvent> events = queryExecutor.getChangeEvents(lastChangeEventTime);
+    lastChangeEventCheckTime = now;
+    if (events.isEmpty()) {
+      LOG.debug("received no change event");
+      return;
+    }
+
+    // The entities are reloaded with their current state in the database, hence each entity
+    // once. The CAs are reloaded after the entities they refer to, the CA aliases after the CAs.
+    Map<String, Set<String>> changes = new HashMap<>();
+    for (ChangeEvent event : events) {
+      LOG.info("received change event {}", event);
+      Set<String> names = changes.get(event.getType());
+      if (names == null) {
+        names = new LinkedHashSet<>();
+        changes.put(event.getType(), names);
+      }
+      names.add(event.getName());
+      lastChangeEventTime = Math.max(lastChangeEventTime, event.getTime());
+    }
+
+    String[] types = {ChangeEvent.TYPE_SIGNER, ChangeEvent.TYPE_REQUESTOR,
+        ChangeEvent.TYPE_PUBLISHER, ChangeEvent.TYPE_PROFILE, ChangeEvent.TYPE_CA,
+        ChangeEvent.TYPE_CAALIAS, ChangeEvent.TYPE_USER};
+    for (String type : types) {
+      Set<String> names = changes.remove(type);
+      if (names == null) {
+        continue;
+      }
+
+      for (String name : names) {
+        try {
+          reloadEntity(type, name);
+        } catch (CaMgmtException | RuntimeException ex) {
+          LogUtil.error(LOG, ex, concat("could not reload ", type, " ", name));
+        }
+      }
+    }
+
+    if (!changes.isEmpty()) {
+      LOG.warn("received change events of unknown type {}, restart CA system", changes.keySet());
+      restartCaSystem();
+    }
+  } // method applyChangeEvents
+
+  private void reloadEntity(String type, String name) throws CaMgmtException {
+    if (ChangeEvent.TYPE_SIGNER.equals(type)) {
+      reloadSigner(name);
+    } else if (ChangeEvent.TYPE_REQUESTOR.equals(type)) {
+      reloadRequestor(name);
+    } else if (ChangeEvent.TYPE_PUBLISHER.equals(type)) {
+      reloadPublisher(name);
+    } else if (ChangeEvent.TYPE_PROFILE.equals(type)) {
+      reloadCertprofile(name);
+    } else if (ChangeEvent.TYPE_CA.equals(type)) {
+      reloadCa(name);
+    } else if (ChangeEvent.TYPE_CAALIAS.equals(type)) {
+      Map<String, Integer> map = queryExecutor.createCaAliases();
+      caAliases.keySet().retainAll(map.keySet());
+      caAliases.putAll(map);
+      LOG.info("reloaded caAliases: {}", caAliases);
+    } else if (ChangeEvent.TYPE_USER.equals(type)) {
+      certstore.invalidateUserCache(name);
+    } else {
+      throw new IllegalStateException("unknown type " + type);
+    }
+  } // method reloadEntity
+
+  private void reloadSigner(String name) throws CaMgmtException {
+    if (!queryExecutor.namesFromTable("SIGNER").contains(name)) {
+      signerDbEntries.remove(name);
+      closeSigner(signers.remove(name));
+      LOG.info("removed signer {}", name);
+      return;
+    }
+
+    MgmtEntry.Signer entry = queryExecutor.createSigner(name);
+    entry.setConfFaulty(true);
+    SignerEntryWrapper signer = null;
+    try {
+      signer = createSigner(entry);
+      entry.setConfFaulty(false);
+    } catch (CaMgmtException ex) {
+      LogUtil.error(LOG, ex, "could not load signer " + name);
+    }
+
+    signerDbEntries.put(name, entry);
+    if (signer == null) {
+      closeSigner(signers.remove(name));
+      return;
+    }
+
+    SignerEntryWrapper oldSigner = signers.put(name, signer);
+    for (String caName : scepResponders.keySet()) {
+      if (name.equals(getCa(caName).getScepResponderName())) {
+        scepResponders.get(caName).setResponder(signer);
+      }
+    }
+    closeSigner(oldSigner);
+    LOG.info("reloaded signer {}", name);
+  } // method reloadSigner
+
+  private static void closeSigner(SignerEntryWrapper signer) {
+    if (signer != null) {
+      signer.close();
+    }
+  } // method closeSigner
+
+  private void reloadRequestor(String name) throws CaMgmtException {
+    if (!queryExecutor.namesFromTable("REQUESTOR").contains(name)) {
+      idNameMap.removeRequestor(name);
+      requestorDbEntries.remove(name);
+      requestors.remove(name);
+      LOG.info("removed requestor {}", name);
+      return;
+    }
+
+    MgmtEntry.Requestor entry = queryExecutor.createRequestor(name);
+    RequestorEntryWrapper requestor = new RequestorEntryWrapper();
+    requestor.setDbEntry(entry, securityFactory.getPasswordResolver());
+
+    idNameMap.addRequestor(entry.getIdent());
+    requestorDbEntries.put(name, entry);
+    requestors.put(name, requestor);
+    LOG.info("reloaded requestor {}", name);
+  } // method reloadRequestor
+
+  private void reloadPublisher(String name) throws CaMgmtException {
+    if (!queryExecutor.namesFromTable("PUBLISHER").contains(name)) {
+      idNameMap.removePublisher(name);
+      publisherDbEntries.remove(name);
+      shutdownPublisher(publishers.remove(name));
+      for (Set<String> names : caHasPublishers.values()) {
+        names.remove(name);
+      }
+      LOG.info("removed publisher {}", name);
+      return;
+    }
+
+    MgmtEntry.Publisher entry = queryExecutor.createPublisher(name);
+    entry.setFaulty(true);
+    IdentifiedCertPublisher publisher = null;
+    try {
+      publisher = createPublisher(entry);
+      entry.setFaulty(false);
+    } catch (CaMgmtException ex) {
+      LogUtil.error(LOG, ex, "could not load publisher " + name);
+    }
+
+    idNameMap.addPublisher(entry.getIdent());
+    publisherDbEntries.put(name, entry);
+    IdentifiedCertPublisher oldPublisher = (publisher == null)
+        ? publishers.remove(name) : publishers.put(name, publisher);
+    shutdownPublisher(oldPublisher);
+    LOG.info("reloaded publisher {}", name);
+  } // method reloadPublisher
+
+  private void reloadCertprofile(String name) throws CaMgmtException {
+    if (!queryExecutor.namesFromTable("PROFILE").contains(name)) {
+      idNameMap.removeCertprofile(name);
+      certprofileDbEntries.remove(name);
+      shutdownCertprofile(certprofiles.remove(name));
+      for (Set<String> names : caHasProfiles.values()) {
+        names.remove(name);
+      }
+      LOG.info("removed certprofile {}", name);
+      return;
+    }
+
+    MgmtEntry.Certprofile entry = queryExecutor.createCertprofile(name);
+    entry.setFaulty(true);
+    IdentifiedCertprofile profile = null;
+    try {
+      profile = createCertprofile(entry);
+      entry.setFaulty(false);
+    } catch (CaMgmtException ex) {
+      LogUtil.error(LOG, ex, "could not load certprofile " + name);
+    }
+
+    idNameMap.addCertprofile(entry.getIdent());
+    certprofileDbEntries.put(name, entry);
+    IdentifiedCertprofile oldProfile = (profile == null)
+        ? certprofiles.remove(name) : certprofiles.put(name, profile);
+    shutdownCertprofile(oldProfile);
+    LOG.info("reloaded certprofile {}", name);
+  } // method reloadCertprofile
+
+  private void reloadCa(String name) throws CaMgmtException {
+    if (!queryExecutor.namesFromTable("CA").contains(name)) {
+      caInfos.remove(name);
+      idNameMap.removeCa(name);
+      caHasProfiles.remove(name);
+      caHasPublishers.remove(name);
+      caHasRequestors.remove(name);
+      stopCa(name);
+      LOG.info("removed CA {}", name);
+      return;
+    }
+
+    if (!createCa(name)) {
+      LOG.error("could not create CA {}", name);
+      return;
+    }
+
+    if (CaStatus.ACTIVE == caInfos.get(name).getCaEntry().getStatus()) {
+      if (startCa(name)) {
+        LOG.info("reloaded CA {}", name);
+      } else {
+        LOG.error("could not start CA {}", name);
+      }
+    }
+  } // method reloadCa
+
   public void startCaSystem() {
     boolean caSystemStarted = false;
     try {
@@ -609,6 +917,12 @@ public class CaManagerImpl implements CaManager, Closeable {
     initializing = true;
     shutdownScheduledThreadPoolExecutor();
 
+    // the CAs of the previous start write their pending publish events before the
+    // certstore is re-created
+    for (X509Ca ca : x509cas.values()) {
+      ca.close();
+    }
+
     try {
       LOG.info("starting CA system");
       try {
@@ -735,7 +1049,10 @@ public class CaManagerImpl implements CaManager, Closeable {
           }
         }
       }
-      ctlogClient = new CtLogClient(ctlogControl.getServers(), ctxConf);
+      // the number of concurrently issued certificates is limited by the signers
+      ctlogClient = new CtLogClient(ctlogControl.getServers(), ctxConf,
+          ctlogControl.getTimeout(), ctlogControl.getQuorum(),
+          securityFactory.getDfltSignerParallelism());
     }
 
     X509Ca ca;
@@ -743,31 +1060,56 @@ public class CaManagerImpl implements CaManager, Closeable {
       ca = new X509Ca(this, caEntry, certstore, ctlogClient);
     } catch (OperationException ex) {
       LogUtil.error(LOG, ex, concat("X509CA.<init> (ca=", caName, ")"));
+      stopCa(caName);
       return false;
     }
 
-    x509cas.put(caName, ca);
     CmpResponder caResponder;
     try {
       caResponder = new CmpResponder(this, caName);
     } catch (NoSuchAlgorithmException ex) {
       LogUtil.error(LOG, ex, concat("CmpResponderImpl.<init> (ca=", caName, ")"));
+      ca.close();
+      stopCa(caName);
       return false;
     }
 
-    cmpResponders.put(caName, caResponder);
-
+    ScepResponder scepResponder = null;
     if (caEntry.getScepResponderName() != null) {
       try {
-        scepResponders.put(caName, new ScepResponder(this, caEntry.getCaEntry()));
+        scepResponder = new ScepResponder(this, caEntry.getCaEntry());
       } catch (CaMgmtException ex) {
         LogUtil.error(LOG, ex, concat("X509CA.<init> (scep=", caName, ")"));
+        ca.close();
+        stopCa(caName);
         return false;
       }
     }
+
+    // replace the previous CA only after the new one is completely initialized
+    X509Ca oldCa = x509cas.put(caName, ca);
+    cmpResponders.put(caName, caResponder);
+    if (scepResponder == null) {
+      scepResponders.remove(caName);
+    } else {
+      scepResponders.put(caName, scepResponder);
+    }
+
+    if (oldCa != null && oldCa != ca) {
+      oldCa.close();
+    }
     return true;
   } // method startCa
 
+  private void stopCa(String caName) {
+    X509Ca ca = x509cas.remove(caName);
+    cmpResponders.remove(caName);
+    scepResponders.remove(caName);
+    if (ca != null) {
+      ca.close();
+    }
+  } // method stopCa
+
   @Override
   public void close() {
     LOG.info("stopping CA system");
@@ -794,6 +1136,15 @@ public class CaManagerImpl implements CaManager, Closeable {
       }
     }
 
+    if (certstore != null) {
+      certstore.close();
+    }
+
+    if (keypairPool != null) {
+      keypairPool.close();
+      keypairPool = null;
+    }
+
     if (caLockedByMe) {
       try {
         unlockCa();
@@ -1076,24 +1427,11 @@ public class CaManagerImpl implements CaManager, Closeable {
   } // method initCas
 
   private boolean createCa(String name) throws CaMgmtException {
-    caInfos.remove(name);
-    idNameMap.removeCa(name);
-    caHasProfiles.remove(name);
-    caHasPublishers.remove(name);
-    caHasRequestors.remove(name);
-    X509Ca oldCa = x509cas.remove(name);
-    cmpResponders.remove(name);
-    scepResponders.remove(name);
-    if (oldCa != null) {
-      oldCa.close();
-    }
-
+    // the new state is built before it replaces the old one, the requests processed in the
+    // meantime are served by the previous CA.
     CaInfo ca = queryExecutor.createCaInfo(name, masterMode, certstore);
     LOG.info("created CA {}: {}", name, ca.toString(false));
-    caInfos.put(name, ca);
-    idNameMap.addCa(ca.getIdent());
     Set<MgmtEntry.CaHasRequestor> caReqEntries = queryExecutor.createCaHasRequestors(ca.getIdent());
-    caHasRequestors.put(name, caReqEntries);
     if (LOG.isInfoEnabled()) {
       StringBuilder sb = new StringBuilder();
       for (MgmtEntry.CaHasRequestor entry : caReqEntries) {
@@ -1107,7 +1445,6 @@ public class CaManagerImpl implements CaManager, Closeable {
     for (Integer id : profileIds) {
       profileNames.add(idNameMap.getCertprofileName(id));
     }
-    caHasProfiles.put(name, profileNames);
     LOG.info("CA {} is associated with following profiles: {}", name, profileNames);
 
     Set<Integer> publisherIds = queryExecutor.createCaHasPublishers(ca.getIdent());
@@ -1115,9 +1452,23 @@ public class CaManagerImpl implements CaManager, Closeable {
     for (Integer id : publisherIds) {
       publisherNames.add(idNameMap.getPublisherName(id));
     }
-    caHasPublishers.put(name, publisherNames);
     LOG.info("CA {} is associated with following publishers: {}", name, publisherNames);
 
+    NameId oldIdent = idNameMap.getCa(name);
+    if (oldIdent != null && !oldIdent.getId().equals(ca.getIdent().getId())) {
+      idNameMap.removeCa(name);
+    }
+    idNameMap.addCa(ca.getIdent());
+    caInfos.put(name, ca);
+    caHasRequestors.put(name, caReqEntries);
+    caHasProfiles.put(name, profileNames);
+    caHasPublishers.put(name, publisherNames);
+
+    // an active CA is replaced by startCa()
+    if (CaStatus.ACTIVE != ca.getCaEntry().getStatus()) {
+      stopCa(name);
+    }
+
     return true;
   } // method createCa
 
@@ -1177,6 +1528,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addCa(caEntry);
+    recordChange(ChangeEvent.TYPE_CA, name);
     if (createCa(name)) {
       if (startCa(name)) {
         LOG.info("started CA {}", name);
@@ -1207,6 +1559,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     entry.getIdent().setId(ident.getId());
 
     queryExecutor.changeCa(entry, caInfos.get(name).getCaEntry(), securityFactory);
+    recordChange(ChangeEvent.TYPE_CA, name);
 
     if (createCa(name)) {
       CaInfo caInfo = caInfos.get(name);
@@ -1231,6 +1584,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removeCertprofileFromCa(profileName, caName);
+    recordChange(ChangeEvent.TYPE_CA, caName);
 
     if (caHasProfiles.containsKey(caName)) {
       Set<String> set = caHasProfiles.get(caName);
@@ -1272,6 +1626,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addCertprofileToCa(ident, caIdent);
+    recordChange(ChangeEvent.TYPE_CA, caName);
     set.add(profileName);
   } // method addCertprofileToCa
 
@@ -1282,6 +1637,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removePublisherFromCa(publisherName, caName);
+    recordChange(ChangeEvent.TYPE_CA, caName);
 
     Set<String> publisherNames = caHasPublishers.get(caName);
     if (publisherNames != null) {
@@ -1322,6 +1678,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addPublisherToCa(idNameMap.getPublisher(publisherName), caIdent);
+    recordChange(ChangeEvent.TYPE_CA, caName);
     publisherNames.add(publisherName);
     caHasPublishers.get(caName).add(publisherName);
 
@@ -1376,6 +1733,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     requestor.setDbEntry(requestorEntry, pwdResolver);
 
     queryExecutor.addRequestor(requestorEntry);
+    recordChange(ChangeEvent.TYPE_REQUESTOR, name);
     idNameMap.addRequestor(requestorEntry.getIdent());
     requestorDbEntries.put(name, requestorEntry);
     requestors.put(name, requestor);
@@ -1403,6 +1761,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (!queryExecutor.deleteRowWithName(name, "REQUESTOR")) {
       throw new CaMgmtException("unknown requestor " + name);
     }
+    recordChange(ChangeEvent.TYPE_REQUESTOR, name);
 
     idNameMap.removeRequestor(requestorDbEntries.get(name).getIdent().getId());
     requestorDbEntries.remove(name);
@@ -1425,6 +1784,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     RequestorEntryWrapper requestor = queryExecutor.changeRequestor(ident, type, conf,
         securityFactory.getPasswordResolver());
+    recordChange(ChangeEvent.TYPE_REQUESTOR, name);
 
     requestorDbEntries.remove(name);
     requestors.remove(name);
@@ -1445,6 +1805,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.removeRequestorFromCa(requestorName, caName);
+    recordChange(ChangeEvent.TYPE_CA, caName);
     if (caHasRequestors.containsKey(caName)) {
       Set<MgmtEntry.CaHasRequestor> entries = caHasRequestors.get(caName);
       MgmtEntry.CaHasRequestor entry = null;
@@ -1496,6 +1857,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     cmpRequestors.add(requestor);
     queryExecutor.addRequestorToCa(requestor, caIdent);
+    recordChange(ChangeEvent.TYPE_CA, caName);
     caHasRequestors.get(caName).add(requestor);
   } // method addRequestorToCa
 
@@ -1506,6 +1868,8 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removeUserFromCa(userName, caName);
+    recordChange(ChangeEvent.TYPE_USER, userName);
+    certstore.invalidateUserCache(userName);
   } // method removeUserFromCa
 
   @Override
@@ -1519,6 +1883,8 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addUserToCa(user, ca.getCaIdent());
+    certstore.invalidateUserCache(user.getUserIdent().getName().toLowerCase());
+    recordChange(ChangeEvent.TYPE_USER, user.getUserIdent().getName().toLowerCase());
   } // method addUserToCa
 
   @Override
@@ -1549,6 +1915,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     LOG.info("removed profile '{}'", name);
+    recordChange(ChangeEvent.TYPE_PROFILE, name);
     idNameMap.removeCertprofile(certprofileDbEntries.get(name).getIdent().getId());
     certprofileDbEntries.remove(name);
     IdentifiedCertprofile profile = certprofiles.remove(name);
@@ -1573,6 +1940,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     IdentifiedCertprofile profile = queryExecutor.changeCertprofile(ident, type, conf, this);
+    recordChange(ChangeEvent.TYPE_PROFILE, name);
 
     certprofileDbEntries.remove(name);
     IdentifiedCertprofile oldProfile = certprofiles.remove(name);
@@ -1602,6 +1970,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     certprofileEntry.setFaulty(false);
     certprofiles.put(name, profile);
     queryExecutor.addCertprofile(certprofileEntry);
+    recordChange(ChangeEvent.TYPE_PROFILE, name);
     idNameMap.addCertprofile(certprofileEntry.getIdent());
     certprofileDbEntries.put(name, certprofileEntry);
   } // method addCertprofile
@@ -1625,6 +1994,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     SignerEntryWrapper signer = createSigner(signerEntry);
     queryExecutor.addSigner(signerEntry);
+    recordChange(ChangeEvent.TYPE_SIGNER, name);
     signers.put(name, signer);
     signerDbEntries.put(name, signerEntry);
   } // method addSigner
@@ -1657,6 +2027,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     signerDbEntries.remove(name);
     signers.remove(name);
     LOG.info("removed signer '{}'", name);
+    recordChange(ChangeEvent.TYPE_SIGNER, name);
   } // method removeSigner
 
   @Override
@@ -1674,6 +2045,7 @@ public class CaManagerImpl implements CaManager, Closeable {
 
     SignerEntryWrapper newResponder = queryExecutor.changeSigner(name, type, conf,
         base64Cert, this, securityFactory);
+    recordChange(ChangeEvent.TYPE_SIGNER, name);
 
     signers.remove(name);
     signerDbEntries.remove(name);
@@ -1711,6 +2083,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     entry.setFaulty(false);
 
     queryExecutor.addPublisher(entry);
+    recordChange(ChangeEvent.TYPE_PUBLISHER, name);
 
     publishers.put(name, publisher);
     idNameMap.addPublisher(entry.getIdent());
@@ -1755,6 +2128,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     LOG.info("removed publisher '{}'", name);
+    recordChange(ChangeEvent.TYPE_PUBLISHER, name);
     publisherDbEntries.remove(name);
     IdentifiedCertPublisher publisher = publishers.remove(name);
     shutdownPublisher(publisher);
@@ -1772,6 +2146,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     IdentifiedCertPublisher publisher = queryExecutor.changePublisher(name, type, conf, this);
+    recordChange(ChangeEvent.TYPE_PUBLISHER, name);
 
     IdentifiedCertPublisher oldPublisher = publishers.remove(name);
     shutdownPublisher(oldPublisher);
@@ -1804,6 +2179,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.addCaAlias(aliasName, ca.getCaIdent());
+    recordChange(ChangeEvent.TYPE_CAALIAS, aliasName);
     caAliases.put(aliasName, ca.getCaIdent().getId());
   } // method addCaAlias
 
@@ -1812,6 +2188,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     name = Args.toNonBlankLower(name, "name");
     assertMasterModeAndSetuped();
     queryExecutor.removeCaAlias(name);
+    recordChange(ChangeEvent.TYPE_CAALIAS, name);
     caAliases.remove(name);
   } // method removeCaAlias
 
@@ -1872,6 +2249,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     assertMasterModeAndSetuped();
 
     queryExecutor.removeCa(name);
+    recordChange(ChangeEvent.TYPE_CA, name);
 
     LOG.info("removed CA '{}'", name);
     caInfos.remove(name);
@@ -1928,6 +2306,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     }
 
     queryExecutor.revokeCa(caName, revocationInfo);
+    recordChange(ChangeEvent.TYPE_CA, caName);
 
     try {
       ca.revokeCa(revocationInfo, CaAuditConstants.MSGID_ca_mgmt);
@@ -1950,6 +2329,7 @@ public class CaManagerImpl implements CaManager, Closeable {
     LOG.info("unrevoking of CA '{}'", caName);
 
     queryExecutor.unrevokeCa(caName);
+    recordChange(ChangeEvent.TYPE_CA, caName);
 
     X509Ca ca = x509cas.get(caName);
     try {
@@ -2366,6 +2746,8 @@ public class CaManagerImpl implements CaManager, Closeable {
   public void changeUser(MgmtEntry.ChangeUser changeUserEntry) throws CaMgmtException {
     assertMasterModeAndSetuped();
     queryExecutor.changeUser(changeUserEntry);
+    certstore.invalidateUserCache(changeUserEntry.getIdent().getName().toLowerCase());
+    recordChange(ChangeEvent.TYPE_USER, changeUserEntry.getIdent().getName().toLowerCase());
   }
 
   @Override
@@ -2375,6 +2757,8 @@ public class CaManagerImpl implements CaManager, Closeable {
     if (!queryExecutor.deleteRowWithName(username, "TUSER")) {
       throw new CaMgmtException("unknown user " + username);
     }
+    certstore.invalidateUserCache(username);
+    recordChange(ChangeEvent.TYPE_USER, username);
   } // method removeUser
 
   @Override
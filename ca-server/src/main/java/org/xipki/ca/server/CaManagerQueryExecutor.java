@@ -26,7 +26,11 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -154,6 +158,73 @@ class CaManagerQueryExecutor {
 
   } // class SystemEvent
 
+  /**
+   * Change of one entity, stored in the table SYSTEM_EVENT with the name
+   * CHANGE.&lt;time in ms&gt;.&lt;index&gt;, and &lt;type&gt;:&lt;entity name&gt; as owner.
+   *
+   * @since 5.3.8
+   */
+  static class ChangeEvent {
+
+    static final String TYPE_CA = "CA";
+
+    static final String TYPE_CAALIAS = "CAALIAS";
+
+    static final String TYPE_PROFILE = "PROFILE";
+
+    static final String TYPE_PUBLISHER = "PUBLISHER";
+
+    static final String TYPE_REQUESTOR = "REQUESTOR";
+
+    static final String TYPE_SIGNER = "SIGNER";
+
+    static final String TYPE_USER = "USER";
+
+    private static final String NAME_PREFIX = "CHANGE.";
+
+    private final String type;
+
+    private final String name;
+
+    private final long time;
+
+    private final int index;
+
+    ChangeEvent(String type, String name, long time, int index) {
+      this.type = Args.notBlank(type, "type");
+      this.name = Args.notBlank(name, "name");
+      this.time = time;
+      this.index = index;
+    }
+
+    static String encode(String type, String name) {
+      return type + ":" + name;
+    }
+
+    public String getType() {
+      return type;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Returns the time of the change notification.
+     *
+     * @return milliseconds since January 1, 1970, 00:00:00 GMT.
+     */
+    public long getTime() {
+      return time;
+    }
+
+    @Override
+    public String toString() {
+      return encode(type, name);
+    }
+
+  } // class ChangeEvent
+
   private static final Logger LOG = LoggerFactory.getLogger(CaManagerQueryExecutor.class);
 
   private static final ColumnType INT = ColumnType.INT;
@@ -314,6 +385,133 @@ class CaManagerQueryExecutor {
     addSystemEvent(systemEvent);
   } // method changeSystemEvent
 
+  /**
+   * Adds the changed entities.
+   *
+   * @param time
+   *          Time of the change notification in milliseconds, must be greater than that of the
+   *          previous notification.
+   * @param changes
+   *          Changed entities, each encoded via {@link ChangeEvent#encode(String, String)}.
+   * @throws CaMgmtException
+   *            If error occurs.
+   */
+  void addChangeEvents(long time, Collection<String> changes) throws CaMgmtException {
+    final String sql =
+        "INSERT INTO SYSTEM_EVENT (NAME,EVENT_TIME,EVENT_TIME2,EVENT_OWNER) VALUES (?,?,?,?)";
+
+    PreparedStatement ps = null;
+    try {
+      ps = prepareStatement(sql);
+      int index = 0;
+      for (String change : changes) {
+        ps.setString(1, ChangeEvent.NAME_PREFIX + time + "." + index++);
+        ps.setLong(2, time / 1000L);
+        ps.setTimestamp(3, new Timestamp(time));
+        ps.setString(4, change);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException ex) {
+      throw new CaMgmtException(datasource.translate(sql, ex));
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method addChangeEvents
+
+  /**
+   * Retrieves the changed entities notified after the given time, ordered by the time.
+   *
+   * @param afterTime
+   *          Time in milliseconds.
+   * @return the change events.
+   * @throws CaMgmtException
+   *            If error occurs.
+   */
+  List<ChangeEvent> getChangeEvents(long afterTime) throws CaMgmtException {
+    final String sql = "SELECT NAME,EVENT_OWNER FROM SYSTEM_EVENT "
+        + "WHERE NAME LIKE 'CHANGE.%' AND EVENT_TIME>=?";
+    PreparedStatement ps = null;
+    ResultSet rs = null;
+
+    List<ChangeEvent> events = new ArrayList<>();
+    try {
+      ps = prepareStatement(sql);
+      ps.setLong(1, afterTime / 1000L);
+      rs = ps.executeQuery();
+
+      while (rs.next()) {
+        String name = rs.getString("NAME");
+        String owner = rs.getString("EVENT_OWNER");
+        String[] tokens = name.substring(ChangeEvent.NAME_PREFIX.length()).split("\\.");
+        int idx = owner.indexOf(':');
+        if (tokens.length != 2 || idx < 1) {
+          LOG.warn("ignore invalid change event {}: {}", name, owner);
+          continue;
+        }
+
+        long time;
+        int index;
+        try {
+          time = Long.parseLong(tokens[0]);
+          index = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException ex) {
+          LOG.warn("ignore invalid change event {}: {}", name, owner);
+          continue;
+        }
+
+        if (time > afterTime) {
+          events.add(
+              new ChangeEvent(owner.substring(0, idx), owner.substring(idx + 1), time, index));
+        }
+      }
+    } catch (SQLException ex) {
+      throw new CaMgmtException(datasource.translate(sql, ex));
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+
+    Collections.sort(events, new Comparator<ChangeEvent>() {
+      @Override
+      public int compare(ChangeEvent o1, ChangeEvent o2) {
+        int diff = Long.compare(o1.time, o2.time);
+        return (diff != 0) ? diff : Integer.compare(o1.index, o2.index);
+      }
+    });
+    return events;
+  } // method getChangeEvents
+
+  /**
+   * Deletes the change events notified before the given time.
+   *
+   * @param beforeTime
+   *          Time in milliseconds.
+   * @throws CaMgmtException
+   *            If error occurs.
+   */
+  void deleteChangeEvents(long beforeTime) throws CaMgmtException {
+    final String sql = "DELETE FROM SYSTEM_EVENT WHERE NAME LIKE 'CHANGE.%' AND EVENT_TIME<?";
+    PreparedStatement ps = null;
+
+    try {
+      ps = prepareStatement(sql);
+      ps.setLong(1, beforeTime / 1000L);
+      ps.executeUpdate();
+    } catch (SQLException ex) {
+      throw new CaMgmtException(datasource.translate(sql, ex));
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method deleteChangeEvents
+
+  long getLastChangeEventTime() throws CaMgmtException {
+    long time = 0;
+    for (ChangeEvent event : getChangeEvents(0)) {
+      time = Math.max(time, event.getTime());
+    }
+    return time;
+  } // method getLastChangeEventTime
+
   Map<String, Integer> createCaAliases() throws CaMgmtException {
     Map<String, Integer> map = new HashMap<>();
 
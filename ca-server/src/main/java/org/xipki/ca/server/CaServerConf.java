@@ -126,6 +126,268 @@ public class CaServerConf extends ValidatableConf {
 
   }
 
+  public static class KeypairPoolConf extends ValidatableConf {
+
+    /**
+     * whether the keypairs generated by the CA are taken from a pool, default to false.
+     */
+    private boolean enabled;
+
+    /**
+     * the pool is refilled if it contains less keypairs than this value, at least 1.
+     */
+    private int lowWatermark = 10;
+
+    /**
+     * the pool is refilled up to this number of keypairs.
+     */
+    private int highWatermark = 50;
+
+    /**
+     * number of threads generating the keypairs.
+     */
+    private int threads = 2;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getLowWatermark() {
+      return lowWatermark;
+    }
+
+    public void setLowWatermark(int lowWatermark) {
+      this.lowWatermark = lowWatermark;
+    }
+
+    public int getHighWatermark() {
+      return highWatermark;
+    }
+
+    public void setHighWatermark(int highWatermark) {
+      this.highWatermark = highWatermark;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = threads;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (lowWatermark < 1) {
+        throw new InvalidConfException("lowWatermark is not positive");
+      }
+
+      if (highWatermark < 1 || highWatermark < lowWatermark) {
+        throw new InvalidConfException("highWatermark is not positive or less than lowWatermark");
+      }
+
+      if (threads < 1) {
+        throw new InvalidConfException("threads is not positive");
+      }
+    }
+
+  } // class KeypairPoolConf
+
+  public static class AsyncPublishConf extends ValidatableConf {
+
+    /**
+     * whether the certificates are published asynchronously, default to false.
+     */
+    private boolean enabled;
+
+    /**
+     * maximal number of events waiting for each publisher. If the queue is full, the events
+     * are written to the table PUBLISHQUEUE.
+     */
+    private int queueSize = 10000;
+
+    /**
+     * maximal number of events delivered to a publisher at once.
+     */
+    private int batchSize = 100;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public int getQueueSize() {
+      return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+      this.queueSize = queueSize;
+    }
+
+    public int getBatchSize() {
+      return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (queueSize < 1) {
+        throw new InvalidConfException("queueSize is not positive");
+      }
+
+      if (batchSize < 1) {
+        throw new InvalidConfException("batchSize is not positive");
+      }
+    }
+
+  } // class AsyncPublishConf
+
+  public static class UniquenessFilterConf extends ValidatableConf {
+
+    /**
+     * whether the FP_K and FP_S of the certificates are kept in in-memory Bloom filters to
+     * skip most of the database queries checking duplicated keys and subjects, default to
+     * false. Can only be enabled together with singleInstance.
+     */
+    private boolean enabled;
+
+    /**
+     * confirms that this CA system, in master mode, is the only one issuing certificates in the
+     * database. The filters only contain the certificates issued by this CA system, hence the
+     * certificates issued by other CA systems would not be detected as duplicates.
+     */
+    private boolean singleInstance;
+
+    /**
+     * minimal number of certificates per CA the filters are dimensioned for. The filters
+     * have room for at least twice the number of existing certificates.
+     */
+    private long minEntries = 1000000;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public boolean isSingleInstance() {
+      return singleInstance;
+    }
+
+    public void setSingleInstance(boolean singleInstance) {
+      this.singleInstance = singleInstance;
+    }
+
+    public long getMinEntries() {
+      return minEntries;
+    }
+
+    public void setMinEntries(long minEntries) {
+      this.minEntries = minEntries;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (minEntries < 1) {
+        throw new InvalidConfException("minEntries is not positive");
+      }
+
+      if (enabled && !singleInstance) {
+        throw new InvalidConfException(
+            "uniquenessFilter can only be enabled if singleInstance is true");
+      }
+    }
+
+  } // class UniquenessFilterConf
+
+  public static class UserAuthCacheConf extends ValidatableConf {
+
+    /**
+     * maximal number of users whose successful authentication is cached, default to 1000.
+     */
+    private int size = 1000;
+
+    /**
+     * time in seconds a successful authentication is cached, default to 300.
+     */
+    private int ttl = 300;
+
+    /**
+     * maximal number of failed authentications of one user within the failure window, further
+     * authentications are rejected until the window ends. Default to 10.
+     */
+    private int maxFailures = 10;
+
+    /**
+     * length of the failure window in seconds, default to 60.
+     */
+    private int failureWindow = 60;
+
+    public int getSize() {
+      return size;
+    }
+
+    public void setSize(int size) {
+      this.size = size;
+    }
+
+    public int getTtl() {
+      return ttl;
+    }
+
+    public void setTtl(int ttl) {
+      this.ttl = ttl;
+    }
+
+    public int getMaxFailures() {
+      return maxFailures;
+    }
+
+    public void setMaxFailures(int maxFailures) {
+      this.maxFailures = maxFailures;
+    }
+
+    public int getFailureWindow() {
+      return failureWindow;
+    }
+
+    public void setFailureWindow(int failureWindow) {
+      this.failureWindow = failureWindow;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (size < 1) {
+        throw new InvalidConfException("size is not positive");
+      }
+
+      if (ttl < 1) {
+        throw new InvalidConfException("ttl is not positive");
+      }
+
+      if (maxFailures < 1) {
+        throw new InvalidConfException("maxFailures is not positive");
+      }
+
+      if (failureWindow < 1) {
+        throw new InvalidConfException("failureWindow is not positive");
+      }
+    }
+
+  } // class UserAuthCacheConf
+
   private AuditConf audit;
 
   private SecurityConf security;
@@ -143,12 +405,46 @@ public class CaServerConf extends ValidatableConf {
    */
   private int shardId = 0;
 
+  /**
+   * number of rows fetched from the database in one round trip while reading large result
+   * sets of the certstore, e.g. for the CRL generation. Default to 1000.
+   */
+  private int certstoreFetchSize = 1000;
+
+  /**
+   * maximal number of certificates written to the database in one batch and one commit.
+   * Certificates issued concurrently are collected in one batch, and each request is
+   * answered after the commit. Default to 1, which writes each certificate in its own
+   * transaction.
+   */
+  private int certstoreInsertBatchSize = 1;
+
+  /**
+   * maximal time in milliseconds to wait for further certificates if a batch is not full.
+   * Default to 0, which writes only the certificates which are already waiting.
+   */
+  private int certstoreInsertMaxDelay = 0;
+
+  /**
+   * number of threads to publish the certificates in the table PUBLISHQUEUE.
+   * Default to 2.
+   */
+  private int publishQueueThreads = 2;
+
   private List<DataSourceConf> datasources;
 
   private List<SslContext> sslContexts;
 
   private CtLogConf ctLog;
 
+  private KeypairPoolConf keypairPool;
+
+  private AsyncPublishConf asyncPublish;
+
+  private UniquenessFilterConf uniquenessFilter;
+
+  private UserAuthCacheConf userAuthCache;
+
   /**
    * list of classes that implement org.xipki.ca.api.profile.CertprofileFactory
    */
@@ -184,6 +480,38 @@ public class CaServerConf extends ValidatableConf {
     this.shardId = shardId;
   }
 
+  public int getCertstoreFetchSize() {
+    return certstoreFetchSize;
+  }
+
+  public void setCertstoreFetchSize(int certstoreFetchSize) {
+    this.certstoreFetchSize = certstoreFetchSize;
+  }
+
+  public int getCertstoreInsertBatchSize() {
+    return certstoreInsertBatchSize;
+  }
+
+  public void setCertstoreInsertBatchSize(int certstoreInsertBatchSize) {
+    this.certstoreInsertBatchSize = certstoreInsertBatchSize;
+  }
+
+  public int getCertstoreInsertMaxDelay() {
+    return certstoreInsertMaxDelay;
+  }
+
+  public void setCertstoreInsertMaxDelay(int certstoreInsertMaxDelay) {
+    this.certstoreInsertMaxDelay = certstoreInsertMaxDelay;
+  }
+
+  public int getPublishQueueThreads() {
+    return publishQueueThreads;
+  }
+
+  public void setPublishQueueThreads(int publishQueueThreads) {
+    this.publishQueueThreads = publishQueueThreads;
+  }
+
   public List<DataSourceConf> getDatasources() {
     return datasources;
   }
@@ -246,6 +574,38 @@ public class CaServerConf extends ValidatableConf {
     this.certprofileFactories = certprofileFactories;
   }
 
+  public KeypairPoolConf getKeypairPool() {
+    return keypairPool;
+  }
+
+  public void setKeypairPool(KeypairPoolConf keypairPool) {
+    this.keypairPool = keypairPool;
+  }
+
+  public AsyncPublishConf getAsyncPublish() {
+    return asyncPublish;
+  }
+
+  public void setAsyncPublish(AsyncPublishConf asyncPublish) {
+    this.asyncPublish = asyncPublish;
+  }
+
+  public UniquenessFilterConf getUniquenessFilter() {
+    return uniquenessFilter;
+  }
+
+  public void setUniquenessFilter(UniquenessFilterConf uniquenessFilter) {
+    this.uniquenessFilter = uniquenessFilter;
+  }
+
+  public UserAuthCacheConf getUserAuthCache() {
+    return userAuthCache;
+  }
+
+  public void setUserAuthCache(UserAuthCacheConf userAuthCache) {
+    this.userAuthCache = userAuthCache;
+  }
+
   public CtLogConf getCtLog() {
     return ctLog;
   }
@@ -281,9 +641,29 @@ public class CaServerConf extends ValidatableConf {
       throw new InvalidConfException("shardId is not in [0, 127]");
     }
 
+    if (certstoreFetchSize < 1) {
+      throw new InvalidConfException("certstoreFetchSize is not positive");
+    }
+
+    if (certstoreInsertBatchSize < 1) {
+      throw new InvalidConfException("certstoreInsertBatchSize is not positive");
+    }
+
+    if (certstoreInsertMaxDelay < 0) {
+      throw new InvalidConfException("certstoreInsertMaxDelay is negative");
+    }
+
+    if (publishQueueThreads < 1) {
+      throw new InvalidConfException("publishQueueThreads is not positive");
+    }
+
     notEmpty(datasources, "datasources");
     validate(remoteMgmt);
     validate(security);
+    validate(keypairPool);
+    validate(asyncPublish);
+    validate(uniquenessFilter);
+    validate(userAuthCache);
   } // method validate
 
 }
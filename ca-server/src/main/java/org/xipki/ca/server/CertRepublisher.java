@@ -82,26 +82,14 @@ class CertRepublisher {
 
     @Override
     public void run() {
-      final int numEntries = 100;
-      long startId = 1;
-
-      try {
-        List<CertStore.SerialWithId> serials;
-        do {
-          serials = certstore.getSerialNumbers(ca, startId, numEntries, onlyRevokedCerts);
-          long maxId = 1;
-          for (CertStore.SerialWithId sid : serials) {
-            if (sid.getId() > maxId) {
-              maxId = sid.getId();
-            }
-            queue.put(new SerialWithIdQueueEntry(sid));
-          }
-
-          startId = maxId + 1;
-        } while (serials.size() >= numEntries && !failed && !stopMe.get());
+      try (CertStore.RowIterator<CertStore.SerialWithId> serials =
+          certstore.getSerialNumbers(ca, null, onlyRevokedCerts, false, false)) {
+        while (serials.hasNext() && !failed && !stopMe.get()) {
+          queue.put(new SerialWithIdQueueEntry(serials.next()));
+        }
 
         queue.put(QueueEntry.END_OF_QUEUE);
-      } catch (OperationException ex) {
+      } catch (OperationException | IllegalStateException ex) {
         LogUtil.error(LOG, ex, "error in RepublishProducer");
         failed = true;
       } catch (InterruptedException ex) {
@@ -129,32 +117,44 @@ class CertRepublisher {
 
     @Override
     public void run() {
-      while (!failed) {
-        QueueEntry entry;
+      List<QueueEntry> entries = new ArrayList<>(BATCH_SIZE);
+      boolean endOfQueue = false;
+      while (!failed && !endOfQueue) {
+        entries.clear();
         try {
-          entry = queue.take();
+          entries.add(queue.take());
         } catch (InterruptedException ex) {
           LogUtil.error(LOG, ex, "could not take from queue");
           failed = true;
           break;
         }
+        queue.drainTo(entries, BATCH_SIZE - 1);
+
+        List<Long> certIds = new ArrayList<>(entries.size());
+        for (QueueEntry entry : entries) {
+          if (entry instanceof QueueEntry.EndOfQueue) {
+            endOfQueue = true;
+          } else {
+            certIds.add(((SerialWithIdQueueEntry) entry).serialWithId().getId());
+          }
+        }
 
-        if (entry instanceof QueueEntry.EndOfQueue) {
+        if (endOfQueue) {
           // re-add it to queue so that other consumers know it
           try {
-            queue.put(entry);
+            queue.put(QueueEntry.END_OF_QUEUE);
           } catch (InterruptedException ex) {
             LogUtil.warn(LOG, ex, "could not re-add EndOfQueue to queue");
           }
-          break;
         }
 
-        CertStore.SerialWithId sid = ((SerialWithIdQueueEntry) entry).serialWithId();
-
-        CertificateInfo certInfo;
+        if (certIds.isEmpty()) {
+          continue;
+        }
 
+        List<CertificateInfo> certInfos;
         try {
-          certInfo = certstore.getCertForId(ca, caCert, sid.getId(), caIdNameMap);
+          certInfos = certstore.getCertsForIds(ca, caCert, certIds, caIdNameMap);
         } catch (OperationException | CertificateException ex) {
           LogUtil.error(LOG, ex);
           failed = true;
@@ -163,22 +163,32 @@ class CertRepublisher {
 
         boolean allSucc = true;
         for (IdentifiedCertPublisher publisher : publishers) {
-          if (!certInfo.isRevoked() && !publisher.publishsGoodCert()) {
+          List<CertificateInfo> toPublish = new ArrayList<>(certInfos.size());
+          for (CertificateInfo certInfo : certInfos) {
+            if (certInfo.isRevoked() || publisher.publishsGoodCert()) {
+              toPublish.add(certInfo);
+            }
+          }
+
+          if (toPublish.isEmpty()) {
             continue;
           }
 
-          boolean successful = publisher.certificateAdded(certInfo);
-          if (!successful) {
-            LOG.error("republish certificate serial={} to publisher {} failed",
-                LogUtil.formatCsn(sid.getSerial()), publisher.getIdent());
-            allSucc = false;
+          boolean[] results = publisher.certificatesAdded(toPublish);
+          for (int i = 0; i < results.length; i++) {
+            if (!results[i]) {
+              LOG.error("republish certificate serial={} to publisher {} failed",
+                  toPublish.get(i).getCert().getCert().getSerialNumberHex(),
+                  publisher.getIdent());
+              allSucc = false;
+            }
           }
         }
 
         if (!allSucc) {
           break;
         }
-        processLog.addNumProcessed(1);
+        processLog.addNumProcessed(certIds.size());
       }
     } // method run
 
@@ -186,6 +196,9 @@ class CertRepublisher {
 
   private static final Logger LOG = LoggerFactory.getLogger(CertRepublisher.class);
 
+  // maximal number of certificates published at once
+  private static final int BATCH_SIZE = 100;
+
   private final NameId ca;
 
   private final X509Cert caCert;
@@ -24,10 +24,12 @@ import static org.xipki.ca.api.OperationException.ErrorCode.DATABASE_FAILURE;
 import static org.xipki.ca.api.OperationException.ErrorCode.NOT_PERMITTED;
 import static org.xipki.ca.api.OperationException.ErrorCode.SYSTEM_FAILURE;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -38,10 +40,14 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.DERPrintableString;
@@ -173,8 +179,138 @@ public class CertStore {
 
   } // class SerialWithId
 
+  /**
+   * Forward-only iterator over the rows of a query. All rows are read via a single
+   * {@link ResultSet}, which fetches them from the database in blocks of the given fetch size.
+   * The iterator holds a database connection and must be closed after the use.
+   *
+   * @param <T> type of the objects read from the rows.
+   */
+  public abstract static class RowIterator<T> implements Iterator<T>, Closeable {
+
+    private final DataSourceWrapper datasource;
+
+    private final String sql;
+
+    private Connection conn;
+
+    private boolean origAutoCommit;
+
+    private PreparedStatement ps;
+
+    private ResultSet rs;
+
+    private T next;
+
+    private RowIterator(DataSourceWrapper datasource, String sql, int fetchSize,
+        List<Long> params) throws OperationException {
+      this.datasource = datasource;
+      this.sql = sql;
+
+      try {
+        conn = datasource.getConnection();
+        // some drivers, e.g. PostgreSQL, fetch the rows in blocks only within a transaction
+        origAutoCommit = conn.getAutoCommit();
+        if (origAutoCommit) {
+          conn.setAutoCommit(false);
+        }
+
+        ps = datasource.prepareStatement(conn, sql);
+        ps.setFetchSize(fetchSize);
+        int idx = 1;
+        for (Long param : params) {
+          ps.setLong(idx++, param);
+        }
+        rs = ps.executeQuery();
+      } catch (DataAccessException ex) {
+        close();
+        throw new OperationException(DATABASE_FAILURE, ex.getMessage());
+      } catch (SQLException ex) {
+        close();
+        throw new OperationException(DATABASE_FAILURE,
+            datasource.translate(sql, ex).getMessage());
+      }
+    } // constructor
+
+    protected abstract T read(ResultSet rs) throws SQLException;
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && rs != null) {
+        try {
+          if (rs.next()) {
+            next = read(rs);
+          } else {
+            close();
+          }
+        } catch (SQLException ex) {
+          close();
+          throw new IllegalStateException(datasource.translate(sql, ex).getMessage(), ex);
+        }
+      }
+
+      return next != null;
+    } // method hasNext
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException("no next object anymore");
+      }
+
+      T ret = next;
+      next = null;
+      return ret;
+    } // method next
+
+    @Override
+    public void close() {
+      if (conn == null) {
+        return;
+      }
+
+      datasource.releaseResources(ps, rs, false);
+      ps = null;
+      rs = null;
+
+      try {
+        if (origAutoCommit) {
+          conn.rollback();
+          conn.setAutoCommit(true);
+        }
+      } catch (SQLException ex) {
+        LogUtil.warn(LOG, ex, "could not restore the auto-commit mode of the connection");
+      } finally {
+        datasource.returnConnection(conn);
+        conn = null;
+      }
+    } // method close
+
+  } // class RowIterator
+
+  /**
+   * Bloom filters of the columns FP_K and FP_S of the certificates of one CA.
+   */
+  private static class UniquenessFilter {
+
+    private final FingerprintFilter keys;
+
+    private final FingerprintFilter subjects;
+
+    // the filters are used only after all existing certificates have been added
+    private volatile boolean loaded;
+
+    private UniquenessFilter(long expectedEntries) {
+      this.keys = new FingerprintFilter(expectedEntries);
+      this.subjects = new FingerprintFilter(expectedEntries);
+    }
+
+  } // class UniquenessFilter
+
   private static final Logger LOG = LoggerFactory.getLogger(CertStore.class);
 
+  private static final int DFLT_FETCH_SIZE = 1000;
+
   private static final String SQL_ADD_CERT =
       "INSERT INTO CERT (ID,LUPDATE,SN,SUBJECT,FP_S,FP_RS,NBEFORE,NAFTER,REV,PID,"
       + "CA_ID,RID,UID,FP_K,EE,RTYPE,TID,SHA1,REQ_SUBJECT,CRL_SCOPE,CERT)"
@@ -238,8 +374,6 @@ public class CertStore {
 
   private final String sqlKnowsCertForSerial;
 
-  private final String sqlRevForId;
-
   private final String sqlCertStatusForSubjectFp;
 
   private final String sqlCertforSubjectIssued;
@@ -252,6 +386,8 @@ public class CertStore {
 
   private final String sqlCrlWithNo;
 
+  private final String sqlLatestCrlNo;
+
   private final String sqlReqIdForSerial;
 
   private final String sqlReqForId;
@@ -262,16 +398,6 @@ public class CertStore {
 
   private final LruCache<Integer, String> cacheSqlSuspendedSerials = new LruCache<>(5);
 
-  private final LruCache<Integer, String> cacheSqlDeltaCrlCacheIds = new LruCache<>(5);
-
-  private final LruCache<Integer, String> cacheSqlRevokedCerts = new LruCache<>(5);
-
-  private final LruCache<Integer, String> cacheSqlRevokedCertsWithEe = new LruCache<>(5);
-
-  private final LruCache<Integer, String> cacheSqlSerials = new LruCache<>(5);
-
-  private final LruCache<Integer, String> cacheSqlSerialsRevoked = new LruCache<>(5);
-
   private final DataSourceWrapper datasource;
 
   @SuppressWarnings("unused")
@@ -281,10 +407,55 @@ public class CertStore {
 
   private final UniqueIdGenerator idGenerator;
 
+  private final int fetchSize;
+
+  private final BatchInsertWriter certWriter;
+
+  private final ConcurrentMap<Integer, UniquenessFilter> uniquenessFilters =
+      new ConcurrentHashMap<>();
+
+  private final UserAuthCache userAuthCache;
+
   public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator)
       throws DataAccessException {
+    this(datasource, idGenerator, DFLT_FETCH_SIZE, 1, 0, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param datasource
+   *          Datasource of the certstore.
+   * @param idGenerator
+   *          Generator of the IDs of the certificates.
+   * @param fetchSize
+   *          Number of rows fetched in one round trip while reading large result sets.
+   * @param insertBatchSize
+   *          Maximal number of certificates written in one batch. 1 to write each certificate
+   *          in its own transaction.
+   * @param insertMaxDelayMs
+   *          Maximal time in milliseconds to wait for further certificates if a batch is not
+   *          full. Ignored if insertBatchSize is 1.
+   * @param userAuthCacheConf
+   *          Configuration of the cache of user authentications. {@code null} to use the
+   *          default values.
+   * @throws DataAccessException
+   *           If database error occurs.
+   */
+  public CertStore(DataSourceWrapper datasource, UniqueIdGenerator idGenerator, int fetchSize,
+      int insertBatchSize, int insertMaxDelayMs, CaServerConf.UserAuthCacheConf userAuthCacheConf)
+      throws DataAccessException {
     this.datasource = Args.notNull(datasource, "datasource");
     this.idGenerator = Args.notNull(idGenerator, "idGenerator");
+    this.fetchSize = Args.positive(fetchSize, "fetchSize");
+    Args.positive(insertBatchSize, "insertBatchSize");
+
+    if (userAuthCacheConf == null) {
+      userAuthCacheConf = new CaServerConf.UserAuthCacheConf();
+    }
+    this.userAuthCache = new UserAuthCache(userAuthCacheConf.getSize(),
+        userAuthCacheConf.getTtl() * 1000L, userAuthCacheConf.getMaxFailures(),
+        userAuthCacheConf.getFailureWindow() * 1000L);
 
     DbSchemaInfo dbSchemaInfo = new DbSchemaInfo(datasource);
     this.dbSchemaVersion = Integer.parseInt(dbSchemaInfo.variableValue("VERSION"));
@@ -303,7 +474,6 @@ public class CertStore {
     this.sqlCaHasUser = buildSelectFirstSql(
         "PERMISSION,PROFILES FROM CA_HAS_USER WHERE CA_ID=? AND USER_ID=?");
     this.sqlKnowsCertForSerial = buildSelectFirstSql("UID FROM CERT WHERE SN=? AND CA_ID=?");
-    this.sqlRevForId = buildSelectFirstSql("SN,EE,REV,RR,RT,RIT FROM CERT WHERE ID=?");
     this.sqlCertStatusForSubjectFp = buildSelectFirstSql("REV FROM CERT WHERE FP_S=? AND CA_ID=?");
     this.sqlCertforSubjectIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_S=?");
     this.sqlCertForKeyIssued = buildSelectFirstSql("ID FROM CERT WHERE CA_ID=? AND FP_K=?");
@@ -316,8 +486,19 @@ public class CertStore {
         "THISUPDATE,CRL FROM CRL WHERE CA_ID=?");
     this.sqlCrlWithNo = datasource.buildSelectFirstSql(1, "THISUPDATE DESC",
         "THISUPDATE,CRL FROM CRL WHERE CA_ID=? AND CRL_NO=?");
+    this.sqlLatestCrlNo = datasource.buildSelectFirstSql(1, "THISUPDATE DESC",
+        "CRL_NO FROM CRL WHERE CA_ID=?");
+
+    this.certWriter = (insertBatchSize == 1) ? null
+        : new BatchInsertWriter(datasource, SQL_ADD_CERT, insertBatchSize, insertMaxDelayMs);
   } // constructor
 
+  public void close() {
+    if (certWriter != null) {
+      certWriter.close();
+    }
+  } // method close
+
   private String buildSelectFirstSql(String coreSql) {
     return datasource.buildSelectFirstSql(1, coreSql);
   }
@@ -340,20 +521,21 @@ public class CertStore {
     return true;
   } // method addCert
 
-  private void addCert(NameId ca, CertWithDbId certificate, byte[] encodedSubjectPublicKey,
-      NameId certprofile, NameId requestor, Integer userId, RequestType reqType,
-      byte[] transactionId, X500Name reqSubject) throws DataAccessException, OperationException {
+  private void addCert(final NameId ca, CertWithDbId certificate,
+      byte[] encodedSubjectPublicKey, final NameId certprofile, final NameId requestor,
+      final Integer userId, final RequestType reqType, byte[] transactionId, X500Name reqSubject)
+      throws DataAccessException, OperationException {
     Args.notNull(ca, "ca");
     Args.notNull(certificate, "certificate");
     Args.notNull(certprofile, "certprofile");
     Args.notNull(requestor, "requestor");
 
-    long certId = idGenerator.nextId();
+    final long certId = idGenerator.nextId();
 
-    long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
-    String subjectText = X509Util.cutText(
+    final long fpPk = FpIdCalculator.hash(encodedSubjectPublicKey);
+    final String subjectText = X509Util.cutText(
         certificate.getCert().getSubjectRfc4519Text(), maxX500nameLen);
-    long fpSubject = X509Util.fpCanonicalizedName(certificate.getCert().getSubject());
+    final long fpSubject = X509Util.fpCanonicalizedName(certificate.getCert().getSubject());
 
     String reqSubjectText = null;
     Long fpReqSubject = null;
@@ -366,53 +548,128 @@ public class CertStore {
       }
     }
 
-    byte[] encodedCert = certificate.getCert().getEncoded();
-    String b64FpCert = base64Fp(encodedCert);
-    String b64Cert = Base64.encodeToString(encodedCert);
-    String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
-
-    final String sql = SQL_ADD_CERT;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    final X509Cert cert = certificate.getCert();
+    final byte[] encodedCert = cert.getEncoded();
+    final String b64FpCert = base64Fp(encodedCert);
+    final String b64Cert = Base64.encodeToString(encodedCert);
+    final String tid = (transactionId == null) ? null : Base64.encodeToString(transactionId);
+    final Long fpReqSubject0 = fpReqSubject;
+    final String reqSubjectText0 = reqSubjectText;
+    final long lastUpdate = System.currentTimeMillis() / 1000; // currentTimeSeconds
+
+    BatchInsertWriter.Entry row = new BatchInsertWriter.Entry() {
+      @Override
+      protected void setParameters(PreparedStatement ps) throws SQLException {
+        int idx = 1;
+        ps.setLong(idx++, certId);
+        ps.setLong(idx++, lastUpdate);
+        ps.setString(idx++, cert.getSerialNumber().toString(16));
+        ps.setString(idx++, subjectText);
+        ps.setLong(idx++, fpSubject);
+        setLong(ps, idx++, fpReqSubject0);
+        ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
+        ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
+        setBoolean(ps, idx++, false);
+        ps.setInt(idx++, certprofile.getId());
+        ps.setInt(idx++, ca.getId());
+        setInt(ps, idx++, requestor.getId());
+        setInt(ps, idx++, userId);
+        ps.setLong(idx++, fpPk);
+        boolean isEeCert = cert.getBasicConstraints() == -1;
+        ps.setInt(idx++, isEeCert ? 1 : 0);
+        ps.setInt(idx++, reqType.getCode());
+        ps.setString(idx++, tid);
+
+        ps.setString(idx++, b64FpCert);
+        ps.setString(idx++, reqSubjectText0);
+        // in this version we set CRL_SCOPE to fixed value 0
+        ps.setInt(idx++, 0);
+        ps.setString(idx++, b64Cert);
+      }
+    };
 
-    try {
-      // cert
-      X509Cert cert = certificate.getCert();
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, cert.getSerialNumber().toString(16));
-      ps.setString(idx++, subjectText);
-      ps.setLong(idx++, fpSubject);
-      setLong(ps, idx++, fpReqSubject);
-      ps.setLong(idx++, cert.getNotBefore().getTime() / 1000); // notBeforeSeconds
-      ps.setLong(idx++, cert.getNotAfter().getTime() / 1000); // notAfterSeconds
-      setBoolean(ps, idx++, false);
-      ps.setInt(idx++, certprofile.getId());
-      ps.setInt(idx++, ca.getId());
-      setInt(ps, idx++, requestor.getId());
-      setInt(ps, idx++, userId);
-      ps.setLong(idx++, fpPk);
-      boolean isEeCert = cert.getBasicConstraints() == -1;
-      ps.setInt(idx++, isEeCert ? 1 : 0);
-      ps.setInt(idx++, reqType.getCode());
-      ps.setString(idx++, tid);
-
-      ps.setString(idx++, b64FpCert);
-      ps.setString(idx++, reqSubjectText);
-      // in this version we set CRL_SCOPE to fixed value 0
-      ps.setInt(idx++, 0);
-      ps.setString(idx++, b64Cert);
+    if (certWriter != null) {
+      // written in a batch together with rows of other threads
+      certWriter.write(row);
+    } else {
+      final String sql = SQL_ADD_CERT;
+      PreparedStatement ps = borrowPreparedStatement(sql);
 
-      ps.executeUpdate();
+      try {
+        row.setParameters(ps);
+        ps.executeUpdate();
+      } catch (SQLException ex) {
+        throw datasource.translate(null, ex);
+      } finally {
+        datasource.releaseResources(ps, null);
+      }
+    }
 
-      certificate.setCertId(certId);
-    } catch (SQLException ex) {
-      throw datasource.translate(null, ex);
-    } finally {
-      datasource.releaseResources(ps, null);
+    UniquenessFilter filter = uniquenessFilters.get(ca.getId());
+    if (filter != null) {
+      filter.keys.add(fpPk);
+      filter.subjects.add(fpSubject);
     }
+
+    certificate.setCertId(certId);
   } // method addCert
 
+  /**
+   * Loads the FP_K and FP_S of all certificates of the CA into Bloom filters, which are
+   * used afterwards by {@link #isCertForKeyIssued(NameId, long)} and
+   * {@link #isCertForSubjectIssued(NameId, long)} to skip the database query for most new keys
+   * and subjects. The filters are updated by the certificates added via this CertStore, hence
+   * must not be used if other CA systems issue certificates of the same CA.
+   *
+   * @param ca
+   *          Identifier of the CA.
+   * @param minEntries
+   *          Minimal number of certificates the filters are dimensioned for.
+   * @throws OperationException
+   *           If the certificates could not be read.
+   */
+  public void loadUniquenessFilter(NameId ca, long minEntries) throws OperationException {
+    Args.notNull(ca, "ca");
+    if (uniquenessFilters.containsKey(ca.getId())) {
+      return;
+    }
+
+    long start = System.currentTimeMillis();
+    // room for the certificates issued in the future
+    long expectedEntries = Math.max(minEntries, 2 * getCountOfCerts(ca, false));
+    UniquenessFilter filter = new UniquenessFilter(expectedEntries);
+    // register first, so that the certificates added concurrently are not missed
+    if (uniquenessFilters.putIfAbsent(ca.getId(), filter) != null) {
+      return;
+    }
+
+    final String sql = "SELECT FP_K,FP_S FROM CERT WHERE CA_ID=?";
+    List<Long> params = new ArrayList<>(1);
+    params.add((long) ca.getId());
+
+    long num = 0;
+    try (RowIterator<long[]> fps = new RowIterator<long[]>(datasource, sql, fetchSize, params) {
+      @Override
+      protected long[] read(ResultSet rs) throws SQLException {
+        return new long[] {rs.getLong("FP_K"), rs.getLong("FP_S")};
+      }
+    }) {
+      while (fps.hasNext()) {
+        long[] fp = fps.next();
+        filter.keys.add(fp[0]);
+        filter.subjects.add(fp[1]);
+        num++;
+      }
+    } catch (OperationException | RuntimeException ex) {
+      uniquenessFilters.remove(ca.getId());
+      throw ex;
+    }
+
+    filter.loaded = true;
+    LOG.info("loaded uniqueness filter of CA {} with {} certificates in {} ms", ca.getName(),
+        num, System.currentTimeMillis() - start);
+  } // method loadUniquenessFilter
+
   public void addToPublishQueue(NameId publisher, long certId, NameId ca)
       throws OperationException {
     Args.notNull(ca, "ca");
@@ -445,6 +702,28 @@ public class CertStore {
     }
   } // method removeFromPublishQueue
 
+  public void removeFromPublishQueue(NameId publisher, List<Long> certIds)
+      throws OperationException {
+    if (certIds.isEmpty()) {
+      return;
+    }
+
+    final String sql = SQL_REMOVE_PUBLISHQUEUE;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+    try {
+      for (Long certId : certIds) {
+        ps.setInt(1, publisher.getId());
+        ps.setLong(2, certId);
+        ps.addBatch();
+      }
+      ps.executeBatch();
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, null);
+    }
+  } // method removeFromPublishQueue
+
   public long getMaxIdOfDeltaCrlCache(NameId ca) throws OperationException {
     Args.notNull(ca, "ca");
 
@@ -591,6 +870,40 @@ public class CertStore {
       baseCrlNumber = ASN1Integer.getInstance(extnValue).getPositiveValue().longValue();
     }
 
+    byte[] encodedCrl;
+    try {
+      encodedCrl = crl.getEncoded();
+    } catch (IOException ex) {
+      throw new CRLException(ex.getMessage(), ex);
+    }
+
+    addCrl(ca, crlNumber, baseCrlNumber, crl.getThisUpdate(), crl.getNextUpdate(), encodedCrl);
+  } // method addCrl
+
+  /**
+   * Adds the DER encoded CRL, without parsing it.
+   *
+   * @param ca
+   *          CA. Must not be {@code null}.
+   * @param crlNumber
+   *          CRL number. Could be {@code null}.
+   * @param baseCrlNumber
+   *          Base CRL number of the delta CRL, {@code null} for full CRL.
+   * @param thisUpdate
+   *          thisUpdate of the CRL. Must not be {@code null}.
+   * @param nextUpdate
+   *          nextUpdate of the CRL. Could be {@code null}.
+   * @param encodedCrl
+   *          DER encoded CRL. Must not be {@code null}.
+   * @throws OperationException
+   *           If error occurs while adding the CRL to the database.
+   */
+  public void addCrl(NameId ca, Long crlNumber, Long baseCrlNumber, Date thisUpdate,
+      Date nextUpdate, byte[] encodedCrl) throws OperationException {
+    Args.notNull(ca, "ca");
+    Args.notNull(thisUpdate, "thisUpdate");
+    Args.notNull(encodedCrl, "encodedCrl");
+
     final String sql = SQL_ADD_CRL;
     long currentMaxCrlId;
     try {
@@ -600,12 +913,7 @@ public class CertStore {
     }
     long crlId = currentMaxCrlId + 1;
 
-    String b64Crl;
-    try {
-      b64Crl = Base64.encodeToString(crl.getEncoded());
-    } catch (IOException ex) {
-      throw new CRLException(ex.getMessage(), ex);
-    }
+    String b64Crl = Base64.encodeToString(encodedCrl);
 
     PreparedStatement ps = null;
 
@@ -616,9 +924,8 @@ public class CertStore {
       ps.setLong(idx++, crlId);
       ps.setInt(idx++, ca.getId());
       setLong(ps, idx++, crlNumber);
-      Date date = crl.getThisUpdate();
-      ps.setLong(idx++, date.getTime() / 1000);
-      setDateSeconds(ps, idx++, crl.getNextUpdate());
+      ps.setLong(idx++, thisUpdate.getTime() / 1000);
+      setDateSeconds(ps, idx++, nextUpdate);
       setBoolean(ps, idx++, (baseCrlNumber != null));
       setLong(ps, idx++, baseCrlNumber);
       // in this version we set CRL_SCOPE to fixed value 0
@@ -889,15 +1196,43 @@ public class CertStore {
     }
   } // method getPublishQueueEntries
 
-  public long getCountOfCerts(NameId ca, boolean onlyRevoked) throws OperationException {
-    final String sql = onlyRevoked ? "SELECT COUNT(*) FROM CERT WHERE CA_ID=? AND REV=1"
-                    : "SELECT COUNT(*) FROM CERT WHERE CA_ID=?";
+  /**
+   * Returns the ids of the certificates in the table PUBLISHQUEUE, in ascending order.
+   *
+   * @param ca
+   *          CA identifier.
+   * @param publisher
+   *          Publisher identifier.
+   * @return the iterator over the ids, must be closed after the use.
+   * @throws OperationException
+   *           If the query cannot be executed.
+   */
+  public RowIterator<Long> getPublishQueueCertIds(NameId ca, NameId publisher)
+      throws OperationException {
+    final String sql = "SELECT CID FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=? ORDER BY CID";
+
+    List<Long> params = new ArrayList<>(2);
+    params.add((long) publisher.getId());
+    params.add((long) ca.getId());
+
+    return new RowIterator<Long>(datasource, sql, fetchSize, params) {
+      @Override
+      protected Long read(ResultSet rs) throws SQLException {
+        return rs.getLong("CID");
+      }
+    };
+  } // method getPublishQueueCertIds
+
+  public long getCountOfPublishQueueEntries(NameId ca, NameId publisher)
+      throws OperationException {
+    final String sql = "SELECT COUNT(*) FROM PUBLISHQUEUE WHERE PID=? AND CA_ID=?";
 
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
 
     try {
-      ps.setInt(1, ca.getId());
+      ps.setInt(1, publisher.getId());
+      ps.setInt(2, ca.getId());
       rs = ps.executeQuery();
       rs.next();
       return rs.getLong(1);
@@ -906,74 +1241,75 @@ public class CertStore {
     } finally {
       datasource.releaseResources(ps, rs);
     }
-  } // method getCountOfCerts
+  } // method getCountOfPublishQueueEntries
 
-  public List<SerialWithId> getSerialNumbers(NameId ca,  long startId, int numEntries,
-      boolean onlyRevoked) throws OperationException {
-    Args.notNull(ca, "ca");
-    Args.positive(numEntries, "numEntries");
-
-    final String sql = getSqlSerials(numEntries, onlyRevoked);
+  public long getCountOfCerts(NameId ca, boolean onlyRevoked) throws OperationException {
+    final String sql = onlyRevoked ? "SELECT COUNT(*) FROM CERT WHERE CA_ID=? AND REV=1"
+                    : "SELECT COUNT(*) FROM CERT WHERE CA_ID=?";
 
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
 
     try {
-      ps.setLong(1, startId - 1);
-      ps.setInt(2, ca.getId());
+      ps.setInt(1, ca.getId());
       rs = ps.executeQuery();
-      List<SerialWithId> ret = new ArrayList<>();
-      while (rs.next() && ret.size() < numEntries) {
-        long id = rs.getLong("ID");
-        String serial = rs.getString("SN");
-        ret.add(new SerialWithId(id, new BigInteger(serial, 16)));
-      }
-      return ret;
+      rs.next();
+      return rs.getLong(1);
     } catch (SQLException ex) {
       throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
     } finally {
       datasource.releaseResources(ps, rs);
     }
-  } // method getSerialNumbers
+  } // method getCountOfCerts
 
-  public List<SerialWithId> getSerialNumbers(NameId ca, Date notExpiredAt, long startId,
-      int numEntries, boolean onlyRevoked, boolean onlyCaCerts, boolean onlyUserCerts)
+  /**
+   * Returns the serial numbers of the certificates issued by the given CA, ordered by the ID.
+   * All rows are read by a single query, and fetched from the database in blocks of the
+   * configured fetch size. The returned iterator must be closed after the use.
+   *
+   * @param ca
+   *          CA.
+   * @param notExpiredAt
+   *          If not {@code null}, only certificates not expired at this time are considered.
+   * @param onlyRevoked
+   *          Whether only the revoked certificates are considered.
+   * @param onlyCaCerts
+   *          Whether only the CA certificates are considered.
+   * @param onlyUserCerts
+   *          Whether only the end entity certificates are considered.
+   * @return iterator of the serial numbers.
+   * @throws OperationException
+   *           If the query cannot be executed.
+   */
+  public RowIterator<SerialWithId> getSerialNumbers(NameId ca, Date notExpiredAt,
+      boolean onlyRevoked, boolean onlyCaCerts, boolean onlyUserCerts)
       throws OperationException {
     Args.notNull(ca, "ca");
-    Args.positive(numEntries, "numEntries");
 
     if (onlyCaCerts && onlyUserCerts) {
       throw new IllegalArgumentException("onlyCaCerts and onlyUserCerts cannot be both of true");
     }
     boolean withEe = onlyCaCerts || onlyUserCerts;
-    final String sql = getSqlSerials(numEntries, notExpiredAt, onlyRevoked, withEe);
 
-    ResultSet rs = null;
-    PreparedStatement ps = borrowPreparedStatement(sql);
+    final String sql = StringUtil.concat("SELECT ID,SN FROM CERT WHERE CA_ID=?",
+        (notExpiredAt != null ? " AND NAFTER>?" : ""), (onlyRevoked ? " AND REV=1" : ""),
+        (withEe ? " AND EE=?" : ""), " ORDER BY ID");
 
-    try {
-      int idx = 1;
-      ps.setLong(idx++, startId - 1);
-      ps.setInt(idx++, ca.getId());
-      if (notExpiredAt != null) {
-        ps.setLong(idx++, notExpiredAt.getTime() / 1000 + 1);
-      }
-      if (withEe) {
-        setBoolean(ps, idx++, onlyUserCerts);
-      }
-      rs = ps.executeQuery();
-      List<SerialWithId> ret = new ArrayList<>();
-      while (rs.next() && ret.size() < numEntries) {
-        long id = rs.getLong("ID");
-        String serial = rs.getString("SN");
-        ret.add(new SerialWithId(id, new BigInteger(serial, 16)));
-      }
-      return ret;
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, rs);
+    List<Long> params = new ArrayList<>(3);
+    params.add((long) ca.getId());
+    if (notExpiredAt != null) {
+      params.add(notExpiredAt.getTime() / 1000 + 1);
+    }
+    if (withEe) {
+      params.add(onlyUserCerts ? 1L : 0L);
     }
+
+    return new RowIterator<SerialWithId>(datasource, sql, fetchSize, params) {
+      @Override
+      protected SerialWithId read(ResultSet rs) throws SQLException {
+        return new SerialWithId(rs.getLong("ID"), new BigInteger(rs.getString("SN"), 16));
+      }
+    };
   } // method getSerialNumbers
 
   public List<BigInteger> getExpiredSerialNumbers(NameId ca, long expiredAt, int numEntries)
@@ -1063,6 +1399,24 @@ public class CertStore {
     return (b64Crl == null) ? null : Base64.decodeFast(b64Crl);
   } // method getEncodedCrl
 
+  public BigInteger getLatestCrlNumber(NameId ca) throws OperationException {
+    Args.notNull(ca, "ca");
+
+    final String sql = sqlLatestCrlNo;
+    ResultSet rs = null;
+    PreparedStatement ps = borrowPreparedStatement(sql);
+
+    try {
+      ps.setInt(1, ca.getId());
+      rs = ps.executeQuery();
+      return rs.next() ? BigInteger.valueOf(rs.getLong("CRL_NO")) : null;
+    } catch (SQLException ex) {
+      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method getLatestCrlNumber
+
   public int cleanupCrls(NameId ca, int numCrls) throws OperationException {
     Args.notNull(ca, "ca");
     Args.positive(numCrls, "numCrls");
@@ -1151,6 +1505,85 @@ public class CertStore {
       datasource.releaseResources(ps, rs);
     }
 
+    return toCertificateInfo(ca, caCert, idNameMap, certId, b64Cert, certprofileId, requestorId,
+        revoked, revReason, revTime, revInvTime);
+  } // method getCertForId
+
+  /**
+   * Retrieves the certificates with the given database ids.
+   *
+   * @param ca
+   *          CA identifier.
+   * @param caCert
+   *          CA certificate.
+   * @param certIds
+   *          Database ids of the certificates.
+   * @param idNameMap
+   *          Map of ids and names.
+   * @return the found certificates, in the order of certIds.
+   * @throws OperationException
+   *           If database error occurs.
+   * @throws CertificateException
+   *           If a certificate cannot be parsed.
+   */
+  public List<CertificateInfo> getCertsForIds(NameId ca, X509Cert caCert, List<Long> certIds,
+      CaIdNameMap idNameMap) throws OperationException, CertificateException {
+    Args.notNull(ca, "ca");
+    Args.notNull(caCert, "caCert");
+    Args.notNull(certIds, "certIds");
+    Args.notNull(idNameMap, "idNameMap");
+
+    final int maxInSize = 100;
+    Map<Long, CertificateInfo> found = new HashMap<>();
+    for (int offset = 0; offset < certIds.size(); offset += maxInSize) {
+      List<Long> chunk = certIds.subList(offset, Math.min(certIds.size(), offset + maxInSize));
+
+      StringBuilder sb = new StringBuilder(
+          "SELECT ID,PID,RID,REV,RR,RT,RIT,CERT FROM CERT WHERE ID IN (");
+      for (int i = 0; i < chunk.size(); i++) {
+        sb.append(i == 0 ? "?" : ",?");
+      }
+      sb.append(")");
+      final String sql = sb.toString();
+
+      ResultSet rs = null;
+      PreparedStatement ps = borrowPreparedStatement(sql);
+      try {
+        int idx = 1;
+        for (Long certId : chunk) {
+          ps.setLong(idx++, certId);
+        }
+        rs = ps.executeQuery();
+
+        while (rs.next()) {
+          long certId = rs.getLong("ID");
+          boolean revoked = rs.getBoolean("REV");
+          found.put(certId, toCertificateInfo(ca, caCert, idNameMap, certId,
+              rs.getString("CERT"), rs.getInt("PID"), rs.getInt("RID"), revoked,
+              revoked ? rs.getInt("RR") : 0, revoked ? rs.getLong("RT") : 0,
+              revoked ? rs.getLong("RIT") : 0));
+        }
+      } catch (SQLException ex) {
+        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+    }
+
+    List<CertificateInfo> ret = new ArrayList<>(found.size());
+    for (Long certId : certIds) {
+      CertificateInfo certInfo = found.get(certId);
+      if (certInfo != null) {
+        ret.add(certInfo);
+      }
+    }
+    return ret;
+  } // method getCertsForIds
+
+  private static CertificateInfo toCertificateInfo(NameId ca, X509Cert caCert,
+      CaIdNameMap idNameMap, long certId, String b64Cert, int certprofileId, int requestorId,
+      boolean revoked, int revReason, long revTime, long revInvTime)
+          throws CertificateException {
     byte[] encodedCert = Base64.decodeFast(b64Cert);
     X509Cert cert = X509Util.parseCert(encodedCert);
     CertWithDbId certWithMeta = new CertWithDbId(cert);
@@ -1167,7 +1600,7 @@ public class CertStore {
         new Date(revTime * 1000), invalidityTime);
     certInfo.setRevocationInfo(revInfo);
     return certInfo;
-  } // method getCertForId
+  } // method toCertificateInfo
 
   public CertWithRevocationInfo getCertWithRevocationInfo(int caId, BigInteger serial,
       CaIdNameMap idNameMap) throws OperationException {
@@ -1535,6 +1968,25 @@ public class CertStore {
   } // method listCerts
 
   public NameId authenticateUser(String user, byte[] password) throws OperationException {
+    NameId ident = userAuthCache.getAuthenticated(user, password);
+    if (ident != null) {
+      return ident;
+    }
+
+    if (userAuthCache.isBlocked(user)) {
+      LOG.warn("too many failed authentications of user {}, reject it", user);
+      return null;
+    }
+
+    long generation = userAuthCache.getGeneration();
+    ident = authenticateUser0(user, password);
+    if (ident != null) {
+      userAuthCache.addAuthenticated(ident, password, generation);
+    }
+    return ident;
+  } // method authenticateUser
+
+  private NameId authenticateUser0(String user, byte[] password) throws OperationException {
     final String sql = sqlActiveUserInfoForName;
 
     int id;
@@ -1564,8 +2016,27 @@ public class CertStore {
     }
 
     boolean valid = PasswordHash.validatePassword(password, expPasswordText);
-    return valid ? new NameId(id, user) : null;
-  } // method authenticateUser
+    if (!valid) {
+      // only failures of existing users are counted
+      userAuthCache.addFailure(user);
+      return null;
+    }
+    return new NameId(id, user);
+  } // method authenticateUser0
+
+  /**
+   * Removes the cached authentications and CA permissions of the user.
+   *
+   * @param user
+   *          User name. {@code null} to remove those of all users.
+   */
+  public void invalidateUserCache(String user) {
+    if (user == null) {
+      userAuthCache.invalidateAll();
+    } else {
+      userAuthCache.invalidate(user);
+    }
+  } // method invalidateUserCache
 
   public String getUsername(int id) throws OperationException {
     final String sql = sqlActiveUserNameForId;
@@ -1590,6 +2061,18 @@ public class CertStore {
   } // method getUsername
 
   public MgmtEntry.CaHasUser getCaHasUser(NameId ca, NameId user) throws OperationException {
+    MgmtEntry.CaHasUser entry = userAuthCache.getCaHasUser(ca, user);
+    if (entry == null) {
+      long generation = userAuthCache.getGeneration();
+      entry = getCaHasUser0(ca, user);
+      if (entry != null) {
+        userAuthCache.addCaHasUser(ca, entry, generation);
+      }
+    }
+    return entry;
+  } // method getCaHasUser
+
+  private MgmtEntry.CaHasUser getCaHasUser0(NameId ca, NameId user) throws OperationException {
     final String sql = sqlCaHasUser;
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -1615,7 +2098,7 @@ public class CertStore {
     } finally {
       datasource.releaseResources(ps, rs);
     }
-  } // method getCaHasUser
+  } // method getCaHasUser0
 
   public KnowCertResult knowsCertForSerial(NameId ca, BigInteger serial) throws OperationException {
     Args.notNull(serial, "serial");
@@ -1642,119 +2125,106 @@ public class CertStore {
     }
   } // method knowsCertForSerial
 
-  public List<CertRevInfoWithSerial> getRevokedCerts(NameId ca, Date notExpiredAt, long startId,
-      int numEntries, boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
+  /**
+   * Returns the revocation information of the revoked and not-expired certificates issued by
+   * the given CA, ordered by the ID. All rows are read by a single query, and fetched from the
+   * database in blocks of the configured fetch size. The returned iterator must be closed after
+   * the use.
+   *
+   * @param ca
+   *          CA.
+   * @param notExpiredAt
+   *          Only certificates not expired at this time are considered.
+   * @param onlyCaCerts
+   *          Whether only the CA certificates are considered.
+   * @param onlyUserCerts
+   *          Whether only the end entity certificates are considered.
+   * @return iterator of the revocation information.
+   * @throws OperationException
+   *           If the query cannot be executed.
+   */
+  public RowIterator<CertRevInfoWithSerial> getRevokedCerts(NameId ca, Date notExpiredAt,
+      boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
     Args.notNull(ca, "ca");
     Args.notNull(notExpiredAt, "notExpiredAt");
-    Args.positive(numEntries, "numEntries");
     if (onlyCaCerts && onlyUserCerts) {
       throw new IllegalArgumentException("onlyCaCerts and onlyUserCerts cannot be both of true");
     }
     boolean withEe = onlyCaCerts || onlyUserCerts;
 
-    String sql = getSqlRevokedCerts(numEntries, withEe);
+    final String sql = StringUtil.concat(
+        "SELECT ID,SN,RR,RT,RIT FROM CERT WHERE CA_ID=? AND REV=1 AND NAFTER>?",
+        (withEe ? " AND EE=?" : ""), " ORDER BY ID");
 
-    ResultSet rs = null;
-    PreparedStatement ps = borrowPreparedStatement(sql);
-
-    try {
-      int idx = 1;
-      ps.setLong(idx++, startId - 1);
-      ps.setInt(idx++, ca.getId());
-      ps.setLong(idx++, notExpiredAt.getTime() / 1000 + 1);
-      if (withEe) {
-        setBoolean(ps, idx++, onlyUserCerts);
-      }
-      rs = ps.executeQuery();
+    List<Long> params = new ArrayList<>(3);
+    params.add((long) ca.getId());
+    params.add(notExpiredAt.getTime() / 1000 + 1);
+    if (withEe) {
+      params.add(onlyUserCerts ? 1L : 0L);
+    }
 
-      List<CertRevInfoWithSerial> ret = new LinkedList<>();
-      while (rs.next()) {
+    return new RowIterator<CertRevInfoWithSerial>(datasource, sql, fetchSize, params) {
+      @Override
+      protected CertRevInfoWithSerial read(ResultSet rs) throws SQLException {
         long revInvalidityTime = rs.getLong("RIT");
         Date invalidityTime = (revInvalidityTime == 0) ? null : new Date(1000 * revInvalidityTime);
-        CertRevInfoWithSerial revInfo = new CertRevInfoWithSerial(rs.getLong("ID"),
+        return new CertRevInfoWithSerial(rs.getLong("ID"),
             new BigInteger(rs.getString("SN"), 16), rs.getInt("RR"), // revReason
             new Date(1000 * rs.getLong("RT")), invalidityTime);
-        ret.add(revInfo);
       }
-
-      return ret;
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, rs);
-    }
+    };
   } // method getRevokedCerts
 
-  public List<CertRevInfoWithSerial> getCertsForDeltaCrl(NameId ca, long startId, int numEntries,
+  /**
+   * Returns the revocation information of the certificates in the DELTACRL_CACHE of the given
+   * CA, ordered by the ID. Certificates which are not revoked any more are returned with the
+   * reason {@link CrlReason#REMOVE_FROM_CRL}. The returned iterator must be closed after the use.
+   *
+   * @param ca
+   *          CA.
+   * @param onlyCaCerts
+   *          Whether only the CA certificates are considered.
+   * @param onlyUserCerts
+   *          Whether only the end entity certificates are considered.
+   * @return iterator of the revocation information.
+   * @throws OperationException
+   *           If the query cannot be executed.
+   */
+  public RowIterator<CertRevInfoWithSerial> getCertsForDeltaCrl(NameId ca,
       boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
     Args.notNull(ca, "ca");
-    Args.positive(numEntries, "numEntries");
-
-    String sql = getSqlDeltaCrlCacheIds(numEntries);
-    List<Long> ids = new LinkedList<>();
-    ResultSet rs = null;
-
-    PreparedStatement ps = borrowPreparedStatement(sql);
-    try {
-      ps.setLong(1, startId - 1);
-      ps.setInt(2, ca.getId());
-      rs = ps.executeQuery();
-      while (rs.next()) {
-        long id = rs.getLong("ID");
-        ids.add(id);
-      }
-    } catch (SQLException ex) {
-      throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-    } finally {
-      datasource.releaseResources(ps, rs);
+    if (onlyCaCerts && onlyUserCerts) {
+      throw new IllegalArgumentException("onlyCaCerts and onlyUserCerts cannot be both of true");
     }
+    boolean withEe = onlyCaCerts || onlyUserCerts;
 
-    sql = sqlRevForId;
-    ps = borrowPreparedStatement(sql);
-
-    List<CertRevInfoWithSerial> ret = new ArrayList<>();
-    for (Long id : ids) {
-      try {
-        ps.setLong(1, id);
-        rs = ps.executeQuery();
-
-        if (!rs.next()) {
-          continue;
-        }
-
-        int ee = rs.getInt("EE");
-        if (onlyCaCerts) {
-          if (ee != 0) {
-            continue;
-          }
-        } else if (onlyUserCerts) {
-          if (ee != 1) {
-            continue;
-          }
-        }
+    final String sql = StringUtil.concat("SELECT ID,SN,REV,RR,RT,RIT,LUPDATE FROM CERT ",
+        "WHERE CA_ID=? AND SN IN (SELECT SN FROM DELTACRL_CACHE WHERE CA_ID=?)",
+        (withEe ? " AND EE=?" : ""), " ORDER BY ID");
 
-        CertRevInfoWithSerial revInfo;
+    List<Long> params = new ArrayList<>(3);
+    params.add((long) ca.getId());
+    params.add((long) ca.getId());
+    if (withEe) {
+      params.add(onlyUserCerts ? 1L : 0L);
+    }
 
-        String serial = rs.getString("SN");
-        boolean revoked = rs.getBoolean("REVOEKD");
-        if (revoked) {
+    return new RowIterator<CertRevInfoWithSerial>(datasource, sql, fetchSize, params) {
+      @Override
+      protected CertRevInfoWithSerial read(ResultSet rs) throws SQLException {
+        long id = rs.getLong("ID");
+        BigInteger serial = new BigInteger(rs.getString("SN"), 16);
+        if (rs.getBoolean("REV")) {
           long revInvTime = rs.getLong("RIT");
           Date invalidityTime = (revInvTime == 0) ? null : new Date(1000 * revInvTime);
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16), rs.getInt("RR"),
+          return new CertRevInfoWithSerial(id, serial, rs.getInt("RR"),
               new Date(1000 * rs.getLong("RT")), invalidityTime);
         } else {
-          revInfo = new CertRevInfoWithSerial(id, new BigInteger(serial, 16),
-              CrlReason.REMOVE_FROM_CRL.getCode(), new Date(1000 * rs.getLong("LUPDATE")), null);
+          return new CertRevInfoWithSerial(id, serial, CrlReason.REMOVE_FROM_CRL.getCode(),
+              new Date(1000 * rs.getLong("LUPDATE")), null);
         }
-        ret.add(revInfo);
-      } catch (SQLException ex) {
-        throw new OperationException(DATABASE_FAILURE, datasource.translate(sql, ex).getMessage());
-      } finally {
-        datasource.releaseResources(null, rs);
       }
-    } // end for
-
-    return ret;
+    };
   } // method getCertsForDeltaCrl
 
   public CertStatus getCertStatusForSubject(NameId ca, X500Name subject) throws OperationException {
@@ -1787,6 +2257,11 @@ public class CertStore {
 
   public boolean isCertForSubjectIssued(NameId ca, long subjectFp) throws OperationException {
     Args.notNull(ca, "ca");
+    UniquenessFilter filter = uniquenessFilters.get(ca.getId());
+    if (filter != null && filter.loaded && !filter.subjects.mightContain(subjectFp)) {
+      return false;
+    }
+
     String sql = sqlCertforSubjectIssued;
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -1805,6 +2280,11 @@ public class CertStore {
 
   public boolean isCertForKeyIssued(NameId ca, long keyFp) throws OperationException {
     Args.notNull(ca, "ca");
+    UniquenessFilter filter = uniquenessFilters.get(ca.getId());
+    if (filter != null && filter.loaded && !filter.keys.mightContain(keyFp)) {
+      return false;
+    }
+
     String sql = sqlCertForKeyIssued;
     ResultSet rs = null;
     PreparedStatement ps = borrowPreparedStatement(sql);
@@ -1819,7 +2299,7 @@ public class CertStore {
     } finally {
       datasource.releaseResources(ps, rs);
     }
-  } // method isCertForSubjectIssued
+  } // method isCertForKeyIssued
 
   private String base64Fp(byte[] data) {
     return HashAlgo.SHA1.base64Hash(data);
@@ -1974,53 +2454,6 @@ public class CertStore {
     return sql;
   } // method getSqlSuspendedSerials
 
-  private String getSqlDeltaCrlCacheIds(int numEntries) {
-    String sql = cacheSqlDeltaCrlCacheIds.get(numEntries);
-    if (sql == null) {
-      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC",
-          "ID FROM DELTACRL_CACHE WHERE ID>? AND CA_ID=?");
-      cacheSqlDeltaCrlCacheIds.put(numEntries, sql);
-    }
-    return sql;
-  } // method getSqlDeltaCrlCacheIds
-
-  private String getSqlRevokedCerts(int numEntries, boolean withEe) {
-    LruCache<Integer, String> cache = withEe ? cacheSqlRevokedCertsWithEe : cacheSqlRevokedCerts;
-    String sql = cache.get(numEntries);
-    if (sql == null) {
-      String coreSql =
-          "ID,SN,RR,RT,RIT FROM CERT WHERE ID>? AND CA_ID=? AND REV=1 AND NAFTER>?";
-      if (withEe) {
-        coreSql += " AND EE=?";
-      }
-      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC", coreSql);
-      cache.put(numEntries, sql);
-    }
-    return sql;
-  } // method getSqlRevokedCerts
-
-  private String getSqlSerials(int numEntries, boolean onlyRevoked) {
-    LruCache<Integer, String> cache = onlyRevoked ? cacheSqlSerialsRevoked : cacheSqlSerials;
-    String sql = cache.get(numEntries);
-    if (sql == null) {
-      String coreSql = "ID,SN FROM CERT WHERE ID>? AND CA_ID=?";
-      if (onlyRevoked) {
-        coreSql += "AND REV=1";
-      }
-      sql = datasource.buildSelectFirstSql(numEntries, "ID ASC", coreSql);
-      cache.put(numEntries, sql);
-    }
-    return sql;
-  } // method getSqlSerials
-
-  private String getSqlSerials(int numEntries, Date notExpiredAt, boolean onlyRevoked,
-      boolean withEe) {
-    String sql = StringUtil.concat("ID,SN FROM CERT WHERE ID>? AND CA_ID=?",
-        (notExpiredAt != null ? " AND NAFTER>?" : ""),
-        (onlyRevoked ? " AND REV=1" : ""), (withEe ? " AND EE=?" : ""));
-    return datasource.buildSelectFirstSql(numEntries, "ID ASC", sql);
-  } // method getSqlSerials
-
   private static void setBoolean(PreparedStatement ps, int index, boolean value)
       throws SQLException {
     ps.setInt(index, value ? 1 : 0);
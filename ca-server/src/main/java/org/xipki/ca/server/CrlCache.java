@@ -0,0 +1,92 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.math.BigInteger;
+
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+import org.xipki.util.LruCache;
+
+/**
+ * Cache of the DER-encoded CRLs of one CA, identified by the CRL number. Since a CRL is never
+ * changed once it has been generated, the cached entries need not be invalidated.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class CrlCache {
+
+  static class EncodedCrl {
+
+    private final BigInteger crlNumber;
+
+    private final byte[] encoded;
+
+    private final String etag;
+
+    private EncodedCrl(BigInteger crlNumber, byte[] encoded) {
+      this.crlNumber = crlNumber;
+      this.encoded = encoded;
+      this.etag = "\"" + HashAlgo.SHA1.hexHash(encoded) + "\"";
+    }
+
+    public BigInteger getCrlNumber() {
+      return crlNumber;
+    }
+
+    /**
+     * Returns the DER-encoded CRL. The returned array must not be modified.
+     *
+     * @return the DER-encoded CRL.
+     */
+    public byte[] getEncoded() {
+      return encoded;
+    }
+
+    /**
+     * Returns the entity tag of the CRL, as used in the HTTP headers ETag and If-None-Match.
+     *
+     * @return the entity tag, including the quotation marks.
+     */
+    public String getEtag() {
+      return etag;
+    }
+
+  } // class EncodedCrl
+
+  private final LruCache<BigInteger, EncodedCrl> crls;
+
+  CrlCache(int maxSize) {
+    this.crls = new LruCache<>(Args.positive(maxSize, "maxSize"));
+  }
+
+  EncodedCrl get(BigInteger crlNumber) {
+    return crls.get(Args.notNull(crlNumber, "crlNumber"));
+  }
+
+  EncodedCrl put(BigInteger crlNumber, byte[] encoded) {
+    Args.notNull(crlNumber, "crlNumber");
+    Args.notNull(encoded, "encoded");
+    EncodedCrl crl = new EncodedCrl(crlNumber, encoded);
+    crls.put(crlNumber, crl);
+    return crl;
+  }
+
+}
@@ -17,7 +17,12 @@
 
 package org.xipki.ca.server;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
@@ -25,17 +30,30 @@ import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.api.OperationException.ErrorCode;
+import org.xipki.ca.api.mgmt.CtlogControl;
 import org.xipki.security.HashAlgo;
 import org.xipki.security.X509Cert;
 import org.xipki.security.ctlog.CtLog;
@@ -47,10 +65,10 @@ import org.xipki.security.ctlog.CtLog.SignedCertificateTimestampList;
 import org.xipki.security.ctlog.CtLogMessages.AddPreChainRequest;
 import org.xipki.security.ctlog.CtLogMessages.AddPreChainResponse;
 import org.xipki.util.Args;
-import org.xipki.util.Curl;
-import org.xipki.util.Curl.CurlResult;
-import org.xipki.util.DefaultCurl;
 import org.xipki.util.Hex;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ObjectCreationException;
 import org.xipki.util.StringUtil;
 import org.xipki.util.http.SslContextConf;
 
@@ -59,33 +77,98 @@ import com.alibaba.fastjson.JSON;
 /**
  * Certificate transparency (CT) log client.
  *
+ * <p>The pre-certificate chain is submitted to all CT log servers concurrently, each with its
+ * own timeout. The SCTs are returned as soon as the required number (quorum) of valid SCTs has
+ * been received, the remaining submissions are cancelled. The HTTP connections are kept alive
+ * and reused for subsequent submissions.
+ *
+ * <p>At most (number of CT log servers &times; concurrency) submissions run at the same time.
+ * A submission which cannot be started because all threads are busy counts as failed.
+ *
  * @author Lijun Liao
  */
-public class CtLogClient {
+public class CtLogClient implements Closeable {
 
   private static Logger LOG = LoggerFactory.getLogger(CtLogClient.class);
 
-  private final Curl curl;
+  /**
+   * Default number of certificates for which the SCTs are requested concurrently.
+   */
+  public static final int DFLT_CONCURRENCY = 32;
 
   private final List<String> addPreChainUrls;
 
+  private final int timeout;
+
+  private final int quorum;
+
+  private final SslContextConf sslContextConf;
+
+  private final ThreadPoolExecutor executor;
+
+  private boolean sslInitialized;
+
+  private SSLSocketFactory sslSocketFactory;
+
+  private HostnameVerifier hostnameVerifier;
+
   public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf) {
+    this(serverUrls, sslContextConf, CtlogControl.DFLT_TIMEOUT, serverUrls.size(),
+        DFLT_CONCURRENCY);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param serverUrls
+   *          URLs of the CT log servers.
+   * @param sslContextConf
+   *          SSL context configuration. {@code null} to use the default one.
+   * @param timeout
+   *          Timeout in milliseconds to get the SCT from one CT log server.
+   * @param quorum
+   *          Number of valid SCTs required.
+   * @param concurrency
+   *          Expected number of certificates for which the SCTs are requested concurrently.
+   */
+  public CtLogClient(List<String> serverUrls, SslContextConf sslContextConf, int timeout,
+      int quorum, int concurrency) {
     Args.notEmpty(serverUrls, "serverUrls");
+    this.timeout = Args.positive(timeout, "timeout");
+    this.quorum = Args.range(quorum, "quorum", 1, serverUrls.size());
+    Args.positive(concurrency, "concurrency");
 
-    DefaultCurl dfltCurl  = new DefaultCurl();
-    dfltCurl.setSslContextConf(sslContextConf);
-    this.curl = dfltCurl;
+    this.sslContextConf = sslContextConf;
     this.addPreChainUrls = new ArrayList<>(serverUrls.size());
     for (String m : serverUrls) {
       String addPreChainUrl = m.endsWith("/")
           ? m + "ct/v1/add-pre-chain" : m + "/ct/v1/add-pre-chain";
       this.addPreChainUrls.add(addPreChainUrl);
     }
+
+    ThreadFactory threadFactory = new ThreadFactory() {
+
+      private final AtomicInteger index = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ctlog-" + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    };
+
+    // the submissions are not queued: if all threads are busy, the submission is rejected.
+    int numThreads = (int) Math.min(Integer.MAX_VALUE, (long) serverUrls.size() * concurrency);
+    this.executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS,
+        new SynchronousQueue<Runnable>(), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    this.executor.allowCoreThreadTimeOut(true);
   } // constructor
 
   public SignedCertificateTimestampList getCtLogScts(
       X509CertificateHolder precert, X509Cert caCert, List<X509Cert> certchain,
-      CtLogPublicKeyFinder publicKeyFinder) throws OperationException {
+      final CtLogPublicKeyFinder publicKeyFinder) throws OperationException {
     AddPreChainRequest request = new AddPreChainRequest();
     List<byte[]> chain = new LinkedList<>();
     request.setChain(chain);
@@ -97,14 +180,14 @@ public class CtLogClient {
       throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex.getMessage());
     }
 
-    byte[] issuerKeyHash;
+    final byte[] issuerKeyHash;
     try {
       issuerKeyHash = HashAlgo.SHA256.hash(caCert.getSubjectPublicKeyInfo().getEncoded());
     } catch (IOException ex) {
       throw new OperationException(ErrorCode.SYSTEM_FAILURE, ex.getMessage());
     }
 
-    byte[] preCertTbsCert;
+    final byte[] preCertTbsCert;
     try {
       preCertTbsCert = CtLog.getPreCertTbsCert(precert.toASN1Structure().getTBSCertificate());
     } catch (IOException ex) {
@@ -119,74 +202,193 @@ public class CtLogClient {
       }
     }
 
-    byte[] content = JSON.toJSONBytes(request);
+    final byte[] content = JSON.toJSONBytes(request);
     if (LOG.isDebugEnabled()) {
       LOG.debug("CTLog Request: {}", StringUtil.toUtf8String(content));
     }
 
-    List<SignedCertificateTimestamp> scts = new ArrayList<>(addPreChainUrls.size());
-    Map<String, String> headers = new HashMap<>();
-    headers.put("content-type", "application/json");
-    for (String url : addPreChainUrls) {
-      CurlResult res;
+    initSslIfNotDone();
+
+    CompletionService<SignedCertificateTimestamp> completionService =
+        new ExecutorCompletionService<>(executor);
+    List<Future<SignedCertificateTimestamp>> futures = new ArrayList<>(addPreChainUrls.size());
+    List<String> errors = new LinkedList<>();
+    for (final String url : addPreChainUrls) {
       try {
-        res = curl.curlPost(url, false, headers, null, content);
-      } catch (Exception ex) {
-        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-            "error while calling " + url + ": " + ex.getMessage());
+        futures.add(completionService.submit(new Callable<SignedCertificateTimestamp>() {
+          @Override
+          public SignedCertificateTimestamp call() throws Exception {
+            return getSct(url, content, publicKeyFinder, issuerKeyHash, preCertTbsCert);
+          }
+        }));
+      } catch (RejectedExecutionException ex) {
+        // counts as failed submission
+        LOG.warn("could not submit to {}: too many concurrent submissions", url);
+        errors.add("too many concurrent submissions to " + url);
       }
+    }
 
-      byte[] respContent = res.getContent();
-      if (respContent == null) {
-        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
-            "server does not return any content while responding " + url);
-      }
+    List<SignedCertificateTimestamp> scts = new ArrayList<>(quorum);
+    // the submissions run in parallel, each of them has its own timeout
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
 
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("CTLog Response: {}", StringUtil.toUtf8String(respContent));
+    try {
+      int pendings = futures.size();
+      while (scts.size() < quorum && pendings > 0
+          && scts.size() + pendings >= quorum) {
+        long remaining = deadline - System.nanoTime();
+        Future<SignedCertificateTimestamp> future = (remaining <= 0) ? null
+            : completionService.poll(remaining, TimeUnit.NANOSECONDS);
+        if (future == null) {
+          errors.add(pendings + " CT log server(s) timed out");
+          break;
+        }
+
+        pendings--;
+        try {
+          scts.add(future.get());
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause() == null ? ex : ex.getCause();
+          LogUtil.warn(LOG, cause, "could not get SCT");
+          errors.add(cause.getMessage());
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "interrupted while waiting for the SCTs");
+    } finally {
+      // cancel the outstanding submissions
+      for (Future<SignedCertificateTimestamp> future : futures) {
+        future.cancel(true);
       }
+    }
 
-      AddPreChainResponse resp = JSON.parseObject(respContent, AddPreChainResponse.class);
+    if (scts.size() < quorum) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE, "received only " + scts.size()
+          + " of " + quorum + " required SCTs: " + errors);
+    }
 
-      DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
-      byte sctVersion = resp.getSct_version();
-      byte[] logId = resp.getId();
-      String hexLogId = Hex.encodeUpper(logId);
-      long timestamp = resp.getTimestamp();
-      byte[] extensions = resp.getExtensions();
+    return new SignedCertificateTimestampList(new SerializedSCT(scts));
+  } // method getCtLogScts
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
 
-      PublicKey verifyKey = publicKeyFinder == null ? null : publicKeyFinder.getPublicKey(logId);
-      if (verifyKey == null) {
-        LOG.warn("could not find CtLog public key 0x{} to verify the SCT", hexLogId);
+  private SignedCertificateTimestamp getSct(String url, byte[] content,
+      CtLogPublicKeyFinder publicKeyFinder, byte[] issuerKeyHash, byte[] preCertTbsCert)
+          throws OperationException {
+    byte[] respContent;
+    try {
+      respContent = post(url, content);
+    } catch (IOException ex) {
+      throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+          "error while calling " + url + ": " + ex.getMessage());
+    }
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("CTLog Response: {}", StringUtil.toUtf8String(respContent));
+    }
+
+    AddPreChainResponse resp = JSON.parseObject(respContent, AddPreChainResponse.class);
+
+    DigitallySigned ds = DigitallySigned.getInstance(resp.getSignature(), new AtomicInteger(0));
+    byte sctVersion = resp.getSct_version();
+    byte[] logId = resp.getId();
+    String hexLogId = Hex.encodeUpper(logId);
+    long timestamp = resp.getTimestamp();
+    byte[] extensions = resp.getExtensions();
+
+    PublicKey verifyKey = publicKeyFinder == null ? null : publicKeyFinder.getPublicKey(logId);
+    if (verifyKey == null) {
+      LOG.warn("could not find CtLog public key 0x{} to verify the SCT", hexLogId);
+    } else {
+      SignatureAndHashAlgorithm algorithm = ds.getAlgorithm();
+      String sigAlgo = getSignatureAlgo(algorithm);
+
+      boolean sigValid;
+      try {
+        Signature sig = Signature.getInstance(sigAlgo, "BC");
+        sig.initVerify(verifyKey);
+        CtLog.update(sig, sctVersion, timestamp, extensions, issuerKeyHash, preCertTbsCert);
+        sigValid = sig.verify(ds.getSignature());
+      } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException
+          | SignatureException ex) {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE, "error verifying SCT signature");
+      }
+
+      if (sigValid) {
+        LOG.info("verified SCT signature with logId {} and timestamp {}", hexLogId, timestamp);
       } else {
-        SignatureAndHashAlgorithm algorithm = ds.getAlgorithm();
-        String sigAlgo = getSignatureAlgo(algorithm);
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+            "SCT signature returned by " + url + " is invalid");
+      }
+    }
 
-        boolean sigValid;
-        try {
-          Signature sig = Signature.getInstance(sigAlgo, "BC");
-          sig.initVerify(verifyKey);
-          CtLog.update(sig, sctVersion, timestamp, extensions, issuerKeyHash, preCertTbsCert);
-          sigValid = sig.verify(ds.getSignature());
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | InvalidKeyException
-            | SignatureException ex) {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE, "error verifying SCT signature");
-        }
+    return new SignedCertificateTimestamp(sctVersion, logId, timestamp, extensions, ds);
+  } // method getSct
 
-        if (sigValid) {
-          LOG.info("verified SCT signature with logId {} and timestamp {}", hexLogId, timestamp);
-        } else {
-          throw new OperationException(ErrorCode.SYSTEM_FAILURE, "SCT signature is invalid");
-        }
+  private byte[] post(String url, byte[] content) throws IOException {
+    HttpURLConnection httpConn = IoUtil.openHttpConn(new URL(url));
+    if (httpConn instanceof HttpsURLConnection) {
+      if (sslSocketFactory != null) {
+        ((HttpsURLConnection) httpConn).setSSLSocketFactory(sslSocketFactory);
       }
+      if (hostnameVerifier != null) {
+        ((HttpsURLConnection) httpConn).setHostnameVerifier(hostnameVerifier);
+      }
+    }
+
+    httpConn.setConnectTimeout(timeout);
+    httpConn.setReadTimeout(timeout);
+    httpConn.setRequestMethod("POST");
+    httpConn.setUseCaches(false);
+    httpConn.setDoOutput(true);
+    httpConn.setRequestProperty("Content-Type", "application/json");
+    httpConn.setFixedLengthStreamingMode(content.length);
 
-      SignedCertificateTimestamp sct = new SignedCertificateTimestamp(sctVersion,
-          logId, timestamp, extensions, ds);
-      scts.add(sct);
+    try (OutputStream os = httpConn.getOutputStream()) {
+      os.write(content);
     }
 
-    return new SignedCertificateTimestampList(new SerializedSCT(scts));
-  } // method getCtLogScts
+    int respCode = httpConn.getResponseCode();
+    if (respCode != HttpURLConnection.HTTP_OK) {
+      // read the error stream completely, so that the connection can be reused
+      InputStream errorStream = httpConn.getErrorStream();
+      if (errorStream != null) {
+        IoUtil.read(errorStream);
+      }
+      throw new IOException("bad response: " + respCode + " " + httpConn.getResponseMessage());
+    }
+
+    // do not disconnect, the connection is returned to the keep-alive cache after
+    // its stream has been read completely and closed.
+    byte[] respContent = IoUtil.read(httpConn.getInputStream());
+    if (respContent == null || respContent.length == 0) {
+      throw new IOException("server does not return any content");
+    }
+    return respContent;
+  } // method post
+
+  private synchronized void initSslIfNotDone() throws OperationException {
+    if (sslInitialized) {
+      return;
+    }
+
+    if (sslContextConf != null && sslContextConf.isUseSslConf()) {
+      try {
+        sslSocketFactory = sslContextConf.getSslSocketFactory();
+        hostnameVerifier = sslContextConf.buildHostnameVerifier();
+      } catch (ObjectCreationException ex) {
+        throw new OperationException(ErrorCode.SYSTEM_FAILURE,
+            "could not initialize SSL context: " + ex.getMessage());
+      }
+    }
+
+    sslInitialized = true;
+  } // method initSslIfNotDone
 
   private static String getSignatureAlgo(SignatureAndHashAlgorithm algorithm)
       throws OperationException {
@@ -0,0 +1,93 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.xipki.util.Args;
+
+/**
+ * Lock-free Bloom filter of 64-bit fingerprints, e.g. the columns FP_K and FP_S of the table
+ * CERT. If {@link #mightContain(long)} returns {@code false}, the fingerprint has never been
+ * added. Otherwise it has probably been added, with a false positive rate of about 1% as long
+ * as not more than the expected number of fingerprints have been added.
+ *
+ * <p>Fingerprints cannot be removed.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class FingerprintFilter {
+
+  private static final int BITS_PER_ENTRY = 10;
+
+  // optimal for 10 bits per entry: 10 * ln(2)
+  private static final int NUM_HASHES = 7;
+
+  private static final int MAX_WORDS = Integer.MAX_VALUE - 8;
+
+  private final AtomicLongArray words;
+
+  private final long numBits;
+
+  /**
+   * Constructor.
+   *
+   * @param expectedEntries
+   *          Expected number of fingerprints.
+   */
+  FingerprintFilter(long expectedEntries) {
+    Args.positive(expectedEntries, "expectedEntries");
+    long numWords = (expectedEntries * BITS_PER_ENTRY + 63) / 64;
+    this.words = new AtomicLongArray((int) Math.min(numWords, MAX_WORDS));
+    this.numBits = 64L * words.length();
+  } // constructor
+
+  void add(long fp) {
+    // the fingerprints are already hash values, derive the other hashes via double hashing
+    long hash2 = hash2(fp);
+    for (int i = 0; i < NUM_HASHES; i++) {
+      long bitIndex = Math.floorMod(fp + i * hash2, numBits);
+      int wordIndex = (int) (bitIndex >>> 6);
+      long mask = 1L << bitIndex;
+
+      long word = words.get(wordIndex);
+      while ((word & mask) == 0 && !words.compareAndSet(wordIndex, word, word | mask)) {
+        word = words.get(wordIndex);
+      }
+    }
+  } // method add
+
+  boolean mightContain(long fp) {
+    long hash2 = hash2(fp);
+    for (int i = 0; i < NUM_HASHES; i++) {
+      long bitIndex = Math.floorMod(fp + i * hash2, numBits);
+      if ((words.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  } // method mightContain
+
+  private static long hash2(long fp) {
+    // odd, hence never 0
+    return (Long.rotateLeft(fp, 32) * 0x9E3779B97F4A7C15L) | 1;
+  }
+
+}
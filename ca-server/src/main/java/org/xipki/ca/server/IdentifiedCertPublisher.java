@@ -18,6 +18,7 @@
 package org.xipki.ca.server;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.Map;
 
 import org.bouncycastle.cert.X509CRLHolder;
@@ -65,6 +66,10 @@ class IdentifiedCertPublisher implements Closeable {
     return certPublisher.certificateAdded(certInfo);
   }
 
+  public boolean[] certificatesAdded(List<CertificateInfo> certInfos) {
+    return certPublisher.certificatesAdded(certInfos);
+  }
+
   public boolean certificateRevoked(X509Cert caCert, CertWithDbId cert, String certprofile,
       CertRevocationInfo revInfo) {
     return certPublisher.certificateRevoked(caCert, cert, certprofile, revInfo);
@@ -18,6 +18,7 @@
 package org.xipki.ca.server;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -27,7 +28,10 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1EncodableVector;
@@ -44,10 +48,8 @@ import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.style.IETFUtils;
 import org.bouncycastle.asn1.x509.AccessDescription;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
-import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
 import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
 import org.bouncycastle.asn1.x509.BasicConstraints;
-import org.bouncycastle.asn1.x509.CRLDistPoint;
 import org.bouncycastle.asn1.x509.CertificatePolicies;
 import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
 import org.bouncycastle.asn1.x509.Extension;
@@ -116,11 +118,47 @@ import org.xipki.util.Validity.Unit;
 
 class IdentifiedCertprofile implements Closeable {
 
+  /**
+   * DER encoded values of the extensions which do not depend on the request, for one CA.
+   */
+  private static class ExtensionTemplate {
+
+    private final PublicCaInfo caInfo;
+
+    private final X500Name crlSignerSubject;
+
+    private final Map<ASN1ObjectIdentifier, ExtensionValue> values = new HashMap<>();
+
+    private ExtensionTemplate(PublicCaInfo caInfo, X500Name crlSignerSubject) {
+      this.caInfo = caInfo;
+      this.crlSignerSubject = crlSignerSubject;
+    }
+
+    private void add(ASN1ObjectIdentifier type, ExtensionControl control, ASN1Encodable value)
+        throws CertprofileException {
+      if (value == null) {
+        return;
+      }
+
+      ExtensionValue extValue = new ExtensionValue(control.isCritical(), value);
+      try {
+        extValue.getEncodedValue();
+      } catch (IOException ex) {
+        throw new CertprofileException("could not encode extension " + type.getId(), ex);
+      }
+      values.put(type, extValue);
+    } // method add
+
+  } // class ExtensionTemplate
+
   private static Validity maxCabEeValidity = new Validity(825, Unit.DAY);
 
   private final MgmtEntry.Certprofile dbEntry;
   private final Certprofile certprofile;
 
+  private final ConcurrentMap<X500Name, ExtensionTemplate> extensionTemplates =
+      new ConcurrentHashMap<>();
+
   IdentifiedCertprofile(MgmtEntry.Certprofile dbEntry, Certprofile certprofile)
       throws CertprofileException {
     this.dbEntry = Args.notNull(dbEntry, "dbEntry");
@@ -414,140 +452,74 @@ class IdentifiedCertprofile implements Closeable {
       addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
     }
 
-    // Authority key identifier
-    extType = Extension.authorityKeyIdentifier;
-    extControl = controls.remove(extType);
-    if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      AuthorityKeyIdentifier value = null;
-      if (certprofile.useIssuerAndSerialInAki()) {
-        GeneralNames x509CaIssuer = new GeneralNames(
-            new GeneralName(publicCaInfo.getIssuer()));
-        value = new AuthorityKeyIdentifier(x509CaIssuer, publicCaInfo.getSerialNumber());
-      } else {
-        byte[] ikiValue = publicCaInfo.getSubjectKeyIdentifer();
-        if (ikiValue != null) {
-          value = new AuthorityKeyIdentifier(ikiValue);
-        }
-      }
-
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-    }
-
-    // IssuerAltName
-    extType = Extension.issuerAlternativeName;
-    extControl = controls.remove(extType);
-    if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      GeneralNames value = publicCaInfo.getSubjectAltName();
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-    }
+    // the extension values not depending on the request are precompiled per CA
+    ExtensionTemplate template = getExtensionTemplate(publicCaInfo, crlSignerCert);
 
-    // AuthorityInfoAccess
-    extType = Extension.authorityInfoAccess;
-    extControl = controls.remove(extType);
-    CaUris caUris = publicCaInfo.getCaUris();
-
-    if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      AuthorityInfoAccessControl aiaControl = certprofile.getAiaControl();
-
-      List<String> caIssuers = null;
-      if (aiaControl == null || aiaControl.isIncludesCaIssuers()) {
-        caIssuers = caUris.getCacertUris();
-      }
-
-      List<String> ocspUris = null;
-      if (aiaControl == null || aiaControl.isIncludesOcsp()) {
-        ocspUris = caUris.getOcspUris();
-      }
-
-      AuthorityInformationAccess value = null;
-      if (CollectionUtil.isNotEmpty(caIssuers) || CollectionUtil.isNotEmpty(ocspUris)) {
-        value = CaUtil.createAuthorityInformationAccess(
-            caIssuers, ocspUris);
-      }
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-    }
-
-    if (controls.containsKey(Extension.cRLDistributionPoints)
-        || controls.containsKey(Extension.freshestCRL)) {
-      X500Name crlSignerSubject = (crlSignerCert == null) ? null : crlSignerCert.getSubject();
-      X500Name x500CaPrincipal = publicCaInfo.getSubject();
-
-      // CRLDistributionPoints
-      extType = Extension.cRLDistributionPoints;
-      extControl = controls.remove(extType);
-      if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-        CRLDistPoint value = null;
-        if (CollectionUtil.isNotEmpty(caUris.getCrlUris())) {
-          value = CaUtil.createCrlDistributionPoints(caUris.getCrlUris(),
-              x500CaPrincipal, crlSignerSubject);
-        }
-        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-      }
-
-      // FreshestCRL
-      extType = Extension.freshestCRL;
-      extControl = controls.remove(extType);
-      if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-        CRLDistPoint value = null;
-        if (CollectionUtil.isNotEmpty(caUris.getDeltaCrlUris())) {
-          value = CaUtil.createCrlDistributionPoints(caUris.getDeltaCrlUris(),
-              x500CaPrincipal, crlSignerSubject);
-        }
-        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+    // Authority key identifier, IssuerAltName, AuthorityInfoAccess, CRLDistributionPoints,
+    // FreshestCRL and BasicConstraints
+    ASN1ObjectIdentifier[] constantExtTypes = {Extension.authorityKeyIdentifier,
+        Extension.issuerAlternativeName, Extension.authorityInfoAccess,
+        Extension.cRLDistributionPoints, Extension.freshestCRL, Extension.basicConstraints};
+    for (ASN1ObjectIdentifier m : constantExtTypes) {
+      extControl = controls.remove(m);
+      if (extControl != null && addMe(m, extControl, neededExtTypes, wantedExtTypes)) {
+        addExtension(values, m, template.values.get(m), extControl, neededExtTypes,
+            wantedExtTypes);
       }
     }
 
-    // BasicConstraints
-    extType = Extension.basicConstraints;
-    extControl = controls.remove(extType);
-    if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      BasicConstraints value = CaUtil.createBasicConstraints(certprofile.getCertLevel(),
-          certprofile.getPathLenBasicConstraint());
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
-    }
-
     // KeyUsage
     extType = Extension.keyUsage;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      Set<KeyUsage> usages = new HashSet<>();
-      Set<KeyUsageControl> usageOccs = certprofile.getKeyUsage();
-      for (KeyUsageControl k : usageOccs) {
-        if (k.isRequired()) {
-          usages.add(k.getKeyUsage());
+      ExtensionValue constantValue = template.values.get(extType);
+      if (constantValue != null) {
+        addExtension(values, extType, constantValue, extControl, neededExtTypes, wantedExtTypes);
+      } else {
+        Set<KeyUsage> usages = new HashSet<>();
+        Set<KeyUsageControl> usageOccs = certprofile.getKeyUsage();
+        for (KeyUsageControl k : usageOccs) {
+          if (k.isRequired()) {
+            usages.add(k.getKeyUsage());
+          }
         }
-      }
 
-      // the optional KeyUsage will only be set if requested explicitly
-      addRequestedKeyusage(usages, requestedExtns, usageOccs);
+        // the optional KeyUsage will only be set if requested explicitly
+        addRequestedKeyusage(usages, requestedExtns, usageOccs);
 
-      org.bouncycastle.asn1.x509.KeyUsage value = X509Util.createKeyUsage(usages);
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+        org.bouncycastle.asn1.x509.KeyUsage value = X509Util.createKeyUsage(usages);
+        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+      }
     }
 
     // ExtendedKeyUsage
     extType = Extension.extendedKeyUsage;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      List<ASN1ObjectIdentifier> usages = new LinkedList<>();
-      Set<ExtKeyUsageControl> usageOccs = certprofile.getExtendedKeyUsages();
-      for (ExtKeyUsageControl k : usageOccs) {
-        if (k.isRequired()) {
-          usages.add(k.getExtKeyUsage());
+      ExtensionValue constantValue = template.values.get(extType);
+      if (constantValue != null) {
+        addExtension(values, extType, constantValue, extControl, neededExtTypes, wantedExtTypes);
+      } else {
+        List<ASN1ObjectIdentifier> usages = new LinkedList<>();
+        Set<ExtKeyUsageControl> usageOccs = certprofile.getExtendedKeyUsages();
+        for (ExtKeyUsageControl k : usageOccs) {
+          if (k.isRequired()) {
+            usages.add(k.getExtKeyUsage());
+          }
         }
-      }
 
-      // the optional ExtKeyUsage will only be set if requested explicitly
-      addRequestedExtKeyusage(usages, requestedExtns, usageOccs);
+        // the optional ExtKeyUsage will only be set if requested explicitly
+        addRequestedExtKeyusage(usages, requestedExtns, usageOccs);
 
-      if (extControl.isCritical()
-          && usages.contains(ObjectIdentifiers.XKU.id_kp_anyExtendedKeyUsage)) {
-        extControl = new ExtensionControl(false, extControl.isRequired(),
-            extControl.isRequest());
-      }
+        if (extControl.isCritical()
+            && usages.contains(ObjectIdentifiers.XKU.id_kp_anyExtendedKeyUsage)) {
+          extControl = new ExtensionControl(false, extControl.isRequired(),
+              extControl.isRequest());
+        }
 
-      ExtendedKeyUsage value = X509Util.createExtendedUsage(usages);
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+        ExtendedKeyUsage value = X509Util.createExtendedUsage(usages);
+        addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+      }
     }
 
     // ocsp-nocheck
@@ -555,7 +527,8 @@ class IdentifiedCertprofile implements Closeable {
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
       // the extension ocsp-nocheck will only be set if requested explicitly
-      addExtension(values, extType, DERNull.INSTANCE, extControl, neededExtTypes, wantedExtTypes);
+      addExtension(values, extType, template.values.get(extType), extControl, neededExtTypes,
+          wantedExtTypes);
     }
 
     // SubjectInfoAccess
@@ -571,8 +544,8 @@ class IdentifiedCertprofile implements Closeable {
     extType = Extension.certificatePolicies;
     extControl = controls.remove(extType);
     if (extControl != null && addMe(extType, extControl, neededExtTypes, wantedExtTypes)) {
-      ASN1Encodable value = certprofile.getCertificatePolicies();
-      addExtension(values, extType, value, extControl, neededExtTypes, wantedExtTypes);
+      addExtension(values, extType, template.values.get(extType), extControl, neededExtTypes,
+          wantedExtTypes);
     }
 
     // remove extensions that are not required from the list, and not contained in the request
@@ -698,6 +671,154 @@ class IdentifiedCertprofile implements Closeable {
     return values;
   } // method getExtensions
 
+  private ExtensionTemplate getExtensionTemplate(PublicCaInfo publicCaInfo,
+      X509Cert crlSignerCert) throws CertprofileException {
+    X500Name crlSignerSubject = (crlSignerCert == null) ? null : crlSignerCert.getSubject();
+    X500Name caSubject = publicCaInfo.getSubject();
+
+    // a changed CA has a new PublicCaInfo
+    ExtensionTemplate template = extensionTemplates.get(caSubject);
+    if (template != null && template.caInfo == publicCaInfo
+        && Objects.equals(template.crlSignerSubject, crlSignerSubject)) {
+      return template;
+    }
+
+    template = new ExtensionTemplate(publicCaInfo, crlSignerSubject);
+    Map<ASN1ObjectIdentifier, ExtensionControl> controls = certprofile.getExtensionControls();
+
+    // Authority key identifier
+    ASN1ObjectIdentifier extType = Extension.authorityKeyIdentifier;
+    ExtensionControl extControl = controls.get(extType);
+    if (extControl != null) {
+      AuthorityKeyIdentifier value = null;
+      if (certprofile.useIssuerAndSerialInAki()) {
+        GeneralNames x509CaIssuer = new GeneralNames(
+            new GeneralName(publicCaInfo.getIssuer()));
+        value = new AuthorityKeyIdentifier(x509CaIssuer, publicCaInfo.getSerialNumber());
+      } else {
+        byte[] ikiValue = publicCaInfo.getSubjectKeyIdentifer();
+        if (ikiValue != null) {
+          value = new AuthorityKeyIdentifier(ikiValue);
+        }
+      }
+      template.add(extType, extControl, value);
+    }
+
+    // IssuerAltName
+    extType = Extension.issuerAlternativeName;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      template.add(extType, extControl, publicCaInfo.getSubjectAltName());
+    }
+
+    // AuthorityInfoAccess
+    CaUris caUris = publicCaInfo.getCaUris();
+    extType = Extension.authorityInfoAccess;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      AuthorityInfoAccessControl aiaControl = certprofile.getAiaControl();
+
+      List<String> caIssuers = null;
+      if (aiaControl == null || aiaControl.isIncludesCaIssuers()) {
+        caIssuers = caUris.getCacertUris();
+      }
+
+      List<String> ocspUris = null;
+      if (aiaControl == null || aiaControl.isIncludesOcsp()) {
+        ocspUris = caUris.getOcspUris();
+      }
+
+      if (CollectionUtil.isNotEmpty(caIssuers) || CollectionUtil.isNotEmpty(ocspUris)) {
+        template.add(extType, extControl,
+            CaUtil.createAuthorityInformationAccess(caIssuers, ocspUris));
+      }
+    }
+
+    // CRLDistributionPoints
+    extType = Extension.cRLDistributionPoints;
+    extControl = controls.get(extType);
+    if (extControl != null && CollectionUtil.isNotEmpty(caUris.getCrlUris())) {
+      template.add(extType, extControl, CaUtil.createCrlDistributionPoints(caUris.getCrlUris(),
+          caSubject, crlSignerSubject));
+    }
+
+    // FreshestCRL
+    extType = Extension.freshestCRL;
+    extControl = controls.get(extType);
+    if (extControl != null && CollectionUtil.isNotEmpty(caUris.getDeltaCrlUris())) {
+      template.add(extType, extControl, CaUtil.createCrlDistributionPoints(
+          caUris.getDeltaCrlUris(), caSubject, crlSignerSubject));
+    }
+
+    // BasicConstraints
+    extType = Extension.basicConstraints;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      template.add(extType, extControl, CaUtil.createBasicConstraints(
+          certprofile.getCertLevel(), certprofile.getPathLenBasicConstraint()));
+    }
+
+    // KeyUsage, only if no optional key usage may be requested
+    extType = Extension.keyUsage;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      Set<KeyUsage> usages = new HashSet<>();
+      boolean constant = true;
+      for (KeyUsageControl k : certprofile.getKeyUsage()) {
+        if (k.isRequired()) {
+          usages.add(k.getKeyUsage());
+        } else {
+          constant = false;
+        }
+      }
+
+      if (constant) {
+        template.add(extType, extControl, X509Util.createKeyUsage(usages));
+      }
+    }
+
+    // ExtendedKeyUsage, only if no optional extended key usage may be requested
+    extType = Extension.extendedKeyUsage;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      List<ASN1ObjectIdentifier> usages = new LinkedList<>();
+      boolean constant = true;
+      for (ExtKeyUsageControl k : certprofile.getExtendedKeyUsages()) {
+        if (k.isRequired()) {
+          usages.add(k.getExtKeyUsage());
+        } else {
+          constant = false;
+        }
+      }
+
+      if (constant) {
+        if (extControl.isCritical()
+            && usages.contains(ObjectIdentifiers.XKU.id_kp_anyExtendedKeyUsage)) {
+          extControl = new ExtensionControl(false, extControl.isRequired(),
+              extControl.isRequest());
+        }
+        template.add(extType, extControl, X509Util.createExtendedUsage(usages));
+      }
+    }
+
+    // ocsp-nocheck
+    extType = ObjectIdentifiers.Extn.id_extension_pkix_ocsp_nocheck;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      template.add(extType, extControl, DERNull.INSTANCE);
+    }
+
+    // CertificatePolicies
+    extType = Extension.certificatePolicies;
+    extControl = controls.get(extType);
+    if (extControl != null) {
+      template.add(extType, extControl, certprofile.getCertificatePolicies());
+    }
+
+    extensionTemplates.put(caSubject, template);
+    return template;
+  } // method getExtensionTemplate
+
   public CertLevel getCertLevel() {
     return certprofile.getCertLevel();
   }
@@ -0,0 +1,284 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.profile.KeypairGenControl;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.util.KeyUtil;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Pool of keypairs generated in the background, used if the CA generates the keypair of the
+ * new certificate. For each keypair specification (algorithm and parameters), the pool is
+ * refilled up to the high watermark as soon as its size falls below the low watermark. The
+ * pool of a specification is created by the first request for it. Each keypair is handed out
+ * only once.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class KeypairPool implements Closeable {
+
+  private class Pool {
+
+    private final String spec;
+
+    private final KeypairGenControl control;
+
+    private final ConcurrentLinkedQueue<KeyPair> keypairs = new ConcurrentLinkedQueue<>();
+
+    // size of keypairs, ConcurrentLinkedQueue.size() is not a constant-time operation
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    private final AtomicInteger pendings = new AtomicInteger(0);
+
+    private final AtomicLong hits = new AtomicLong(0);
+
+    private final AtomicLong misses = new AtomicLong(0);
+
+    private Pool(String spec, KeypairGenControl control) {
+      this.spec = spec;
+      this.control = control;
+    }
+
+    private KeyPair poll() {
+      KeyPair kp = keypairs.poll();
+      if (kp == null) {
+        misses.incrementAndGet();
+      } else {
+        size.decrementAndGet();
+        hits.incrementAndGet();
+      }
+
+      if (size.get() < lowWatermark) {
+        refill();
+      }
+      return kp;
+    } // method poll
+
+    private void refill() {
+      while (!closed) {
+        int num = pendings.get();
+        if (num >= threads || size.get() + num >= highWatermark) {
+          return;
+        }
+
+        if (!pendings.compareAndSet(num, num + 1)) {
+          continue;
+        }
+
+        try {
+          executor.submit(new Runnable() {
+            @Override
+            public void run() {
+              generateOne();
+            }
+          });
+        } catch (RejectedExecutionException ex) {
+          pendings.decrementAndGet();
+          return;
+        }
+      }
+    } // method refill
+
+    private void generateOne() {
+      try {
+        keypairs.add(generateKeypair(control, random));
+        size.incrementAndGet();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "could not generate keypair " + spec);
+        // do not retry immediately, the next request will trigger the refill
+        pendings.decrementAndGet();
+        return;
+      }
+
+      pendings.decrementAndGet();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("keypair pool {}: size={}, hits={}, misses={}", spec, size.get(),
+            hits.get(), misses.get());
+      }
+      refill();
+    } // method generateOne
+
+  } // class Pool
+
+  private static final Logger LOG = LoggerFactory.getLogger(KeypairPool.class);
+
+  private final ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+
+  private final int lowWatermark;
+
+  private final int highWatermark;
+
+  private final int threads;
+
+  private final SecureRandom random = new SecureRandom();
+
+  private final ExecutorService executor;
+
+  private volatile boolean closed;
+
+  KeypairPool(int lowWatermark, int highWatermark, int threads) {
+    this.lowWatermark = Args.positive(lowWatermark, "lowWatermark");
+    this.highWatermark = Args.positive(highWatermark, "highWatermark");
+    this.threads = Args.positive(threads, "threads");
+    if (lowWatermark > highWatermark) {
+      throw new IllegalArgumentException("lowWatermark must not be greater than highWatermark");
+    }
+
+    this.executor = Executors.newFixedThreadPool(threads);
+  } // constructor
+
+  /**
+   * Returns a keypair from the pool. If the pool is empty, a new keypair is generated directly.
+   *
+   * @param control
+   *          Control specifying the algorithm and parameters of the keypair.
+   * @return the keypair.
+   * @throws GeneralSecurityException
+   *           If the keypair cannot be generated.
+   */
+  KeyPair getKeypair(KeypairGenControl control) throws GeneralSecurityException {
+    String spec = getSpec(control);
+    if (spec == null || closed) {
+      return generateKeypair(control, random);
+    }
+
+    Pool pool = pools.get(spec);
+    if (pool == null) {
+      pools.putIfAbsent(spec, new Pool(spec, control));
+      pool = pools.get(spec);
+      LOG.info("created keypair pool {}", spec);
+    }
+
+    KeyPair kp = pool.poll();
+    return (kp != null) ? kp : generateKeypair(control, random);
+  } // method getKeypair
+
+  /**
+   * Returns the number of available keypairs.
+   *
+   * @param control
+   *          Control specifying the algorithm and parameters of the keypair.
+   * @return number of available keypairs.
+   */
+  int getPoolSize(KeypairGenControl control) {
+    String spec = getSpec(control);
+    Pool pool = (spec == null) ? null : pools.get(spec);
+    return (pool == null) ? 0 : pool.size.get();
+  }
+
+  /**
+   * Returns the number of requests which could not be served from the pool.
+   *
+   * @param control
+   *          Control specifying the algorithm and parameters of the keypair.
+   * @return number of misses.
+   */
+  long getMisses(KeypairGenControl control) {
+    String spec = getSpec(control);
+    Pool pool = (spec == null) ? null : pools.get(spec);
+    return (pool == null) ? 0 : pool.misses.get();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      LOG.warn("interrupted while waiting for the keypair generation threads");
+    }
+
+    for (Pool pool : pools.values()) {
+      LOG.info("keypair pool {}: hits={}, misses={}", pool.spec, pool.hits.get(),
+          pool.misses.get());
+      pool.keypairs.clear();
+    }
+    pools.clear();
+  } // method close
+
+  static KeyPair generateKeypair(KeypairGenControl control, SecureRandom random)
+      throws GeneralSecurityException {
+    if (control instanceof KeypairGenControl.RSAKeypairGenControl) {
+      KeypairGenControl.RSAKeypairGenControl tkg =
+          (KeypairGenControl.RSAKeypairGenControl) control;
+      return KeyUtil.generateRSAKeypair(tkg.getKeysize(), tkg.getPublicExponent(), random);
+    } else if (control instanceof KeypairGenControl.ECKeypairGenControl) {
+      KeypairGenControl.ECKeypairGenControl tkg = (KeypairGenControl.ECKeypairGenControl) control;
+      return KeyUtil.generateECKeypair(tkg.getCurveOid(), random);
+    } else if (control instanceof KeypairGenControl.DSAKeypairGenControl) {
+      KeypairGenControl.DSAKeypairGenControl tkg =
+          (KeypairGenControl.DSAKeypairGenControl) control;
+      return KeyUtil.generateDSAKeypair(tkg.getParameterSpec(), random);
+    } else if (control instanceof KeypairGenControl.EDDSAKeypairGenControl) {
+      KeypairGenControl.EDDSAKeypairGenControl tkg =
+          (KeypairGenControl.EDDSAKeypairGenControl) control;
+      return KeyUtil.generateEdECKeypair(tkg.getKeyAlgorithm().getAlgorithm(), random);
+    } else {
+      throw new IllegalArgumentException("unknown KeyPairGenControl " + control);
+    }
+  } // method generateKeypair
+
+  private static String getSpec(KeypairGenControl control) {
+    if (control instanceof KeypairGenControl.RSAKeypairGenControl) {
+      KeypairGenControl.RSAKeypairGenControl tkg =
+          (KeypairGenControl.RSAKeypairGenControl) control;
+      return "RSA/" + tkg.getKeysize() + "/" + tkg.getPublicExponent().toString(16);
+    } else if (control instanceof KeypairGenControl.ECKeypairGenControl) {
+      return "EC/" + ((KeypairGenControl.ECKeypairGenControl) control).getCurveOid().getId();
+    } else if (control instanceof KeypairGenControl.DSAKeypairGenControl) {
+      KeypairGenControl.DSAKeypairGenControl tkg =
+          (KeypairGenControl.DSAKeypairGenControl) control;
+      try {
+        // the domain parameters are identified by their hash value
+        return "DSA/" + tkg.getParameterSpec().getP().bitLength() + "/"
+            + HashAlgo.SHA1.hexHash(tkg.getKeyAlgorithm().getParameters()
+                .toASN1Primitive().getEncoded());
+      } catch (IOException ex) {
+        return null;
+      }
+    } else if (control instanceof KeypairGenControl.EDDSAKeypairGenControl) {
+      return "EDDSA/" + ((KeypairGenControl.EDDSAKeypairGenControl) control)
+          .getKeyAlgorithm().getAlgorithm().getId();
+    } else {
+      return null;
+    }
+  } // method getSpec
+
+}
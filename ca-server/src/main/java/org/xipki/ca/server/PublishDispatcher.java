@@ -0,0 +1,418 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.CertificateInfo;
+import org.xipki.ca.api.NameId;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Publishes the certificate events of a CA asynchronously. Each publisher has its own bounded
+ * queue processed by one worker thread, so that the events are delivered to a publisher in the
+ * order they have been submitted, e.g. the revocation of a certificate after its addition.
+ *
+ * <p>Events which cannot be queued because the queue is full, which cannot be delivered, or
+ * which are still in the queue on shutdown, are written to the table PUBLISHQUEUE, and will be
+ * published by {@link X509Ca#publishCertsInQueue()}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class PublishDispatcher implements Closeable {
+
+  abstract static class Event {
+
+    private final long certId;
+
+    private final long enqueueTime = System.currentTimeMillis();
+
+    Event(long certId) {
+      this.certId = certId;
+    }
+
+    /**
+     * Delivers the event to the publisher.
+     *
+     * @param publisher
+     *          The publisher.
+     * @return whether the event has been delivered successfully.
+     */
+    protected abstract boolean deliver(IdentifiedCertPublisher publisher);
+
+  } // class Event
+
+  /**
+   * Event of an issued certificate. Consecutive events of this type are delivered via
+   * {@link IdentifiedCertPublisher#certificatesAdded(List)}.
+   */
+  static class CertAddedEvent extends Event {
+
+    private final CertificateInfo certInfo;
+
+    CertAddedEvent(CertificateInfo certInfo) {
+      super(certInfo.getCert().getCertId());
+      this.certInfo = certInfo;
+    }
+
+    @Override
+    protected boolean deliver(IdentifiedCertPublisher publisher) {
+      return publisher.certificateAdded(certInfo);
+    }
+
+  } // class CertAddedEvent
+
+  private class Lane implements Runnable {
+
+    private final NameId publisherIdent;
+
+    private volatile IdentifiedCertPublisher publisher;
+
+    private final BlockingQueue<Event> queue;
+
+    private final AtomicLong enqueued = new AtomicLong(0);
+
+    private final AtomicLong processed = new AtomicLong(0);
+
+    private final AtomicLong spilled = new AtomicLong(0);
+
+    private volatile long lastLag;
+
+    private volatile long maxLag;
+
+    private Lane(IdentifiedCertPublisher publisher) {
+      this.publisher = publisher;
+      this.publisherIdent = publisher.getIdent();
+      this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    private boolean offer(Event event) {
+      // count first, so that flush() waits also for this event
+      enqueued.incrementAndGet();
+      if (queue.offer(event)) {
+        return true;
+      }
+
+      enqueued.decrementAndGet();
+      return false;
+    } // method offer
+
+    @Override
+    public void run() {
+      List<Event> batch = new ArrayList<>(batchSize);
+      while (!closed) {
+        try {
+          Event first = queue.poll(100, TimeUnit.MILLISECONDS);
+          if (first == null) {
+            continue;
+          }
+
+          batch.add(first);
+          queue.drainTo(batch, batchSize - 1);
+          deliver(batch);
+        } catch (InterruptedException ex) {
+          if (!closed) {
+            LOG.warn("interrupted: {}", ex.getMessage());
+          }
+        } finally {
+          batch.clear();
+        }
+      }
+    } // method run
+
+    private void deliver(List<Event> batch) {
+      IdentifiedCertPublisher pub = publisher;
+      int size = batch.size();
+      for (int i = 0; i < size;) {
+        // consecutive issued certificates are published at once
+        int end = i;
+        while (end < size && batch.get(end) instanceof CertAddedEvent) {
+          end++;
+        }
+
+        if (end - i > 1) {
+          List<CertificateInfo> certInfos = new ArrayList<>(end - i);
+          for (int j = i; j < end; j++) {
+            certInfos.add(((CertAddedEvent) batch.get(j)).certInfo);
+          }
+
+          boolean[] results;
+          try {
+            results = pub.certificatesAdded(certInfos);
+          } catch (RuntimeException ex) {
+            LogUtil.warn(LOG, ex, "could not publish events to the publisher " + publisherIdent);
+            results = new boolean[end - i];
+          }
+
+          for (int j = i; j < end; j++) {
+            processed(batch.get(j), results[j - i]);
+          }
+          i = end;
+        } else {
+          Event event = batch.get(i++);
+          boolean successful;
+          try {
+            successful = event.deliver(pub);
+          } catch (RuntimeException ex) {
+            successful = false;
+            LogUtil.warn(LOG, ex, "could not publish event to the publisher " + publisherIdent);
+          }
+          processed(event, successful);
+        }
+      }
+
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("published {} events of CA {} to publisher {}, lag: {} ms, queue: {}",
+            batch.size(), caIdent.getName(), publisherIdent.getName(), lastLag, queue.size());
+      }
+    } // method deliver
+
+    private void processed(Event event, boolean successful) {
+      if (!successful) {
+        spill(publisherIdent, event);
+        spilled.incrementAndGet();
+      }
+
+      long lag = System.currentTimeMillis() - event.enqueueTime;
+      lastLag = lag;
+      if (lag > maxLag) {
+        maxLag = lag;
+      }
+      processed.incrementAndGet();
+    } // method processed
+
+    private boolean isFlushed(long target) {
+      return processed.get() >= target;
+    }
+
+  } // class Lane
+
+  private static final Logger LOG = LoggerFactory.getLogger(PublishDispatcher.class);
+
+  private final NameId caIdent;
+
+  private final CertStore certstore;
+
+  private final int queueSize;
+
+  private final int batchSize;
+
+  private final ConcurrentMap<Integer, Lane> lanes = new ConcurrentHashMap<>();
+
+  private final ExecutorService executor;
+
+  private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+  private volatile boolean closed;
+
+  PublishDispatcher(NameId caIdent, CertStore certstore, int queueSize, int batchSize) {
+    this.caIdent = Args.notNull(caIdent, "caIdent");
+    this.certstore = Args.notNull(certstore, "certstore");
+    this.queueSize = Args.positive(queueSize, "queueSize");
+    this.batchSize = Args.positive(batchSize, "batchSize");
+
+    final String threadPrefix = "publisher-" + caIdent.getName() + "-";
+    this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+      private final AtomicInteger index = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, threadPrefix + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    });
+  } // constructor
+
+  /**
+   * Submits the event to be delivered to the publisher. If the event cannot be queued, it will
+   * be written to the table PUBLISHQUEUE.
+   *
+   * @param publisher
+   *          The publisher.
+   * @param event
+   *          The event.
+   */
+  void publish(IdentifiedCertPublisher publisher, Event event) {
+    Lane lane = null;
+    boolean queued = false;
+
+    // close() waits until the event has been queued, and then drains the queue
+    Lock rl = closeLock.readLock();
+    rl.lock();
+    try {
+      if (!closed) {
+        lane = getLane(publisher);
+        queued = lane.offer(event);
+      }
+    } finally {
+      rl.unlock();
+    }
+
+    if (!queued) {
+      spill(publisher.getIdent(), event);
+      if (lane != null) {
+        lane.spilled.incrementAndGet();
+      }
+    }
+  } // method publish
+
+  /**
+   * Waits until all events submitted for the publisher before this call have been processed.
+   *
+   * @param publisher
+   *          The publisher.
+   * @param timeoutMs
+   *          Maximal time to wait in milliseconds.
+   * @return whether all events have been processed.
+   */
+  boolean flush(IdentifiedCertPublisher publisher, long timeoutMs) {
+    Lane lane = lanes.get(publisher.getIdent().getId());
+    if (lane == null) {
+      return true;
+    }
+
+    long target = lane.enqueued.get();
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (!lane.isFlushed(target)) {
+      if (closed || System.currentTimeMillis() > deadline) {
+        return false;
+      }
+
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  } // method flush
+
+  int getQueueSize(NameId publisher) {
+    Lane lane = lanes.get(publisher.getId());
+    return (lane == null) ? 0 : lane.queue.size();
+  }
+
+  /**
+   * Returns the time between the submission and the delivery of the last delivered event.
+   *
+   * @param publisher
+   *          Identifier of the publisher.
+   * @return the lag in milliseconds.
+   */
+  long getLag(NameId publisher) {
+    Lane lane = lanes.get(publisher.getId());
+    return (lane == null) ? 0 : lane.lastLag;
+  }
+
+  long getMaxLag(NameId publisher) {
+    Lane lane = lanes.get(publisher.getId());
+    return (lane == null) ? 0 : lane.maxLag;
+  }
+
+  long getSpilled(NameId publisher) {
+    Lane lane = lanes.get(publisher.getId());
+    return (lane == null) ? 0 : lane.spilled.get();
+  }
+
+  @Override
+  public void close() {
+    // no event can be queued after closed is set
+    Lock wl = closeLock.writeLock();
+    wl.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    } finally {
+      wl.unlock();
+    }
+
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException ex) {
+      LOG.warn("interrupted while waiting for the publisher threads");
+    }
+
+    for (Lane lane : lanes.values()) {
+      Event event;
+      int num = 0;
+      while ((event = lane.queue.poll()) != null) {
+        spill(lane.publisherIdent, event);
+        num++;
+      }
+
+      LOG.info("async publisher {} of CA {}: processed={}, spilled={}, maxLag={} ms, "
+          + "written to PUBLISHQUEUE on shutdown={}", lane.publisherIdent.getName(),
+          caIdent.getName(), lane.processed.get(), lane.spilled.get(), lane.maxLag, num);
+    }
+    lanes.clear();
+  } // method close
+
+  private Lane getLane(IdentifiedCertPublisher publisher) {
+    Integer id = publisher.getIdent().getId();
+    Lane lane = lanes.get(id);
+    if (lane == null) {
+      synchronized (lanes) {
+        lane = lanes.get(id);
+        if (lane == null) {
+          lane = new Lane(publisher);
+          executor.submit(lane);
+          lanes.put(id, lane);
+        }
+      }
+    } else if (lane.publisher != publisher) {
+      // the publisher has been re-initialized
+      lane.publisher = publisher;
+    }
+    return lane;
+  } // method getLane
+
+  private void spill(NameId publisherIdent, Event event) {
+    try {
+      certstore.addToPublishQueue(publisherIdent, event.certId, caIdent);
+    } catch (Throwable th) {
+      LogUtil.error(LOG, th, "could not add entry to PublishQueue");
+    }
+  } // method spill
+
+}
@@ -0,0 +1,388 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.security.cert.CertificateException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ca.api.CertificateInfo;
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.OperationException;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+import org.xipki.util.ProcessLog;
+
+/**
+ * Publishes the certificates in the table PUBLISHQUEUE to a publisher. One producer reads the
+ * ids of the queued certificates via one database cursor, several consumers load the
+ * certificates, publish them and delete the queue rows, each in batches.
+ *
+ * <p>Failed certificates are retried with increasing delay. If they still cannot be published,
+ * they are kept in PUBLISHQUEUE for the next run, and the other certificates are processed
+ * further. The run is aborted if no certificate of several batches in a row could be published.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class PublishQueueDrainer {
+
+  private static final List<Long> END_OF_QUEUE = new ArrayList<>(0);
+
+  private class Producer implements Runnable {
+
+    private boolean failed;
+
+    @Override
+    public void run() {
+      try (CertStore.RowIterator<Long> certIds =
+          certstore.getPublishQueueCertIds(ca, publisher.getIdent())) {
+        List<Long> batch = new ArrayList<>(BATCH_SIZE);
+        long lastCertId = -1;
+        while (certIds.hasNext() && !stopMe.get()) {
+          long certId = certIds.next();
+          // the same certificate may be queued several times
+          if (certId == lastCertId) {
+            continue;
+          }
+
+          lastCertId = certId;
+          batch.add(certId);
+          if (batch.size() == BATCH_SIZE) {
+            if (!offer(batch)) {
+              break;
+            }
+            batch = new ArrayList<>(BATCH_SIZE);
+          }
+        }
+
+        if (!batch.isEmpty()) {
+          offer(batch);
+        }
+      } catch (OperationException | IllegalStateException ex) {
+        LogUtil.error(LOG, ex, "error in PublishQueueDrainer producer");
+        failed = true;
+      } catch (InterruptedException ex) {
+        LogUtil.error(LOG, ex, "interrupted in PublishQueueDrainer producer");
+        failed = true;
+      }
+
+      try {
+        offer(END_OF_QUEUE);
+      } catch (InterruptedException ex) {
+        LogUtil.error(LOG, ex, "could not add EndOfQueue to queue");
+        failed = true;
+      }
+    } // method run
+
+    /**
+     * Adds the batch to the queue. Waits while the queue is full, but not after the consumers
+     * have been stopped.
+     *
+     * @return whether the batch has been added.
+     */
+    private boolean offer(List<Long> batch) throws InterruptedException {
+      while (!stopMe.get()) {
+        if (queue.offer(batch, 1, TimeUnit.SECONDS)) {
+          return true;
+        }
+      }
+      return false;
+    } // method offer
+
+  } // class Producer
+
+  private class Consumer implements Runnable {
+
+    private boolean failed;
+
+    @Override
+    public void run() {
+      while (!failed && !stopMe.get()) {
+        List<Long> certIds;
+        try {
+          certIds = queue.poll(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+          LogUtil.error(LOG, ex, "could not take from queue");
+          failed = true;
+          break;
+        }
+
+        if (certIds == null) {
+          continue;
+        }
+
+        if (certIds == END_OF_QUEUE) {
+          // re-add it to queue so that other consumers know it
+          try {
+            queue.put(END_OF_QUEUE);
+          } catch (InterruptedException ex) {
+            LogUtil.warn(LOG, ex, "could not re-add EndOfQueue to queue");
+          }
+          break;
+        }
+
+        List<Long> remaining = certIds;
+        long delay = INITIAL_RETRY_DELAY_MS;
+        for (int attempt = 0; !remaining.isEmpty() && !stopMe.get(); attempt++) {
+          if (attempt > 0) {
+            if (attempt > MAX_RETRIES) {
+              LOG.error("could not publish {} certificates to publisher {}, keep them in "
+                  + "PUBLISHQUEUE: {}", remaining.size(), publisher.getIdent().getName(),
+                  remaining);
+              numFailed.addAndGet(remaining.size());
+              if (remaining.size() == certIds.size()) {
+                abortIfPublisherFails();
+              }
+              break;
+            }
+
+            try {
+              Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+              LogUtil.warn(LOG, ex, "interrupted while waiting to retry");
+              failed = true;
+              break;
+            }
+            delay = Math.min(delay * 2, MAX_RETRY_DELAY_MS);
+          }
+
+          int numBefore = remaining.size();
+          remaining = publish(remaining);
+          processLog.addNumProcessed(numBefore - remaining.size());
+          if (remaining.size() < numBefore) {
+            numFailedBatches.set(0);
+          }
+        }
+      }
+    } // method run
+
+    /**
+     * Called if no certificate of a batch could be published. Stops the run if this happened
+     * for several batches in a row, the publisher is then most probably not available.
+     */
+    private void abortIfPublisherFails() {
+      if (numFailedBatches.incrementAndGet() >= MAX_FAILED_BATCHES) {
+        LOG.error("could not publish {} batches in a row to publisher {}, abort",
+            MAX_FAILED_BATCHES, publisher.getIdent().getName());
+        stopMe.set(true);
+      }
+    } // method abortIfPublisherFails
+
+    /**
+     * Publishes the certificates and removes them from PUBLISHQUEUE.
+     *
+     * @return the ids of the certificates which could not be published.
+     */
+    private List<Long> publish(List<Long> certIds) {
+      List<CertificateInfo> certInfos;
+      try {
+        certInfos = certstore.getCertsForIds(ca, caCert, certIds, caIdNameMap);
+      } catch (OperationException | CertificateException ex) {
+        LogUtil.error(LOG, ex, "could not load certificates");
+        return certIds;
+      }
+
+      List<Long> published = new ArrayList<>(certIds.size());
+      List<Long> failedIds = new ArrayList<>(0);
+
+      if (certInfos.size() < certIds.size()) {
+        // the certificates do not exist anymore, nothing to publish
+        List<Long> missingCertIds = new ArrayList<>(certIds);
+        for (CertificateInfo certInfo : certInfos) {
+          missingCertIds.remove(certInfo.getCert().getCertId());
+        }
+        LOG.warn("found no certificates for the ids {} in PUBLISHQUEUE", missingCertIds);
+        published.addAll(missingCertIds);
+      }
+
+      if (!certInfos.isEmpty()) {
+        boolean[] results;
+        try {
+          results = publisher.certificatesAdded(certInfos);
+        } catch (RuntimeException ex) {
+          LogUtil.warn(LOG, ex, "could not publish certificates to publisher "
+              + publisher.getIdent().getName());
+          results = new boolean[certInfos.size()];
+        }
+
+        for (int i = 0; i < results.length; i++) {
+          Long certId = certInfos.get(i).getCert().getCertId();
+          if (results[i]) {
+            published.add(certId);
+          } else {
+            failedIds.add(certId);
+          }
+        }
+      }
+
+      try {
+        certstore.removeFromPublishQueue(publisher.getIdent(), published);
+      } catch (OperationException ex) {
+        // the entries will be published again in the next run
+        LogUtil.warn(LOG, ex, "could not remove " + published.size()
+            + " republished certs and publisher=" + publisher.getIdent().getName());
+      }
+
+      return failedIds;
+    } // method publish
+
+  } // class Consumer
+
+  private static final Logger LOG = LoggerFactory.getLogger(PublishQueueDrainer.class);
+
+  private static final int BATCH_SIZE = 100;
+
+  private static final int MAX_RETRIES = 5;
+
+  private static final long INITIAL_RETRY_DELAY_MS = 1000;
+
+  private static final long MAX_RETRY_DELAY_MS = 30000;
+
+  private static final int MAX_FAILED_BATCHES = 3;
+
+  private final NameId ca;
+
+  private final X509Cert caCert;
+
+  private final CaIdNameMap caIdNameMap;
+
+  private final CertStore certstore;
+
+  private final IdentifiedCertPublisher publisher;
+
+  private final int numThreads;
+
+  private final BlockingQueue<List<Long>> queue = new ArrayBlockingQueue<>(100);
+
+  private final AtomicBoolean stopMe = new AtomicBoolean(false);
+
+  private final AtomicLong numFailed = new AtomicLong(0);
+
+  private final AtomicInteger numFailedBatches = new AtomicInteger(0);
+
+  private ProcessLog processLog;
+
+  PublishQueueDrainer(NameId ca, X509Cert caCert, CaIdNameMap caIdNameMap,
+      CertStore certstore, IdentifiedCertPublisher publisher, int numThreads) {
+    this.ca = Args.notNull(ca, "ca");
+    this.caCert = Args.notNull(caCert, "caCert");
+    this.caIdNameMap = Args.notNull(caIdNameMap, "caIdNameMap");
+    this.certstore = Args.notNull(certstore, "certstore");
+    this.publisher = Args.notNull(publisher, "publisher");
+    this.numThreads = Args.positive(numThreads, "numThreads");
+  } // constructor
+
+  /**
+   * Publishes the certificates in PUBLISHQUEUE.
+   *
+   * @return whether all certificates have been published.
+   */
+  boolean drain() {
+    long total;
+    try {
+      total = certstore.getCountOfPublishQueueEntries(ca, publisher.getIdent());
+    } catch (OperationException ex) {
+      LogUtil.error(LOG, ex, "could not getCountOfPublishQueueEntries");
+      return false;
+    }
+
+    if (total == 0) {
+      return true;
+    }
+
+    LOG.info("publishing {} entries of CA {} in PUBLISHQUEUE to publisher {}",
+        total, ca.getName(), publisher.getIdent().getName());
+    processLog = new ProcessLog(total);
+    processLog.printHeader();
+
+    try {
+      return drain0();
+    } finally {
+      processLog.finish();
+      processLog.printTrailer();
+    }
+  } // method drain
+
+  private boolean drain0() {
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+    List<Consumer> consumers = new ArrayList<>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      consumers.add(new Consumer());
+    }
+
+    Producer producer = new Producer();
+    executor.execute(producer);
+    for (Consumer consumer : consumers) {
+      executor.execute(consumer);
+    }
+
+    executor.shutdown();
+
+    while (true) {
+      processLog.printStatus();
+
+      if (!stopMe.get() && hasFailed(producer, consumers)) {
+        stopMe.set(true);
+        LOG.warn("failed");
+      }
+
+      try {
+        if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+          break;
+        }
+      } catch (InterruptedException ex) {
+        stopMe.set(true);
+        LogUtil.warn(LOG, ex, "interrupted: " + ex.getMessage());
+      }
+    }
+
+    if (numFailed.get() > 0) {
+      LOG.warn("{} certificates of CA {} could not be published to publisher {}",
+          numFailed.get(), ca.getName(), publisher.getIdent().getName());
+    }
+
+    return !stopMe.get() && !hasFailed(producer, consumers) && numFailed.get() == 0;
+  } // method drain0
+
+  private static boolean hasFailed(Producer producer, List<Consumer> consumers) {
+    if (producer.failed) {
+      return true;
+    }
+
+    for (Consumer consumer : consumers) {
+      if (consumer.failed) {
+        return true;
+      }
+    }
+    return false;
+  } // method hasFailed
+
+}
@@ -168,6 +168,8 @@ public class RestResponder {
 
   private static final int OK = 200;
 
+  private static final int NOT_MODIFIED = 304;
+
   private static final int BAD_REQUEST = 400;
 
   private static final int UNAUTHORIZED = 401;
@@ -182,6 +184,10 @@ public class RestResponder {
 
   private static final int SERVICE_UNAVAILABLE = 503;
 
+  private static final String HEADER_ETAG = "ETag";
+
+  private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
   private static final Logger LOG = LoggerFactory.getLogger(RestResponder.class);
 
   private final CaManagerImpl responderManager;
@@ -527,15 +533,23 @@ public class RestResponder {
           }
         }
 
-        X509CRLHolder crl = ca.getCrl(crlNumber);
+        // the cached DER-encoded CRL is returned as it is, without parsing and re-encoding
+        CrlCache.EncodedCrl crl = ca.getEncodedCrl(crlNumber);
         if (crl == null) {
           String message = "could not get CRL";
           LOG.warn(message);
           throw new HttpRespAuditException(INTERNAL_SERVER_ERROR, message, INFO, FAILED);
         }
 
-        respCt = RestAPIConstants.CT_pkix_crl;
-        respBytes = crl.getEncoded();
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RestAPIConstants.HEADER_PKISTATUS, RestAPIConstants.PKISTATUS_accepted);
+        headers.put(HEADER_ETAG, crl.getEtag());
+
+        if (matchesEtag(httpRetriever.getHeader(HEADER_IF_NONE_MATCH), crl.getEtag())) {
+          return new RestResponse(NOT_MODIFIED, null, headers, null);
+        }
+
+        return new RestResponse(OK, RestAPIConstants.CT_pkix_crl, headers, crl.getEncoded());
       } else if (RestAPIConstants.CMD_new_crl.equalsIgnoreCase(command)) {
         try {
           requestor.assertPermitted(PermissionConstants.GEN_CRL);
@@ -682,4 +696,23 @@ public class RestResponder {
     return new BigInteger(tmpStr);
   } // method toBigInt
 
+  private static boolean matchesEtag(String ifNoneMatch, String etag) {
+    if (StringUtil.isBlank(ifNoneMatch)) {
+      return false;
+    }
+
+    for (String token : ifNoneMatch.split(",")) {
+      token = token.trim();
+      // weak comparison as specified in RFC 7232
+      if (token.startsWith("W/")) {
+        token = token.substring(2);
+      }
+
+      if ("*".equals(token) || etag.equals(token)) {
+        return true;
+      }
+    }
+    return false;
+  } // method matchesEtag
+
 }
@@ -25,6 +25,7 @@ import org.xipki.security.SecurityFactory;
 import org.xipki.security.SignerConf;
 import org.xipki.security.X509Cert;
 import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
 import org.xipki.util.ObjectCreationException;
 
 /**
@@ -90,6 +91,10 @@ public class SignerEntryWrapper {
     return dbEntry;
   }
 
+  public void close() {
+    IoUtil.closeQuietly(signer);
+  }
+
   public boolean isHealthy() {
     return (signer == null) ? false : signer.isHealthy();
   }
@@ -17,8 +17,7 @@
 
 package org.xipki.ca.server;
 
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.IntBinaryOperator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xipki.util.Args;
 
@@ -33,6 +32,9 @@ import org.xipki.util.Args;
  *  <li>shard_id: 7 bits
  * </ol>
  *
+ * <p>If all 1024 offsets of a millisecond are used, the ids of the following milliseconds are
+ * used, so that an id is never generated twice, also if the system clock is set back.
+ *
  * <p>Idea is borrowed from http://instagram-engineering.tumblr.com/post/10853187575/sharding-ids-at-instagram
  * @author Lijun Liao
  * @since 2.0.0
@@ -41,42 +43,28 @@ import org.xipki.util.Args;
 
 class UniqueIdGenerator {
 
-  private static class OffsetIncrement implements IntBinaryOperator {
-
-    @Override
-    public int applyAsInt(int left, int right) {
-      return (left >= right) ? 0 : left + 1;
-    }
-
-  }
-
-  // maximal 10 bits
-  private static final int MAX_OFFSET = 0x3FF;
-
   private final long epoch; // in milliseconds
 
   private final int shardId; // 7 bits
 
-  private final AtomicInteger offset = new AtomicInteger(0);
-
-  private final IntBinaryOperator accumulatorFunction;
+  // (ms since epoch) << 10 | offset of the last generated id
+  private final AtomicLong last = new AtomicLong(0);
 
   public UniqueIdGenerator(long epoch, int shardId) {
     this.epoch = Args.notNegative(epoch, "epoch");
     this.shardId = Args.range(shardId, "shardId", 0, 127);
-    this.accumulatorFunction = new OffsetIncrement();
   } // constructor
 
   public long nextId() {
-    long now = System.currentTimeMillis();
-    long ret = now - epoch;
-    ret <<= 10;
-
-    ret += offset.getAndAccumulate(MAX_OFFSET, accumulatorFunction);
-    ret <<= 7;
-
-    ret += shardId;
-    return ret;
+    long now = (System.currentTimeMillis() - epoch) << 10;
+    while (true) {
+      long prev = last.get();
+      // the next offset of the same millisecond rolls over into the next millisecond
+      long next = (now > prev) ? now : prev + 1;
+      if (last.compareAndSet(prev, next)) {
+        return (next << 7) + shardId;
+      }
+    }
   } // method nextId
 
 }
@@ -0,0 +1,264 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.xipki.ca.api.NameId;
+import org.xipki.ca.api.mgmt.MgmtEntry;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+import org.xipki.util.LruCache;
+
+/**
+ * Cache of successful user authentications and of the users' CA permissions, so that the
+ * password hash (PBKDF2) is not derived again for each request of the same user. Only a salted
+ * digest of the password is kept. The entries expire after the configured time to live and are
+ * invalidated if the user is changed.
+ *
+ * <p>Failed authentications are not cached. Instead, the number of failures per existing user
+ * is counted, and if it reaches the limit, further authentications of this user are rejected
+ * without validating the password until the failure window ends. The counters of active failure
+ * windows are never evicted, so that they cannot be reset by authenticating other users.
+ *
+ * <p>Each invalidation increases a generation. Values read from the database are only cached if
+ * no invalidation happened since the read started, see {@link #getGeneration()}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class UserAuthCache {
+
+  private static class AuthEntry {
+
+    private final NameId ident;
+
+    private final byte[] passwordDigest;
+
+    private final long expireAt;
+
+    private final ConcurrentMap<Integer, MgmtEntry.CaHasUser> caHasUsers =
+        new ConcurrentHashMap<>();
+
+    private AuthEntry(NameId ident, byte[] passwordDigest, long expireAt) {
+      this.ident = ident;
+      this.passwordDigest = passwordDigest;
+      this.expireAt = expireAt;
+    }
+
+  } // class AuthEntry
+
+  private static class Failures {
+
+    private final long windowStart;
+
+    private int count;
+
+    private Failures(long windowStart) {
+      this.windowStart = windowStart;
+    }
+
+  } // class Failures
+
+  private final LruCache<String, AuthEntry> entries;
+
+  private final ConcurrentMap<String, Failures> failures = new ConcurrentHashMap<>();
+
+  private final int maxSize;
+
+  private final long ttlMs;
+
+  private final int maxFailures;
+
+  private final long failureWindowMs;
+
+  private final byte[] salt = new byte[16];
+
+  private long generation;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize
+   *          Maximal number of cached users.
+   * @param ttlMs
+   *          Time to live of the successful authentications in milliseconds.
+   * @param maxFailures
+   *          Maximal number of failed authentications of one user within the failure window.
+   * @param failureWindowMs
+   *          Length of the failure window in milliseconds.
+   */
+  UserAuthCache(int maxSize, long ttlMs, int maxFailures, long failureWindowMs) {
+    this.maxSize = Args.positive(maxSize, "maxSize");
+    this.entries = new LruCache<>(maxSize);
+    this.ttlMs = Args.positive(ttlMs, "ttlMs");
+    this.maxFailures = Args.positive(maxFailures, "maxFailures");
+    this.failureWindowMs = Args.positive(failureWindowMs, "failureWindowMs");
+    new SecureRandom().nextBytes(salt);
+  }
+
+  /**
+   * Returns the cached identifier of the user if the user has been authenticated with the
+   * same password before.
+   *
+   * @param user
+   *          User name.
+   * @param password
+   *          Password.
+   * @return the identifier of the user, or {@code null} if not cached.
+   */
+  NameId getAuthenticated(String user, byte[] password) {
+    AuthEntry entry = getEntry(user);
+    if (entry == null) {
+      return null;
+    }
+
+    return MessageDigest.isEqual(entry.passwordDigest, digest(password)) ? entry.ident : null;
+  } // method getAuthenticated
+
+  /**
+   * Returns the current generation, must be called before the values to be cached are read
+   * from the database.
+   *
+   * @return the current generation.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Caches the successful authentication.
+   *
+   * @param ident
+   *          Identifier of the user.
+   * @param password
+   *          Password.
+   * @param generation
+   *          Generation before the user was read from the database. If the cache has been
+   *          invalidated since then, the authentication is not cached.
+   */
+  void addAuthenticated(NameId ident, byte[] password, long generation) {
+    failures.remove(ident.getName());
+    AuthEntry entry = new AuthEntry(ident, digest(password), System.currentTimeMillis() + ttlMs);
+    synchronized (this) {
+      if (generation == this.generation) {
+        entries.put(ident.getName(), entry);
+      }
+    }
+  } // method addAuthenticated
+
+  /**
+   * Whether the authentication of the user is blocked due to too many failures.
+   *
+   * @param user
+   *          User name.
+   * @return whether the authentication is blocked.
+   */
+  boolean isBlocked(String user) {
+    Failures fl = failures.get(user);
+    if (fl == null) {
+      return false;
+    }
+
+    synchronized (fl) {
+      return fl.count >= maxFailures
+          && System.currentTimeMillis() - fl.windowStart < failureWindowMs;
+    }
+  } // method isBlocked
+
+  /**
+   * Counts a failed authentication of an existing user. Failures of unknown users are not
+   * counted, so the number of counters is limited by the number of users.
+   *
+   * @param user
+   *          User name.
+   */
+  void addFailure(String user) {
+    long now = System.currentTimeMillis();
+    synchronized (failures) {
+      Failures fl = failures.get(user);
+      if (fl == null || now - fl.windowStart >= failureWindowMs) {
+        if (fl == null && failures.size() >= maxSize) {
+          removeExpiredFailures(now);
+        }
+
+        fl = new Failures(now);
+        failures.put(user, fl);
+      }
+
+      synchronized (fl) {
+        fl.count++;
+      }
+    }
+  } // method addFailure
+
+  private void removeExpiredFailures(long now) {
+    Iterator<Failures> it = failures.values().iterator();
+    while (it.hasNext()) {
+      if (now - it.next().windowStart >= failureWindowMs) {
+        it.remove();
+      }
+    }
+  } // method removeExpiredFailures
+
+  MgmtEntry.CaHasUser getCaHasUser(NameId ca, NameId user) {
+    AuthEntry entry = getEntry(user.getName());
+    return (entry == null || entry.ident.getId().intValue() != user.getId().intValue())
+        ? null : entry.caHasUsers.get(ca.getId());
+  }
+
+  void addCaHasUser(NameId ca, MgmtEntry.CaHasUser caHasUser, long generation) {
+    NameId user = caHasUser.getUserIdent();
+    synchronized (this) {
+      AuthEntry entry = getEntry(user.getName());
+      if (generation == this.generation && entry != null
+          && entry.ident.getId().intValue() == user.getId().intValue()) {
+        entry.caHasUsers.put(ca.getId(), caHasUser);
+      }
+    }
+  } // method addCaHasUser
+
+  synchronized void invalidate(String user) {
+    generation++;
+    entries.remove(user);
+  }
+
+  synchronized void invalidateAll() {
+    generation++;
+    entries.evictAll();
+  }
+
+  private AuthEntry getEntry(String user) {
+    AuthEntry entry = entries.get(user);
+    if (entry != null && entry.expireAt < System.currentTimeMillis()) {
+      entries.remove(user);
+      return null;
+    }
+    return entry;
+  } // method getEntry
+
+  private byte[] digest(byte[] password) {
+    return HashAlgo.SHA256.hash(salt, password);
+  }
+
+}
@@ -21,6 +21,7 @@ import static org.xipki.ca.api.OperationException.ErrorCode.ALREADY_ISSUED;
 import static org.xipki.ca.api.OperationException.ErrorCode.BAD_CERT_TEMPLATE;
 import static org.xipki.ca.api.OperationException.ErrorCode.CERT_REVOKED;
 import static org.xipki.ca.api.OperationException.ErrorCode.CRL_FAILURE;
+import static org.xipki.ca.api.OperationException.ErrorCode.DATABASE_FAILURE;
 import static org.xipki.ca.api.OperationException.ErrorCode.INVALID_EXTENSION;
 import static org.xipki.ca.api.OperationException.ErrorCode.NOT_PERMITTED;
 import static org.xipki.ca.api.OperationException.ErrorCode.SYSTEM_FAILURE;
@@ -29,13 +30,12 @@ import static org.xipki.ca.api.OperationException.ErrorCode.UNKNOWN_CERT;
 import static org.xipki.ca.api.OperationException.ErrorCode.UNKNOWN_CERT_PROFILE;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
 import java.security.SecureRandom;
 import java.security.cert.CRLException;
 import java.security.cert.CertificateException;
@@ -48,9 +48,7 @@ import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -88,8 +86,6 @@ import org.bouncycastle.asn1.x509.CertificateList;
 import org.bouncycastle.asn1.x509.DistributionPointName;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
-import org.bouncycastle.asn1.x509.GeneralName;
-import org.bouncycastle.asn1.x509.GeneralNames;
 import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
 import org.bouncycastle.asn1.x509.ReasonFlags;
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
@@ -98,8 +94,6 @@ import org.bouncycastle.asn1.x9.X9ObjectIdentifiers;
 import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.cert.X509CertificateHolder;
-import org.bouncycastle.cert.X509v2CRLBuilder;
-import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.crypto.RuntimeCryptoException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -134,6 +128,7 @@ import org.xipki.ca.api.profile.CertprofileException;
 import org.xipki.ca.api.profile.ExtensionValue;
 import org.xipki.ca.api.profile.ExtensionValues;
 import org.xipki.ca.api.profile.KeypairGenControl;
+import org.xipki.security.BufferedContentSigner;
 import org.xipki.security.CertRevocationInfo;
 import org.xipki.security.ConcurrentBagEntrySigner;
 import org.xipki.security.ConcurrentContentSigner;
@@ -146,6 +141,8 @@ import org.xipki.security.ObjectIdentifiers;
 import org.xipki.security.ObjectIdentifiers.Extn;
 import org.xipki.security.X509Cert;
 import org.xipki.security.XiSecurityException;
+import org.xipki.security.asn1.CertificateEncoder;
+import org.xipki.security.asn1.CrlStreamEncoder;
 import org.xipki.security.ctlog.CtLog.SignedCertificateTimestampList;
 import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.RSABrokenKey;
@@ -408,6 +405,8 @@ public class X509Ca implements Closeable {
 
   private static final long MAX_CERT_TIME_MS = 253402300799982L; //9999-12-31-23-59-59
 
+  private static final long PUBLISH_FLUSH_TIMEOUT_MS = 60000L;
+
   private static final Logger LOG = LoggerFactory.getLogger(X509Ca.class);
 
   private final CaInfo caInfo;
@@ -418,11 +417,15 @@ public class X509Ca implements Closeable {
 
   private final CtLogClient ctlogClient;
 
+  private final PublishDispatcher publishDispatcher;
+
   // CHECKSTYLE:SKIP
   private final KeypairGenControl keypairGenControlByImplictCA;
 
   private final CertStore certstore;
 
+  private final CrlCache crlCache = new CrlCache(3);
+
   private final CaIdNameMap caIdNameMap;
 
   private final boolean masterMode;
@@ -455,6 +458,11 @@ public class X509Ca implements Closeable {
     this.caCert = caInfo.getCert();
     this.certstore = Args.notNull(certstore, "certstore");
 
+    CaServerConf.AsyncPublishConf asyncPublishConf = caManager.getCaServerConf().getAsyncPublish();
+    this.publishDispatcher = (masterMode && asyncPublishConf != null
+        && asyncPublishConf.isEnabled()) ? new PublishDispatcher(caIdent, certstore,
+            asyncPublishConf.getQueueSize(), asyncPublishConf.getBatchSize()) : null;
+
     SubjectPublicKeyInfo caSpki = this.caCert.getSubjectPublicKeyInfo();
     ASN1ObjectIdentifier caSpkiAlgId = caSpki.getAlgorithm().getAlgorithm();
     if (caSpkiAlgId.equals(PKCSObjectIdentifiers.rsaEncryption)) {
@@ -513,6 +521,29 @@ public class X509Ca implements Closeable {
       }
     }
 
+    ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
+
+    final CaServerConf.UniquenessFilterConf uniquenessFilterConf =
+        caManager.getCaServerConf().getUniquenessFilter();
+    if (uniquenessFilterConf != null && uniquenessFilterConf.isEnabled() && !masterMode) {
+      // a slave CA system implies that the master issues certificates, too
+      LOG.warn("ignore uniquenessFilter of CA {}, it is only supported in master mode",
+          caIdent.getName());
+    } else if (uniquenessFilterConf != null && uniquenessFilterConf.isEnabled()) {
+      // the database is queried until the filters are loaded
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            certstore.loadUniquenessFilter(caIdent,
+                uniquenessFilterConf.getMinEntries());
+          } catch (OperationException | RuntimeException ex) {
+            LogUtil.error(LOG, ex, "could not load the uniqueness filter of CA " + caIdent);
+          }
+        }
+      });
+    }
+
     if (!masterMode) {
       return;
     }
@@ -522,7 +553,6 @@ public class X509Ca implements Closeable {
     }
 
     Random random = new Random();
-    ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     // CRL generation services
     this.crlGenerationService = executor.scheduleAtFixedRate(
         new CrlGenerationService(), 60 + random.nextInt(60), 60, TimeUnit.SECONDS);
@@ -618,13 +648,13 @@ public class X509Ca implements Closeable {
     boolean successful = false;
 
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
+      CrlCache.EncodedCrl encodedCrl = getEncodedCrl0(crlNumber);
       if (encodedCrl == null) {
         return null;
       }
 
       try {
-        X509CRLHolder crl = X509Util.parseCrl(encodedCrl);
+        X509CRLHolder crl = X509Util.parseCrl(encodedCrl.getEncoded());
         successful = true;
         if (LOG.isInfoEnabled()) {
           String timeStr = new Time(crl.getThisUpdate()).getTime();
@@ -652,13 +682,13 @@ public class X509Ca implements Closeable {
     boolean successful = false;
 
     try {
-      byte[] encodedCrl = certstore.getEncodedCrl(caIdent, crlNumber);
+      CrlCache.EncodedCrl encodedCrl = getEncodedCrl0(crlNumber);
       if (encodedCrl == null) {
         return null;
       }
 
       try {
-        CertificateList crl = CertificateList.getInstance(encodedCrl);
+        CertificateList crl = CertificateList.getInstance(encodedCrl.getEncoded());
         successful = true;
         if (LOG.isInfoEnabled()) {
           LOG.info("SUCCESSFUL getCrl: ca={}, thisUpdate={}", caIdent.getName(),
@@ -675,6 +705,54 @@ public class X509Ca implements Closeable {
     }
   } // method getCrl
 
+  /**
+   * Returns the DER-encoded CRL without parsing it.
+   *
+   * @param crlNumber
+   *          CRL number. {@code null} to get the current CRL.
+   * @return the encoded CRL, or {@code null} if there is no such CRL.
+   * @throws OperationException
+   *           If the CRL cannot be retrieved.
+   */
+  CrlCache.EncodedCrl getEncodedCrl(BigInteger crlNumber) throws OperationException {
+    LOG.info("     START getCrl: ca={}, crlNumber={}", caIdent.getName(), crlNumber);
+    boolean successful = false;
+
+    try {
+      CrlCache.EncodedCrl crl = getEncodedCrl0(crlNumber);
+      successful = true;
+      LOG.info("SUCCESSFUL getCrl: ca={}, crlNumber={}", caIdent.getName(),
+          (crl == null) ? null : crl.getCrlNumber());
+      return crl;
+    } finally {
+      if (!successful) {
+        LOG.info("    FAILED getCrl: ca={}", caIdent.getName());
+      }
+    }
+  } // method getEncodedCrl
+
+  private CrlCache.EncodedCrl getEncodedCrl0(BigInteger crlNumber) throws OperationException {
+    BigInteger number = crlNumber;
+    if (number == null) {
+      // only the number of the current CRL is read from the database, the CRL may have been
+      // generated by another CA instance sharing the same database.
+      number = certstore.getLatestCrlNumber(caIdent);
+      if (number == null) {
+        return null;
+      }
+    }
+
+    CrlCache.EncodedCrl crl = crlCache.get(number);
+    if (crl == null) {
+      byte[] encoded = certstore.getEncodedCrl(caIdent, number);
+      if (encoded == null) {
+        return null;
+      }
+      crl = crlCache.put(number, encoded);
+    }
+    return crl;
+  } // method getEncodedCrl0
+
   private void cleanupCrlsWithoutException(String msgId) throws OperationException {
     try {
       cleanupCrls(msgId);
@@ -731,11 +809,18 @@ public class X509Ca implements Closeable {
           + (intervals + control.getOverlapDays()) * MS_PER_DAY);
 
       long maxIdOfDeltaCrlCache = certstore.getMaxIdOfDeltaCrlCache(caIdent);
-      X509CRLHolder crl = generateCrl(false, thisUpdate, nextUpdate, msgId);
-      if (crl == null) {
+      byte[] encodedCrl = generateCrl(false, thisUpdate, nextUpdate, msgId);
+      if (encodedCrl == null) {
         return null;
       }
 
+      X509CRLHolder crl;
+      try {
+        crl = X509Util.parseCrl(encodedCrl);
+      } catch (CRLException ex) {
+        throw new OperationException(CRL_FAILURE, ex);
+      }
+
       try {
         certstore.clearDeltaCrlCache(caIdent, maxIdOfDeltaCrlCache);
       } catch (Throwable th) {
@@ -747,12 +832,12 @@ public class X509Ca implements Closeable {
     }
   } // method generateCrlOnDemand
 
-  private X509CRLHolder generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
+  private byte[] generateCrl(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
       String msgId) throws OperationException {
     boolean successful = false;
     AuditEvent event = newPerfAuditEvent(CaAuditConstants.TYPE_gen_crl, msgId);
     try {
-      X509CRLHolder crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
+      byte[] crl = generateCrl0(deltaCrl, thisUpdate, nextUpdate, event, msgId);
       successful = true;
       return crl;
     } finally {
@@ -760,7 +845,11 @@ public class X509Ca implements Closeable {
     }
   }
 
-  private X509CRLHolder generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
+  /**
+   * Generates the CRL.
+   * @return the DER encoded CRL.
+   */
+  private byte[] generateCrl0(boolean deltaCrl, Date thisUpdate, Date nextUpdate,
       AuditEvent event, String msgId) throws OperationException {
     CrlControl control = caInfo.getCrlControl();
     if (control == null) {
@@ -791,13 +880,14 @@ public class X509Ca implements Closeable {
       boolean indirectCrl = (crlSigner != null);
       X500Name crlIssuer = indirectCrl ? crlSigner.getSubject() : pci.getSubject();
 
-      X509v2CRLBuilder crlBuilder = new X509v2CRLBuilder(crlIssuer, thisUpdate);
-      if (nextUpdate != null) {
-        crlBuilder.setNextUpdate(nextUpdate);
+      CrlControl crlControl = caInfo.getCrlControl();
+      boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
+      boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
+      if (onlyUserCerts && onlyCaCerts) {
+        throw new IllegalStateException(
+            "should not reach here, onlyUserCerts and onlyCACerts are both true");
       }
 
-      final int numEntries = 100;
-
       Date notExpireAt;
       if (control.isIncludeExpiredCerts()) {
         notExpireAt = new Date(0);
@@ -806,179 +896,108 @@ public class X509Ca implements Closeable {
         notExpireAt = new Date(thisUpdate.getTime() - 600L * MS_PER_SECOND);
       }
 
-      long startId = 1;
+      byte[] encodedCrl;
+      BigInteger crlNumber;
 
-      // we have to cache the serial entries to sort them
-      List<CertRevInfoWithSerial> allRevInfos = new LinkedList<>();
-
-      List<CertRevInfoWithSerial> revInfos;
-
-      do {
-        if (deltaCrl) {
-          revInfos = certstore.getCertsForDeltaCrl(caIdent, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
-        } else {
-          revInfos = certstore.getRevokedCerts(caIdent, notExpireAt, startId, numEntries,
-              control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts());
+      // the entries are sorted and encoded in temporary files, not in the memory
+      try (CrlStreamEncoder crlEncoder = new CrlStreamEncoder(crlIssuer, thisUpdate, nextUpdate)) {
+        if (indirectCrl) {
+          crlEncoder.setCertificateIssuer(pci.getSubject());
         }
-        allRevInfos.addAll(revInfos);
 
-        long maxId = 1;
-        for (CertRevInfoWithSerial revInfo : revInfos) {
-          if (revInfo.getId() > maxId) {
-            maxId = revInfo.getId();
+        // all entries are read via one database cursor
+        try (CertStore.RowIterator<CertRevInfoWithSerial> revInfos = deltaCrl
+            ? certstore.getCertsForDeltaCrl(caIdent,
+                control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts())
+            : certstore.getRevokedCerts(caIdent, notExpireAt,
+                control.isOnlyContainsCaCerts(), control.isOnlyContainsUserCerts())) {
+          while (revInfos.hasNext()) {
+            addCrlEntry(crlEncoder, crlControl, revInfos.next());
           }
-        } // end for
-        startId = maxId + 1;
-      } while (revInfos.size() >= numEntries); // end do
-
-      if (revInfos != null) { // free the memory
-        revInfos.clear();
-      }
-
-      // sort the list by SerialNumber ASC
-      Collections.sort(allRevInfos);
-
-      boolean isFirstCrlEntry = true;
-      CrlControl crlControl = caInfo.getCrlControl();
-
-      for (CertRevInfoWithSerial revInfo : allRevInfos) {
-        CrlReason reason = revInfo.getReason();
-        if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
-          reason = CrlReason.UNSPECIFIED;
+        } catch (IllegalStateException ex) {
+          throw new OperationException(DATABASE_FAILURE, ex.getMessage());
         }
 
-        Date revocationTime = revInfo.getRevocationTime();
-        Date invalidityTime = revInfo.getInvalidityTime();
+        crlNumber = caInfo.nextCrlNumber();
+        event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
 
-        switch (crlControl.getInvalidityDateMode()) {
-          case forbidden:
-            invalidityTime = null;
-            break;
-          case optional:
-            break;
-          case required:
-            if (invalidityTime == null) {
-              invalidityTime = revocationTime;
-            }
-            break;
-          default:
-            throw new IllegalStateException(
-                "unknown TripleState " + crlControl.getInvalidityDateMode());
-        }
-
-        BigInteger serial = revInfo.getSerial();
-        LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
-
-        if (!indirectCrl || !isFirstCrlEntry) {
-          if (invalidityTime != null) {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode(),
-                invalidityTime);
-          } else {
-            crlBuilder.addCRLEntry(serial, revocationTime, reason.getCode());
+        try {
+          // AuthorityKeyIdentifier
+          byte[] akiValues = indirectCrl
+              ? crlSigner.getSigner().getCertificate().getSubjectKeyId()
+              : pci.getSubjectKeyIdentifer();
+          AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
+          crlEncoder.addExtension(Extension.authorityKeyIdentifier, false, aki);
+
+          // add extension CRL Number
+          crlEncoder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
+
+          // IssuingDistributionPoint
+          if (onlyUserCerts || onlyCaCerts || indirectCrl) {
+            IssuingDistributionPoint idp = new IssuingDistributionPoint(
+                (DistributionPointName) null, // distributionPoint,
+                onlyUserCerts, // onlyContainsUserCerts,
+                onlyCaCerts, // onlyContainsCACerts,
+                (ReasonFlags) null, // onlySomeReasons,
+                indirectCrl, // indirectCRL,
+                false); // onlyContainsAttributeCerts
+
+            crlEncoder.addExtension(Extension.issuingDistributionPoint, true, idp);
           }
-          continue;
-        }
 
-        List<Extension> extensions = new ArrayList<>(3);
-        if (reason != CrlReason.UNSPECIFIED) {
-          Extension ext = createReasonExtension(reason.getCode());
-          extensions.add(ext);
-        }
-        if (invalidityTime != null) {
-          Extension ext = createInvalidityDateExtension(invalidityTime);
-          extensions.add(ext);
+          // freshestCRL
+          List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
+          if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNotEmpty(deltaCrlUris)) {
+            CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getSubject(),
+                crlIssuer);
+            crlEncoder.addExtension(Extension.freshestCRL, false, cdp);
+          }
+        } catch (IOException ex) {
+          LogUtil.error(LOG, ex, "crlEncoder.addExtension");
+          throw new OperationException(INVALID_EXTENSION, ex);
         }
 
-        Extension ext = createCertificateIssuerExtension(pci.getSubject());
-        extensions.add(ext);
-
-        crlBuilder.addCRLEntry(serial, revocationTime,
-            new Extensions(extensions.toArray(new Extension[0])));
-        isFirstCrlEntry = false;
-      }
-
-      allRevInfos.clear(); // free the memory
-
-      BigInteger crlNumber = caInfo.nextCrlNumber();
-      event.addEventData(CaAuditConstants.NAME_crl_number, crlNumber);
+        addXipkiCertset(crlEncoder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
 
-      boolean onlyUserCerts = crlControl.isOnlyContainsUserCerts();
-      boolean onlyCaCerts = crlControl.isOnlyContainsCaCerts();
-      if (onlyUserCerts && onlyCaCerts) {
-        throw new IllegalStateException(
-            "should not reach here, onlyUserCerts and onlyCACerts are both true");
-      }
+        @SuppressWarnings("resource")
+        ConcurrentContentSigner concurrentSigner = (crlSigner == null)
+            ? caInfo.getSigner(null) : crlSigner.getSigner();
 
-      try {
-        // AuthorityKeyIdentifier
-        byte[] akiValues = indirectCrl
-            ? crlSigner.getSigner().getCertificate().getSubjectKeyId()
-            : pci.getSubjectKeyIdentifer();
-        AuthorityKeyIdentifier aki = new AuthorityKeyIdentifier(akiValues);
-        crlBuilder.addExtension(Extension.authorityKeyIdentifier, false, aki);
-
-        // add extension CRL Number
-        crlBuilder.addExtension(Extension.cRLNumber, false, new ASN1Integer(crlNumber));
-
-        // IssuingDistributionPoint
-        if (onlyUserCerts || onlyCaCerts || indirectCrl) {
-          IssuingDistributionPoint idp = new IssuingDistributionPoint(
-              (DistributionPointName) null, // distributionPoint,
-              onlyUserCerts, // onlyContainsUserCerts,
-              onlyCaCerts, // onlyContainsCACerts,
-              (ReasonFlags) null, // onlySomeReasons,
-              indirectCrl, // indirectCRL,
-              false); // onlyContainsAttributeCerts
-
-          crlBuilder.addExtension(Extension.issuingDistributionPoint, true, idp);
+        ConcurrentBagEntrySigner signer0;
+        try {
+          signer0 = concurrentSigner.borrowSigner();
+        } catch (NoIdleSignerException ex) {
+          throw new OperationException(SYSTEM_FAILURE,
+              "NoIdleSignerException: " + ex.getMessage());
         }
 
-        // freshestCRL
-        List<String> deltaCrlUris = pci.getCaUris().getDeltaCrlUris();
-        if (control.getDeltaCrlIntervals() > 0 && CollectionUtil.isNotEmpty(deltaCrlUris)) {
-          CRLDistPoint cdp = CaUtil.createCrlDistributionPoints(deltaCrlUris, pci.getSubject(),
-              crlIssuer);
-          crlBuilder.addExtension(Extension.freshestCRL, false, cdp);
+        File crlFile;
+        try {
+          crlFile = crlEncoder.build(signer0.value());
+        } finally {
+          concurrentSigner.requiteSigner(signer0);
         }
-      } catch (CertIOException ex) {
-        LogUtil.error(LOG, ex, "crlBuilder.addExtension");
-        throw new OperationException(INVALID_EXTENSION, ex);
-      }
-
-      addXipkiCertset(crlBuilder, deltaCrl, control, notExpireAt, onlyCaCerts, onlyUserCerts);
 
-      @SuppressWarnings("resource")
-      ConcurrentContentSigner concurrentSigner = (crlSigner == null)
-          ? caInfo.getSigner(null) : crlSigner.getSigner();
-
-      ConcurrentBagEntrySigner signer0;
-      try {
-        signer0 = concurrentSigner.borrowSigner();
-      } catch (NoIdleSignerException ex) {
-        throw new OperationException(SYSTEM_FAILURE, "NoIdleSignerException: " + ex.getMessage());
-      }
-
-      X509CRLHolder crl;
-      try {
-        crl = crlBuilder.build(signer0.value());
-      } finally {
-        concurrentSigner.requiteSigner(signer0);
+        // the ASN.1 object of the CRL is built only if required by the publishers
+        encodedCrl = Files.readAllBytes(crlFile.toPath());
+      } catch (IOException ex) {
+        LogUtil.error(LOG, ex, "could not encode CRL");
+        throw new OperationException(CRL_FAILURE, ex);
       }
 
       caInfo.getCaEntry().setNextCrlNumber(crlNumber.longValue() + 1);
       caManager.commitNextCrlNo(caIdent, caInfo.getCaEntry().getNextCrlNumber());
-      publishCrl(crl);
+      publishCrl(crlNumber, thisUpdate, nextUpdate, encodedCrl);
 
       successful = true;
       LOG.info("SUCCESSFUL generateCrl: ca={}, crlNumber={}, thisUpdate={}", caIdent.getName(),
-          crlNumber, crl.getThisUpdate());
+          crlNumber, thisUpdate);
 
       if (!deltaCrl) {
         // clean up the CRL
         cleanupCrlsWithoutException(msgId);
       }
-      return crl;
+      return encodedCrl;
     } finally {
       if (!successful) {
         LOG.info("    FAILED generateCrl: ca={}", caIdent.getName());
@@ -986,6 +1005,47 @@ public class X509Ca implements Closeable {
     }
   } // method generateCrl
 
+  private void addCrlEntry(CrlStreamEncoder crlEncoder, CrlControl crlControl,
+      CertRevInfoWithSerial revInfo) throws IOException {
+    CrlReason reason = revInfo.getReason();
+    if (crlControl.isExcludeReason() && reason != CrlReason.REMOVE_FROM_CRL) {
+      reason = CrlReason.UNSPECIFIED;
+    }
+
+    Date revocationTime = revInfo.getRevocationTime();
+    Date invalidityTime = revInfo.getInvalidityTime();
+
+    switch (crlControl.getInvalidityDateMode()) {
+      case forbidden:
+        invalidityTime = null;
+        break;
+      case optional:
+        break;
+      case required:
+        if (invalidityTime == null) {
+          invalidityTime = revocationTime;
+        }
+        break;
+      default:
+        throw new IllegalStateException(
+            "unknown TripleState " + crlControl.getInvalidityDateMode());
+    }
+
+    BigInteger serial = revInfo.getSerial();
+    LOG.debug("added cert ca={} serial={} to CRL", caIdent, serial);
+
+    List<Extension> extensions = new ArrayList<>(2);
+    if (reason != CrlReason.UNSPECIFIED) {
+      extensions.add(createReasonExtension(reason.getCode()));
+    }
+    if (invalidityTime != null) {
+      extensions.add(createInvalidityDateExtension(invalidityTime));
+    }
+
+    crlEncoder.addRevokedCert(serial, revocationTime, extensions.isEmpty()
+        ? null : new Extensions(extensions.toArray(new Extension[0])));
+  } // method addCrlEntry
+
   /**
    * Add XiPKI extension CrlCertSet.
    *
@@ -999,27 +1059,18 @@ public class X509Ca implements Closeable {
    * }
    * </pre>
    */
-  private void addXipkiCertset(X509v2CRLBuilder crlBuilder, boolean deltaCrl, CrlControl control,
+  private void addXipkiCertset(CrlStreamEncoder crlEncoder, boolean deltaCrl, CrlControl control,
       Date notExpireAt, boolean onlyCaCerts, boolean onlyUserCerts) throws OperationException {
     if (deltaCrl || !control.isXipkiCertsetIncluded()) {
       return;
     }
 
     ASN1EncodableVector vector = new ASN1EncodableVector();
-    final int numEntries = 100;
-    long startId = 1;
-
-    List<CertStore.SerialWithId> serials;
-    do {
-      serials = certstore.getSerialNumbers(caIdent, notExpireAt, startId, numEntries, false,
-          onlyCaCerts, onlyUserCerts);
-
-      long maxId = 1;
-      for (CertStore.SerialWithId sid : serials) {
-        if (sid.getId() > maxId) {
-          maxId = sid.getId();
-        }
 
+    try (CertStore.RowIterator<CertStore.SerialWithId> serials =
+        certstore.getSerialNumbers(caIdent, notExpireAt, false, onlyCaCerts, onlyUserCerts)) {
+      while (serials.hasNext()) {
+        CertStore.SerialWithId sid = serials.next();
         ASN1EncodableVector vec = new ASN1EncodableVector();
         vec.add(new ASN1Integer(sid.getSerial()));
 
@@ -1046,17 +1097,16 @@ public class X509Ca implements Closeable {
         }
 
         vector.add(new DERSequence(vec));
-      } // end for
-
-      startId = maxId + 1;
-    } while (serials.size() >= numEntries);
-    // end do
+      } // end while
+    } catch (IllegalStateException ex) {
+      throw new OperationException(DATABASE_FAILURE, ex.getMessage());
+    }
 
     try {
-      crlBuilder.addExtension(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset,
+      crlEncoder.addExtension(ObjectIdentifiers.Xipki.id_xipki_ext_crlCertset,
           false, new DERSet(vector));
-    } catch (CertIOException ex) {
-      throw new OperationException(INVALID_EXTENSION, "CertIOException: " + ex.getMessage());
+    } catch (IOException ex) {
+      throw new OperationException(INVALID_EXTENSION, "IOException: " + ex.getMessage());
     }
   }
 
@@ -1096,6 +1146,11 @@ public class X509Ca implements Closeable {
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
+        if (publishDispatcher != null) {
+          publishDispatcher.publish(publisher, new PublishDispatcher.CertAddedEvent(certInfo));
+          continue;
+        }
+
         boolean successful;
         try {
           successful = publisher.certificateAdded(certInfo);
@@ -1237,61 +1292,49 @@ public class X509Ca implements Closeable {
 
   private boolean publishCertsInQueue(IdentifiedCertPublisher publisher) {
     Args.notNull(publisher, "publisher");
-    final int numEntries = 500;
 
-    while (true) {
-      List<Long> certIds;
-      try {
-        certIds = certstore.getPublishQueueEntries(caIdent, publisher.getIdent(), numEntries);
-      } catch (OperationException ex) {
-        LogUtil.error(LOG, ex);
-        return false;
-      }
-
-      if (CollectionUtil.isEmpty(certIds)) {
-        break;
-      }
-
-      for (Long certId : certIds) {
-        CertificateInfo certInfo;
-
-        try {
-          certInfo = certstore.getCertForId(caIdent, caCert, certId, caIdNameMap);
-        } catch (OperationException | CertificateException ex) {
-          LogUtil.error(LOG, ex);
-          return false;
-        }
-
-        boolean successful = publisher.certificateAdded(certInfo);
-        if (!successful) {
-          LOG.error("republishing certificate id={} failed", certId);
-          return false;
-        }
-
-        try {
-          certstore.removeFromPublishQueue(publisher.getIdent(), certId);
-        } catch (OperationException ex) {
-          LogUtil.warn(LOG, ex, "could not remove republished cert id=" + certId
-              + " and publisher=" + publisher.getIdent().getName());
-          continue;
-        }
-      } // end for
-    } // end while
+    // The entries in PUBLISHQUEUE are published with the current state of the certificates,
+    // the queued events submitted before must not overwrite it afterwards.
+    if (publishDispatcher != null
+        && !publishDispatcher.flush(publisher, PUBLISH_FLUSH_TIMEOUT_MS)) {
+      LOG.warn("events of CA {} for publisher {} are still pending, try later",
+          caIdent.getName(), publisher.getIdent().getName());
+      return false;
+    }
 
-    return true;
+    int numThreads = caManager.getCaServerConf().getPublishQueueThreads();
+    return new PublishQueueDrainer(caIdent, caCert, caIdNameMap, certstore, publisher,
+        numThreads).drain();
   } // method publishCertsInQueue
 
-  private boolean publishCrl(X509CRLHolder crl) {
+  private boolean publishCrl(BigInteger crlNumber, Date thisUpdate, Date nextUpdate,
+      byte[] encodedCrl) {
     try {
-      certstore.addCrl(caIdent, crl);
+      certstore.addCrl(caIdent, crlNumber.longValue(), null, thisUpdate, nextUpdate, encodedCrl);
     } catch (Exception ex) {
       LOG.error("could not add CRL ca={}, thisUpdate={}: {}, ",
-          caIdent.getName(), crl.getThisUpdate(), ex.getMessage());
+          caIdent.getName(), thisUpdate, ex.getMessage());
       LOG.debug("Exception", ex);
       return false;
     }
 
-    for (IdentifiedCertPublisher publisher : publishers()) {
+    // the new CRL will be requested soon, so put it in the cache
+    crlCache.put(crlNumber, encodedCrl);
+
+    List<IdentifiedCertPublisher> publishers = publishers();
+    if (publishers.isEmpty()) {
+      return true;
+    }
+
+    X509CRLHolder crl;
+    try {
+      crl = X509Util.parseCrl(encodedCrl);
+    } catch (CRLException | RuntimeException ex) {
+      LogUtil.error(LOG, ex, "could not parse the generated CRL of CA " + caIdent.getName());
+      return false;
+    }
+
+    for (IdentifiedCertPublisher publisher : publishers) {
       try {
         publisher.crlAdded(caCert, crl);
       } catch (RuntimeException ex) {
@@ -1392,7 +1435,10 @@ public class X509Ca implements Closeable {
     for (IdentifiedCertPublisher publisher : publishers()) {
       boolean singleSuccessful;
       try {
-        singleSuccessful = publisher.certificateRemoved(caCert, certToRemove);
+        // the removal must not overtake the pending events of the certificate
+        singleSuccessful = (publishDispatcher == null
+            || publishDispatcher.flush(publisher, PUBLISH_FLUSH_TIMEOUT_MS))
+            && publisher.certificateRemoved(caCert, certToRemove);
       } catch (RuntimeException ex) {
         singleSuccessful = false;
         LogUtil.warn(LOG, ex,
@@ -1433,10 +1479,8 @@ public class X509Ca implements Closeable {
     LOG.info("     START revokeCertificate: ca={}, serialNumber={}, reason={}, invalidityTime={}",
         caIdent.getName(), hexSerial, reason.getDescription(), invalidityTime);
 
-    CertWithRevocationInfo revokedCert = null;
-
     CertRevocationInfo revInfo = new CertRevocationInfo(reason, new Date(), invalidityTime);
-    revokedCert = certstore.revokeCert(caIdent, serialNumber, revInfo, force,
+    CertWithRevocationInfo revokedCert = certstore.revokeCert(caIdent, serialNumber, revInfo, force,
         shouldPublishToDeltaCrlCache(), caIdNameMap);
     if (revokedCert == null) {
       return null;
@@ -1444,6 +1488,18 @@ public class X509Ca implements Closeable {
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
+        if (publishDispatcher != null) {
+          publishDispatcher.publish(publisher,
+              new PublishDispatcher.Event(revokedCert.getCert().getCertId()) {
+                @Override
+                protected boolean deliver(IdentifiedCertPublisher pub) {
+                  return pub.certificateRevoked(caCert, revokedCert.getCert(),
+                      revokedCert.getCertprofile(), revokedCert.getRevInfo());
+                }
+              });
+          continue;
+        }
+
         boolean successful;
         try {
           successful = publisher.certificateRevoked(caCert, revokedCert.getCert(),
@@ -1510,6 +1566,18 @@ public class X509Ca implements Closeable {
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
+        if (publishDispatcher != null) {
+          publishDispatcher.publish(publisher,
+              new PublishDispatcher.Event(revokedCert.getCert().getCertId()) {
+                @Override
+                protected boolean deliver(IdentifiedCertPublisher pub) {
+                  return pub.certificateRevoked(caCert, revokedCert.getCert(),
+                      revokedCert.getCertprofile(), revokedCert.getRevInfo());
+                }
+              });
+          continue;
+        }
+
         boolean successful;
         try {
           successful = publisher.certificateRevoked(caCert, revokedCert.getCert(),
@@ -1557,6 +1625,17 @@ public class X509Ca implements Closeable {
 
     for (IdentifiedCertPublisher publisher : publishers()) {
       if (!publisher.isAsyn()) {
+        if (publishDispatcher != null) {
+          publishDispatcher.publish(publisher,
+              new PublishDispatcher.Event(unrevokedCert.getCertId()) {
+                @Override
+                protected boolean deliver(IdentifiedCertPublisher pub) {
+                  return pub.certificateUnrevoked(caCert, unrevokedCert);
+                }
+              });
+          continue;
+        }
+
         boolean successful;
         try {
           successful = publisher.certificateUnrevoked(caCert, unrevokedCert);
@@ -1830,13 +1909,14 @@ public class X509Ca implements Closeable {
     }
 
     try {
-      X509v3CertificateBuilder certBuilder = new X509v3CertificateBuilder(
-          caInfo.getPublicCaInfo().getSubject(), caInfo.nextSerial(), gct.grantedNotBefore,
-          gct.grantedNotAfter, gct.grantedSubject, gct.grantedPublicKey);
-
       CertificateInfo ret;
 
       try {
+        // the TBSCertificate is written directly without building the ASN.1 object tree
+        CertificateEncoder certBuilder = new CertificateEncoder(
+            caInfo.getPublicCaInfo().getSubject(), caInfo.nextSerial(), gct.grantedNotBefore,
+            gct.grantedNotAfter, gct.grantedSubject, gct.grantedPublicKey);
+
         SignerEntryWrapper crlSigner = getCrlSigner();
         X509Cert crlSignerCert = (crlSigner == null)
             ? null : crlSigner.getSigner().getCertificate();
@@ -1847,7 +1927,9 @@ public class X509Ca implements Closeable {
         if (extensionTuples != null) {
           for (ASN1ObjectIdentifier extensionType : extensionTuples.getExtensionTypes()) {
             ExtensionValue extValue = extensionTuples.getExtensionValue(extensionType);
-            certBuilder.addExtension(extensionType, extValue.isCritical(), extValue.getValue());
+            // the constant extensions are encoded only once per profile and CA
+            certBuilder.addExtension(extensionType, extValue.isCritical(),
+                extValue.getEncodedValue());
           }
         }
 
@@ -1856,20 +1938,9 @@ public class X509Ca implements Closeable {
         if (addCtlog) {
           certBuilder.addExtension(Extn.id_precertificate, true, DERNull.INSTANCE);
 
-          ConcurrentBagEntrySigner signer0;
-          try {
-            signer0 = gct.signer.borrowSigner();
-          } catch (NoIdleSignerException ex) {
-            throw new OperationException(SYSTEM_FAILURE, ex);
-          }
-
-          X509CertificateHolder precert;
-          try {
-            precert = certBuilder.build(signer0.value());
-          } finally {
-            // returns the signer after the signing so that it can be used by others
-            gct.signer.requiteSigner(signer0);
-          }
+          // no signer is held while the TBSCertificate is being encoded
+          X509CertificateHolder precert = new X509CertificateHolder(
+              certBuilder.build(new BufferedContentSigner(gct.signer)));
 
           SignedCertificateTimestampList scts = getCtlogScts(precert);
 
@@ -1877,31 +1948,16 @@ public class X509Ca implements Closeable {
           certBuilder.removeExtension(Extn.id_precertificate);
 
           // add the SCTs extension
-          DEROctetString extnValue;
+          byte[] extnValue;
           try {
-            extnValue = new DEROctetString(new DEROctetString(scts.getEncoded()).getEncoded());
+            extnValue = new DEROctetString(scts.getEncoded()).getEncoded();
           } catch (IOException ex) {
             throw new CertIOException("could not encode SCT extension", ex);
           }
-          certBuilder.addExtension(
-              new Extension(Extn.id_SCTs, extnSctCtrl.isCritical(), extnValue));
+          certBuilder.addExtension(Extn.id_SCTs, extnSctCtrl.isCritical(), extnValue);
         }
 
-        ConcurrentBagEntrySigner signer0;
-        try {
-          signer0 = gct.signer.borrowSigner();
-        } catch (NoIdleSignerException ex) {
-          throw new OperationException(SYSTEM_FAILURE, ex);
-        }
-
-        X509CertificateHolder bcCert;
-        try {
-          bcCert = certBuilder.build(signer0.value());
-        } finally {
-          gct.signer.requiteSigner(signer0);
-        }
-
-        byte[] encodedCert = bcCert.getEncoded();
+        byte[] encodedCert = certBuilder.build(new BufferedContentSigner(gct.signer));
         int maxCertSize = gct.certprofile.getMaxCertSize();
         if (maxCertSize > 0) {
           int certSize = encodedCert.length;
@@ -1912,7 +1968,7 @@ public class X509Ca implements Closeable {
           }
         }
 
-        X509Cert cert = new X509Cert(bcCert, encodedCert);
+        X509Cert cert = new X509Cert(new X509CertificateHolder(encodedCert), encodedCert);
         CertWithDbId certWithMeta = new CertWithDbId(cert);
         ret = new CertificateInfo(certWithMeta, gct.privateKey, caIdent, caCert,
             gct.grantedPublicKeyData, gct.certprofile.getIdent(), requestor.getIdent());
@@ -2124,9 +2180,7 @@ public class X509Ca implements Closeable {
             throw new OperationException(BAD_CERT_TEMPLATE, "keysize too large");
           }
 
-          BigInteger publicExponent = tkg.getPublicExponent();
-
-          KeyPair kp = KeyUtil.generateRSAKeypair(keysize, publicExponent, random);
+          KeyPair kp = generateKeypair(tkg);
           java.security.interfaces.RSAPublicKey rsaPubKey =
               (java.security.interfaces.RSAPublicKey) kp.getPublic();
 
@@ -2158,8 +2212,7 @@ public class X509Ca implements Closeable {
                  priv.getCrtCoefficient()));
         } else if (kg instanceof KeypairGenControl.ECKeypairGenControl) {
           KeypairGenControl.ECKeypairGenControl tkg = (KeypairGenControl.ECKeypairGenControl) kg;
-          ASN1ObjectIdentifier curveOid = tkg.getCurveOid();
-          KeyPair kp = KeyUtil.generateECKeypair(curveOid, random);
+          KeyPair kp = generateKeypair(tkg);
           ECPublicKey pub = (ECPublicKey) kp.getPublic();
           int orderBitLength = pub.getParams().getOrder().bitLength();
 
@@ -2186,7 +2239,7 @@ public class X509Ca implements Closeable {
               new org.bouncycastle.asn1.sec.ECPrivateKey(orderBitLength, priv.getS()));
         } else if (kg instanceof KeypairGenControl.DSAKeypairGenControl) {
           KeypairGenControl.DSAKeypairGenControl tkg = (KeypairGenControl.DSAKeypairGenControl) kg;
-          KeyPair kp = KeyUtil.generateDSAKeypair(tkg.getParameterSpec(), random);
+          KeyPair kp = generateKeypair(tkg);
 
           grantedPublicKeyInfo = new SubjectPublicKeyInfo(tkg.getKeyAlgorithm(),
               new ASN1Integer(((DSAPublicKey) kp.getPublic()).getY()));
@@ -2198,7 +2251,7 @@ public class X509Ca implements Closeable {
         } else if (kg instanceof KeypairGenControl.EDDSAKeypairGenControl) {
           KeypairGenControl.EDDSAKeypairGenControl tkg =
               (KeypairGenControl.EDDSAKeypairGenControl) kg;
-          KeyPair kp = KeyUtil.generateEdECKeypair(tkg.getKeyAlgorithm().getAlgorithm(), random);
+          KeyPair kp = generateKeypair(tkg);
           grantedPublicKeyInfo = KeyUtil.createSubjectPublicKeyInfo(kp.getPublic());
           // make sure that the algorithm match
           if (!grantedPublicKeyInfo.getAlgorithm().equals(tkg.getKeyAlgorithm())) {
@@ -2208,8 +2261,7 @@ public class X509Ca implements Closeable {
         } else {
           throw new RuntimeCryptoException("unknown KeyPairGenControl " + kg);
         }
-      } catch (InvalidAlgorithmParameterException | NoSuchAlgorithmException
-          | NoSuchProviderException | InvalidKeyException | IOException ex) {
+      } catch (GeneralSecurityException | IOException ex) {
         throw new OperationException(SYSTEM_FAILURE, ex);
       }
     } else {
@@ -2330,6 +2382,26 @@ public class X509Ca implements Closeable {
 
   } // method createGrantedCertTemplate
 
+  private KeyPair generateKeypair(KeypairGenControl control) throws GeneralSecurityException {
+    KeypairPool pool = caManager.getKeypairPool();
+    if (pool == null) {
+      return KeypairPool.generateKeypair(control, random);
+    }
+
+    long missesBefore = pool.getMisses(control);
+    KeyPair keypair = pool.getKeypair(control);
+    long misses = pool.getMisses(control);
+    if (misses > missesBefore && Long.bitCount(misses) == 1) {
+      // logged after 1, 2, 4, 8, ... misses
+      LOG.warn("CA {}: keypair pool was empty {} times, consider higher watermarks",
+          caIdent.getName(), misses);
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug("CA {}: keypair pool size={}, misses={}", caIdent.getName(),
+          pool.getPoolSize(control), misses);
+    }
+    return keypair;
+  } // method generateKeypair
+
   public IdentifiedCertprofile getX509Certprofile(String certprofileName) {
     if (certprofileName == null) {
       return null;
@@ -2675,6 +2747,14 @@ public class X509Ca implements Closeable {
       suspendedCertsRevoker = null;
     }
 
+    if (ctlogClient != null) {
+      ctlogClient.close();
+    }
+
+    if (publishDispatcher != null) {
+      publishDispatcher.close();
+    }
+
     ScheduledThreadPoolExecutor executor = caManager.getScheduledThreadPoolExecutor();
     if (executor != null) {
       executor.purge();
@@ -2699,15 +2779,6 @@ public class X509Ca implements Closeable {
     }
   }
 
-  private static Extension createCertificateIssuerExtension(X500Name certificateIssuer) {
-    try {
-      GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
-      return new Extension(Extension.certificateIssuer, true, generalNames.getEncoded());
-    } catch (IOException ex) {
-      throw new IllegalArgumentException("error encoding reason: " + ex.getMessage(), ex);
-    }
-  }
-
   // remove the RDNs with empty content
   private static X500Name removeEmptyRdns(X500Name name) {
     RDN[] rdns = name.getRDNs();
@@ -19,6 +19,7 @@ package org.xipki.ca.server.publisher;
 
 import java.math.BigInteger;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -27,6 +28,7 @@ import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -34,6 +36,7 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.ca.api.CertWithDbId;
+import org.xipki.ca.api.CertificateInfo;
 import org.xipki.ca.api.OperationException;
 import org.xipki.ca.api.OperationException.ErrorCode;
 import org.xipki.datasource.DataAccessException;
@@ -121,6 +124,9 @@ class OcspStoreQueryExecutor {
       "INSERT INTO CERT (ID,LUPDATE,SN,NBEFORE,NAFTER,REV,IID,HASH,SUBJECT) "
       + "VALUES (?,?,?,?,?,?,?,?,?)";
 
+  private static final String SQL_UPDATE_CERT =
+      "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
+
   private static final Logger LOG = LoggerFactory.getLogger(OcspStoreQueryExecutor.class);
 
   private final DataSourceWrapper datasource;
@@ -230,41 +236,10 @@ class OcspStoreQueryExecutor {
     final String sql = revoked ? SQL_ADD_REVOKED_CERT : SQL_ADD_CERT;
 
     long certId = certificate.getCertId();
-    byte[] encodedCert = certificate.getCert().getEncoded();
-    String certHash = certhashAlgo.base64Hash(encodedCert);
-
-    X509Cert cert = certificate.getCert();
-    long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
-    long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
-    String cuttedSubject = X509Util.cutText(certificate.getCert().getSubjectRfc4519Text(),
-                            maxX500nameLen);
-
     PreparedStatement ps = datasource.prepareStatement(sql);
 
     try {
-      // CERT
-      int idx = 1;
-      ps.setLong(idx++, certId);
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      ps.setString(idx++, serialNumber.toString(16));
-      ps.setLong(idx++, notBeforeSeconds);
-      ps.setLong(idx++, notAfterSeconds);
-      setBoolean(ps, idx++, revoked);
-      ps.setInt(idx++, issuerId);
-      ps.setString(idx++, certHash);
-      ps.setString(idx++, cuttedSubject);
-
-      if (revoked) {
-        long revTime = revInfo.getRevocationTime().getTime() / 1000;
-        ps.setLong(idx++, revTime);
-        if (revInfo.getInvalidityTime() != null) {
-          ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
-        } else {
-          ps.setNull(idx++, Types.BIGINT);
-        }
-        int reasonCode = (revInfo.getReason() == null) ? 0 : revInfo.getReason().getCode();
-        ps.setInt(idx++, reasonCode);
-      }
+      setAddCertParams(ps, issuerId, certificate, revInfo);
 
       try {
         ps.executeUpdate();
@@ -288,33 +263,159 @@ class OcspStoreQueryExecutor {
     }
   } // method addOrUpdateCert
 
-  private void updateRegisteredCert(long registeredCertId, CertRevocationInfo revInfo)
-      throws DataAccessException {
-    boolean revoked = (revInfo != null);
+  /**
+   * Adds or updates the certificates in one transaction with JDBC batches.
+   *
+   * @param certInfos
+   *          Certificates to be added.
+   * @throws DataAccessException
+   *           If database error occurs, no certificate has been added in this case.
+   */
+  void addCerts(List<CertificateInfo> certInfos) throws DataAccessException {
+    // the same certificate may be contained several times, the last one wins
+    Map<Long, CertificateInfo> uniqueCertInfos = new LinkedHashMap<>();
+    for (CertificateInfo certInfo : certInfos) {
+      Long certId = certInfo.getCert().getCertId();
+      uniqueCertInfos.remove(certId);
+      uniqueCertInfos.put(certId, certInfo);
+    }
 
-    final String sql = "UPDATE CERT SET LUPDATE=?,REV=?,RT=?,RIT=?,RR=? WHERE ID=?";
+    // serial numbers per issuer
+    Map<Integer, List<String>> serialsOfIssuers = new HashMap<>();
+    for (CertificateInfo certInfo : uniqueCertInfos.values()) {
+      int issuerId = getIssuerId(certInfo.getIssuerCert());
+      List<String> serials = serialsOfIssuers.get(issuerId);
+      if (serials == null) {
+        serials = new LinkedList<>();
+        serialsOfIssuers.put(issuerId, serials);
+      }
+      serials.add(certInfo.getCert().getCert().getSerialNumber().toString(16));
+    }
 
-    PreparedStatement ps = datasource.prepareStatement(sql);
+    Connection conn = datasource.getConnection();
+    PreparedStatement psAdd = null;
+    PreparedStatement psAddRevoked = null;
+    PreparedStatement psUpdate = null;
+    boolean origAutoCommit = true;
 
     try {
-      int idx = 1;
-      ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
-      setBoolean(ps, idx++, revoked);
-      if (revoked) {
-        long revTime = revInfo.getRevocationTime().getTime() / 1000;
-        ps.setLong(idx++, revTime);
-        if (revInfo.getInvalidityTime() != null) {
-          ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
+      Map<String, Long> registeredIds = new HashMap<>();
+      for (Integer issuerId : serialsOfIssuers.keySet()) {
+        getCertIds(conn, issuerId, serialsOfIssuers.get(issuerId), registeredIds);
+      }
+
+      origAutoCommit = conn.getAutoCommit();
+      conn.setAutoCommit(false);
+
+      psAdd = datasource.prepareStatement(conn, SQL_ADD_CERT);
+      psAddRevoked = datasource.prepareStatement(conn, SQL_ADD_REVOKED_CERT);
+      psUpdate = datasource.prepareStatement(conn, SQL_UPDATE_CERT);
+      int numAdd = 0;
+      int numAddRevoked = 0;
+      int numUpdate = 0;
+
+      for (CertificateInfo certInfo : uniqueCertInfos.values()) {
+        CertWithDbId cert = certInfo.getCert();
+        CertRevocationInfo revInfo = certInfo.getRevocationInfo();
+        boolean revoked = (revInfo != null);
+        int issuerId = getIssuerId(certInfo.getIssuerCert());
+
+        Long registeredId = registeredIds.get(
+            issuerId + ":" + cert.getCert().getSerialNumber().toString(16));
+        if (registeredId != null) {
+          if (publishGoodCerts || revoked) {
+            setUpdateCertParams(psUpdate, registeredId, revInfo);
+            psUpdate.addBatch();
+            numUpdate++;
+          }
+        } else if (revoked) {
+          setAddCertParams(psAddRevoked, issuerId, cert, revInfo);
+          psAddRevoked.addBatch();
+          numAddRevoked++;
         } else {
-          ps.setNull(idx++, Types.INTEGER);
+          setAddCertParams(psAdd, issuerId, cert, null);
+          psAdd.addBatch();
+          numAdd++;
         }
-        ps.setInt(idx++, revInfo.getReason().getCode());
+      }
+
+      if (numAdd > 0) {
+        psAdd.executeBatch();
+      }
+
+      if (numAddRevoked > 0) {
+        psAddRevoked.executeBatch();
+      }
+
+      if (numUpdate > 0) {
+        psUpdate.executeBatch();
+      }
+
+      conn.commit();
+      LOG.debug("added {} and updated {} certificates in one batch",
+          numAdd + numAddRevoked, numUpdate);
+    } catch (SQLException ex) {
+      try {
+        conn.rollback();
+      } catch (SQLException ex2) {
+        LOG.warn("could not rollback: {}", ex2.getMessage());
+      }
+      throw datasource.translate(SQL_ADD_CERT, ex);
+    } finally {
+      datasource.releaseResources(psAdd, null, false);
+      datasource.releaseResources(psAddRevoked, null, false);
+      datasource.releaseResources(psUpdate, null, false);
+      try {
+        conn.setAutoCommit(origAutoCommit);
+      } catch (SQLException ex) {
+        LOG.warn("could not restore the auto-commit mode of the connection");
+      }
+      datasource.returnConnection(conn);
+    }
+  } // method addCerts
+
+  private void setAddCertParams(PreparedStatement ps, int issuerId, CertWithDbId certificate,
+      CertRevocationInfo revInfo) throws SQLException {
+    boolean revoked = (revInfo != null);
+    X509Cert cert = certificate.getCert();
+    String certHash = certhashAlgo.base64Hash(cert.getEncoded());
+    long notBeforeSeconds = cert.getNotBefore().getTime() / 1000;
+    long notAfterSeconds = cert.getNotAfter().getTime() / 1000;
+    String cuttedSubject = X509Util.cutText(cert.getSubjectRfc4519Text(), maxX500nameLen);
+
+    // CERT
+    int idx = 1;
+    ps.setLong(idx++, certificate.getCertId());
+    ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+    ps.setString(idx++, cert.getSerialNumber().toString(16));
+    ps.setLong(idx++, notBeforeSeconds);
+    ps.setLong(idx++, notAfterSeconds);
+    setBoolean(ps, idx++, revoked);
+    ps.setInt(idx++, issuerId);
+    ps.setString(idx++, certHash);
+    ps.setString(idx++, cuttedSubject);
+
+    if (revoked) {
+      long revTime = revInfo.getRevocationTime().getTime() / 1000;
+      ps.setLong(idx++, revTime);
+      if (revInfo.getInvalidityTime() != null) {
+        ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
       } else {
-        ps.setNull(idx++, Types.INTEGER); // rev_time
-        ps.setNull(idx++, Types.INTEGER); // rev_invalidity_time
-        ps.setNull(idx++, Types.INTEGER); // rev_reason
+        ps.setNull(idx++, Types.BIGINT);
       }
-      ps.setLong(idx++, registeredCertId);
+      int reasonCode = (revInfo.getReason() == null) ? 0 : revInfo.getReason().getCode();
+      ps.setInt(idx++, reasonCode);
+    }
+  } // method setAddCertParams
+
+  private void updateRegisteredCert(long registeredCertId, CertRevocationInfo revInfo)
+      throws DataAccessException {
+    final String sql = SQL_UPDATE_CERT;
+
+    PreparedStatement ps = datasource.prepareStatement(sql);
+
+    try {
+      setUpdateCertParams(ps, registeredCertId, revInfo);
       ps.executeUpdate();
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
@@ -323,6 +424,30 @@ class OcspStoreQueryExecutor {
     }
   } // method updateRegisteredCert
 
+  private static void setUpdateCertParams(PreparedStatement ps, long registeredCertId,
+      CertRevocationInfo revInfo) throws SQLException {
+    boolean revoked = (revInfo != null);
+
+    int idx = 1;
+    ps.setLong(idx++, System.currentTimeMillis() / 1000); // currentTimeSeconds
+    setBoolean(ps, idx++, revoked);
+    if (revoked) {
+      long revTime = revInfo.getRevocationTime().getTime() / 1000;
+      ps.setLong(idx++, revTime);
+      if (revInfo.getInvalidityTime() != null) {
+        ps.setLong(idx++, revInfo.getInvalidityTime().getTime() / 1000);
+      } else {
+        ps.setNull(idx++, Types.INTEGER);
+      }
+      ps.setInt(idx++, revInfo.getReason().getCode());
+    } else {
+      ps.setNull(idx++, Types.INTEGER); // rev_time
+      ps.setNull(idx++, Types.INTEGER); // rev_invalidity_time
+      ps.setNull(idx++, Types.INTEGER); // rev_reason
+    }
+    ps.setLong(idx++, registeredCertId);
+  } // method setUpdateCertParams
+
   void revokeCert(X509Cert caCert, CertWithDbId cert, CertRevocationInfo revInfo)
       throws DataAccessException, OperationException {
     addOrUpdateCert(caCert, cert, revInfo);
@@ -507,6 +632,53 @@ class OcspStoreQueryExecutor {
     }
   } // method getCertId
 
+  /**
+   * Retrieves the database Ids of the registered certificates.
+   *
+   * @param conn
+   *          Database connection.
+   * @param issuerId
+   *          Issuer id.
+   * @param hexSerials
+   *          Serial numbers in hex format.
+   * @param registeredIds
+   *          Map to which the Ids are added, with key &lt;issuerId&gt;:&lt;hexSerial&gt;.
+   */
+  private void getCertIds(Connection conn, int issuerId, List<String> hexSerials,
+      Map<String, Long> registeredIds) throws DataAccessException {
+    final int maxInSize = 100;
+    List<String> serials = new ArrayList<>(hexSerials);
+    for (int offset = 0; offset < serials.size(); offset += maxInSize) {
+      List<String> chunk = serials.subList(offset, Math.min(serials.size(), offset + maxInSize));
+
+      StringBuilder sb = new StringBuilder("SELECT ID,SN FROM CERT WHERE IID=? AND SN IN (");
+      for (int i = 0; i < chunk.size(); i++) {
+        sb.append(i == 0 ? "?" : ",?");
+      }
+      sb.append(")");
+      final String sql = sb.toString();
+
+      ResultSet rs = null;
+      PreparedStatement ps = datasource.prepareStatement(conn, sql);
+      try {
+        int idx = 1;
+        ps.setInt(idx++, issuerId);
+        for (String serial : chunk) {
+          ps.setString(idx++, serial);
+        }
+
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          registeredIds.put(issuerId + ":" + rs.getString("SN"), rs.getLong("ID"));
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, rs, false);
+      }
+    }
+  } // method getCertIds
+
   boolean isHealthy() {
     final String sql = "SELECT ID FROM ISSUER";
 
@@ -0,0 +1,84 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * FingerprintFilter test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class FingerprintFilterTest {
+
+  @Test
+  public void testNoFalseNegatives() {
+    final int n = 100000;
+    long[] fps = new long[n];
+    Random random = new Random(0x5EED);
+    FingerprintFilter filter = new FingerprintFilter(n);
+    for (int i = 0; i < n; i++) {
+      fps[i] = random.nextLong();
+      filter.add(fps[i]);
+    }
+
+    for (int i = 0; i < n; i++) {
+      Assert.assertTrue("false negative for fingerprint " + fps[i],
+          filter.mightContain(fps[i]));
+    }
+  }
+
+  @Test
+  public void testSpecialFingerprints() {
+    long[] fps = {0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+    FingerprintFilter filter = new FingerprintFilter(1);
+    for (long fp : fps) {
+      filter.add(fp);
+    }
+
+    for (long fp : fps) {
+      Assert.assertTrue("false negative for fingerprint " + fp, filter.mightContain(fp));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    final int n = 100000;
+    Random random = new Random(0x5EED);
+    FingerprintFilter filter = new FingerprintFilter(n);
+    for (int i = 0; i < n; i++) {
+      filter.add(random.nextLong());
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < n; i++) {
+      if (filter.mightContain(random.nextLong())) {
+        falsePositives++;
+      }
+    }
+
+    // about 1% expected
+    Assert.assertTrue("too many false positives: " + falsePositives, falsePositives < n / 50);
+  }
+
+}
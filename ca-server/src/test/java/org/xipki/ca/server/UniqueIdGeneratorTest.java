@@ -0,0 +1,65 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ca.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * UniqueIdGenerator test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class UniqueIdGeneratorTest {
+
+  private static final int SHARD_ID = 5;
+
+  @Test
+  public void testRollover() {
+    UniqueIdGenerator generator = new UniqueIdGenerator(0, SHARD_ID);
+    // much more than the 1024 offsets of a millisecond
+    final int n = 1024 * 64;
+    long startMs = System.currentTimeMillis();
+    long[] ids = new long[n];
+    for (int i = 0; i < n; i++) {
+      ids[i] = generator.nextId();
+    }
+    long endMs = System.currentTimeMillis();
+
+    for (int i = 0; i < n; i++) {
+      Assert.assertTrue("id is not positive", ids[i] > 0);
+      Assert.assertEquals("shardId", SHARD_ID, ids[i] & 0x7F);
+      if (i > 0) {
+        // strictly increasing, hence unique
+        Assert.assertTrue("id not increasing", ids[i] > ids[i - 1]);
+        if ((ids[i] >>> 17) == (ids[i - 1] >>> 17)) {
+          Assert.assertEquals("offset", ((ids[i - 1] >>> 7) & 0x3FF) + 1, (ids[i] >>> 7) & 0x3FF);
+        }
+      }
+    }
+
+    // ids are not taken from the time before the first call
+    Assert.assertTrue("id before start time", (ids[0] >>> 17) >= startMs);
+    // the ids of following milliseconds are used if the offsets are exhausted
+    long lastMs = ids[n - 1] >>> 17;
+    Assert.assertTrue("id rolls over too far", lastMs <= endMs + n / 1024);
+  }
+
+}
@@ -664,6 +664,25 @@ public class XijsonCertprofile extends BaseCertprofile {
     if (!extnIds.isEmpty()) {
       throw new CertprofileException("Cannot process the extensions: " + extnIds);
     }
+
+    // encode the constant extension values once, instead of for each certificate
+    List<ExtensionValue> constantValues = new LinkedList<>(Arrays.asList(additionalInformation,
+        authorizationTemplate, inhibitAnyPolicy, nameConstraints, policyConstraints,
+        policyMappings, qcStatments, restriction, smimeCapabilities, tlsFeature, validityModel));
+    if (constantExtensions != null) {
+      constantValues.addAll(constantExtensions.values());
+    }
+
+    for (ExtensionValue value : constantValues) {
+      if (value != null) {
+        try {
+          value.getEncodedValue();
+        } catch (IOException ex) {
+          throw new CertprofileException(
+              "could not encode extension value: " + ex.getMessage(), ex);
+        }
+      }
+    }
   } // method initialize0
 
   /**
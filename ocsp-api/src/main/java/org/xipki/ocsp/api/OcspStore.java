@@ -19,7 +19,9 @@ package org.xipki.ocsp.api;
 
 import java.io.Closeable;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.xipki.datasource.DataSourceWrapper;
@@ -110,7 +112,43 @@ public abstract class OcspStore implements Closeable {
       boolean inheritCaRevocation) throws OcspStoreException {
     CertStatusInfo info = getCertStatus0(time, reqIssuer, serialNumber,
         includeCertHash, includeRit, inheritCaRevocation);
+    adjustNextUpdate(time, info);
+    return info;
+  } // method getCertStatus
+
+  /**
+   * Return the status of several certificates issued by the same issuer.
+   *
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate status, in the same order as the {@code serialNumbers}. An
+   *         element is {@code null} if the status of the corresponding certificate cannot be
+   *         determined by this store.
+   * @throws OcspStoreException
+   *           If OCSP store failed to retrieve the status.
+   */
+  public final List<CertStatusInfo> getCertStatuses(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> infos = getCertStatuses0(time, reqIssuer, serialNumbers,
+        includeCertHash, includeRit, inheritCaRevocation);
+    for (CertStatusInfo info : infos) {
+      adjustNextUpdate(time, info);
+    }
+    return infos;
+  } // method getCertStatuses
 
+  private void adjustNextUpdate(Date time, CertStatusInfo info) {
     if (info != null && minNextUpdatePeriod != null && !isIgnoreExpiredCrls()) {
       if (unknownCertBehaviour == UnknownCertBehaviour.good
           || unknownCertBehaviour == UnknownCertBehaviour.unknown) {
@@ -126,9 +164,7 @@ public abstract class OcspStore implements Closeable {
         }
       }
     }
-
-    return info;
-  } // method getCertStatus
+  } // method adjustNextUpdate
 
   /**
    * Return the certificate status.
@@ -153,6 +189,39 @@ public abstract class OcspStore implements Closeable {
       BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
       boolean inheritCaRevocation) throws OcspStoreException;
 
+  /**
+   * Return the status of several certificates issued by the same issuer. The default
+   * implementation calls {@link #getCertStatus0(Date, RequestIssuer, BigInteger, boolean,
+   * boolean, boolean)} for each certificate, sub classes may overwrite it to retrieve
+   * the status in one round trip.
+   *
+   * @param time
+   *          Time of the certificate status. Must not be {@code null}.
+   * @param reqIssuer
+   *          Requested issuer
+   * @param serialNumbers
+   *          Serial numbers of the target certificates. Must not be {@code null}.
+   * @param includeCertHash
+   *          Whether to include the hash of target certificate in the response.
+   * @param includeRit
+   *          Whether to include the revocation invalidity time in the response.
+   * @param inheritCaRevocation
+   *          Whether to inherit CA revocation
+   * @return the certificate status, in the same order as the {@code serialNumbers}.
+   * @throws OcspStoreException
+   *           If OCSP store failed to retrieve the status.
+   */
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    List<CertStatusInfo> ret = new ArrayList<>(serialNumbers.size());
+    for (BigInteger serialNumber : serialNumbers) {
+      ret.add(getCertStatus0(time, reqIssuer, serialNumber, includeCertHash, includeRit,
+          inheritCaRevocation));
+    }
+    return ret;
+  } // method getCertStatuses0
+
   /**
    * Initialize the OCSP store.
    *
@@ -17,8 +17,7 @@
 
 package org.xipki.ocsp.server;
 
-import java.io.IOException;
-import java.io.OutputStream;
+import java.security.SignatureException;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,10 +30,8 @@ import org.xipki.ocsp.server.type.ResponderID;
 import org.xipki.ocsp.server.type.ResponseData;
 import org.xipki.ocsp.server.type.SingleResponse;
 import org.xipki.ocsp.server.type.TaggedCertSequence;
-import org.xipki.security.ConcurrentBagEntrySigner;
 import org.xipki.security.ConcurrentContentSigner;
 import org.xipki.security.NoIdleSignerException;
-import org.xipki.security.XiContentSigner;
 import org.xipki.util.Hex;
 
 /**
@@ -96,26 +93,14 @@ public class OCSPRespBuilder {
     byte[] tbs = new byte[responseData.getEncodedLength()];
     responseData.write(tbs, 0);
 
-    ConcurrentBagEntrySigner signer0 = signer.borrowSigner();
-
+    // signed via the sign service of the signer if configured
     byte[] signature;
-    byte[] sigAlgId;
-
     try {
-      XiContentSigner csigner0 = signer0.value();
-      OutputStream sigOut = csigner0.getOutputStream();
-      try {
-        sigOut.write(tbs);
-        sigOut.close();
-      } catch (IOException ex) {
-        throw new OCSPException("exception signing TBSRequest: " + ex.getMessage(), ex);
-      }
-
-      signature = csigner0.getSignature();
-      sigAlgId = csigner0.getEncodedAlgorithmIdentifier();
-    } finally {
-      signer.requiteSigner(signer0);
+      signature = signer.sign(tbs);
+    } catch (SignatureException ex) {
+      throw new OCSPException("exception signing TBSRequest: " + ex.getMessage(), ex);
     }
+    byte[] sigAlgId = signer.getEncodedAlgorithmIdentifier();
 
     // ----- Get the length -----
     // BasicOCSPResponse.signature
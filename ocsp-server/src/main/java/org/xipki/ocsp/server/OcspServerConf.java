@@ -260,6 +260,18 @@ public class OcspServerConf extends ValidatableConf {
 
     private CertCollection certs;
 
+    /**
+     * Time to live of the cached verifiers and certpath validation results of the request
+     * signer certificates. Default to 10 minutes. The entries expire at the latest at the
+     * notAfter of the certificate.
+     */
+    private String cacheTtl;
+
+    /**
+     * Maximal number of cached request signer certificates. Default to 100.
+     */
+    private Integer cacheSize;
+
     public CertpathValidationModel getValidationModel() {
       return validationModel;
     }
@@ -284,9 +296,32 @@ public class OcspServerConf extends ValidatableConf {
       this.certs = certs;
     }
 
+    public String getCacheTtl() {
+      return cacheTtl;
+    }
+
+    public void setCacheTtl(String cacheTtl) {
+      this.cacheTtl = cacheTtl;
+    }
+
+    public Validity cacheTtl() {
+      return cacheTtl == null ? new Validity(10, Unit.MINUTE) : Validity.getInstance(cacheTtl);
+    }
+
+    public Integer getCacheSize() {
+      return cacheSize;
+    }
+
+    public void setCacheSize(Integer cacheSize) {
+      this.cacheSize = cacheSize;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notNull(validationModel, "validationModel");
+      if (cacheSize != null && cacheSize < 1) {
+        throw new InvalidConfException("cacheSize is not positive");
+      }
       notNull(trustAnchors, "trustAnchors");
       validate(trustAnchors);
       validate(certs);
@@ -411,6 +446,18 @@ public class OcspServerConf extends ValidatableConf {
 
     private String validity;
 
+    /**
+     * Maximal size in bytes of the in-memory cache in front of the cache database.
+     * Default to 32 MiB, and 0 to deactivate the in-memory cache.
+     */
+    private Integer memoryCacheSize;
+
+    /**
+     * If present, the responses of all non-expired certificates in the xipki-db and crl stores
+     * will be generated and signed in the background.
+     */
+    private Presign presign;
+
     public DataSourceConf getDatasource() {
       return datasource;
     }
@@ -431,13 +478,76 @@ public class OcspServerConf extends ValidatableConf {
       return validity == null ? new Validity(1, Unit.DAY) : Validity.getInstance(validity);
     }
 
+    public Integer getMemoryCacheSize() {
+      return memoryCacheSize;
+    }
+
+    public void setMemoryCacheSize(Integer memoryCacheSize) {
+      this.memoryCacheSize = memoryCacheSize;
+    }
+
+    public int memoryCacheSize() {
+      return memoryCacheSize == null ? 32 * 1024 * 1024 : memoryCacheSize;
+    }
+
+    public Presign getPresign() {
+      return presign;
+    }
+
+    public void setPresign(Presign presign) {
+      this.presign = presign;
+    }
+
     @Override
     public void validate() throws InvalidConfException {
       notNull(datasource, "datasource");
+      validate(presign);
     }
 
   } // class ResponseCache
 
+  public static class Presign extends ValidatableConf {
+
+    /**
+     * Interval between two runs. Default to 1 hour.
+     */
+    private String interval;
+
+    /**
+     * Number of threads to sign the responses. Default to the number of signers of the
+     * responder.
+     */
+    private Integer threads;
+
+    public String getInterval() {
+      return interval;
+    }
+
+    public void setInterval(String interval) {
+      this.interval = interval;
+    }
+
+    public Validity interval() {
+      return interval == null ? new Validity(1, Unit.HOUR) : Validity.getInstance(interval);
+    }
+
+    public Integer getThreads() {
+      return threads;
+    }
+
+    public void setThreads(Integer threads) {
+      this.threads = threads;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (threads != null && threads < 1) {
+        throw new InvalidConfException("threads must be positive: " + threads);
+      }
+    }
+
+  } // class Presign
+
   public static class ResponseOption extends ValidatableConf {
 
     private boolean responderIdByName = true;
@@ -21,15 +21,14 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateParsingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,13 +45,13 @@ import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
-import org.bouncycastle.asn1.ocsp.OCSPRequest;
 import org.bouncycastle.asn1.ocsp.OCSPResponse;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
-import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.asn1.x509.Certificate;
 import org.bouncycastle.cert.ocsp.OCSPException;
-import org.bouncycastle.cert.ocsp.OCSPReq;
+import org.bouncycastle.operator.ContentVerifier;
 import org.bouncycastle.operator.ContentVerifierProvider;
+import org.bouncycastle.operator.OperatorCreationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.datasource.DataAccessException;
@@ -76,6 +75,7 @@ import org.xipki.ocsp.server.ResponderOption.OcspMode;
 import org.xipki.ocsp.server.store.CaDbCertStatusStore;
 import org.xipki.ocsp.server.store.CrlDbCertStatusStore;
 import org.xipki.ocsp.server.store.DbCertStatusStore;
+import org.xipki.ocsp.server.store.OffHeapCertStatusStore;
 import org.xipki.ocsp.server.store.ResponseCacher;
 import org.xipki.ocsp.server.store.ejbca.EjbcaCertStatusStore;
 import org.xipki.ocsp.server.type.CertID;
@@ -156,10 +156,28 @@ public class OcspServerImpl implements OcspServer {
     }
   } // class OcspRespControl
 
+  /**
+   * Certificate status retrieved in advance for a request with several CertIDs.
+   */
+  private static class PrefetchedCertStatus {
+
+    private final OcspStore store;
+
+    private final CertStatusInfo certStatusInfo;
+
+    PrefetchedCertStatus(OcspStore store, CertStatusInfo certStatusInfo) {
+      this.store = store;
+      this.certStatusInfo = certStatusInfo;
+    }
+
+  } // class PrefetchedCertStatus
+
   public static final long DFLT_CACHE_MAX_AGE = 60; // 1 minute
 
   private static final String STORE_TYPE_XIPKI_DB = "xipki-db";
 
+  private static final String STORE_TYPE_XIPKI_DB_OFFHEAP = "xipki-db-offheap";
+
   private static final String STORE_TYPE_XIPKI_CA_DB = "xipki-ca-db";
 
   private static final String STORE_TYPE_CRL = "crl";
@@ -195,6 +213,8 @@ public class OcspServerImpl implements OcspServer {
 
   private ResponseCacher responseCacher;
 
+  private ResponsePresigner responsePresigner;
+
   private Map<String, ResponderImpl> responders = new HashMap<>();
 
   private Map<String, ResponseSigner> signers = new HashMap<>();
@@ -315,6 +335,10 @@ public class OcspServerImpl implements OcspServer {
     initialized.set(false);
 
     // reset
+    if (responsePresigner != null) {
+      responsePresigner.close();
+      responsePresigner = null;
+    }
     responseCacher = null;
     responders.clear();
     signers.clear();
@@ -468,7 +492,8 @@ public class OcspServerImpl implements OcspServer {
       } finally {
         closeStream(dsStream);
       }
-      responseCacher = new ResponseCacher(datasource, master, cacheType.validity());
+      responseCacher = new ResponseCacher(datasource, master, cacheType.validity(),
+          cacheType.memoryCacheSize());
       responseCacher.init();
     }
 
@@ -597,11 +622,27 @@ public class OcspServerImpl implements OcspServer {
       list2.add(m.str);
     }
     this.servletPaths = list2;
+
+    // presign the responses
+    if (cacheType != null && cacheType.getPresign() != null) {
+      if (master) {
+        OcspServerConf.Presign presign = cacheType.getPresign();
+        responsePresigner = new ResponsePresigner(this, responseCacher,
+            new HashMap<>(responders), presign.interval(), presign.getThreads());
+        responsePresigner.init();
+      } else {
+        LOG.warn("presigning of responses is only permitted in master mode, ignore it");
+      }
+    }
   } // method init0
 
   @Override
   public void close() {
     LOG.info("stopped OCSP Responder");
+    if (responsePresigner != null) {
+      responsePresigner.close();
+    }
+
     if (responseCacher != null) {
       responseCacher.close();
     }
@@ -768,6 +809,7 @@ public class OcspServerImpl implements OcspServer {
       }
 
       AlgorithmCode cacheDbSigAlgCode = null;
+      HashAlgo cacheDbHashAlgo = null;
       BigInteger cacheDbSerialNumber = null;
       Integer cacheDbIssuerId = null;
 
@@ -784,13 +826,14 @@ public class OcspServerImpl implements OcspServer {
         }
 
         cacheDbSigAlgCode = concurrentSigner.getAlgorithmCode();
+        cacheDbHashAlgo = reqHashAlgo;
 
         cacheDbIssuerId = responseCacher.getIssuerId(certId.getIssuer());
         cacheDbSerialNumber = certId.getSerialNumber();
 
         if (cacheDbIssuerId != null) {
           OcspRespWithCacheInfo cachedResp = responseCacher.getOcspResponse(
-              cacheDbIssuerId.intValue(), cacheDbSerialNumber, cacheDbSigAlgCode);
+              cacheDbIssuerId.intValue(), cacheDbSerialNumber, cacheDbHashAlgo, cacheDbSigAlgCode);
           if (cachedResp != null) {
             return cachedResp;
           }
@@ -817,11 +860,15 @@ public class OcspServerImpl implements OcspServer {
       ResponderID responderId = signer.getResponderId(repOpt.isResponderIdByName());
       OCSPRespBuilder builder = new OCSPRespBuilder(responderId);
 
+      PrefetchedCertStatus[] prefetchedStatuses = (requestsSize > 1)
+          ? prefetchCertStatuses(requestList, responder, reqOpt, repOpt) : null;
+
       boolean unknownAsRevoked = false;
       AtomicBoolean unknownAsRevoked0 = new AtomicBoolean(false);
       for (int i = 0; i < requestsSize; i++) {
         OcspRespWithCacheInfo failureOcspResp = processCertReq(
             unknownAsRevoked0, requestList.get(i),
+            prefetchedStatuses == null ? null : prefetchedStatuses[i],
             builder, responder, reqOpt, repOpt, repControl);
 
         if (failureOcspResp != null) {
@@ -841,16 +888,7 @@ public class OcspServerImpl implements OcspServer {
         builder.setResponseExtensions(new Extensions(respExtensions));
       }
 
-      TaggedCertSequence certsInResp;
-      EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
-      if (certsMode == EmbedCertsMode.SIGNER) {
-        certsInResp = signer.getSequenceOfCert();
-      } else if (certsMode == EmbedCertsMode.NONE) {
-        certsInResp = null;
-      } else {
-        // certsMode == EmbedCertsMode.SIGNER_AND_CA
-        certsInResp = signer.getSequenceOfCertChain();
-      }
+      TaggedCertSequence certsInResp = getCertsInResp(signer, repOpt);
 
       byte[] encodeOcspResponse;
       try {
@@ -867,8 +905,8 @@ public class OcspServerImpl implements OcspServer {
         // Don't cache the response with status UNKNOWN, since this may result in DDoS
         // of storage
         responseCacher.storeOcspResponse(cacheDbIssuerId.intValue(), cacheDbSerialNumber,
-            repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbSigAlgCode,
-            encodeOcspResponse);
+            repControl.cacheThisUpdate, repControl.cacheNextUpdate, cacheDbHashAlgo,
+            cacheDbSigAlgCode, encodeOcspResponse);
       }
 
       if (viaGet && repControl.canCacheInfo) {
@@ -886,8 +924,176 @@ public class OcspServerImpl implements OcspServer {
     }
   } // method ask
 
+  /**
+   * Generates and signs the responses for the given certificates, and stores them in the
+   * response cacher. The status of all certificates is retrieved in one round trip.
+   *
+   * @param responder
+   *          Responder. Must not be {@code null}.
+   * @param store
+   *          Store of the certificates. Must not be {@code null}.
+   * @param reqIssuer
+   *          Issuer of the certificates. Must not be {@code null}.
+   * @param serialNumbers
+   *          Serial numbers of the certificates. Must not be {@code null}.
+   * @param cacheIssuerId
+   *          Identifier of the issuer in the response cacher.
+   * @return the number of responses signed and stored.
+   * @throws Exception
+   *           If error occurs while generating the responses.
+   */
+  int presign(ResponderImpl responder, OcspStore store, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, int cacheIssuerId) throws Exception {
+    ResponseSigner signer = responder.getSigner();
+    RequestOption reqOpt = responder.getRequestOption();
+    OcspServerConf.ResponseOption repOpt = responder.getResponseOption();
+    ConcurrentContentSigner concurrentSigner = signer.getFirstSigner();
+    TaggedCertSequence certsInResp = getCertsInResp(signer, repOpt);
+
+    List<CertStatusInfo> infos = store.getCertStatuses(new Date(), reqIssuer, serialNumbers,
+        repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+        responder.getResponderOption().isInheritCaRevocation());
+
+    int numStored = 0;
+    for (int i = 0; i < serialNumbers.size(); i++) {
+      BigInteger serialNumber = serialNumbers.get(i);
+      CertStatusInfo info = infos.get(i);
+
+      OcspRespControl repControl = new OcspRespControl();
+      repControl.canCacheInfo = true;
+
+      OCSPRespBuilder builder = new OCSPRespBuilder(
+          signer.getResponderId(repOpt.isResponderIdByName()));
+      OcspRespWithCacheInfo failureOcspResp = processCertReq(new AtomicBoolean(false),
+          new CertID(reqIssuer, serialNumber),
+          (info == null) ? null : new PrefetchedCertStatus(store, info),
+          builder, responder, reqOpt, repOpt, repControl);
+
+      // Don't cache the response with status UNKNOWN
+      if (failureOcspResp != null || !repControl.canCacheInfo) {
+        continue;
+      }
+
+      byte[] encodeOcspResponse = builder.buildOCSPResponse(concurrentSigner, certsInResp,
+          new Date());
+      responseCacher.storeOcspResponse(cacheIssuerId, serialNumber, repControl.cacheThisUpdate,
+          repControl.cacheNextUpdate, reqIssuer.hashAlgorithm(),
+          concurrentSigner.getAlgorithmCode(), encodeOcspResponse, false);
+      numStored++;
+    }
+    return numStored;
+  } // method presign
+
+  private static TaggedCertSequence getCertsInResp(ResponseSigner signer,
+      OcspServerConf.ResponseOption repOpt) {
+    EmbedCertsMode certsMode = repOpt.getEmbedCertsMode();
+    if (certsMode == EmbedCertsMode.SIGNER) {
+      return signer.getSequenceOfCert();
+    } else if (certsMode == EmbedCertsMode.NONE) {
+      return null;
+    } else {
+      // certsMode == EmbedCertsMode.SIGNER_AND_CA
+      return signer.getSequenceOfCertChain();
+    }
+  } // method getCertsInResp
+
+  /**
+   * Retrieves the status of all certificates in the request, grouped by the issuer, so that
+   * the store can answer all certificates of one issuer in one round trip.
+   *
+   * @return the prefetched status, in the same order as the requestList. An element is
+   *         {@code null} if the status will be retrieved separately.
+   */
+  private PrefetchedCertStatus[] prefetchCertStatuses(List<CertID> requestList,
+      ResponderImpl responder, RequestOption reqOpt, OcspServerConf.ResponseOption repOpt) {
+    final int size = requestList.size();
+    // issuer to the indexes in requestList
+    Map<RequestIssuer, List<Integer>> issuerIndexes = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      RequestIssuer reqIssuer = requestList.get(i).getIssuer();
+      if (!reqOpt.allows(reqIssuer.hashAlgorithm())) {
+        // will be rejected in processCertReq
+        continue;
+      }
+
+      List<Integer> indexes = issuerIndexes.get(reqIssuer);
+      if (indexes == null) {
+        indexes = new ArrayList<>(size);
+        issuerIndexes.put(reqIssuer, indexes);
+      }
+      indexes.add(i);
+    }
+
+    PrefetchedCertStatus[] ret = new PrefetchedCertStatus[size];
+    Date now = new Date();
+    for (RequestIssuer reqIssuer : issuerIndexes.keySet()) {
+      List<Integer> indexes = issuerIndexes.get(reqIssuer);
+      if (indexes.size() < 2) {
+        continue;
+      }
+
+      List<BigInteger> serials = new ArrayList<>(indexes.size());
+      for (Integer index : indexes) {
+        serials.add(requestList.get(index).getSerialNumber());
+      }
+
+      // only the first store which knows the issuer is asked, the remaining cases will be
+      // handled separately in processCertReq.
+      for (OcspStore store : responder.getStores()) {
+        if (!store.knowsIssuer(reqIssuer)) {
+          continue;
+        }
+
+        try {
+          List<CertStatusInfo> infos = store.getCertStatuses(now, reqIssuer, serials,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              responder.getResponderOption().isInheritCaRevocation());
+          for (int i = 0; i < indexes.size(); i++) {
+            CertStatusInfo info = infos.get(i);
+            if (info != null) {
+              ret[indexes.get(i)] = new PrefetchedCertStatus(store, info);
+            }
+          }
+        } catch (OcspStoreException ex) {
+          LogUtil.warn(LOG, ex, "getCertStatuses() of CertStatusStore " + store.getName());
+        }
+        break;
+      }
+    }
+
+    return ret;
+  } // method prefetchCertStatuses
+
+  private static OcspRespWithCacheInfo checkCertStatus(OcspStore store,
+      CertStatusInfo certStatusInfo) {
+    CertStatus status = certStatusInfo.getCertStatus();
+    if (status == CertStatus.UNKNOWN || status == CertStatus.IGNORE) {
+      switch (store.getUnknownCertBehaviour()) {
+        case unknown:
+          break;
+        case good:
+          if (status == CertStatus.UNKNOWN) {
+            certStatusInfo.setCertStatus(CertStatus.GOOD);
+          }
+          break;
+        case malformedRequest:
+          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+        case internalError:
+          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
+        case tryLater:
+          return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+        default:
+          break;
+      }
+    } else if (status == CertStatus.CRL_EXPIRED) {
+      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
+    }
+
+    return null;
+  } // method checkCertStatus
+
   private OcspRespWithCacheInfo processCertReq(AtomicBoolean unknownAsRevoked,
-      CertID certId, OCSPRespBuilder builder,
+      CertID certId, PrefetchedCertStatus prefetchedStatus, OCSPRespBuilder builder,
       ResponderImpl responder, RequestOption reqOpt, OcspServerConf.ResponseOption repOpt,
       OcspRespControl repControl) throws IOException {
     HashAlgo reqHashAlgo = certId.getIssuer().hashAlgorithm();
@@ -903,45 +1109,36 @@ public class OcspServerImpl implements OcspServer {
 
     RequestIssuer reqIssuer = certId.getIssuer();
     Date now = new Date();
-    for (OcspStore store : responder.getStores()) {
-      if (!store.knowsIssuer(reqIssuer)) {
-        continue;
+    if (prefetchedStatus != null) {
+      certStatusInfo = prefetchedStatus.certStatusInfo;
+      OcspRespWithCacheInfo failureOcspResp =
+          checkCertStatus(prefetchedStatus.store, certStatusInfo);
+      if (failureOcspResp != null) {
+        return failureOcspResp;
       }
+    } else {
+      for (OcspStore store : responder.getStores()) {
+        if (!store.knowsIssuer(reqIssuer)) {
+          continue;
+        }
 
-      try {
-        certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
-            repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
-            responder.getResponderOption().isInheritCaRevocation());
-        if (certStatusInfo != null) {
-          CertStatus status = certStatusInfo.getCertStatus();
-          if (status == CertStatus.UNKNOWN || status == CertStatus.IGNORE) {
-            switch (store.getUnknownCertBehaviour()) {
-              case unknown:
-                break;
-              case good:
-                if (status == CertStatus.UNKNOWN) {
-                  certStatusInfo.setCertStatus(CertStatus.GOOD);
-                }
-                break;
-              case malformedRequest:
-                return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
-              case internalError:
-                return unsuccesfulOCSPRespMap.get(OcspResponseStatus.internalError);
-              case tryLater:
-                return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-              default:
-                break;
+        try {
+          certStatusInfo = store.getCertStatus(now, certId.getIssuer(), serial,
+              repOpt.isIncludeCerthash(), repOpt.isIncludeInvalidityDate(),
+              responder.getResponderOption().isInheritCaRevocation());
+          if (certStatusInfo != null) {
+            OcspRespWithCacheInfo failureOcspResp = checkCertStatus(store, certStatusInfo);
+            if (failureOcspResp != null) {
+              return failureOcspResp;
             }
-          } else if (status == CertStatus.CRL_EXPIRED) {
-            return unsuccesfulOCSPRespMap.get(OcspResponseStatus.tryLater);
-          }
 
-          exceptionOccurs = false;
-          break;
+            exceptionOccurs = false;
+            break;
+          }
+        } catch (OcspStoreException ex) {
+          exceptionOccurs = true;
+          LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
         }
-      } catch (OcspStoreException ex) {
-        exceptionOccurs = true;
-        LogUtil.error(LOG, ex, "getCertStatus() of CertStatusStore " + store.getName());
       }
     }
 
@@ -1162,6 +1359,8 @@ public class OcspServerImpl implements OcspServer {
         throw new ObjectCreationException("OCSP store type is not specified");
       } else if (STORE_TYPE_XIPKI_DB.equalsIgnoreCase(type)) {
         store = new DbCertStatusStore();
+      } else if (STORE_TYPE_XIPKI_DB_OFFHEAP.equalsIgnoreCase(type)) {
+        store = new OffHeapCertStatusStore();
       } else if (STORE_TYPE_CRL.equalsIgnoreCase(type)) {
         store = new CrlDbCertStatusStore();
       } else if (STORE_TYPE_XIPKI_CA_DB.equalsIgnoreCase(type)) {
@@ -1230,15 +1429,16 @@ public class OcspServerImpl implements OcspServer {
     return store;
   } // method newStore
 
-  private Object checkSignature(byte[] request, RequestOption requestOption)
-      throws OCSPException, CertificateParsingException, InvalidAlgorithmParameterException {
-    OCSPRequest req;
+  private Object checkSignature(byte[] request, RequestOption requestOption) {
+    OcspRequest req;
+    OcspRequest.Signature signature;
     try {
       if (!requestOption.isValidateSignature()) {
         return OcspRequest.getInstance(request);
       }
 
-      if (!OcspRequest.containsSignature(request)) {
+      signature = OcspRequest.getSignature(request);
+      if (signature == null) {
         if (requestOption.isSignatureRequired()) {
           LOG.warn("signature in request required");
           return unsuccesfulOCSPRespMap.get(OcspResponseStatus.sigRequired);
@@ -1247,60 +1447,74 @@ public class OcspServerImpl implements OcspServer {
         }
       }
 
-      try {
-        req = OCSPRequest.getInstance(request);
-      } catch (IllegalArgumentException ex) {
-        throw new EncodingException("could not parse OCSP request", ex);
-      }
+      req = OcspRequest.getInstance(request);
     } catch (EncodingException ex) {
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
     }
 
-    OCSPReq ocspReq = new OCSPReq(req);
-    X509CertificateHolder[] bcCerts = ocspReq.getCerts();
-    if (bcCerts == null || bcCerts.length < 1) {
+    List<byte[]> encodedCerts = signature.getCerts();
+    if (encodedCerts.isEmpty()) {
       LOG.warn("no certificate found in request to verify the signature");
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
     }
 
-    X509Cert[] certs = new X509Cert[bcCerts.length];
-    for (int i = 0; i < certs.length; i++) {
-      certs[i] = new X509Cert(bcCerts[i]);
+    // the verifier and the certpath validation result of the signer are cached
+    RequestSignerCache signerCache = requestOption.getSignerCache();
+    byte[] encodedSignerCert = encodedCerts.get(0);
+    String fingerprint = RequestSignerCache.fingerprint(encodedSignerCert);
+    RequestSignerCache.Entry signerEntry = signerCache.get(fingerprint);
+    if (signerEntry == null) {
+      X509Cert signerCert;
+      try {
+        signerCert = new X509Cert(Certificate.getInstance(encodedSignerCert), encodedSignerCert);
+      } catch (IllegalArgumentException ex) {
+        LOG.warn("could not parse the signer certificate in request: {}", ex.getMessage());
+        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
+      }
+
+      ContentVerifierProvider cvp;
+      try {
+        cvp = securityFactory.getContentVerifierProvider(signerCert);
+      } catch (InvalidKeyException ex) {
+        String message = ex.getMessage();
+        LOG.warn("securityFactory.getContentVerifierProvider, InvalidKeyException: {}",
+            message);
+        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
+      }
+
+      // validate the certPath
+      boolean trusted = canBuildCertpath(signerCert, requestOption);
+      signerEntry = signerCache.put(fingerprint, cvp, trusted,
+          signerCert.getNotAfter().getTime());
     }
 
-    ContentVerifierProvider cvp;
+    // verify the signature over the tbsRequest as contained in the request
+    boolean sigValid;
     try {
-      cvp = securityFactory.getContentVerifierProvider(certs[0]);
-    } catch (InvalidKeyException ex) {
-      String message = ex.getMessage();
-      LOG.warn("securityFactory.getContentVerifierProvider, InvalidKeyException: {}",
-          message);
-      return unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
+      ContentVerifier verifier = signerEntry.getVerifierProvider().get(signature.getAlgorithm());
+      OutputStream out = verifier.getOutputStream();
+      out.write(request, signature.getTbsRequestOffset(), signature.getTbsRequestLength());
+      out.close();
+      sigValid = verifier.verify(signature.getSignature());
+    } catch (OperatorCreationException | IOException | RuntimeException ex) {
+      LogUtil.warn(LOG, ex, "could not verify the request signature");
+      sigValid = false;
     }
 
-    boolean sigValid = ocspReq.isSignatureValid(cvp);
     if (!sigValid) {
       LOG.warn("request signature is invalid");
       return unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
     }
 
-    // validate the certPath
-    Date referenceTime = new Date();
-    if (canBuildCertpath(certs, requestOption, referenceTime)) {
-      try {
-        return OcspRequest.getInstance(req);
-      } catch (EncodingException ex) {
-        return unsuccesfulOCSPRespMap.get(OcspResponseStatus.malformedRequest);
-      }
+    if (signerEntry.isTrusted()) {
+      return req;
     }
 
     LOG.warn("could not build certpath for the request's signer certificate");
     return unsuccesfulOCSPRespMap.get(OcspResponseStatus.unauthorized);
   } // method checkSignature
 
-  private static boolean canBuildCertpath(X509Cert[] certsInReq,
-      RequestOption requestOption, Date referenceTime) {
-    X509Cert target = certsInReq[0];
+  private static boolean canBuildCertpath(X509Cert target, RequestOption requestOption) {
 
     Set<X509Cert> certstore = new HashSet<>();
     Set<X509Cert> trustAnchors = requestOption.getTrustAnchors();
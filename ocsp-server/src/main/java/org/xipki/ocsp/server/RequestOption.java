@@ -92,6 +92,8 @@ public class RequestOption {
 
   private final CertpathValidationModel certpathValidationModel;
 
+  private final RequestSignerCache signerCache;
+
   RequestOption(OcspServerConf.RequestOption conf) throws InvalidConfException {
     Args.notNull(conf, "conf");
 
@@ -151,10 +153,14 @@ public class RequestOption {
       trustAnchors = null;
       certs = null;
       certpathValidationModel = CertpathValidationModel.PKIX;
+      signerCache = null;
       return;
     }
 
     certpathValidationModel = certpathConf.getValidationModel();
+    signerCache = new RequestSignerCache(
+        certpathConf.getCacheSize() == null ? 100 : certpathConf.getCacheSize(),
+        certpathConf.cacheTtl().approxMinutes() * 60 * 1000);
 
     try {
       Set<X509Cert> tmpCerts = getCerts(certpathConf.getTrustAnchors());
@@ -231,6 +237,10 @@ public class RequestOption {
     return certs;
   }
 
+  RequestSignerCache getSignerCache() {
+    return signerCache;
+  }
+
   private static Set<X509Cert> getCerts(OcspServerConf.CertCollection conf)
       throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
     Args.notNull(conf, "conf");
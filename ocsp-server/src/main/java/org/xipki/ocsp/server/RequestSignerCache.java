@@ -0,0 +1,96 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import org.bouncycastle.operator.ContentVerifierProvider;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.Args;
+import org.xipki.util.LruCache;
+
+/**
+ * Cache of the signer certificates of OCSP requests, with the prepared
+ * {@link ContentVerifierProvider} and the result of the certpath validation. The entries are
+ * identified by the SHA-256 fingerprint of the encoded certificate, and expire after the
+ * configured time to live, at the latest at the notAfter of the certificate.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class RequestSignerCache {
+
+  static class Entry {
+
+    private final ContentVerifierProvider verifierProvider;
+
+    private final boolean trusted;
+
+    private final long expireAt;
+
+    Entry(ContentVerifierProvider verifierProvider, boolean trusted, long expireAt) {
+      this.verifierProvider = verifierProvider;
+      this.trusted = trusted;
+      this.expireAt = expireAt;
+    }
+
+    ContentVerifierProvider getVerifierProvider() {
+      return verifierProvider;
+    }
+
+    /**
+     * Whether a certpath to one of the trust anchors could be built.
+     *
+     * @return whether the certificate is trusted.
+     */
+    boolean isTrusted() {
+      return trusted;
+    }
+
+  } // class Entry
+
+  private final LruCache<String, Entry> entries;
+
+  private final long ttlMs;
+
+  RequestSignerCache(int maxSize, long ttlMs) {
+    this.entries = new LruCache<>(Args.positive(maxSize, "maxSize"));
+    this.ttlMs = Args.positive(ttlMs, "ttlMs");
+  }
+
+  static String fingerprint(byte[] encodedCert) {
+    return HashAlgo.SHA256.base64Hash(encodedCert);
+  }
+
+  Entry get(String fingerprint) {
+    Entry entry = entries.get(fingerprint);
+    if (entry != null && entry.expireAt < System.currentTimeMillis()) {
+      entries.remove(fingerprint);
+      return null;
+    }
+    return entry;
+  } // method get
+
+  Entry put(String fingerprint, ContentVerifierProvider verifierProvider, boolean trusted,
+      long notAfter) {
+    Entry entry = new Entry(verifierProvider, trusted,
+        Math.min(notAfter, System.currentTimeMillis() + ttlMs));
+    entries.put(fingerprint, entry);
+    return entry;
+  } // method put
+
+}
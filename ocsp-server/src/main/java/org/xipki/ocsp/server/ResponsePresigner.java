@@ -0,0 +1,281 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.ocsp.api.OcspStore;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.ocsp.server.store.DbCertStatusStore;
+import org.xipki.ocsp.server.store.DbCertStatusStore.SerialWithIssuer;
+import org.xipki.ocsp.server.store.ResponseCacher;
+import org.xipki.security.AlgorithmCode;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.X509Cert;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+import org.xipki.util.Validity;
+
+/**
+ * Generates and signs in the background the OCSP responses of all non-expired certificates
+ * in the {@link DbCertStatusStore}s, and stores them in the {@link ResponseCacher}. Responses
+ * are re-signed if the certificate has been changed or if they get too old.
+ *
+ * <p>Only one response per certificate is presigned: the CertID is hashed with SHA-1, or with
+ * the first allowed hash algorithm if SHA-1 is not allowed, and the response is signed by the
+ * first signer of the responder. Since the cached responses are keyed by the hash algorithm
+ * and the signature algorithm, requests with other hash algorithms, or requests preferring
+ * another signature algorithm, are still answered live.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class ResponsePresigner implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponsePresigner.class);
+
+  private static final int BATCH_SIZE = 100;
+
+  private final OcspServerImpl server;
+
+  private final ResponseCacher responseCacher;
+
+  private final Map<String, ResponderImpl> responders;
+
+  private final long intervalSeconds;
+
+  private final int threads;
+
+  private final AtomicBoolean inProcess = new AtomicBoolean(false);
+
+  private ScheduledThreadPoolExecutor scheduledThreadPoolExecutor;
+
+  private ScheduledFuture<?> presignService;
+
+  private ExecutorService workers;
+
+  ResponsePresigner(OcspServerImpl server, ResponseCacher responseCacher,
+      Map<String, ResponderImpl> responders, Validity interval, Integer threads) {
+    this.server = Args.notNull(server, "server");
+    this.responseCacher = Args.notNull(responseCacher, "responseCacher");
+    this.responders = Args.notNull(responders, "responders");
+    this.intervalSeconds = Args.notNull(interval, "interval").approxMinutes() * 60;
+
+    if (threads != null) {
+      this.threads = Args.positive(threads, "threads");
+    } else {
+      int maxParallelism = 1;
+      for (ResponderImpl responder : responders.values()) {
+        maxParallelism = Math.max(maxParallelism,
+            responder.getSigner().getFirstSigner().getParallelism());
+      }
+      this.threads = maxParallelism;
+    }
+  }
+
+  public void init() {
+    workers = Executors.newFixedThreadPool(threads);
+    scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+    scheduledThreadPoolExecutor.setRemoveOnCancelPolicy(true);
+
+    presignService = scheduledThreadPoolExecutor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        presignAll();
+      }
+    }, 30, intervalSeconds, TimeUnit.SECONDS);
+    LOG.info("started OCSP response presigner with {} threads, interval {} s",
+        threads, intervalSeconds);
+  } // method init
+
+  @Override
+  public void close() {
+    if (presignService != null) {
+      presignService.cancel(false);
+      presignService = null;
+    }
+
+    if (scheduledThreadPoolExecutor != null) {
+      scheduledThreadPoolExecutor.shutdown();
+      scheduledThreadPoolExecutor = null;
+    }
+
+    if (workers != null) {
+      workers.shutdownNow();
+      workers = null;
+    }
+  } // method close
+
+  private void presignAll() {
+    if (!inProcess.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      for (String name : responders.keySet()) {
+        ResponderImpl responder = responders.get(name);
+        for (OcspStore store : responder.getStores()) {
+          if (!(store instanceof DbCertStatusStore)) {
+            continue;
+          }
+
+          try {
+            presign(name, responder, (DbCertStatusStore) store);
+          } catch (InterruptedException ex) {
+            LOG.warn("interrupted while presigning responses of responder {}", name);
+            return;
+          } catch (Throwable th) {
+            LogUtil.error(LOG, th, "could not presign responses of responder " + name
+                + " and store " + store.getName());
+          }
+        }
+      }
+    } finally {
+      inProcess.set(false);
+    }
+  } // method presignAll
+
+  private void presign(String responderName, final ResponderImpl responder,
+      final DbCertStatusStore store) throws Exception {
+    if (!responseCacher.isOnService()) {
+      LOG.warn("response cacher is out of service, skip presigning");
+      return;
+    }
+
+    RequestOption reqOpt = responder.getRequestOption();
+    final HashAlgo hashAlgo = reqOpt.allows(HashAlgo.SHA1) ? HashAlgo.SHA1
+        : reqOpt.getHashAlgos().iterator().next();
+
+    final AlgorithmCode sigAlg = responder.getSigner().getFirstSigner().getAlgorithmCode();
+
+    // map from issuer id in store to the issuer in cache
+    Map<Integer, RequestIssuer> reqIssuers = new HashMap<>();
+    Map<Integer, Integer> cacheIssuerIds = new HashMap<>();
+
+    long start = System.currentTimeMillis();
+    int numSigned = 0;
+    int numSkipped = 0;
+    int numFailed = 0;
+
+    long startId = 0;
+    while (true) {
+      List<SerialWithIssuer> entries = store.getNonExpiredSerials(startId, new Date());
+      if (entries.isEmpty()) {
+        break;
+      }
+
+      // issuer id in store to the serial numbers and their last update
+      Map<Integer, Map<BigInteger, Long>> issuerSerials = new HashMap<>();
+      for (SerialWithIssuer entry : entries) {
+        startId = Math.max(startId, entry.getId());
+
+        int iid = entry.getIssuerId();
+        if (!reqIssuers.containsKey(iid)) {
+          RequestIssuer reqIssuer = store.getRequestIssuer(iid, hashAlgo);
+          Integer cacheIid = null;
+          if (reqIssuer != null) {
+            cacheIid = responseCacher.getIssuerId(reqIssuer);
+            if (cacheIid == null) {
+              X509Cert issuerCert = store.getIssuerCert(iid);
+              if (issuerCert != null) {
+                cacheIid = responseCacher.storeIssuer(issuerCert);
+              }
+            }
+          }
+
+          reqIssuers.put(iid, reqIssuer);
+          cacheIssuerIds.put(iid, cacheIid);
+        }
+
+        if (reqIssuers.get(iid) == null || cacheIssuerIds.get(iid) == null) {
+          continue;
+        }
+
+        Map<BigInteger, Long> serials = issuerSerials.get(iid);
+        if (serials == null) {
+          serials = new HashMap<>();
+          issuerSerials.put(iid, serials);
+        }
+        serials.put(entry.getSerialNumber(), entry.getLastUpdate());
+      }
+
+      List<Future<Integer>> futures = new ArrayList<>();
+      List<Integer> batchSizes = new ArrayList<>();
+      for (Integer iid : issuerSerials.keySet()) {
+        final RequestIssuer reqIssuer = reqIssuers.get(iid);
+        final int cacheIid = cacheIssuerIds.get(iid);
+
+        List<BigInteger> serials = new ArrayList<>(issuerSerials.get(iid).keySet());
+        for (int from = 0; from < serials.size(); from += BATCH_SIZE) {
+          final Map<BigInteger, Long> batch = new HashMap<>();
+          for (BigInteger serial : serials.subList(from,
+              Math.min(serials.size(), from + BATCH_SIZE))) {
+            batch.put(serial, issuerSerials.get(iid).get(serial));
+          }
+
+          futures.add(workers.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+              List<BigInteger> toSign = new ArrayList<>(batch.keySet());
+              toSign.removeAll(
+                  responseCacher.getUpToDateSerials(cacheIid, batch, hashAlgo, sigAlg));
+              return toSign.isEmpty() ? 0
+                  : server.presign(responder, store, reqIssuer, toSign, cacheIid);
+            }
+          }));
+          batchSizes.add(batch.size());
+        }
+      }
+
+      for (int i = 0; i < futures.size(); i++) {
+        int batchSize = batchSizes.get(i);
+        try {
+          int signed = futures.get(i).get();
+          numSigned += signed;
+          numSkipped += batchSize - signed;
+        } catch (ExecutionException ex) {
+          numFailed += batchSize;
+          LogUtil.warn(LOG, ex.getCause(), "could not presign responses");
+        }
+      }
+    }
+
+    LOG.info("presigned responses of responder {} and store {} in {} ms: signed {}, "
+        + "skipped {}, failed {}", responderName, store.getName(),
+        System.currentTimeMillis() - start, numSigned, numSkipped, numFailed);
+  } // method presign
+
+}
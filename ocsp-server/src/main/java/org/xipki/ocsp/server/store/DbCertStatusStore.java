@@ -25,6 +25,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -61,6 +62,7 @@ import org.xipki.util.Args;
 import org.xipki.util.Base64;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
 
 import com.alibaba.fastjson.JSON;
@@ -74,6 +76,69 @@ import com.alibaba.fastjson.JSON;
 
 public class DbCertStatusStore extends OcspStore {
 
+  /**
+   * Entry of a certificate in the table CERT.
+   */
+  public static class SerialWithIssuer {
+
+    private final long id;
+
+    private final int issuerId;
+
+    private final BigInteger serialNumber;
+
+    private final long lastUpdate;
+
+    public SerialWithIssuer(long id, int issuerId, BigInteger serialNumber, long lastUpdate) {
+      this.id = id;
+      this.issuerId = issuerId;
+      this.serialNumber = serialNumber;
+      this.lastUpdate = lastUpdate;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public int getIssuerId() {
+      return issuerId;
+    }
+
+    public BigInteger getSerialNumber() {
+      return serialNumber;
+    }
+
+    /**
+     * Returns the last update of the database entry.
+     * @return last update, seconds since January 1, 1970, 00:00:00 GMT.
+     */
+    public long getLastUpdate() {
+      return lastUpdate;
+    }
+
+  } // class SerialWithIssuer
+
+  /**
+   * Status of a certificate read from the table CERT.
+   */
+  protected static class CertEntry {
+
+    boolean ignore;
+
+    String b64CertHash;
+
+    boolean revoked;
+
+    int reason;
+
+    long revTime;
+
+    long invalTime;
+
+    int crlId;
+
+  } // class CertEntry
+
   private class StoreUpdateService implements Runnable {
 
     @Override
@@ -89,6 +154,10 @@ public class DbCertStatusStore extends OcspStore {
 
   private static final long MS_PER_5MIN = 300L * 1000;
 
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
+  private final LruCache<Integer, String> cacheSqlCsForSerials = new LruCache<>(100);
+
   private final Object lock = new Object();
 
   private final AtomicBoolean storeUpdateInProcess = new AtomicBoolean(false);
@@ -103,6 +172,8 @@ public class DbCertStatusStore extends OcspStore {
 
   private String sqlCsWithCertHash;
 
+  private String sqlNonExpiredSerials;
+
   private IssuerFilter issuerFilter;
 
   private IssuerStore issuerStore = new IssuerStore();
@@ -302,16 +373,9 @@ public class DbCertStatusStore extends OcspStore {
         return null;
       }
 
-      CrlInfo crlInfo = null;
-      if (issuer.getCrlId() != 0) {
-        crlInfo = issuerStore.getCrlInfo(issuer.getCrlId());
-        // check whether CRL is expired
-        if (isIgnoreExpiredCrls()) {
-          // CRL will expire in 5 minutes
-          if (crlInfo.getNextUpdate().getTime() < time.getTime() + MS_PER_5MIN) {
-            return CertStatusInfo.getCrlExpiredStatusInfo();
-          }
-        }
+      CrlInfo crlInfo = getIssuerCrlInfo(issuer);
+      if (isCrlExpired(crlInfo, time)) {
+        return CertStatusInfo.getCrlExpiredStatusInfo();
       }
 
       if (includeCertHash) {
@@ -321,16 +385,7 @@ public class DbCertStatusStore extends OcspStore {
       }
 
       ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String b64CertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
-      long invalTime = 0;
-      int crlId = 0;
+      CertEntry certEntry = null;
 
       PreparedStatement ps = datasource.prepareStatement(sql);
 
@@ -340,149 +395,358 @@ public class DbCertStatusStore extends OcspStore {
         rs = ps.executeQuery();
 
         if (rs.next()) {
-          unknown = false;
-          crlId = rs.getInt("CRL_ID");
-
-          long timeInSec = time.getTime() / 1000;
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBeforeInSec = rs.getLong("NBEFORE");
-            if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("NAFTER");
-            if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore) {
-            if (includeCertHash) {
-              b64CertHash = rs.getString("HASH");
-            }
-
-            revoked = rs.getBoolean("REV");
-            if (revoked) {
-              reason = rs.getInt("RR");
-              revTime = rs.getLong("RT");
-              if (includeRit) {
-                invalTime = rs.getLong("RIT");
-              }
-            }
-          }
-        } // end if (rs.next())
+          certEntry = readCertEntry(rs, time, includeCertHash, includeRit);
+        }
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         releaseDbResources(ps, rs);
       }
 
-      if (crlId == 0) {
-        crlId = issuer.getCrlId();
+      return buildCertStatusInfo(time, issuer, crlInfo, certEntry, inheritCaRevocation);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    final int size = serialNumbers.size();
+    List<CertStatusInfo> ret = new ArrayList<>(size);
+
+    IssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      for (int i = 0; i < size; i++) {
+        ret.add(null);
       }
+      return ret;
+    }
 
-      if (crlInfo == null && crlId != 0) {
-        crlInfo = issuerStore.getCrlInfo(crlId);
+    CrlInfo crlInfo = getIssuerCrlInfo(issuer);
+    if (isCrlExpired(crlInfo, time)) {
+      for (int i = 0; i < size; i++) {
+        ret.add(CertStatusInfo.getCrlExpiredStatusInfo());
       }
+      return ret;
+    }
 
-      Date thisUpdate;
-      Date nextUpdate;
-      if (crlInfo == null) {
-        thisUpdate = new Date();
-        nextUpdate = null;
-      } else {
-        thisUpdate = crlInfo.getThisUpdate();
-        nextUpdate = crlInfo.getNextUpdate();
+    // hex serial number to the entry in database
+    Map<String, CertEntry> certEntries = new HashMap<>();
+    List<String> hexSerials = new ArrayList<>(size);
+    for (BigInteger serialNumber : serialNumbers) {
+      if (serialNumber.signum() == 1) {
+        String hexSerial = serialNumber.toString(16);
+        if (!hexSerials.contains(hexSerial)) {
+          hexSerials.add(hexSerial);
+        }
+      }
+    }
+
+    try {
+      for (int from = 0; from < hexSerials.size(); from += MAX_SERIALS_PER_QUERY) {
+        List<String> subList = hexSerials.subList(from,
+            Math.min(hexSerials.size(), from + MAX_SERIALS_PER_QUERY));
+        String sql = getSqlCsForSerials(subList.size(), includeCertHash, includeRit);
+
+        ResultSet rs = null;
+        PreparedStatement ps = datasource.prepareStatement(sql);
+        try {
+          int idx = 1;
+          ps.setInt(idx++, issuer.getId());
+          for (String hexSerial : subList) {
+            ps.setString(idx++, hexSerial);
+          }
+          rs = ps.executeQuery();
 
-        if (isIgnoreExpiredCrls()) {
-          // CRL will expire in 5 minutes
-          if (crlInfo.getNextUpdate().getTime() < time.getTime() + MS_PER_5MIN) {
-            return CertStatusInfo.getCrlExpiredStatusInfo();
+          while (rs.next()) {
+            String hexSerial = rs.getString("SN");
+            if (!certEntries.containsKey(hexSerial)) {
+              certEntries.put(hexSerial, readCertEntry(rs, time, includeCertHash, includeRit));
+            }
           }
+        } catch (SQLException ex) {
+          throw datasource.translate(sql, ex);
+        } finally {
+          releaseDbResources(ps, rs);
         }
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (b64CertHash == null) ? null : Base64.decodeFast(b64CertHash);
-        if (revoked) {
-          Date invTime = (invalTime == 0 || invalTime == revTime)
-              ? null : new Date(invalTime * 1000);
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), invTime);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+      for (BigInteger serialNumber : serialNumbers) {
+        if (serialNumber.signum() != 1) { // non-positive serial number
+          ret.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
         } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
+          CertEntry certEntry = certEntries.get(serialNumber.toString(16));
+          ret.add(buildCertStatusInfo(time, issuer, crlInfo, certEntry, inheritCaRevocation));
         }
       }
+      return ret;
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+  } // method getCertStatuses0
+
+  protected CrlInfo getIssuerCrlInfo(IssuerEntry issuer) {
+    return (issuer.getCrlId() == 0) ? null : issuerStore.getCrlInfo(issuer.getCrlId());
+  }
+
+  protected boolean isCrlExpired(CrlInfo crlInfo, Date time) {
+    // check whether CRL is expired
+    if (crlInfo != null && isIgnoreExpiredCrls()) {
+      // CRL will expire in 5 minutes
+      return crlInfo.getNextUpdate().getTime() < time.getTime() + MS_PER_5MIN;
+    }
+    return false;
+  }
+
+  private String getSqlCsForSerials(int numSerials, boolean includeCertHash,
+      boolean includeRit) {
+    int key = (numSerials << 2) | (includeCertHash ? 2 : 0) | (includeRit ? 1 : 0);
+    String sql = cacheSqlCsForSerials.get(key);
+    if (sql == null) {
+      StringBuilder sb = new StringBuilder(120 + 2 * numSerials);
+      sb.append("SELECT SN,NBEFORE,NAFTER,REV,RR,RT,");
+      if (includeRit) {
+        sb.append("RIT,");
+      }
+      if (includeCertHash) {
+        sb.append("HASH,");
+      }
+      sb.append("CRL_ID FROM CERT WHERE IID=? AND SN IN (?");
+      for (int i = 1; i < numSerials; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      sql = sb.toString();
+      cacheSqlCsForSerials.put(key, sql);
+    }
+    return sql;
+  } // method getSqlCsForSerials
+
+  private CertEntry readCertEntry(ResultSet rs, Date time, boolean includeCertHash,
+      boolean includeRit) throws SQLException {
+    CertEntry entry = new CertEntry();
+    entry.crlId = rs.getInt("CRL_ID");
+
+    long timeInSec = time.getTime() / 1000;
+    if (!entry.ignore && ignoreNotYetValidCert) {
+      long notBeforeInSec = rs.getLong("NBEFORE");
+      if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+        entry.ignore = true;
+      }
+    }
 
-      if (includeCrlId && crlInfo != null) {
-        certStatusInfo.setCrlId(crlInfo.getCrlId());
+    if (!entry.ignore && ignoreExpiredCert) {
+      long notAfterInSec = rs.getLong("NAFTER");
+      if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+        entry.ignore = true;
       }
+    }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
-          }
+    if (!entry.ignore) {
+      if (includeCertHash) {
+        entry.b64CertHash = rs.getString("HASH");
+      }
 
-          certStatusInfo.setArchiveCutOff(date);
+      entry.revoked = rs.getBoolean("REV");
+      if (entry.revoked) {
+        entry.reason = rs.getInt("RR");
+        entry.revTime = rs.getLong("RT");
+        if (includeRit) {
+          entry.invalTime = rs.getLong("RIT");
         }
       }
+    }
+
+    return entry;
+  } // method readCertEntry
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+  /**
+   * Builds the {@link CertStatusInfo}.
+   * @param certEntry the entry in database, {@code null} if the certificate is unknown.
+   */
+  protected CertStatusInfo buildCertStatusInfo(Date time, IssuerEntry issuer, CrlInfo crlInfo,
+      CertEntry certEntry, boolean inheritCaRevocation) {
+    int crlId = (certEntry == null) ? 0 : certEntry.crlId;
+    if (crlId == 0) {
+      crlId = issuer.getCrlId();
+    }
+
+    if (crlInfo == null && crlId != 0) {
+      crlInfo = issuerStore.getCrlInfo(crlId);
+    }
+
+    Date thisUpdate;
+    Date nextUpdate;
+    if (crlInfo == null) {
+      thisUpdate = new Date();
+      nextUpdate = null;
+    } else {
+      thisUpdate = crlInfo.getThisUpdate();
+      nextUpdate = crlInfo.getNextUpdate();
+
+      if (isCrlExpired(crlInfo, time)) {
+        return CertStatusInfo.getCrlExpiredStatusInfo();
       }
+    }
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
-        }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
-        }
+    CertStatusInfo certStatusInfo;
+    if (certEntry == null) {
+      certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+    } else if (certEntry.ignore) {
+      certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+    } else {
+      byte[] certHash = (certEntry.b64CertHash == null)
+          ? null : Base64.decodeFast(certEntry.b64CertHash);
+      if (certEntry.revoked) {
+        long revTime = certEntry.revTime;
+        long invalTime = certEntry.invalTime;
+        Date invTime = (invalTime == 0 || invalTime == revTime)
+            ? null : new Date(invalTime * 1000);
+        CertRevocationInfo revInfo = new CertRevocationInfo(certEntry.reason,
+            new Date(revTime * 1000), invTime);
+        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+            certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+      } else {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+            certHash, thisUpdate, nextUpdate, null);
       }
+    }
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+    if (includeCrlId && crlInfo != null) {
+      certStatusInfo.setCrlId(crlInfo.getCrlId());
+    }
+
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        certStatusInfo.setArchiveCutOff(date);
       }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
       return certStatusInfo;
+    }
+
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD) {
+      replaced = true;
+    } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
+      if (unknownCertBehaviour == UnknownCertBehaviour.good) {
+        replaced = true;
+      }
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
+
+  /**
+   * Returns the next (at most 1000) certificates which are not expired at the given time.
+   * The issuers of some returned certificates may be excluded by this store, for these
+   * certificates {@link #getRequestIssuer(int, HashAlgo)} returns {@code null}.
+   *
+   * @param startId
+   *          Only certificates with ID greater than this value will be returned.
+   * @param time
+   *          Reference time. Must not be {@code null}.
+   * @return the certificates, ordered by the ID. An empty list will be returned if there is no
+   *         more certificate.
+   * @throws OcspStoreException
+   *           If error occurs while querying the database.
+   */
+  public List<SerialWithIssuer> getNonExpiredSerials(long startId, Date time)
+      throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    final String sql = sqlNonExpiredSerials;
+    try {
+      PreparedStatement ps = preparedStatement(sql);
+      ResultSet rs = null;
+      try {
+        ps.setLong(1, startId);
+        ps.setLong(2, time.getTime() / 1000);
+        rs = ps.executeQuery();
+
+        List<SerialWithIssuer> ret = new LinkedList<>();
+        while (rs.next()) {
+          ret.add(new SerialWithIssuer(rs.getLong("ID"), rs.getInt("IID"),
+              new BigInteger(rs.getString("SN"), 16), rs.getLong("LUPDATE")));
+        }
+
+        return ret;
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        releaseDbResources(ps, rs);
+      }
     } catch (DataAccessException ex) {
       throw new OcspStoreException(ex.getMessage(), ex);
     }
+  } // method getNonExpiredSerials
 
-  } // method getCertStatus0
+  /**
+   * Returns the {@link RequestIssuer} of the issuer with the given id.
+   *
+   * @param issuerId
+   *          Identifier of the issuer in this store.
+   * @param hashAlgo
+   *          Hash algorithm of the CertID. Must not be {@code null}.
+   * @return the {@link RequestIssuer}, or {@code null} if the issuer is not known.
+   */
+  public RequestIssuer getRequestIssuer(int issuerId, HashAlgo hashAlgo) {
+    IssuerEntry issuer = issuerStore.getIssuerForId(issuerId);
+    return (issuer == null) ? null : new RequestIssuer(hashAlgo, issuer.getEncodedHash(hashAlgo));
+  }
+
+  /**
+   * Returns the certificate of the issuer with the given id.
+   *
+   * @param issuerId
+   *          Identifier of the issuer in this store.
+   * @return the certificate, or {@code null} if the issuer is not known.
+   */
+  public X509Cert getIssuerCert(int issuerId) {
+    IssuerEntry issuer = issuerStore.getIssuerForId(issuerId);
+    return (issuer == null) ? null : issuer.getCert();
+  }
 
   /**
    * Borrow Prepared Statement.
@@ -555,6 +819,9 @@ public class DbCertStatusStore extends OcspStore {
     sqlCsNoRitWithCertHash = datasource.buildSelectFirstSql(1,
         "NBEFORE,NAFTER,REV,RR,RT,HASH,CRL_ID FROM CERT WHERE IID=? AND SN=?");
 
+    sqlNonExpiredSerials = datasource.buildSelectFirstSql(1000, "ID ASC",
+        "ID,IID,SN,LUPDATE FROM CERT WHERE ID>? AND (NAFTER IS NULL OR NAFTER>?)");
+
     try {
       this.certHashAlgo = getCertHashAlgo(datasource);
     } catch (DataAccessException ex) {
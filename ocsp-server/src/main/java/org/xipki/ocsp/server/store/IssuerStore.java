@@ -26,6 +26,8 @@ import java.util.Map;
 import java.util.Set;
 
 import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.CompareUtil;
 
 /**
  * Issuer store.
@@ -36,9 +38,98 @@ import org.xipki.ocsp.api.RequestIssuer;
 
 class IssuerStore {
 
-  private List<IssuerEntry> issuers = new ArrayList<>();
+  /**
+   * Key of the hash index, namely the hash algorithm and the encoded
+   * issuerNameHash and issuerKeyHash. The key refers to the given byte array without copying.
+   */
+  private static final class HashKey {
 
-  private Set<Integer> ids = Collections.emptySet();
+    private final HashAlgo hashAlgo;
+
+    private final byte[] data;
+
+    private final int from;
+
+    private final int length;
+
+    private final int hashCode;
+
+    HashKey(HashAlgo hashAlgo, byte[] data, int from, int length) {
+      this.hashAlgo = hashAlgo;
+      this.data = data;
+      this.from = from;
+      this.length = length;
+
+      int hash = hashAlgo.hashCode();
+      for (int i = from; i < from + length; i++) {
+        hash = 31 * hash + data[i];
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof HashKey)) {
+        return false;
+      }
+
+      HashKey other = (HashKey) obj;
+      return hashAlgo == other.hashAlgo && length == other.length
+          && CompareUtil.areEqual(data, from, other.data, other.from, length);
+    }
+
+  } // class HashKey
+
+  /**
+   * Immutable view of the issuers. It will be replaced as a whole if the issuers change.
+   */
+  private static final class Issuers {
+
+    private final List<IssuerEntry> issuers;
+
+    private final Set<Integer> ids;
+
+    private final Map<Integer, IssuerEntry> idMap;
+
+    private final Map<HashKey, IssuerEntry> hashMap;
+
+    Issuers(List<IssuerEntry> issuers) {
+      Map<Integer, IssuerEntry> newIdMap = new HashMap<>();
+      Map<HashKey, IssuerEntry> newHashMap = new HashMap<>();
+      for (IssuerEntry issuer : issuers) {
+        int id = issuer.getId();
+        if (newIdMap.containsKey(id)) {
+          throw new IllegalArgumentException(
+              "issuer with the same id " + id + " duplicated");
+        }
+        newIdMap.put(id, issuer);
+
+        for (HashAlgo hashAlgo : HashAlgo.values()) {
+          byte[] encodedHash = issuer.getEncodedHash(hashAlgo);
+          HashKey key = new HashKey(hashAlgo, encodedHash, 0, encodedHash.length);
+          // keep the first one, as by the linear search before
+          if (!newHashMap.containsKey(key)) {
+            newHashMap.put(key, issuer);
+          }
+        }
+      }
+
+      this.issuers = Collections.unmodifiableList(new ArrayList<>(issuers));
+      this.ids = Collections.unmodifiableSet(new HashSet<>(newIdMap.keySet()));
+      this.idMap = newIdMap;
+      this.hashMap = newHashMap;
+    }
+
+  } // class Issuers
+
+  private volatile Issuers issuers = new Issuers(Collections.emptyList());
 
   private Map<Integer, CrlInfo> crlInfos = new HashMap<>();
 
@@ -46,28 +137,16 @@ class IssuerStore {
   }
 
   public void setIssuers(List<IssuerEntry> issuers) {
-    Set<Integer> newIds = new HashSet<>();
-    for (IssuerEntry issuer : issuers) {
-      int id = issuer.getId();
-      if (newIds.contains(id)) {
-        throw new IllegalArgumentException(
-            "issuer with the same id " + id + " duplicated");
-      }
-      newIds.add(id);
-    }
-
-    // to accelerate the switch
-    List<IssuerEntry> copy = new ArrayList<IssuerEntry>(issuers);
-    this.ids = Collections.unmodifiableSet(newIds);
-    this.issuers = copy;
+    // build the new index completely before the switch
+    this.issuers = new Issuers(issuers);
   } // method setIssuers
 
   public int size() {
-    return ids.size();
+    return issuers.ids.size();
   }
 
   public Set<Integer> getIds() {
-    return ids;
+    return issuers.ids;
   }
 
   public Integer getIssuerIdForFp(RequestIssuer reqIssuer) {
@@ -76,31 +155,31 @@ class IssuerStore {
   }
 
   public IssuerEntry getIssuerForId(int id) {
-    for (IssuerEntry entry : issuers) {
-      if (entry.getId() == id) {
-        return entry;
-      }
-    }
-
-    return null;
+    return issuers.idMap.get(id);
   }
 
   public IssuerEntry getIssuerForFp(RequestIssuer reqIssuer) {
-    for (IssuerEntry entry : issuers) {
-      if (entry.matchHash(reqIssuer)) {
-        return entry;
-      }
+    HashAlgo hashAlgo = reqIssuer.hashAlgorithm();
+    if (hashAlgo == null) {
+      return null;
     }
 
-    return null;
-  }
+    // OCTET STRING issuerNameHash and OCTET STRING issuerKeyHash
+    int length = (2 + hashAlgo.getLength()) << 1;
+    byte[] data = reqIssuer.getData();
+    int from = reqIssuer.getNameHashFrom();
+    if (from + length > data.length) {
+      return null;
+    }
 
-  public void addIssuer(IssuerEntry issuer) {
-    this.issuers.add(issuer);
+    return issuers.hashMap.get(new HashKey(hashAlgo, data, from, length));
+  }
 
-    Set<Integer> newIds = new HashSet<>(this.ids);
-    newIds.add(issuer.getId());
-    this.ids = Collections.unmodifiableSet(newIds);
+  public synchronized void addIssuer(IssuerEntry issuer) {
+    List<IssuerEntry> newIssuers = new ArrayList<>(issuers.issuers.size() + 1);
+    newIssuers.addAll(issuers.issuers);
+    newIssuers.add(issuer);
+    this.issuers = new Issuers(newIssuers);
   }
 
   public void setCrlInfos(Map<Integer, CrlInfo> crlInfos) {
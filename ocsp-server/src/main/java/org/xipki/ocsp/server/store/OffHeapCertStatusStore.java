@@ -0,0 +1,542 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.datasource.DataAccessException;
+import org.xipki.datasource.DataSourceWrapper;
+import org.xipki.ocsp.api.CertStatusInfo;
+import org.xipki.ocsp.api.CertStatusInfo.UnknownCertBehaviour;
+import org.xipki.ocsp.api.OcspStoreException;
+import org.xipki.ocsp.api.RequestIssuer;
+import org.xipki.security.HashAlgo;
+import org.xipki.util.IoUtil;
+import org.xipki.util.LogUtil;
+import org.xipki.util.StringUtil;
+import org.xipki.util.Validity;
+
+/**
+ * OcspStore for XiPKI OCSP database, which keeps the revoked certificates in an off-heap
+ * table. The status of revoked certificates is answered without accessing the database.
+ * A certificate which is not in the table is treated as unknown if the unknownCertBehaviour is
+ * {@code good} and neither expired nor not-yet-valid certificates are ignored, otherwise its
+ * status will be retrieved from the database.
+ *
+ * <p>The table is refreshed incrementally via the column LUPDATE of the table CERT, and
+ * completely at the configured fullRefreshInterval. Since deleted database entries can only be
+ * detected by the full refresh, they may be reflected with delay. If snapshotFile is configured,
+ * the table will be written to this file at most once per snapshotInterval, after each full
+ * refresh and on close, and read from it at the start. A snapshot is only used if it refers to
+ * the same issuers and, after applying the changes since it was written, contains as many
+ * revoked certificates as the database.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class OffHeapCertStatusStore extends DbCertStatusStore {
+
+  private class RevokedCertsUpdateService implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        updateRevokedCerts();
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while calling updateRevokedCerts() for store " + name);
+      }
+    }
+
+  } // class RevokedCertsUpdateService
+
+  private static final Logger LOG = LoggerFactory.getLogger(OffHeapCertStatusStore.class);
+
+  private static final int PAGE_SIZE = 1000;
+
+  // changes committed with delay are retrieved in the next update
+  private static final long LUPDATE_OVERLAP_SECONDS = 60;
+
+  private final RevokedCertsUpdateService revokedCertsUpdateService =
+      new RevokedCertsUpdateService();
+
+  private final Object lock = new Object();
+
+  private final AtomicBoolean updateInProcess = new AtomicBoolean(false);
+
+  private volatile RevokedCertTable revokedCerts;
+
+  private File snapshotFile;
+
+  private long fullRefreshIntervalMs;
+
+  private long snapshotIntervalMs;
+
+  private long lastSnapshotTime;
+
+  private boolean snapshotOutdated;
+
+  private String sqlRevokedCerts;
+
+  private String sqlChangedCerts;
+
+  /**
+   * Initialize the store.
+   *
+   * @param sourceConf
+   * the store source configuration. It contains following key-value pairs:
+   * <ul>
+   * <li>caCerts: optional
+   *   <p>
+   *   CA certificate files to be included / excluded.</li>
+   * <li>snapshotFile: optional
+   *   <p>
+   *   File to save the table of revoked certificates.</li>
+   * <li>fullRefreshInterval: optional
+   *   <p>
+   *   Interval to reload all revoked certificates from the database, default to 1d.</li>
+   * <li>snapshotInterval: optional
+   *   <p>
+   *   Minimal interval to write the changed table to the snapshotFile, default to 1h.</li>
+   * </ul>
+   * @param datasource DataSource.
+   */
+  @Override
+  public void init(Map<String, ? extends Object> sourceConf, DataSourceWrapper datasource)
+      throws OcspStoreException {
+    String str = getStrValue(sourceConf, "snapshotFile");
+    this.snapshotFile = StringUtil.isBlank(str) ? null : new File(IoUtil.expandFilepath(str));
+
+    str = getStrValue(sourceConf, "fullRefreshInterval");
+    this.fullRefreshIntervalMs = Validity.getInstance(StringUtil.isBlank(str) ? "1d" : str)
+        .approxMinutes() * 60L * 1000;
+
+    str = getStrValue(sourceConf, "snapshotInterval");
+    this.snapshotIntervalMs = Validity.getInstance(StringUtil.isBlank(str) ? "1h" : str)
+        .approxMinutes() * 60L * 1000;
+
+    super.init(sourceConf, datasource);
+
+    this.sqlRevokedCerts = datasource.buildSelectFirstSql(PAGE_SIZE, "ID ASC",
+        "ID,IID,SN,CRL_ID,NBEFORE,NAFTER,RR,RT,RIT FROM CERT WHERE ID>? AND REV=1");
+    this.sqlChangedCerts = datasource.buildSelectFirstSql(PAGE_SIZE, "ID ASC",
+        "ID,IID,SN,CRL_ID,NBEFORE,NAFTER,REV,RR,RT,RIT,LUPDATE FROM CERT "
+        + "WHERE ID>? AND LUPDATE>=?");
+
+    if (snapshotFile != null && snapshotFile.exists()) {
+      synchronized (lock) {
+        this.revokedCerts = readSnapshot();
+      }
+    }
+
+    updateRevokedCerts();
+  } // method init
+
+  /**
+   * Reads the table from the snapshot file, and applies the changes since the snapshot has
+   * been written.
+   *
+   * @return the table, or {@code null} if the snapshot cannot be used.
+   */
+  private RevokedCertTable readSnapshot() {
+    String path = snapshotFile.getPath();
+    try {
+      RevokedCertTable table = RevokedCertTable.readFrom(snapshotFile);
+      if (table.getIssuersDigest() != computeIssuersDigest()) {
+        LOG.warn("ignore snapshot file {}, the issuers have been changed", path);
+        return null;
+      }
+
+      if (datasource.getMax(null, "CERT", "LUPDATE") < table.getLastUpdate()) {
+        LOG.warn("ignore snapshot file {}, it is newer than the database", path);
+        return null;
+      }
+
+      updateChangedCerts(table);
+      int dbSize = getNumRevokedCerts();
+      if (dbSize != table.size()) {
+        LOG.warn("ignore snapshot file {}, it contains {} revoked certificates, "
+            + "but database {}", path, table.size(), dbSize);
+        return null;
+      }
+
+      LOG.info("read {} revoked certificates of store {} from snapshot file {}",
+          table.size(), name, path);
+      return table;
+    } catch (IOException | DataAccessException ex) {
+      LogUtil.warn(LOG, ex, "could not read snapshot file " + path
+          + ", reload revoked certificates from the database");
+      return null;
+    }
+  } // method readSnapshot
+
+  private int getNumRevokedCerts() throws DataAccessException {
+    final String sql = "SELECT COUNT(*) FROM CERT WHERE REV=1";
+    PreparedStatement ps = datasource.prepareStatement(sql);
+    ResultSet rs = null;
+    try {
+      rs = ps.executeQuery();
+      rs.next();
+      return rs.getInt(1);
+    } catch (SQLException ex) {
+      throw datasource.translate(sql, ex);
+    } finally {
+      datasource.releaseResources(ps, rs);
+    }
+  } // method getNumRevokedCerts
+
+  /**
+   * Computes the digest of all issuers, so that a snapshot written for other issuers, e.g. of
+   * another database, is detected.
+   */
+  private long computeIssuersDigest() {
+    IssuerStore issuerStore = getIssuerStore();
+    List<Integer> ids = new ArrayList<>(issuerStore.getIds());
+    Collections.sort(ids);
+
+    StringBuilder sb = new StringBuilder(ids.size() * 40);
+    for (Integer id : ids) {
+      sb.append(id).append(":")
+        .append(HashAlgo.SHA1.base64Hash(issuerStore.getIssuerForId(id).getCert().getEncoded()))
+        .append("\n");
+    }
+    return ByteBuffer.wrap(
+        HashAlgo.SHA1.hash(sb.toString().getBytes(StandardCharsets.UTF_8))).getLong();
+  } // method computeIssuersDigest
+
+  private void writeSnapshot() {
+    RevokedCertTable table = revokedCerts;
+    if (table == null) {
+      return;
+    }
+
+    table.setIssuersDigest(computeIssuersDigest());
+    try {
+      table.writeTo(snapshotFile);
+      lastSnapshotTime = System.currentTimeMillis();
+      snapshotOutdated = false;
+    } catch (IOException ex) {
+      LogUtil.error(LOG, ex, "could not write snapshot file " + snapshotFile.getPath());
+    }
+  } // method writeSnapshot
+
+  @Override
+  public void close() {
+    if (snapshotFile != null) {
+      synchronized (lock) {
+        if (snapshotOutdated) {
+          writeSnapshot();
+        }
+      }
+    }
+
+    super.close();
+  } // method close
+
+  private static String getStrValue(Map<String, ? extends Object> sourceConf, String confName) {
+    Object objVal = (sourceConf == null) ? null : sourceConf.get(confName);
+    return (objVal == null) ? null : objVal.toString();
+  }
+
+  @Override
+  protected List<Runnable> getScheduledServices() {
+    List<Runnable> services = new ArrayList<>(super.getScheduledServices());
+    services.add(revokedCertsUpdateService);
+    return services;
+  }
+
+  private void updateRevokedCerts() {
+    if (updateInProcess.get()) {
+      return;
+    }
+
+    synchronized (lock) {
+      updateInProcess.set(true);
+      try {
+        RevokedCertTable table = revokedCerts;
+        boolean fullRefresh = table == null
+            || System.currentTimeMillis() - table.getLastFullRefresh() >= fullRefreshIntervalMs;
+        if (fullRefresh) {
+          this.revokedCerts = loadRevokedCerts(table == null ? 0 : table.size());
+          snapshotOutdated = true;
+        } else if (updateChangedCerts(table)) {
+          snapshotOutdated = true;
+        }
+
+        // changes after the snapshot are retrieved via LUPDATE at the next start, so the
+        // snapshot is not rewritten after each change.
+        if (snapshotFile != null && snapshotOutdated && (fullRefresh
+            || System.currentTimeMillis() - lastSnapshotTime >= snapshotIntervalMs)) {
+          writeSnapshot();
+        }
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while updating the revoked certificates of store " + name);
+      } finally {
+        updateInProcess.set(false);
+      }
+    } // end lock
+  } // method updateRevokedCerts
+
+  private RevokedCertTable loadRevokedCerts(int expectedSize) throws DataAccessException {
+    long start = System.currentTimeMillis();
+    // retrieved before the scan so that changes while scanning will be retrieved later
+    long maxLastUpdate = datasource.getMax(null, "CERT", "LUPDATE");
+
+    RevokedCertTable table = new RevokedCertTable(expectedSize);
+    final String sql = sqlRevokedCerts;
+    long startId = 0;
+    while (true) {
+      PreparedStatement ps = datasource.prepareStatement(sql);
+      ResultSet rs = null;
+      boolean hasMore = false;
+      try {
+        ps.setLong(1, startId);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          hasMore = true;
+          startId = Math.max(startId, rs.getLong("ID"));
+          putRevokedCert(table, rs);
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+
+      if (!hasMore) {
+        break;
+      }
+    }
+
+    table.setLastUpdate(maxLastUpdate);
+    table.setLastFullRefresh(start);
+    LOG.info("loaded {} revoked certificates of store {} in {} ms", table.size(), name,
+        System.currentTimeMillis() - start);
+    return table;
+  } // method loadRevokedCerts
+
+  private boolean updateChangedCerts(RevokedCertTable table) throws DataAccessException {
+    long lastUpdate = table.getLastUpdate();
+    long maxLastUpdate = lastUpdate;
+    int numChanged = 0;
+
+    final String sql = sqlChangedCerts;
+    long minLastUpdate = Math.max(0, lastUpdate - LUPDATE_OVERLAP_SECONDS);
+    long startId = 0;
+    while (true) {
+      PreparedStatement ps = datasource.prepareStatement(sql);
+      ResultSet rs = null;
+      boolean hasMore = false;
+      try {
+        ps.setLong(1, startId);
+        ps.setLong(2, minLastUpdate);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          hasMore = true;
+          startId = Math.max(startId, rs.getLong("ID"));
+
+          long entryLastUpdate = rs.getLong("LUPDATE");
+          if (entryLastUpdate > lastUpdate) {
+            numChanged++;
+            maxLastUpdate = Math.max(maxLastUpdate, entryLastUpdate);
+          }
+
+          if (rs.getBoolean("REV")) {
+            putRevokedCert(table, rs);
+          } else {
+            BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+            table.remove(rs.getInt("IID"), serialNumber);
+          }
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+
+      if (!hasMore) {
+        break;
+      }
+    }
+
+    table.setLastUpdate(maxLastUpdate);
+    if (numChanged > 0) {
+      LOG.info("updated {} certificates of store {}, {} revoked certificates", numChanged, name,
+          table.size());
+    }
+    return numChanged > 0;
+  } // method updateChangedCerts
+
+  private static void putRevokedCert(RevokedCertTable table, ResultSet rs) throws SQLException {
+    BigInteger serialNumber = new BigInteger(rs.getString("SN"), 16);
+    if (!RevokedCertTable.isSupported(serialNumber)) {
+      // status will be retrieved from the database
+      LOG.warn("serial number {} too long, ignore it", serialNumber.toString(16));
+      return;
+    }
+
+    RevokedCertTable.Entry entry = new RevokedCertTable.Entry(rs.getInt("CRL_ID"),
+        rs.getInt("RR"), rs.getLong("RT"), rs.getLong("RIT"),
+        rs.getLong("NBEFORE"), rs.getLong("NAFTER"));
+    table.put(rs.getInt("IID"), serialNumber, entry);
+  } // method putRevokedCert
+
+  @Override
+  protected CertStatusInfo getCertStatus0(Date time, RequestIssuer reqIssuer,
+      BigInteger serialNumber, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    RevokedCertTable table = revokedCerts;
+    if (table == null || includeCertHash || !RevokedCertTable.isSupported(serialNumber)
+        || !isInitialized()) {
+      return super.getCertStatus0(time, reqIssuer, serialNumber, includeCertHash, includeRit,
+          inheritCaRevocation);
+    }
+
+    IssuerEntry issuer = getIssuerStore().getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      return null;
+    }
+
+    CrlInfo crlInfo = getIssuerCrlInfo(issuer);
+    if (isCrlExpired(crlInfo, time)) {
+      return CertStatusInfo.getCrlExpiredStatusInfo();
+    }
+
+    RevokedCertTable.Entry entry = table.get(issuer.getId(), serialNumber);
+    if (entry == null && !isAbsentCertGood()) {
+      // distinguish between good and unknown certificates
+      return super.getCertStatus0(time, reqIssuer, serialNumber, includeCertHash, includeRit,
+          inheritCaRevocation);
+    }
+
+    CertEntry certEntry = (entry == null) ? null : toCertEntry(entry, time, includeRit);
+    return buildCertStatusInfo(time, issuer, crlInfo, certEntry, inheritCaRevocation);
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    RevokedCertTable table = revokedCerts;
+    IssuerEntry issuer = getIssuerStore().getIssuerForFp(reqIssuer);
+    if (table == null || includeCertHash || issuer == null || !isInitialized()) {
+      return super.getCertStatuses0(time, reqIssuer, serialNumbers, includeCertHash, includeRit,
+          inheritCaRevocation);
+    }
+
+    CrlInfo crlInfo = getIssuerCrlInfo(issuer);
+    if (isCrlExpired(crlInfo, time)) {
+      List<CertStatusInfo> ret = new ArrayList<>(serialNumbers.size());
+      for (int i = 0; i < serialNumbers.size(); i++) {
+        ret.add(CertStatusInfo.getCrlExpiredStatusInfo());
+      }
+      return ret;
+    }
+
+    final int size = serialNumbers.size();
+    List<CertStatusInfo> ret = new ArrayList<>(size);
+    // indexes and serial numbers whose status will be retrieved from the database
+    List<Integer> dbIndexes = new ArrayList<>(size);
+    List<BigInteger> dbSerialNumbers = new ArrayList<>(size);
+
+    for (int i = 0; i < size; i++) {
+      BigInteger serialNumber = serialNumbers.get(i);
+      RevokedCertTable.Entry entry = null;
+      if (RevokedCertTable.isSupported(serialNumber)) {
+        entry = table.get(issuer.getId(), serialNumber);
+      }
+
+      if (entry == null && (!isAbsentCertGood()
+          || !RevokedCertTable.isSupported(serialNumber))) {
+        dbIndexes.add(i);
+        dbSerialNumbers.add(serialNumber);
+        ret.add(null);
+      } else {
+        CertEntry certEntry = (entry == null) ? null : toCertEntry(entry, time, includeRit);
+        ret.add(buildCertStatusInfo(time, issuer, crlInfo, certEntry, inheritCaRevocation));
+      }
+    }
+
+    if (!dbSerialNumbers.isEmpty()) {
+      List<CertStatusInfo> dbStatuses = super.getCertStatuses0(time, reqIssuer, dbSerialNumbers,
+          includeCertHash, includeRit, inheritCaRevocation);
+      for (int i = 0; i < dbIndexes.size(); i++) {
+        ret.set(dbIndexes.get(i), dbStatuses.get(i));
+      }
+    }
+
+    return ret;
+  } // method getCertStatuses0
+
+  /**
+   * Whether a certificate which is not in the table can be answered as good without accessing
+   * the database. This is not the case if expired or not-yet-valid certificates are ignored,
+   * since the validity of such certificate is only available in the database.
+   */
+  private boolean isAbsentCertGood() {
+    return unknownCertBehaviour == UnknownCertBehaviour.good
+        && !ignoreExpiredCert && !ignoreNotYetValidCert;
+  }
+
+  private CertEntry toCertEntry(RevokedCertTable.Entry entry, Date time, boolean includeRit) {
+    CertEntry certEntry = new CertEntry();
+    certEntry.crlId = entry.getCrlId();
+
+    long timeInSec = time.getTime() / 1000;
+    if (ignoreNotYetValidCert) {
+      long notBeforeInSec = entry.getNotBefore();
+      if (notBeforeInSec != 0 && timeInSec < notBeforeInSec) {
+        certEntry.ignore = true;
+      }
+    }
+
+    if (!certEntry.ignore && ignoreExpiredCert) {
+      long notAfterInSec = entry.getNotAfter();
+      if (notAfterInSec != 0 && timeInSec > notAfterInSec) {
+        certEntry.ignore = true;
+      }
+    }
+
+    if (!certEntry.ignore) {
+      certEntry.revoked = true;
+      certEntry.reason = entry.getReason();
+      certEntry.revTime = entry.getRevTime();
+      if (includeRit) {
+        certEntry.invalTime = entry.getInvalTime();
+      }
+    }
+
+    return certEntry;
+  } // method toCertEntry
+
+}
@@ -24,9 +24,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -50,6 +55,7 @@ import org.xipki.util.Args;
 import org.xipki.util.Base64;
 import org.xipki.util.InvalidConfException;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
 import org.xipki.util.Validity;
 import org.xipki.util.concurrent.ConcurrentBag;
@@ -84,8 +90,56 @@ public class ResponseCacher implements Closeable {
   private static final String SQL_UPDATE_RESP = "UPDATE OCSP SET THIS_UPDATE=?,"
       + "NEXT_UPDATE=?,RESP=? WHERE ID=?";
 
+  /**
+   * Approximated memory overhead of one entry in the in-memory cache, excluding the
+   * encoded response and the ident.
+   */
+  private static final int MEMORY_ENTRY_OVERHEAD = 96;
+
+  private static final int MAX_IDS_PER_QUERY = 100;
+
   private final ConcurrentBag<ConcurrentBagEntry<Digest>> idDigesters;
 
+  private static class CachedResponse {
+
+    private final int issuerId;
+
+    private final byte[] ident;
+
+    private final long thisUpdate;
+
+    private final long nextUpdate;
+
+    private final byte[] response;
+
+    CachedResponse(int issuerId, byte[] ident, long thisUpdate, long nextUpdate,
+        byte[] response) {
+      this.issuerId = issuerId;
+      this.ident = ident;
+      this.thisUpdate = thisUpdate;
+      this.nextUpdate = nextUpdate;
+      this.response = response;
+    }
+
+  } // class CachedResponse
+
+  /**
+   * In-memory cache of the encoded responses, in front of the table OCSP. The size is
+   * measured in bytes.
+   */
+  private static class MemoryResponseCache extends LruCache<Long, CachedResponse> {
+
+    MemoryResponseCache(int maxSizeInBytes) {
+      super(maxSizeInBytes);
+    }
+
+    @Override
+    protected int sizeOf(Long key, CachedResponse value) {
+      return MEMORY_ENTRY_OVERHEAD + value.ident.length + value.response.length;
+    }
+
+  } // class MemoryResponseCache
+
   private class IssuerUpdater implements Runnable {
 
     @Override
@@ -117,6 +171,9 @@ public class ResponseCacher implements Closeable {
         try {
           int num = removeExpiredResponses(maxThisUpdate);
           LOG.info("removed {} response with thisUpdate < {}", num, maxThisUpdate);
+          num = removeExpiredMemoryResponses(maxThisUpdate);
+          LOG.info("removed {} in-memory response with thisUpdate < {} or expired nextUpdate",
+              num, maxThisUpdate);
         } catch (Throwable th) {
           LogUtil.error(LOG, th, "could not remove expired responses");
         } finally {
@@ -138,6 +195,8 @@ public class ResponseCacher implements Closeable {
 
   private final AtomicBoolean onService;
 
+  private final MemoryResponseCache memoryCache;
+
   private DataSourceWrapper datasource;
 
   private IssuerStore issuerStore = new IssuerStore();
@@ -149,6 +208,24 @@ public class ResponseCacher implements Closeable {
   private ScheduledFuture<?> issuerUpdater;
 
   public ResponseCacher(DataSourceWrapper datasource, boolean master, Validity validity) {
+    this(datasource, master, validity, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param datasource
+   *          Datasource of the cache database. Must not be {@code null}.
+   * @param master
+   *          Whether this OCSP server is the master.
+   * @param validity
+   *          Validity of the cached responses. Must not be {@code null}.
+   * @param memoryCacheSize
+   *          Maximal size in bytes of the in-memory cache in front of the cache database.
+   *          Values not greater than 0 deactivate the in-memory cache.
+   */
+  public ResponseCacher(DataSourceWrapper datasource, boolean master, Validity validity,
+      int memoryCacheSize) {
     this.datasource = Args.notNull(datasource, "datasource");
     this.master = master;
     this.validity = (int) (Args.notNull(validity, "validity").approxMinutes() * 60);
@@ -156,6 +233,7 @@ public class ResponseCacher implements Closeable {
     this.sqlSelectOcsp = datasource.buildSelectFirstSql(1,
         "IID,IDENT,THIS_UPDATE,NEXT_UPDATE,RESP FROM OCSP WHERE ID=?");
     this.onService = new AtomicBoolean(false);
+    this.memoryCache = (memoryCacheSize > 0) ? new MemoryResponseCache(memoryCacheSize) : null;
 
     this.idDigesters = new ConcurrentBag<>();
     for (int i = 0; i < 20; i++) {
@@ -185,6 +263,10 @@ public class ResponseCacher implements Closeable {
 
   @Override
   public void close() {
+    if (memoryCache != null) {
+      memoryCache.evictAll();
+    }
+
     if (datasource != null) {
       datasource.close();
       datasource = null;
@@ -264,10 +346,25 @@ public class ResponseCacher implements Closeable {
   } // method storeIssuer
 
   public OcspRespWithCacheInfo getOcspResponse(int issuerId, BigInteger serialNumber,
-      AlgorithmCode sigAlg) throws DataAccessException {
-    final String sql = sqlSelectOcsp;
-    byte[] identBytes = buildIdent(serialNumber, sigAlg);
+      HashAlgo hashAlgo, AlgorithmCode sigAlg) throws DataAccessException {
+    byte[] identBytes = buildIdent(serialNumber, hashAlgo, sigAlg);
     long id = deriveId(issuerId, identBytes);
+
+    if (memoryCache != null) {
+      CachedResponse entry = memoryCache.get(id);
+      if (entry != null && entry.issuerId == issuerId
+          && Arrays.equals(identBytes, entry.ident)) {
+        if (!isNextUpdateTooClose(entry.nextUpdate)) {
+          return toOcspRespWithCacheInfo(entry);
+        }
+
+        // outdated, the database contains the same response.
+        memoryCache.remove(id);
+        return null;
+      }
+    }
+
+    final String sql = sqlSelectOcsp;
     PreparedStatement ps = datasource.prepareStatement(sql);
     ResultSet rs = null;
 
@@ -290,23 +387,16 @@ public class ResponseCacher implements Closeable {
       }
 
       long nextUpdate = rs.getLong("NEXT_UPDATE");
-      if (nextUpdate != 0) {
-        // nextUpdate must be at least in 600 seconds
-        long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
-
-        if (nextUpdate < minNextUpdate) {
-          return null;
-        }
+      if (isNextUpdateTooClose(nextUpdate)) {
+        return null;
       }
 
       long thisUpdate = rs.getLong("THIS_UPDATE");
       String b64Resp = rs.getString("RESP");
       byte[] resp = Base64.decodeFast(b64Resp);
-      ResponseCacheInfo cacheInfo = new ResponseCacheInfo(thisUpdate);
-      if (nextUpdate != 0) {
-        cacheInfo.setNextUpdate(nextUpdate);
-      }
-      return new OcspRespWithCacheInfo(resp, cacheInfo);
+      CachedResponse entry = new CachedResponse(issuerId, identBytes, thisUpdate, nextUpdate, resp);
+      cacheInMemory(id, entry);
+      return toOcspRespWithCacheInfo(entry);
     } catch (SQLException ex) {
       throw datasource.translate(sql, ex);
     } finally {
@@ -314,8 +404,117 @@ public class ResponseCacher implements Closeable {
     }
   } // method getOcspResponse
 
+  /**
+   * Returns the serial numbers whose cached responses are up-to-date. A cached response is
+   * up-to-date if it was generated after the last update of the certificate, is not older
+   * than half of the validity, and its nextUpdate is not too close. The in-memory cache is
+   * not touched.
+   *
+   * @param issuerId
+   *          Identifier of the issuer in this cacher.
+   * @param lastUpdates
+   *          Map of the serial numbers to the last update of the certificate status, seconds
+   *          since January 1, 1970, 00:00:00 GMT. Must not be {@code null}.
+   * @param hashAlgo
+   *          Hash algorithm of the CertID in the response. Must not be {@code null}.
+   * @param sigAlg
+   *          Signature algorithm of the response. Must not be {@code null}.
+   * @return the serial numbers whose cached responses are up-to-date.
+   * @throws DataAccessException
+   *           If error occurs while querying the database.
+   */
+  public Set<BigInteger> getUpToDateSerials(int issuerId, Map<BigInteger, Long> lastUpdates,
+      HashAlgo hashAlgo, AlgorithmCode sigAlg) throws DataAccessException {
+    // database id to the serial number and ident
+    Map<Long, BigInteger> idSerials = new HashMap<>();
+    Map<Long, String> idIdents = new HashMap<>();
+    for (BigInteger serialNumber : lastUpdates.keySet()) {
+      byte[] identBytes = buildIdent(serialNumber, hashAlgo, sigAlg);
+      long id = deriveId(issuerId, identBytes);
+      idSerials.put(id, serialNumber);
+      idIdents.put(id, Base64.encodeToString(identBytes));
+    }
+
+    long minThisUpdate = System.currentTimeMillis() / 1000 - validity / 2;
+    Set<BigInteger> ret = new HashSet<>();
+    List<Long> ids = new ArrayList<>(idSerials.keySet());
+    for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+      List<Long> subList = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_QUERY));
+      final String sql = buildSqlSelectOcspUpdates(subList.size());
+      PreparedStatement ps = datasource.prepareStatement(sql);
+      ResultSet rs = null;
+
+      try {
+        int idx = 1;
+        for (Long id : subList) {
+          ps.setLong(idx++, id);
+        }
+        rs = ps.executeQuery();
+
+        while (rs.next()) {
+          long id = rs.getLong("ID");
+          BigInteger serialNumber = idSerials.get(id);
+          if (serialNumber == null || rs.getInt("IID") != issuerId
+              || !idIdents.get(id).equals(rs.getString("IDENT"))) {
+            continue;
+          }
+
+          if (rs.getLong("THIS_UPDATE") >= Math.max(lastUpdates.get(serialNumber), minThisUpdate)
+              && !isNextUpdateTooClose(rs.getLong("NEXT_UPDATE"))) {
+            ret.add(serialNumber);
+          }
+        }
+      } catch (SQLException ex) {
+        throw datasource.translate(sql, ex);
+      } finally {
+        datasource.releaseResources(ps, rs);
+      }
+    }
+
+    return ret;
+  } // method getUpToDateSerials
+
+  private static String buildSqlSelectOcspUpdates(int numIds) {
+    StringBuilder sb = new StringBuilder(80 + 2 * numIds);
+    sb.append("SELECT ID,IID,IDENT,THIS_UPDATE,NEXT_UPDATE FROM OCSP WHERE ID IN (?");
+    for (int i = 1; i < numIds; i++) {
+      sb.append(",?");
+    }
+    return sb.append(")").toString();
+  } // method buildSqlSelectOcspUpdates
+
   public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate,
-      Long nextUpdate, AlgorithmCode sigAlgCode, byte[] response) {
+      Long nextUpdate, HashAlgo hashAlgo, AlgorithmCode sigAlgCode, byte[] response) {
+    storeOcspResponse(issuerId, serialNumber, thisUpdate, nextUpdate, hashAlgo, sigAlgCode,
+        response, true);
+  }
+
+  /**
+   * Stores the OCSP response in the cache database.
+   *
+   * @param issuerId
+   *          Identifier of the issuer in this cacher.
+   * @param serialNumber
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param thisUpdate
+   *          thisUpdate of the response, seconds since January 1, 1970, 00:00:00 GMT.
+   * @param nextUpdate
+   *          nextUpdate of the response, seconds since January 1, 1970, 00:00:00 GMT.
+   *          Could be {@code null}.
+   * @param hashAlgo
+   *          Hash algorithm of the CertID in the response. Must not be {@code null}.
+   * @param sigAlgCode
+   *          Signature algorithm of the response. Must not be {@code null}.
+   * @param response
+   *          The encoded response. Must not be {@code null}.
+   * @param inMemory
+   *          Whether the response will be kept in the in-memory cache. If {@code false},
+   *          any previous response in the in-memory cache will be removed, and the new one
+   *          will be loaded on the first request.
+   */
+  public void storeOcspResponse(int issuerId, BigInteger serialNumber, long thisUpdate,
+      Long nextUpdate, HashAlgo hashAlgo, AlgorithmCode sigAlgCode, byte[] response,
+      boolean inMemory) {
     long nowInSec = System.currentTimeMillis() / 1000;
     if (nextUpdate == null) {
       nextUpdate = nowInSec + SEC_PER_WEEK;
@@ -325,10 +524,10 @@ public class ResponseCacher implements Closeable {
       return;
     }
 
-    byte[] identBytes = buildIdent(serialNumber, sigAlgCode);
+    byte[] identBytes = buildIdent(serialNumber, hashAlgo, sigAlgCode);
     String ident = Base64.encodeToString(identBytes);
+    long id = deriveId(issuerId, identBytes);
     try {
-      long id = deriveId(issuerId, identBytes);
 
       Connection conn = datasource.getConnection();
       try {
@@ -359,6 +558,8 @@ public class ResponseCacher implements Closeable {
 
         if (dataIntegrityViolationException == null) {
           LOG.debug("added cached OCSP response iid={}, ident={}", issuerId, ident);
+          cacheInMemory(id, inMemory ? new CachedResponse(
+              issuerId, identBytes, thisUpdate, nextUpdate, response) : null);
           return;
         }
 
@@ -376,10 +577,17 @@ public class ResponseCacher implements Closeable {
         } finally {
           datasource.releaseResources(ps, null, false);
         }
+
+        cacheInMemory(id, inMemory ? new CachedResponse(
+            issuerId, identBytes, thisUpdate, nextUpdate, response) : null);
       } finally {
         datasource.returnConnection(conn);
       }
     } catch (DataAccessException ex) {
+      if (memoryCache != null) {
+        // the database may contain a different response, drop the one in memory
+        memoryCache.remove(id);
+      }
       LOG.info("could not cache OCSP response iid={}, ident={}", issuerId, ident);
       if (LOG.isDebugEnabled()) {
         LOG.debug("could not cache OCSP response iid=" + issuerId + ", ident=" + ident, ex);
@@ -401,6 +609,53 @@ public class ResponseCacher implements Closeable {
     }
   } // method removeExpiredResponses
 
+  private int removeExpiredMemoryResponses(long maxThisUpdate) {
+    if (memoryCache == null) {
+      return 0;
+    }
+
+    int num = 0;
+    for (Entry<Long, CachedResponse> entry : memoryCache.snapshot().entrySet()) {
+      CachedResponse value = entry.getValue();
+      if (value.thisUpdate < maxThisUpdate || isNextUpdateTooClose(value.nextUpdate)) {
+        if (memoryCache.remove(entry.getKey()) != null) {
+          num++;
+        }
+      }
+    }
+    return num;
+  } // method removeExpiredMemoryResponses
+
+  private void cacheInMemory(long id, CachedResponse entry) {
+    if (memoryCache == null) {
+      return;
+    }
+
+    if (entry == null) {
+      memoryCache.remove(id);
+    } else {
+      memoryCache.put(id, entry);
+    }
+  }
+
+  private static boolean isNextUpdateTooClose(long nextUpdate) {
+    if (nextUpdate == 0) {
+      return false;
+    }
+
+    // nextUpdate must be at least in 600 seconds
+    long minNextUpdate = System.currentTimeMillis() / 1000 + 600;
+    return nextUpdate < minNextUpdate;
+  }
+
+  private static OcspRespWithCacheInfo toOcspRespWithCacheInfo(CachedResponse entry) {
+    ResponseCacheInfo cacheInfo = new ResponseCacheInfo(entry.thisUpdate);
+    if (entry.nextUpdate != 0) {
+      cacheInfo.setNextUpdate(entry.nextUpdate);
+    }
+    return new OcspRespWithCacheInfo(entry.response, cacheInfo);
+  }
+
   private void updateCacheStore() {
     boolean stillOnService = updateCacheStore0();
     this.onService.set(stillOnService);
@@ -544,11 +799,14 @@ public class ResponseCacher implements Closeable {
     return true;
   } // method initIssuerStore
 
-  private static byte[] buildIdent(BigInteger serialNumber, AlgorithmCode sigAlg) {
+  private static byte[] buildIdent(BigInteger serialNumber, HashAlgo hashAlgo,
+      AlgorithmCode sigAlg) {
     byte[] snBytes = serialNumber.toByteArray();
-    byte[] bytes = new byte[1 + snBytes.length];
+    byte[] bytes = new byte[2 + snBytes.length];
     bytes[0] = sigAlg.getCode();
-    System.arraycopy(snBytes, 0, bytes, 1, snBytes.length);
+    // the response contains the CertID, whose hash algorithm is specified by the client
+    bytes[1] = hashAlgo.getAlgorithmCode().getCode();
+    System.arraycopy(snBytes, 0, bytes, 2, snBytes.length);
     return bytes;
   }
 
@@ -0,0 +1,548 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Open-addressing hash table of revoked certificates, keyed by the issuer id and the serial
+ * number. The entries are kept in fixed-size slots of direct (off-heap) {@link ByteBuffer}s,
+ * so that millions of entries do not burden the garbage collector. Since a {@link ByteBuffer}
+ * is limited to 2 GB, the slots are split into segments of {@code 2^20} slots.
+ *
+ * <p>Layout of a slot:
+ * <pre>
+ *  0: state (1 byte), 1: length of serial number (1 byte), 2: reason (1 byte), 3: unused
+ *  4: issuer id (int), 8: CRL id (int), 12: unused (int)
+ * 16: revocation time (long), 24: invalidity time (long)
+ * 32: notBefore (long), 40: notAfter (long), 48: serial number (24 bytes)
+ * </pre>
+ * All times are seconds since January 1, 1970, 00:00:00 GMT.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class RevokedCertTable {
+
+  /**
+   * Revocation information of a certificate.
+   */
+  static class Entry {
+
+    private final int crlId;
+
+    private final int reason;
+
+    private final long revTime;
+
+    private final long invalTime;
+
+    private final long notBefore;
+
+    private final long notAfter;
+
+    Entry(int crlId, int reason, long revTime, long invalTime, long notBefore, long notAfter) {
+      this.crlId = crlId;
+      this.reason = reason;
+      this.revTime = revTime;
+      this.invalTime = invalTime;
+      this.notBefore = notBefore;
+      this.notAfter = notAfter;
+    }
+
+    int getCrlId() {
+      return crlId;
+    }
+
+    int getReason() {
+      return reason;
+    }
+
+    long getRevTime() {
+      return revTime;
+    }
+
+    long getInvalTime() {
+      return invalTime;
+    }
+
+    long getNotBefore() {
+      return notBefore;
+    }
+
+    long getNotAfter() {
+      return notAfter;
+    }
+
+  } // class Entry
+
+  /**
+   * Slots in segments of direct buffers. A slot does not span over two segments.
+   */
+  private static class Slots {
+
+    private final int capacity;
+
+    private final ByteBuffer[] segments;
+
+    private Slots(int capacity) {
+      this.capacity = capacity;
+      int segmentSlots = Math.min(capacity, SLOTS_PER_SEGMENT);
+      this.segments = new ByteBuffer[capacity / segmentSlots];
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = ByteBuffer.allocateDirect(segmentSlots * SLOT_SIZE);
+      }
+    }
+
+    private ByteBuffer segment(int slot) {
+      return segments[slot >>> SEGMENT_BITS];
+    }
+
+    private static int offset(int slot, int field) {
+      return (slot & (SLOTS_PER_SEGMENT - 1)) * SLOT_SIZE + field;
+    }
+
+    private byte get(int slot, int field) {
+      return segment(slot).get(offset(slot, field));
+    }
+
+    private int getInt(int slot, int field) {
+      return segment(slot).getInt(offset(slot, field));
+    }
+
+    private long getLong(int slot, int field) {
+      return segment(slot).getLong(offset(slot, field));
+    }
+
+    private void put(int slot, int field, byte value) {
+      segment(slot).put(offset(slot, field), value);
+    }
+
+    private void putInt(int slot, int field, int value) {
+      segment(slot).putInt(offset(slot, field), value);
+    }
+
+    private void putLong(int slot, int field, long value) {
+      segment(slot).putLong(offset(slot, field), value);
+    }
+
+    private void copySlot(int slot, Slots dest, int destSlot) {
+      ByteBuffer src = segment(slot);
+      ByteBuffer dst = dest.segment(destSlot);
+      int off = offset(slot, 0);
+      int destOff = offset(destSlot, 0);
+      for (int i = 0; i < SLOT_SIZE; i++) {
+        dst.put(destOff + i, src.get(off + i));
+      }
+    }
+
+  } // class Slots
+
+  static final int MAX_SERIAL_LEN = 24;
+
+  private static final int SLOT_SIZE = 72;
+
+  private static final int SEGMENT_BITS = 20;
+
+  private static final int SLOTS_PER_SEGMENT = 1 << SEGMENT_BITS;
+
+  // 2^30 slots, i.e. about 640 million entries, and 72 GB
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private static final long MAGIC = 0x5849504b49525654L; // XIPKIRVT
+
+  private static final int VERSION = 2;
+
+  // magic, version, slot size, capacity, size, used, lastUpdate, lastFullRefresh, issuersDigest
+  private static final int HEADER_SIZE = 8 + 4 * 5 + 8 + 8 + 8;
+
+  private static final byte STATE_EMPTY = 0;
+
+  private static final byte STATE_USED = 1;
+
+  private static final byte STATE_DELETED = 2;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private Slots slots;
+
+  private int capacity;
+
+  private int size;
+
+  // number of used and deleted slots
+  private int used;
+
+  private long lastUpdate;
+
+  private long lastFullRefresh;
+
+  private long issuersDigest;
+
+  RevokedCertTable(int expectedSize) {
+    int cap = 1024;
+    while (cap < MAX_CAPACITY / 2 && cap * 0.6 < expectedSize) {
+      cap <<= 1;
+    }
+    this.capacity = cap;
+    this.slots = new Slots(cap);
+  }
+
+  private RevokedCertTable(Slots slots, int size, int used) {
+    this.slots = slots;
+    this.capacity = slots.capacity;
+    this.size = size;
+    this.used = used;
+  }
+
+  int size() {
+    Lock rl = lock.readLock();
+    rl.lock();
+    try {
+      return size;
+    } finally {
+      rl.unlock();
+    }
+  }
+
+  /**
+   * Returns the largest value of the column LUPDATE up to which the table is up-to-date.
+   * @return last update, seconds since January 1, 1970, 00:00:00 GMT.
+   */
+  long getLastUpdate() {
+    return lastUpdate;
+  }
+
+  void setLastUpdate(long lastUpdate) {
+    this.lastUpdate = lastUpdate;
+  }
+
+  /**
+   * Returns the time when the table has been completely loaded from the database.
+   * @return last full refresh, milliseconds since January 1, 1970, 00:00:00 GMT.
+   */
+  long getLastFullRefresh() {
+    return lastFullRefresh;
+  }
+
+  void setLastFullRefresh(long lastFullRefresh) {
+    this.lastFullRefresh = lastFullRefresh;
+  }
+
+  /**
+   * Returns the digest of the issuers the issuer ids in the table refer to.
+   * @return digest of the issuers.
+   */
+  long getIssuersDigest() {
+    return issuersDigest;
+  }
+
+  void setIssuersDigest(long issuersDigest) {
+    this.issuersDigest = issuersDigest;
+  }
+
+  static boolean isSupported(BigInteger serialNumber) {
+    return serialNumber.signum() == 1 && serialNumber.bitLength() <= MAX_SERIAL_LEN * 8;
+  }
+
+  Entry get(int issuerId, BigInteger serialNumber) {
+    if (!isSupported(serialNumber)) {
+      return null;
+    }
+
+    byte[] serial = toBytes(serialNumber);
+    Lock rl = lock.readLock();
+    rl.lock();
+    try {
+      int slot = findSlot(issuerId, serial);
+      if (slot == -1) {
+        return null;
+      }
+
+      return new Entry(slots.getInt(slot, 8), slots.get(slot, 2) & 0xFF,
+          slots.getLong(slot, 16), slots.getLong(slot, 24),
+          slots.getLong(slot, 32), slots.getLong(slot, 40));
+    } finally {
+      rl.unlock();
+    }
+  } // method get
+
+  void put(int issuerId, BigInteger serialNumber, Entry entry) {
+    if (!isSupported(serialNumber)) {
+      throw new IllegalArgumentException("serialNumber is not supported: " + serialNumber);
+    }
+
+    byte[] serial = toBytes(serialNumber);
+    Lock wl = lock.writeLock();
+    wl.lock();
+    try {
+      int slot = findSlot(issuerId, serial);
+      if (slot == -1) {
+        if ((used + 1) > capacity * 0.6) {
+          rehash(size + 1 > capacity * 0.3 ? capacity << 1 : capacity);
+        }
+
+        slot = findFreeSlot(issuerId, serial);
+        if (slots.get(slot, 0) == STATE_EMPTY) {
+          used++;
+        }
+        size++;
+      }
+
+      writeSlot(slots, slot, issuerId, serial, entry);
+    } finally {
+      wl.unlock();
+    }
+  } // method put
+
+  boolean remove(int issuerId, BigInteger serialNumber) {
+    if (!isSupported(serialNumber)) {
+      return false;
+    }
+
+    byte[] serial = toBytes(serialNumber);
+    Lock wl = lock.writeLock();
+    wl.lock();
+    try {
+      int slot = findSlot(issuerId, serial);
+      if (slot == -1) {
+        return false;
+      }
+
+      slots.put(slot, 0, STATE_DELETED);
+      size--;
+      return true;
+    } finally {
+      wl.unlock();
+    }
+  } // method remove
+
+  private int findSlot(int issuerId, byte[] serial) {
+    int mask = capacity - 1;
+    int slot = hash(issuerId, serial) & mask;
+    for (int i = 0; i < capacity; i++) {
+      byte state = slots.get(slot, 0);
+      if (state == STATE_EMPTY) {
+        return -1;
+      } else if (state == STATE_USED && matches(slots, slot, issuerId, serial)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  } // method findSlot
+
+  private int findFreeSlot(int issuerId, byte[] serial) {
+    return findFreeSlot(slots, issuerId, serial);
+  }
+
+  private static int findFreeSlot(Slots slots, int issuerId, byte[] serial) {
+    int mask = slots.capacity - 1;
+    int slot = hash(issuerId, serial) & mask;
+    while (slots.get(slot, 0) == STATE_USED) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash(int newCapacity) {
+    // newCapacity is negative if capacity << 1 overflows
+    if (newCapacity <= 0 || newCapacity > MAX_CAPACITY) {
+      throw new IllegalStateException("too many revoked certificates: " + size);
+    }
+
+    Slots newSlots = new Slots(newCapacity);
+    byte[] serial = new byte[MAX_SERIAL_LEN];
+    for (int i = 0; i < capacity; i++) {
+      if (slots.get(i, 0) != STATE_USED) {
+        continue;
+      }
+
+      int serialLen = slots.get(i, 1);
+      byte[] sn = (serialLen == MAX_SERIAL_LEN) ? serial : new byte[serialLen];
+      for (int j = 0; j < serialLen; j++) {
+        sn[j] = slots.get(i, 48 + j);
+      }
+
+      int slot = findFreeSlot(newSlots, slots.getInt(i, 4), sn);
+      slots.copySlot(i, newSlots, slot);
+    }
+
+    this.slots = newSlots;
+    this.capacity = newCapacity;
+    this.used = size;
+  } // method rehash
+
+  /**
+   * Writes the table to the given file. The file is first written to a temporary file and then
+   * moved to the target file.
+   */
+  void writeTo(File file) throws IOException {
+    File tmpFile = new File(file.getPath() + ".tmp");
+    File parent = tmpFile.getParentFile();
+    if (parent != null && !parent.exists()) {
+      parent.mkdirs();
+    }
+
+    Lock rl = lock.readLock();
+    rl.lock();
+    try (FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putLong(MAGIC).putInt(VERSION).putInt(SLOT_SIZE)
+        .putInt(capacity).putInt(size).putInt(used)
+        .putLong(lastUpdate).putLong(lastFullRefresh).putLong(issuersDigest);
+      header.flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+
+      for (ByteBuffer segment : slots.segments) {
+        ByteBuffer content = segment.duplicate();
+        content.clear();
+        while (content.hasRemaining()) {
+          channel.write(content);
+        }
+      }
+      channel.force(true);
+    } finally {
+      rl.unlock();
+    }
+
+    Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  } // method writeTo
+
+  /**
+   * Reads the table from the file written by {@link #writeTo(File)}.
+   */
+  static RevokedCertTable readFrom(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(channel, header);
+      header.flip();
+
+      if (header.getLong() != MAGIC) {
+        throw new IOException("invalid magic number");
+      }
+
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("unsupported version " + version);
+      }
+
+      int slotSize = header.getInt();
+      if (slotSize != SLOT_SIZE) {
+        throw new IOException("unsupported slot size " + slotSize);
+      }
+
+      int capacity = header.getInt();
+      int size = header.getInt();
+      int used = header.getInt();
+      if (capacity <= 0 || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1
+          || size < 0 || used < size || used > capacity) {
+        throw new IOException("invalid header");
+      }
+
+      if (channel.size() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+        throw new IOException("invalid file size " + channel.size());
+      }
+
+      long lastUpdate = header.getLong();
+      long lastFullRefresh = header.getLong();
+      long issuersDigest = header.getLong();
+
+      Slots slots = new Slots(capacity);
+      for (ByteBuffer segment : slots.segments) {
+        readFully(channel, segment);
+      }
+
+      RevokedCertTable table = new RevokedCertTable(slots, size, used);
+      table.lastUpdate = lastUpdate;
+      table.lastFullRefresh = lastFullRefresh;
+      table.issuersDigest = issuersDigest;
+      return table;
+    }
+  } // method readFrom
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) == -1) {
+        throw new IOException("unexpected end of file");
+      }
+    }
+  }
+
+  private static void writeSlot(Slots slots, int slot, int issuerId, byte[] serial,
+      Entry entry) {
+    slots.put(slot, 0, STATE_USED);
+    slots.put(slot, 1, (byte) serial.length);
+    slots.put(slot, 2, (byte) entry.reason);
+    slots.putInt(slot, 4, issuerId);
+    slots.putInt(slot, 8, entry.crlId);
+    slots.putLong(slot, 16, entry.revTime);
+    slots.putLong(slot, 24, entry.invalTime);
+    slots.putLong(slot, 32, entry.notBefore);
+    slots.putLong(slot, 40, entry.notAfter);
+    for (int i = 0; i < MAX_SERIAL_LEN; i++) {
+      slots.put(slot, 48 + i, i < serial.length ? serial[i] : 0);
+    }
+  } // method writeSlot
+
+  private static boolean matches(Slots slots, int slot, int issuerId, byte[] serial) {
+    if (slots.getInt(slot, 4) != issuerId || slots.get(slot, 1) != serial.length) {
+      return false;
+    }
+
+    for (int i = 0; i < serial.length; i++) {
+      if (slots.get(slot, 48 + i) != serial[i]) {
+        return false;
+      }
+    }
+    return true;
+  } // method matches
+
+  private static int hash(int issuerId, byte[] serial) {
+    int hash = issuerId;
+    for (byte b : serial) {
+      hash = 31 * hash + b;
+    }
+    // spread the higher bits
+    return hash ^ (hash >>> 16);
+  }
+
+  private static byte[] toBytes(BigInteger serialNumber) {
+    byte[] bytes = serialNumber.toByteArray();
+    if (bytes[0] == 0 && bytes.length > 1) {
+      byte[] tmp = new byte[bytes.length - 1];
+      System.arraycopy(bytes, 1, tmp, 0, tmp.length);
+      return tmp;
+    }
+    return bytes;
+  }
+
+}
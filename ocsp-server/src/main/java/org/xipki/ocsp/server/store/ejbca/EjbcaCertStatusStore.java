@@ -25,6 +25,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -60,6 +61,7 @@ import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.Hex;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.StringUtil;
 
 import com.alibaba.fastjson.JSON;
@@ -73,6 +75,23 @@ import com.alibaba.fastjson.JSON;
 
 public class EjbcaCertStatusStore extends OcspStore {
 
+  /**
+   * Status of a certificate read from the table CertificateData.
+   */
+  private static class CertEntry {
+
+    private boolean ignore;
+
+    private String hexCertHash;
+
+    private boolean revoked;
+
+    private int reason;
+
+    private long revTime;
+
+  } // class CertEntry
+
   private class StoreUpdateService implements Runnable {
 
     @Override
@@ -84,6 +103,10 @@ public class EjbcaCertStatusStore extends OcspStore {
 
   private static final Logger LOG = LoggerFactory.getLogger(EjbcaCertStatusStore.class);
 
+  private static final int MAX_SERIALS_PER_QUERY = 100;
+
+  private final LruCache<Integer, String> cacheSqlCsForSerials = new LruCache<>(100);
+
   private final HashAlgo certHashAlgo = HashAlgo.SHA1;
 
   private final StoreUpdateService storeUpdateService = new StoreUpdateService();
@@ -226,13 +249,7 @@ public class EjbcaCertStatusStore extends OcspStore {
       return CertStatusInfo.getUnknownCertStatusInfo(new Date(), null);
     }
 
-    if (!initialized) {
-      throw new OcspStoreException("initialization of CertStore is still in process");
-    }
-
-    if (initializationFailed) {
-      throw new OcspStoreException("initialization of CertStore failed");
-    }
+    assertInitialized();
 
     try {
       EjbcaIssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
@@ -242,18 +259,8 @@ public class EjbcaCertStatusStore extends OcspStore {
 
       String sql = includeCertHash ? sqlCsWithCertHash : sqlCs;
 
-      Date thisUpdate = new Date();
-      Date nextUpdate = null;
-
       ResultSet rs = null;
-      CertStatusInfo certStatusInfo = null;
-
-      boolean unknown = true;
-      boolean ignore = false;
-      String hexCertHash = null;
-      boolean revoked = false;
-      int reason = 0;
-      long revTime = 0;
+      CertEntry certEntry = null;
 
       PreparedStatement ps = datasource.prepareStatement(sql);
 
@@ -264,115 +271,243 @@ public class EjbcaCertStatusStore extends OcspStore {
         rs = ps.executeQuery();
 
         if (rs.next()) {
-          unknown = false;
-
-          long timeInMs = time.getTime();
-          if (!ignore && ignoreNotYetValidCert) {
-            long notBefore = rs.getLong("notBefore");
-            if (timeInMs < notBefore) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore && ignoreExpiredCert) {
-            long notAfterInSec = rs.getLong("expireDate");
-            if (timeInMs > notAfterInSec) {
-              ignore = true;
-            }
-          }
-
-          if (!ignore) {
-            if (includeCertHash) {
-              hexCertHash = rs.getString("fingerprint");
-            }
-
-            int status = rs.getInt("status");
-            revoked = status == 40;
-            if (revoked) {
-              reason = rs.getInt("revocationReason");
-              revTime = rs.getLong("revocationDate") / 1000;
-            }
-          }
-        } // end if (rs.next())
+          certEntry = readCertEntry(rs, time, includeCertHash);
+        }
       } catch (SQLException ex) {
         throw datasource.translate(sql, ex);
       } finally {
         releaseDbResources(ps, rs);
       }
 
-      if (unknown) {
-        certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
-      } else if (ignore) {
-        certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
-      } else {
-        byte[] certHash = (hexCertHash == null) ? null : Hex.decode(hexCertHash);
-        if (revoked) {
-          CertRevocationInfo revInfo = new CertRevocationInfo(reason,
-              new Date(revTime * 1000), null);
-          certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
-              certHashAlgo, certHash, thisUpdate, nextUpdate, null);
-        } else {
-          certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
-              certHash, thisUpdate, nextUpdate, null);
+      return buildCertStatusInfo(issuer, certEntry, inheritCaRevocation);
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
+
+  } // method getCertStatus0
+
+  @Override
+  protected List<CertStatusInfo> getCertStatuses0(Date time, RequestIssuer reqIssuer,
+      List<BigInteger> serialNumbers, boolean includeCertHash, boolean includeRit,
+      boolean inheritCaRevocation) throws OcspStoreException {
+    if (includeRit) {
+      throw new OcspStoreException("EJBCA store does not support includeRit");
+    }
+
+    assertInitialized();
+
+    final int size = serialNumbers.size();
+    List<CertStatusInfo> ret = new ArrayList<>(size);
+
+    EjbcaIssuerEntry issuer = issuerStore.getIssuerForFp(reqIssuer);
+    if (issuer == null) {
+      for (int i = 0; i < size; i++) {
+        ret.add(null);
+      }
+      return ret;
+    }
+
+    // decimal serial number to the entry in database
+    Map<String, CertEntry> certEntries = new HashMap<>();
+    List<String> decSerials = new ArrayList<>(size);
+    for (BigInteger serialNumber : serialNumbers) {
+      if (serialNumber.signum() == 1) {
+        String decSerial = serialNumber.toString();
+        if (!decSerials.contains(decSerial)) {
+          decSerials.add(decSerial);
         }
       }
+    }
 
-      if (includeArchiveCutoff) {
-        if (retentionInterval != 0) {
-          Date date;
-          // expired certificate remains in status store for ever
-          if (retentionInterval < 0) {
-            date = issuer.getNotBefore();
-          } else {
-            long nowInMs = System.currentTimeMillis();
-            long dateInMs = Math.max(issuer.getNotBefore().getTime(),
-                nowInMs - DAY * retentionInterval);
-            date = new Date(dateInMs);
+    try {
+      for (int from = 0; from < decSerials.size(); from += MAX_SERIALS_PER_QUERY) {
+        List<String> subList = decSerials.subList(from,
+            Math.min(decSerials.size(), from + MAX_SERIALS_PER_QUERY));
+        String sql = getSqlCsForSerials(subList.size(), includeCertHash);
+
+        ResultSet rs = null;
+        PreparedStatement ps = datasource.prepareStatement(sql);
+        try {
+          int idx = 1;
+          ps.setString(idx++, issuer.getId());
+          for (String decSerial : subList) {
+            ps.setString(idx++, decSerial);
           }
+          rs = ps.executeQuery();
 
-          certStatusInfo.setArchiveCutOff(date);
+          while (rs.next()) {
+            String decSerial = rs.getString("serialNumber");
+            if (!certEntries.containsKey(decSerial)) {
+              certEntries.put(decSerial, readCertEntry(rs, time, includeCertHash));
+            }
+          }
+        } catch (SQLException ex) {
+          throw datasource.translate(sql, ex);
+        } finally {
+          releaseDbResources(ps, rs);
         }
       }
+    } catch (DataAccessException ex) {
+      throw new OcspStoreException(ex.getMessage(), ex);
+    }
 
-      if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
-        return certStatusInfo;
+    for (BigInteger serialNumber : serialNumbers) {
+      if (serialNumber.signum() != 1) { // non-positive serial number
+        ret.add(CertStatusInfo.getUnknownCertStatusInfo(new Date(), null));
+      } else {
+        CertEntry certEntry = certEntries.get(serialNumber.toString());
+        ret.add(buildCertStatusInfo(issuer, certEntry, inheritCaRevocation));
       }
+    }
+    return ret;
+  } // method getCertStatuses0
 
-      CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
-      CertStatus certStatus = certStatusInfo.getCertStatus();
-      boolean replaced = false;
-      if (certStatus == CertStatus.GOOD) {
-        replaced = true;
-      } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
-        if (unknownCertBehaviour == UnknownCertBehaviour.good) {
-          replaced = true;
-        }
-      } else if (certStatus == CertStatus.REVOKED) {
-        if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
-              caRevInfo.getRevocationTime())) {
-          replaced = true;
-        }
+  private void assertInitialized() throws OcspStoreException {
+    if (!initialized) {
+      throw new OcspStoreException("initialization of CertStore is still in process");
+    }
+
+    if (initializationFailed) {
+      throw new OcspStoreException("initialization of CertStore failed");
+    }
+  } // method assertInitialized
+
+  private String getSqlCsForSerials(int numSerials, boolean includeCertHash) {
+    int key = (numSerials << 1) | (includeCertHash ? 1 : 0);
+    String sql = cacheSqlCsForSerials.get(key);
+    if (sql == null) {
+      StringBuilder sb = new StringBuilder(150 + 2 * numSerials);
+      sb.append("SELECT serialNumber,");
+      if (includeCertHash) {
+        sb.append("fingerprint,");
+      }
+      sb.append("notBefore,expireDate,status,revocationReason,revocationDate")
+        .append(" FROM CertificateData WHERE cAFingerprint=? AND serialNumber IN (?");
+      for (int i = 1; i < numSerials; i++) {
+        sb.append(",?");
+      }
+      sb.append(")");
+      sql = sb.toString();
+      cacheSqlCsForSerials.put(key, sql);
+    }
+    return sql;
+  } // method getSqlCsForSerials
+
+  private CertEntry readCertEntry(ResultSet rs, Date time, boolean includeCertHash)
+      throws SQLException {
+    CertEntry entry = new CertEntry();
+
+    long timeInMs = time.getTime();
+    if (!entry.ignore && ignoreNotYetValidCert) {
+      long notBefore = rs.getLong("notBefore");
+      if (timeInMs < notBefore) {
+        entry.ignore = true;
+      }
+    }
+
+    if (!entry.ignore && ignoreExpiredCert) {
+      long notAfterInSec = rs.getLong("expireDate");
+      if (timeInMs > notAfterInSec) {
+        entry.ignore = true;
       }
+    }
+
+    if (!entry.ignore) {
+      if (includeCertHash) {
+        entry.hexCertHash = rs.getString("fingerprint");
+      }
+
+      int status = rs.getInt("status");
+      entry.revoked = status == 40;
+      if (entry.revoked) {
+        entry.reason = rs.getInt("revocationReason");
+        entry.revTime = rs.getLong("revocationDate") / 1000;
+      }
+    }
+
+    return entry;
+  } // method readCertEntry
 
-      if (replaced) {
-        CertRevocationInfo newRevInfo;
-        if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
-          newRevInfo = caRevInfo;
+  /**
+   * Builds the {@link CertStatusInfo}.
+   * @param certEntry the entry in database, {@code null} if the certificate is unknown.
+   */
+  private CertStatusInfo buildCertStatusInfo(EjbcaIssuerEntry issuer, CertEntry certEntry,
+      boolean inheritCaRevocation) {
+    Date thisUpdate = new Date();
+    Date nextUpdate = null;
+
+    CertStatusInfo certStatusInfo;
+    if (certEntry == null) {
+      certStatusInfo = CertStatusInfo.getUnknownCertStatusInfo(thisUpdate, nextUpdate);
+    } else if (certEntry.ignore) {
+      certStatusInfo = CertStatusInfo.getIgnoreCertStatusInfo(thisUpdate, nextUpdate);
+    } else {
+      byte[] certHash = (certEntry.hexCertHash == null)
+          ? null : Hex.decode(certEntry.hexCertHash);
+      if (certEntry.revoked) {
+        CertRevocationInfo revInfo = new CertRevocationInfo(certEntry.reason,
+            new Date(certEntry.revTime * 1000), null);
+        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(revInfo,
+            certHashAlgo, certHash, thisUpdate, nextUpdate, null);
+      } else {
+        certStatusInfo = CertStatusInfo.getGoodCertStatusInfo(certHashAlgo,
+            certHash, thisUpdate, nextUpdate, null);
+      }
+    }
+
+    if (includeArchiveCutoff) {
+      if (retentionInterval != 0) {
+        Date date;
+        // expired certificate remains in status store for ever
+        if (retentionInterval < 0) {
+          date = issuer.getNotBefore();
         } else {
-          newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
-              caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+          long nowInMs = System.currentTimeMillis();
+          long dateInMs = Math.max(issuer.getNotBefore().getTime(),
+              nowInMs - DAY * retentionInterval);
+          date = new Date(dateInMs);
         }
-        certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
-            certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
-            certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
-            certStatusInfo.getCertprofile());
+
+        certStatusInfo.setArchiveCutOff(date);
       }
+    }
+
+    if ((!inheritCaRevocation) || issuer.getRevocationInfo() == null) {
       return certStatusInfo;
-    } catch (DataAccessException ex) {
-      throw new OcspStoreException(ex.getMessage(), ex);
     }
 
-  } // method getCertStatus0
+    CertRevocationInfo caRevInfo = issuer.getRevocationInfo();
+    CertStatus certStatus = certStatusInfo.getCertStatus();
+    boolean replaced = false;
+    if (certStatus == CertStatus.GOOD) {
+      replaced = true;
+    } else if (certStatus == CertStatus.UNKNOWN || certStatus == CertStatus.IGNORE) {
+      if (unknownCertBehaviour == UnknownCertBehaviour.good) {
+        replaced = true;
+      }
+    } else if (certStatus == CertStatus.REVOKED) {
+      if (certStatusInfo.getRevocationInfo().getRevocationTime().after(
+            caRevInfo.getRevocationTime())) {
+        replaced = true;
+      }
+    }
+
+    if (replaced) {
+      CertRevocationInfo newRevInfo;
+      if (caRevInfo.getReason() == CrlReason.CA_COMPROMISE) {
+        newRevInfo = caRevInfo;
+      } else {
+        newRevInfo = new CertRevocationInfo(CrlReason.CA_COMPROMISE,
+            caRevInfo.getRevocationTime(), caRevInfo.getInvalidityTime());
+      }
+      certStatusInfo = CertStatusInfo.getRevokedCertStatusInfo(newRevInfo,
+          certStatusInfo.getCertHashAlgo(), certStatusInfo.getCertHash(),
+          certStatusInfo.getThisUpdate(), certStatusInfo.getNextUpdate(),
+          certStatusInfo.getCertprofile());
+    }
+    return certStatusInfo;
+  } // method buildCertStatusInfo
 
   /**
    * Borrow Prepared Statement.
@@ -21,6 +21,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,6 +32,7 @@ import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.ocsp.OCSPRequest;
 import org.bouncycastle.asn1.ocsp.Request;
 import org.bouncycastle.asn1.ocsp.TBSRequest;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.xipki.ocsp.api.RequestIssuer;
 
 /**
@@ -62,6 +64,60 @@ public class OcspRequest {
     }
   }
 
+  /**
+   * The optionalSignature of an OCSP request, with the position of the tbsRequest in the
+   * encoded request.
+   *
+   * @since 5.3.8
+   */
+  public static class Signature {
+
+    private final int tbsRequestOffset;
+
+    private final int tbsRequestLength;
+
+    private final AlgorithmIdentifier algorithm;
+
+    private final byte[] signature;
+
+    private final List<byte[]> certs;
+
+    private Signature(int tbsRequestOffset, int tbsRequestLength,
+        AlgorithmIdentifier algorithm, byte[] signature, List<byte[]> certs) {
+      this.tbsRequestOffset = tbsRequestOffset;
+      this.tbsRequestLength = tbsRequestLength;
+      this.algorithm = algorithm;
+      this.signature = signature;
+      this.certs = certs;
+    }
+
+    public int getTbsRequestOffset() {
+      return tbsRequestOffset;
+    }
+
+    public int getTbsRequestLength() {
+      return tbsRequestLength;
+    }
+
+    public AlgorithmIdentifier getAlgorithm() {
+      return algorithm;
+    }
+
+    public byte[] getSignature() {
+      return signature;
+    }
+
+    /**
+     * Returns the encoded certificates.
+     *
+     * @return the encoded certificates, the signer certificate comes first.
+     */
+    public List<byte[]> getCerts() {
+      return certs;
+    }
+
+  } // class Signature
+
   private final int version;
 
   private final List<ExtendedExtension> extensions;
@@ -234,6 +290,89 @@ public class OcspRequest {
     }
   } // method readRequestVersion
 
+  /**
+   * Reads the optionalSignature of the request without parsing the whole request.
+   *
+   * @param request
+   *          The encoded OCSP request.
+   * @return the signature, or {@code null} if the request is not signed.
+   * @throws EncodingException
+   *           If the request is malformed.
+   * @since 5.3.8
+   */
+  public static Signature getSignature(byte[] request) throws EncodingException {
+    try {
+      // OCSPRequest
+      Header hdr = readHeader(request, 0);
+      // tbsRequest
+      Header hdrTbs = readHeader(request, hdr.readerIndex);
+      int endIndex = hdr.readerIndex + hdr.len;
+      int signatureIndex = hdrTbs.readerIndex + hdrTbs.len;
+      if (endIndex > request.length || signatureIndex > endIndex) {
+        throw new EncodingException("invalid length field");
+      } else if (signatureIndex == endIndex) {
+        return null;
+      }
+
+      // optionalSignature [0] EXPLICIT Signature
+      hdr = readHeader(request, signatureIndex);
+      if (hdr.tag != (byte) 0xA0) {
+        throw new EncodingException("invalid tag of optionalSignature");
+      }
+
+      Header hdrSignature = readHeader(request, hdr.readerIndex);
+      int signatureEndIndex = hdrSignature.readerIndex + hdrSignature.len;
+      if (signatureEndIndex > endIndex || signatureEndIndex < hdrSignature.readerIndex) {
+        throw new EncodingException("invalid length field of optionalSignature");
+      }
+
+      Header hdrAlgo = readHeader(request, hdrSignature.readerIndex);
+      AlgorithmIdentifier algorithm = AlgorithmIdentifier.getInstance(
+          copyOfRange(request, hdrAlgo.tagIndex, hdrAlgo.readerIndex + hdrAlgo.len));
+
+      Header hdrBits = readHeader(request, hdrAlgo.readerIndex + hdrAlgo.len);
+      if (hdrBits.tag != 0x03 || hdrBits.len < 1
+          || hdrBits.readerIndex + hdrBits.len > signatureEndIndex
+          || request[hdrBits.readerIndex] != 0) {
+        throw new EncodingException("invalid signature");
+      }
+      byte[] signature = copyOfRange(request, hdrBits.readerIndex + 1,
+          hdrBits.readerIndex + hdrBits.len);
+
+      List<byte[]> certs = new LinkedList<>();
+      int certsIndex = hdrBits.readerIndex + hdrBits.len;
+      if (certsIndex < signatureEndIndex) {
+        // certs [0] EXPLICIT SEQUENCE OF Certificate
+        hdr = readHeader(request, certsIndex);
+        if (hdr.tag != (byte) 0xA0) {
+          throw new EncodingException("invalid tag of certs");
+        }
+
+        Header hdrCerts = readHeader(request, hdr.readerIndex);
+        int certsEndIndex = hdrCerts.readerIndex + hdrCerts.len;
+        if (certsEndIndex > signatureEndIndex || certsEndIndex < hdrCerts.readerIndex) {
+          throw new EncodingException("invalid length field of certs");
+        }
+
+        int certIndex = hdrCerts.readerIndex;
+        while (certIndex < certsEndIndex) {
+          Header hdrCert = readHeader(request, certIndex);
+          certIndex = hdrCert.readerIndex + hdrCert.len;
+          // each certificate must end within certs, this guarantees the progress
+          if (certIndex <= hdrCert.tagIndex || certIndex > certsEndIndex) {
+            throw new EncodingException("invalid length field of certificate");
+          }
+          certs.add(copyOfRange(request, hdrCert.tagIndex, certIndex));
+        }
+      }
+
+      return new Signature(hdrTbs.tagIndex, signatureIndex - hdrTbs.tagIndex, algorithm,
+          signature, certs);
+    } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException ex) {
+      throw new EncodingException("could not parse the signature of the request", ex);
+    }
+  } // method getSignature
+
   public static boolean containsSignature(byte[] request) throws EncodingException {
     // OCSPRequest
     Header hdr = readHeader(request, 0);
@@ -267,9 +406,21 @@ public class OcspRequest {
         throw new EncodingException("invalid length field at " + readerIndex);
       }
     }
+
+    if (len < 0) {
+      throw new EncodingException("invalid length field at " + readerIndex);
+    }
     return new Header(readerIndex, tag, len, off);
   } // method readHeader
 
+  private static byte[] copyOfRange(byte[] encoded, int from, int to)
+      throws EncodingException {
+    if (from > to || to > encoded.length) {
+      throw new EncodingException("invalid length field");
+    }
+    return Arrays.copyOfRange(encoded, from, to);
+  }
+
   private static byte[] readContent(byte[] encoded, Header header) {
     byte[] content = new byte[header.len];
     System.arraycopy(encoded, header.readerIndex, content, 0, header.len);
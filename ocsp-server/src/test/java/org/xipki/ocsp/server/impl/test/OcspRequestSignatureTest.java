@@ -0,0 +1,108 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.impl.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.ocsp.server.type.EncodingException;
+import org.xipki.ocsp.server.type.OcspRequest;
+import org.xipki.util.Hex;
+
+/**
+ * Test of {@link OcspRequest#getSignature(byte[])} with malformed requests.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class OcspRequestSignatureTest {
+
+  // AlgorithmIdentifier of sha256WithRSAEncryption
+  private static final byte[] ALGO = Hex.decode("300d06092a864886f70d01010b0500");
+
+  private static final byte[] SIGNATURE = Hex.decode("030300aabb");
+
+  private static final byte[] CERT = Hex.decode("3003020101");
+
+  @Test
+  public void testValidRequest() throws EncodingException {
+    OcspRequest.Signature signature = OcspRequest.getSignature(buildRequest(CERT));
+    Assert.assertNotNull("signature", signature);
+    Assert.assertTrue("signature value",
+        Arrays.equals(Hex.decode("aabb"), signature.getSignature()));
+    Assert.assertEquals("number of certificates", 1, signature.getCerts().size());
+    Assert.assertTrue("certificate", Arrays.equals(CERT, signature.getCerts().get(0)));
+  }
+
+  @Test(timeout = 5000)
+  public void testNegativeCertLength() {
+    assertInvalid(buildRequest(Hex.decode("3084fffffffa")));
+  }
+
+  @Test(timeout = 5000)
+  public void testNegativeRequestLength() {
+    assertInvalid(Hex.decode("3084fffffffa3000"));
+  }
+
+  @Test(timeout = 5000)
+  public void testCertBeyondCerts() {
+    // the certificate claims 5 bytes, but only 3 bytes are in certs
+    assertInvalid(buildRequest(Hex.decode("3005020101")));
+  }
+
+  @Test(timeout = 5000)
+  public void testTruncatedRequest() {
+    byte[] request = buildRequest(CERT);
+    for (int len = 0; len < request.length; len++) {
+      assertInvalid(Arrays.copyOf(request, len));
+    }
+  }
+
+  private static void assertInvalid(byte[] request) {
+    try {
+      OcspRequest.getSignature(request);
+      Assert.fail("EncodingException expected for " + Hex.encode(request));
+    } catch (EncodingException ex) {
+      // expected
+    }
+  }
+
+  private static byte[] buildRequest(byte[] cert) {
+    byte[] certs = tlv(0xA0, tlv(0x30, cert));
+    byte[] signature = tlv(0x30, ALGO, SIGNATURE, certs);
+    return tlv(0x30, tlv(0x30), tlv(0xA0, signature));
+  }
+
+  private static byte[] tlv(int tag, byte[]... contents) {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (byte[] m : contents) {
+      content.write(m, 0, m.length);
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(tag);
+    out.write(content.size()); // short form, the test data are shorter than 128 bytes
+    byte[] bytes = content.toByteArray();
+    out.write(bytes, 0, bytes.length);
+    return out.toByteArray();
+  }
+
+}
@@ -0,0 +1,190 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.ocsp.server.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * RevokedCertTable test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class RevokedCertTableTest {
+
+  @Test
+  public void testPutGetRemove() {
+    RevokedCertTable table = new RevokedCertTable(0);
+    BigInteger serial = BigInteger.valueOf(0x1234);
+    Assert.assertNull("entry before put", table.get(1, serial));
+
+    table.put(1, serial, newEntry(1));
+    assertEntry(table.get(1, serial), 1);
+    Assert.assertNull("entry of other issuer", table.get(2, serial));
+    Assert.assertEquals("size", 1, table.size());
+
+    // overwrite
+    table.put(1, serial, newEntry(2));
+    assertEntry(table.get(1, serial), 2);
+    Assert.assertEquals("size", 1, table.size());
+
+    Assert.assertTrue("remove", table.remove(1, serial));
+    Assert.assertFalse("remove again", table.remove(1, serial));
+    Assert.assertNull("entry after remove", table.get(1, serial));
+    Assert.assertEquals("size", 0, table.size());
+  }
+
+  @Test
+  public void testTombstones() {
+    RevokedCertTable table = new RevokedCertTable(0);
+    // many entries, so that the probe sequences pass deleted slots
+    for (int i = 1; i <= 600; i++) {
+      table.put(1, BigInteger.valueOf(i), newEntry(i));
+    }
+
+    for (int i = 1; i <= 600; i += 2) {
+      Assert.assertTrue("remove " + i, table.remove(1, BigInteger.valueOf(i)));
+    }
+
+    for (int i = 1; i <= 600; i++) {
+      RevokedCertTable.Entry entry = table.get(1, BigInteger.valueOf(i));
+      if (i % 2 == 1) {
+        Assert.assertNull("removed entry " + i, entry);
+      } else {
+        assertEntry(entry, i);
+      }
+    }
+
+    // reuse the deleted slots
+    for (int i = 1; i <= 600; i += 2) {
+      table.put(1, BigInteger.valueOf(i), newEntry(i + 1000));
+    }
+    Assert.assertEquals("size", 600, table.size());
+    for (int i = 1; i <= 600; i++) {
+      assertEntry(table.get(1, BigInteger.valueOf(i)), (i % 2 == 1) ? i + 1000 : i);
+    }
+  }
+
+  @Test
+  public void testRehash() {
+    RevokedCertTable table = new RevokedCertTable(0);
+    final int num = 20000;
+    for (int i = 1; i <= num; i++) {
+      table.put(i % 3, BigInteger.valueOf(i).shiftLeft(64), newEntry(i));
+    }
+
+    Assert.assertEquals("size", num, table.size());
+    for (int i = 1; i <= num; i++) {
+      assertEntry(table.get(i % 3, BigInteger.valueOf(i).shiftLeft(64)), i);
+    }
+  }
+
+  @Test
+  public void testSerialLength() {
+    RevokedCertTable table = new RevokedCertTable(0);
+    // 24 bytes, with the highest bit set
+    BigInteger maxSerial = BigInteger.ONE.shiftLeft(RevokedCertTable.MAX_SERIAL_LEN * 8)
+        .subtract(BigInteger.ONE);
+    Assert.assertTrue("serial of 24 bytes", RevokedCertTable.isSupported(maxSerial));
+    table.put(1, maxSerial, newEntry(1));
+    assertEntry(table.get(1, maxSerial), 1);
+
+    BigInteger longSerial = maxSerial.add(BigInteger.ONE);
+    Assert.assertFalse("serial of 25 bytes", RevokedCertTable.isSupported(longSerial));
+    Assert.assertNull("entry of long serial", table.get(1, longSerial));
+    Assert.assertFalse("remove long serial", table.remove(1, longSerial));
+    try {
+      table.put(1, longSerial, newEntry(2));
+      Assert.fail("IllegalArgumentException expected");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+
+    Assert.assertFalse("non-positive serial", RevokedCertTable.isSupported(BigInteger.ZERO));
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    RevokedCertTable table = new RevokedCertTable(0);
+    for (int i = 1; i <= 3000; i++) {
+      table.put(1, BigInteger.valueOf(i), newEntry(i));
+    }
+    table.remove(1, BigInteger.valueOf(10));
+    table.setLastUpdate(1234);
+    table.setLastFullRefresh(5678);
+    table.setIssuersDigest(-42);
+
+    File file = File.createTempFile("revokedcerts", ".bin");
+    try {
+      table.writeTo(file);
+      RevokedCertTable table2 = RevokedCertTable.readFrom(file);
+      Assert.assertEquals("size", table.size(), table2.size());
+      Assert.assertEquals("lastUpdate", 1234, table2.getLastUpdate());
+      Assert.assertEquals("lastFullRefresh", 5678, table2.getLastFullRefresh());
+      Assert.assertEquals("issuersDigest", -42, table2.getIssuersDigest());
+
+      Assert.assertNull("removed entry", table2.get(1, BigInteger.valueOf(10)));
+      for (int i = 1; i <= 3000; i++) {
+        if (i != 10) {
+          assertEntry(table2.get(1, BigInteger.valueOf(i)), i);
+        }
+      }
+
+      // the read table can be changed
+      table2.put(1, BigInteger.valueOf(10), newEntry(10));
+      assertEntry(table2.get(1, BigInteger.valueOf(10)), 10);
+
+      // corrupted file
+      byte[] content = Files.readAllBytes(file.toPath());
+      Files.write(file.toPath(),
+          Arrays.copyOf(content, content.length - 1));
+      try {
+        RevokedCertTable.readFrom(file);
+        Assert.fail("IOException expected");
+      } catch (IOException ex) {
+        // expected
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static RevokedCertTable.Entry newEntry(int value) {
+    return new RevokedCertTable.Entry(value, value % 11, value * 10L, value * 20L,
+        value * 30L, value * 40L);
+  }
+
+  private static void assertEntry(RevokedCertTable.Entry entry, int value) {
+    Assert.assertNotNull("entry " + value, entry);
+    Assert.assertEquals("crlId", value, entry.getCrlId());
+    Assert.assertEquals("reason", value % 11, entry.getReason());
+    Assert.assertEquals("revTime", value * 10L, entry.getRevTime());
+    Assert.assertEquals("invalTime", value * 20L, entry.getInvalTime());
+    Assert.assertEquals("notBefore", value * 30L, entry.getNotBefore());
+    Assert.assertEquals("notAfter", value * 40L, entry.getNotAfter());
+  }
+
+}
@@ -17,8 +17,10 @@
 
 package org.xipki.p11proxy.servlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -27,7 +29,6 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xipki.util.IoUtil;
 import org.xipki.util.LogUtil;
 
 /**
@@ -46,6 +47,9 @@ public class HttpProxyServlet extends HttpServlet {
 
   private static final String RESPONSE_MIMETYPE = "application/x-xipki-pkcs11";
 
+  // large enough for a batch of sign requests
+  private static final int MAX_REQUEST_LENGTH = 16 * 1024 * 1024;
+
   private final P11ProxyResponder responder;
 
   private LocalP11CryptServicePool localP11CryptServicePool;
@@ -71,7 +75,12 @@ public class HttpProxyServlet extends HttpServlet {
         return;
       }
 
-      byte[] requestBytes = IoUtil.read(req.getInputStream());
+      byte[] requestBytes = readRequest(req);
+      if (requestBytes == null) {
+        sendError(resp, HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        return;
+      }
+
       byte[] responseBytes = responder.processRequest(localP11CryptServicePool, requestBytes);
 
       if (logReqResp && LOG.isDebugEnabled()) {
@@ -96,6 +105,50 @@ public class HttpProxyServlet extends HttpServlet {
     }
   } // method doPost
 
+  @Override
+  public void destroy() {
+    responder.close();
+  }
+
+  /**
+   * Reads the request.
+   *
+   * @return the request, or {@code null} if it is longer than MAX_REQUEST_LENGTH.
+   */
+  private static byte[] readRequest(HttpServletRequest req) throws IOException {
+    int contentLength = req.getContentLength();
+    if (contentLength > MAX_REQUEST_LENGTH) {
+      LOG.warn("request too large: {} bytes", contentLength);
+      return null;
+    } else if (contentLength < 0) {
+      // read incrementally, the length is not known in advance
+      ByteArrayOutputStream bout = new ByteArrayOutputStream();
+      InputStream is = req.getInputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        if (bout.size() + read > MAX_REQUEST_LENGTH) {
+          LOG.warn("request too large: more than {} bytes", MAX_REQUEST_LENGTH);
+          return null;
+        }
+        bout.write(buffer, 0, read);
+      }
+      return bout.toByteArray();
+    }
+
+    byte[] bytes = new byte[contentLength];
+    InputStream is = req.getInputStream();
+    int offset = 0;
+    while (offset < contentLength) {
+      int readedByte = is.read(bytes, offset, contentLength - offset);
+      if (readedByte == -1) {
+        throw new EOFException("request too short: " + offset + " < " + contentLength);
+      }
+      offset += readedByte;
+    }
+    return bytes;
+  } // method readRequest
+
   public void setLocalP11CryptServicePool(LocalP11CryptServicePool localP11CryptServicePool) {
     this.localP11CryptServicePool = localP11CryptServicePool;
   }
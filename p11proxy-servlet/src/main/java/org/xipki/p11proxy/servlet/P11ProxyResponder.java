@@ -17,14 +17,27 @@
 
 package org.xipki.p11proxy.servlet;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.PublicKey;
 import java.security.cert.CertificateException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -64,15 +77,23 @@ import org.xipki.util.LogUtil;
  * @since 2.0.0
  */
 
-public class P11ProxyResponder {
+public class P11ProxyResponder implements Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(P11ProxyResponder.class);
 
+  private static final int MAX_SIGN_BATCH_SIZE = 1000;
+
   private static final Set<Short> actionsRequireNonNullRequest;
 
   private static final Set<Short> actionsRequireNullRequest;
 
   private final Set<Short> versions;
 
+  // one executor per slot, limited to the number of sessions of the slot
+  private final ConcurrentMap<P11Slot, ExecutorService> signExecutors =
+      new ConcurrentHashMap<>();
+
+  private final ThreadFactory signThreadFactory;
+
   static {
     Set<Short> actions = new HashSet<>();
     actions.add(P11ProxyConstants.ACTION_GET_SERVER_CAPS);
@@ -99,6 +120,7 @@ public class P11ProxyResponder {
     actions.add(P11ProxyConstants.ACTION_REMOVE_IDENTITY);
     actions.add(P11ProxyConstants.ACTION_REMOVE_OBJECTS);
     actions.add(P11ProxyConstants.ACTION_SIGN);
+    actions.add(P11ProxyConstants.ACTION_SIGN_BATCH);
     actions.add(P11ProxyConstants.ACTION_UPDATE_CERT);
     actions.add(P11ProxyConstants.ACTION_DIGEST_SECRETKEY);
     actions.add(P11ProxyConstants.ACTION_IMPORT_SECRET_KEY);
@@ -109,8 +131,30 @@ public class P11ProxyResponder {
   public P11ProxyResponder() {
     Set<Short> tmpVersions = new HashSet<>();
     tmpVersions.add(P11ProxyConstants.VERSION_V1_0);
+    tmpVersions.add(P11ProxyConstants.VERSION_V1_1);
     this.versions = Collections.unmodifiableSet(tmpVersions);
-  }
+
+    this.signThreadFactory = new ThreadFactory() {
+
+      private final AtomicInteger index = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "p11proxy-sign-" + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    };
+  } // constructor
+
+  @Override
+  public void close() {
+    for (ExecutorService executor : signExecutors.values()) {
+      executor.shutdownNow();
+    }
+    signExecutors.clear();
+  } // method close
 
   public Set<Short> versions() {
     return versions;
@@ -393,38 +437,26 @@ public class P11ProxyResponder {
         }
         case P11ProxyConstants.ACTION_SIGN: {
           ProxyMessage.SignTemplate signTemplate = ProxyMessage.SignTemplate.getInstance(content);
-          long mechanism = signTemplate.getMechanism().getMechanism();
-          ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
-
-          P11Params params = null;
-
-          if (asn1Params != null) {
-            switch (asn1Params.getTagNo()) {
-              case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
-                params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
-                break;
-              case ProxyMessage.P11Params.TAG_OPAQUE:
-                params = new P11ByteArrayParams(
-                    ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              case ProxyMessage.P11Params.TAG_IV:
-                params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
-                break;
-              default:
-                throw new BadAsn1ObjectException(
-                    "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
-            }
+          byte[] signature = sign(p11CryptService, signTemplate);
+          ASN1Object obj = new DEROctetString(signature);
+          return getSuccessResp(version, transactionId, action, obj);
+        }
+        case P11ProxyConstants.ACTION_SIGN_BATCH: {
+          if (version < P11ProxyConstants.VERSION_V1_1) {
+            LOG.error("ACTION_SIGN_BATCH is not supported in version {}", version);
+            return getResp(version, transactionId, P11ProxyConstants.RC_UNSUPPORTED_ACTION,
+                action);
           }
 
-          byte[] message = signTemplate.getMessage();
-          P11Identity identity = p11CryptService.getIdentity(signTemplate.getSlotId().getValue(),
-              signTemplate.getObjectId().getValue());
-          if (identity == null) {
-            return getResp(version, transactionId, P11ProxyConstants.RC_UNKNOWN_ENTITY, action);
+          List<ProxyMessage.SignTemplate> templates =
+              ProxyMessage.SignBatchTemplate.getInstance(content).getTemplates();
+          final int size = templates.size();
+          if (size == 0 || size > MAX_SIGN_BATCH_SIZE) {
+            LOG.error("invalid number of SignTemplates in ACTION_SIGN_BATCH: {}", size);
+            return getResp(version, transactionId, P11ProxyConstants.RC_BAD_REQUEST, action);
           }
 
-          byte[] signature = identity.sign(mechanism, params, message);
-          ASN1Object obj = new DEROctetString(signature);
+          ASN1Object obj = signBatch(p11CryptService, templates);
           return getSuccessResp(version, transactionId, action, obj);
         }
         case P11ProxyConstants.ACTION_UPDATE_CERT: {
@@ -445,18 +477,7 @@ public class P11ProxyResponder {
       return getResp(version, transactionId, P11ProxyConstants.RC_BAD_REQUEST, action);
     } catch (P11TokenException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
-      short rc;
-      if (ex instanceof P11UnknownEntityException) {
-        rc = P11ProxyConstants.RC_UNKNOWN_ENTITY;
-      } else if (ex instanceof P11DuplicateEntityException) {
-        rc = P11ProxyConstants.RC_DUPLICATE_ENTITY;
-      } else if (ex instanceof P11UnsupportedMechanismException) {
-        rc = P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
-      } else {
-        rc = P11ProxyConstants.RC_P11_TOKENERROR;
-      }
-
-      return getResp(version, transactionId, rc, action);
+      return getResp(version, transactionId, getReturnCode(ex), action);
     } catch (XiSecurityException | CertificateException | InvalidKeyException ex) {
       LogUtil.error(LOG, ex, buildErrorMsg(action, transactionId));
       return getResp(version, transactionId, P11ProxyConstants.RC_INTERNAL_ERROR, action);
@@ -466,6 +487,136 @@ public class P11ProxyResponder {
     }
   } // method processRequest
 
+  private static byte[] sign(P11CryptService p11CryptService,
+      ProxyMessage.SignTemplate signTemplate)
+          throws BadAsn1ObjectException, P11TokenException, XiSecurityException {
+    long mechanism = signTemplate.getMechanism().getMechanism();
+    ProxyMessage.P11Params asn1Params = signTemplate.getMechanism().getParams();
+
+    P11Params params = null;
+
+    if (asn1Params != null) {
+      switch (asn1Params.getTagNo()) {
+        case ProxyMessage.P11Params.TAG_RSA_PKCS_PSS:
+          params = ProxyMessage.RSAPkcsPssParams.getInstance(asn1Params).getPkcsPssParams();
+          break;
+        case ProxyMessage.P11Params.TAG_OPAQUE:
+          params = new P11ByteArrayParams(
+              ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        case ProxyMessage.P11Params.TAG_IV:
+          params = new P11IVParams(ASN1OctetString.getInstance(asn1Params).getOctets());
+          break;
+        default:
+          throw new BadAsn1ObjectException(
+              "unknown SignTemplate.params: unknown tag " + asn1Params.getTagNo());
+      }
+    }
+
+    byte[] message = signTemplate.getMessage();
+    P11Identity identity = p11CryptService.getIdentity(signTemplate.getSlotId().getValue(),
+        signTemplate.getObjectId().getValue());
+    if (identity == null) {
+      throw new P11UnknownEntityException("unknown identity");
+    }
+
+    return identity.sign(mechanism, params, message);
+  } // method sign
+
+  /**
+   * Signs the templates in parallel, the first one in the current thread. A failed template
+   * does not affect the others, its error is reported as return code in the result.
+   */
+  private ProxyMessage.SignBatchResult signBatch(final P11CryptService p11CryptService,
+      List<ProxyMessage.SignTemplate> templates) {
+    final int size = templates.size();
+    byte[][] signatures = new byte[size][];
+    short[] returnCodes = new short[size];
+
+    List<Future<byte[]>> futures = new ArrayList<>(size - 1);
+    for (int i = 1; i < size; i++) {
+      final ProxyMessage.SignTemplate template = templates.get(i);
+      ExecutorService executor;
+      try {
+        executor = getSignExecutor(getSlot(p11CryptService, template.getSlotId().getValue()));
+      } catch (Throwable th) {
+        returnCodes[i] = getReturnCode(th);
+        futures.add(null);
+        continue;
+      }
+
+      futures.add(executor.submit(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws Exception {
+          return sign(p11CryptService, template);
+        }
+      }));
+    }
+
+    try {
+      signatures[0] = sign(p11CryptService, templates.get(0));
+    } catch (Throwable th) {
+      returnCodes[0] = getReturnCode(th);
+    }
+
+    for (int i = 1; i < size; i++) {
+      Future<byte[]> future = futures.get(i - 1);
+      if (future == null) {
+        continue;
+      }
+
+      try {
+        signatures[i] = future.get();
+      } catch (ExecutionException ex) {
+        returnCodes[i] = getReturnCode(ex.getCause());
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        returnCodes[i] = P11ProxyConstants.RC_INTERNAL_ERROR;
+      }
+    }
+
+    return new ProxyMessage.SignBatchResult(signatures, returnCodes);
+  } // method signBatch
+
+  private ExecutorService getSignExecutor(P11Slot slot) {
+    ExecutorService executor = signExecutors.get(slot);
+    if (executor != null) {
+      return executor;
+    }
+
+    int numThreads = Math.max(1, slot.getMaxSessionCount());
+    ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(numThreads, numThreads,
+        60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), signThreadFactory);
+    newExecutor.allowCoreThreadTimeOut(true);
+
+    executor = signExecutors.putIfAbsent(slot, newExecutor);
+    if (executor == null) {
+      return newExecutor;
+    } else {
+      newExecutor.shutdown();
+      return executor;
+    }
+  } // method getSignExecutor
+
+  private static short getReturnCode(Throwable th) {
+    if (th instanceof P11UnknownEntityException) {
+      return P11ProxyConstants.RC_UNKNOWN_ENTITY;
+    } else if (th instanceof P11DuplicateEntityException) {
+      return P11ProxyConstants.RC_DUPLICATE_ENTITY;
+    } else if (th instanceof P11UnsupportedMechanismException) {
+      return P11ProxyConstants.RC_UNSUPPORTED_MECHANISM;
+    } else if (th instanceof P11TokenException) {
+      return P11ProxyConstants.RC_P11_TOKENERROR;
+    } else if (th instanceof BadAsn1ObjectException) {
+      return P11ProxyConstants.RC_BAD_REQUEST;
+    } else {
+      if (th != null) {
+        LogUtil.error(LOG, th, "could not sign the template in ACTION_SIGN_BATCH");
+      }
+      return P11ProxyConstants.RC_INTERNAL_ERROR;
+    }
+  } // method getReturnCode
+
   private static String buildErrorMsg(short action, byte[] transactionId) {
     return "could not process action " + P11ProxyConstants.getActionName(action)
         + " (tid=" + Hex.encode(transactionId) + ")";
@@ -96,6 +96,10 @@ public class ProxyServletFilter implements Filter {
 
   @Override
   public void destroy() {
+    if (servlet != null) {
+      servlet.destroy();
+    }
+
     if (securities != null) {
       securities.close();
     }
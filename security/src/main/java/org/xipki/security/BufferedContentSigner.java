@@ -0,0 +1,72 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.SignatureException;
+
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.operator.RuntimeOperatorException;
+import org.xipki.util.Args;
+
+/**
+ * {@link XiContentSigner} which collects the data to be signed and signs it at once via
+ * {@link ConcurrentContentSigner#sign(byte[])}. In contrast to a borrowed signer, no signer
+ * is held while the data is being written. Not thread-safe, use one instance per signature.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class BufferedContentSigner implements XiContentSigner {
+
+  private final ConcurrentContentSigner signer;
+
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+
+  public BufferedContentSigner(ConcurrentContentSigner signer) {
+    this.signer = Args.notNull(signer, "signer");
+  }
+
+  @Override
+  public AlgorithmIdentifier getAlgorithmIdentifier() {
+    return AlgorithmIdentifier.getInstance(signer.getEncodedAlgorithmIdentifier());
+  }
+
+  @Override
+  public byte[] getEncodedAlgorithmIdentifier() {
+    return signer.getEncodedAlgorithmIdentifier();
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    buffer.reset();
+    return buffer;
+  }
+
+  @Override
+  public byte[] getSignature() {
+    try {
+      return signer.sign(buffer.toByteArray());
+    } catch (NoIdleSignerException | SignatureException ex) {
+      throw new RuntimeOperatorException("could not sign: " + ex.getMessage(), ex);
+    }
+  }
+
+}
@@ -46,6 +46,26 @@ public interface ConcurrentContentSigner extends Closeable {
 
   boolean isMac();
 
+  /**
+   * Returns the encoded signature or MAC algorithm identifier. The default implementation
+   * takes it from a borrowed signer.
+   * @return the encoded algorithm identifier.
+   */
+  default byte[] getEncodedAlgorithmIdentifier() {
+    ConcurrentBagEntrySigner signer;
+    try {
+      signer = borrowSigner();
+    } catch (NoIdleSignerException ex) {
+      throw new IllegalStateException("could not borrow signer: " + ex.getMessage(), ex);
+    }
+
+    try {
+      return signer.value().getEncodedAlgorithmIdentifier();
+    } finally {
+      requiteSigner(signer);
+    }
+  } // method getEncodedAlgorithmIdentifier
+
   byte[] getSha1OfMacKey();
 
   /**
@@ -110,6 +130,15 @@ public interface ConcurrentContentSigner extends Closeable {
    */
   byte[][] sign(byte[][] data) throws NoIdleSignerException, SignatureException;
 
+  /**
+   * Whether {@link #sign(byte[][])} signs the data in one round trip to the backend, instead of
+   * one after another.
+   * @return whether several data can be signed in one round trip, default to false.
+   */
+  default boolean supportsBatchSign() {
+    return false;
+  }
+
   /**
    * Borrows a signer with implementation-dependent default timeout.
    * @return the signer
@@ -129,6 +158,14 @@ public interface ConcurrentContentSigner extends Closeable {
 
   void requiteSigner(ConcurrentBagEntrySigner signer);
 
+  /**
+   * Returns the number of signers which can be used concurrently.
+   * @return the number of signers, default to 1.
+   */
+  default int getParallelism() {
+    return 1;
+  }
+
   boolean isHealthy();
 
 }
@@ -53,6 +53,11 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   private static int defaultSignServiceTimeout = 10000; // 10 seconds
 
+  // 0 to sign directly without the SignService
+  private static int signServiceQueueSize = 0;
+
+  private static int signServiceMaxBatchSize = 8;
+
   private final ConcurrentBag<ConcurrentBagEntrySigner> signers = new ConcurrentBag<>();
 
   private final String name;
@@ -67,6 +72,10 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   private final AlgorithmCode algorithmCode;
 
+  private final byte[] encodedAlgorithmIdentifier;
+
+  private volatile SignService signService;
+
   private PublicKey publicKey;
 
   private X509Cert[] certificateChain;
@@ -85,6 +94,11 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
         defaultSignServiceTimeout = vi;
       }
     }
+
+    signServiceQueueSize = getIntProperty("org.xipki.security.signservice.queueSize",
+        signServiceQueueSize, 0);
+    signServiceMaxBatchSize = getIntProperty("org.xipki.security.signservice.maxBatchSize",
+        signServiceMaxBatchSize, 1);
   } // method static
 
   public DfltConcurrentContentSigner(boolean mac, List<XiContentSigner> signers)
@@ -100,6 +114,7 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     AlgorithmIdentifier algorithmIdentifier = signers.get(0).getAlgorithmIdentifier();
     this.algorithmName = AlgorithmUtil.getSigOrMacAlgoName(algorithmIdentifier);
     this.algorithmCode = AlgorithmUtil.getSigOrMacAlgoCode(algorithmIdentifier);
+    this.encodedAlgorithmIdentifier = signers.get(0).getEncodedAlgorithmIdentifier();
 
     for (XiContentSigner signer : signers) {
       this.signers.add(new ConcurrentBagEntrySigner(signer));
@@ -139,6 +154,31 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     return algorithmCode;
   }
 
+  @Override
+  public byte[] getEncodedAlgorithmIdentifier() {
+    return Arrays.copyOf(encodedAlgorithmIdentifier, encodedAlgorithmIdentifier.length);
+  }
+
+  /**
+   * Returns the sign service used by {@link #sign(byte[])}.
+   *
+   * @return the sign service, or {@code null} if the data are signed directly.
+   */
+  public SignService getSignService() {
+    if (signServiceQueueSize < 1) {
+      return null;
+    }
+
+    if (signService == null) {
+      synchronized (this) {
+        if (signService == null) {
+          signService = new SignService(this, signServiceQueueSize, signServiceMaxBatchSize);
+        }
+      }
+    }
+    return signService;
+  } // method getSignService
+
   @Override
   public ConcurrentBagEntrySigner borrowSigner() throws NoIdleSignerException {
     return borrowSigner(defaultSignServiceTimeout);
@@ -210,6 +250,11 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     return certificateChain;
   }
 
+  @Override
+  public int getParallelism() {
+    return signers.size();
+  }
+
   @Override
   public boolean isHealthy() {
     ConcurrentBagEntrySigner signer = null;
@@ -236,10 +281,18 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
 
   @Override
   public void close() {
+    if (signService != null) {
+      signService.close();
+    }
   }
 
   @Override
   public byte[] sign(byte[] data) throws NoIdleSignerException, SignatureException {
+    SignService service = getSignService();
+    if (service != null) {
+      return service.sign(data, defaultSignServiceTimeout);
+    }
+
     ConcurrentBagEntrySigner signer = borrowSigner();
     try {
       OutputStream signatureStream = signer.value().getOutputStream();
@@ -280,4 +333,25 @@ public class DfltConcurrentContentSigner implements ConcurrentContentSigner {
     return signatures;
   } // method sign
 
+  private static int getIntProperty(String propKey, int dfltValue, int minValue) {
+    String str = System.getProperty(propKey);
+    if (str == null) {
+      return dfltValue;
+    }
+
+    try {
+      int vi = Integer.parseInt(str.trim());
+      if (vi < minValue) {
+        LOG.error("invalid {}: {}", propKey, vi);
+        return dfltValue;
+      }
+
+      LOG.info("use {}: {}", propKey, vi);
+      return vi;
+    } catch (NumberFormatException ex) {
+      LOG.error("invalid {}: {}", propKey, str);
+      return dfltValue;
+    }
+  } // method getIntProperty
+
 }
@@ -47,6 +47,7 @@ import org.xipki.security.util.KeyUtil;
 import org.xipki.security.util.SignerUtil;
 import org.xipki.util.Args;
 import org.xipki.util.LogUtil;
+import org.xipki.util.LruCache;
 import org.xipki.util.ObjectCreationException;
 
 /**
@@ -60,6 +61,8 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
 
   private static final Logger LOG = LoggerFactory.getLogger(SecurityFactoryImpl.class);
 
+  private static final int DFLT_KEY_CACHE_SIZE = 1000;
+
   private int defaultSignerParallelism = 32;
 
   private PasswordResolver passwordResolver;
@@ -70,6 +73,14 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
 
   private boolean strongRandom4SignEnabled;
 
+  /**
+   * The ContentVerifierProviders of certificates, e.g. of the requestors and OCSP signers,
+   * identified by the SHA-256 hash of the encoded SubjectPublicKeyInfo. The providers create a
+   * new ContentVerifier for each call of get(), hence they can be shared by several threads.
+   */
+  private final LruCache<String, ContentVerifierProvider> verifierProviders =
+      new LruCache<>(DFLT_KEY_CACHE_SIZE);
+
   public SecurityFactoryImpl() {
   }
 
@@ -106,6 +117,26 @@ public class SecurityFactoryImpl extends AbstractSecurityFactory {
     return signer;
   }
 
+  @Override
+  public ContentVerifierProvider getContentVerifierProvider(X509Cert cert)
+      throws InvalidKeyException {
+    // only the keys of certificates are cached, the keys of CSRs and POPOs are used only once.
+    PublicKey publicKey = Args.notNull(cert, "cert").getPublicKey();
+    byte[] encodedKey = publicKey.getEncoded();
+    if (encodedKey == null) {
+      return SignerUtil.getContentVerifierProvider(publicKey, null);
+    }
+
+    String keyId = HashAlgo.SHA256.base64Hash(encodedKey);
+    ContentVerifierProvider provider = verifierProviders.get(keyId);
+    if (provider == null) {
+      // the same provider may be built concurrently by several threads, this is harmless.
+      provider = SignerUtil.getContentVerifierProvider(publicKey, null);
+      verifierProviders.put(keyId, provider);
+    }
+    return provider;
+  } // method getContentVerifierProvider
+
   @Override
   public ContentVerifierProvider getContentVerifierProvider(PublicKey publicKey,
       DHSigStaticKeyCertPair ownerKeyAndCert) throws InvalidKeyException {
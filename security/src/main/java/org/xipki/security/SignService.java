@@ -0,0 +1,473 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security;
+
+import java.io.Closeable;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Signing service on top of a {@link ConcurrentContentSigner}. The requests are put in a
+ * bounded queue and processed by as many worker threads as the signer has parallelism. If the
+ * signer {@link ConcurrentContentSigner#supportsBatchSign() supports batch signing}, each worker
+ * takes all waiting requests, up to the maximal batch size, and signs them in one round trip.
+ * The more requests are waiting, the larger the batches are. Otherwise, since one worker signs
+ * its requests one after another, the waiting requests are shared among the idle workers.
+ *
+ * <p>If the queue is full, new requests are rejected immediately instead of waiting for an idle
+ * signer.
+ *
+ * <p>The number of active workers is adapted to the backend: a worker is added while the sign
+ * time per request stays close to the lowest observed one and requests are waiting; workers are
+ * removed if the sign time rises above twice the lowest one, i.e. the backend is saturated.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+public class SignService implements Closeable {
+
+  /**
+   * Histogram of durations with exponential buckets: the bucket i counts the durations in
+   * [2<sup>i</sup>, 2<sup>i+1</sup>) microseconds, bucket 0 counts also durations below 1
+   * microsecond.
+   */
+  public static class Histogram {
+
+    private static final int NUM_BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    public void record(long nanos) {
+      long micros = Math.max(1, nanos / 1000);
+      int idx = Math.min(NUM_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+      buckets.incrementAndGet(idx);
+      count.incrementAndGet();
+      sumNanos.addAndGet(nanos);
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getMeanMicros() {
+      long cnt = count.get();
+      return (cnt == 0) ? 0 : sumNanos.get() / cnt / 1000;
+    }
+
+    public long[] getBuckets() {
+      long[] ret = new long[NUM_BUCKETS];
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        ret[i] = buckets.get(i);
+      }
+      return ret;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile.
+     *
+     * @param percentile
+     *          Percentile, between 0 and 100.
+     * @return the upper bound in microseconds.
+     */
+    public long getPercentileMicros(double percentile) {
+      long[] counts = getBuckets();
+      long total = 0;
+      for (long c : counts) {
+        total += c;
+      }
+
+      if (total == 0) {
+        return 0;
+      }
+
+      long threshold = (long) Math.ceil(total * percentile / 100);
+      long sum = 0;
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        sum += counts[i];
+        if (sum >= threshold) {
+          return 1L << (i + 1);
+        }
+      }
+      return 1L << NUM_BUCKETS;
+    } // method getPercentileMicros
+
+    @Override
+    public String toString() {
+      return "count=" + getCount() + ", mean=" + getMeanMicros() + "us, p50<="
+          + getPercentileMicros(50) + "us, p99<=" + getPercentileMicros(99) + "us";
+    }
+
+  } // class Histogram
+
+  private static class Request {
+
+    private static final int WAITING = 0;
+
+    private static final int PROCESSING = 1;
+
+    private static final int CANCELLED = 2;
+
+    private final byte[] data;
+
+    private final long enqueueTime = System.nanoTime();
+
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private byte[] signature;
+
+    private Exception failure;
+
+    private Request(byte[] data) {
+      this.data = data;
+    }
+
+    private void complete(byte[] signature, Exception failure) {
+      this.signature = signature;
+      this.failure = failure;
+      done.countDown();
+    }
+
+  } // class Request
+
+  private static final Logger LOG = LoggerFactory.getLogger(SignService.class);
+
+  // sign time per request, above which the backend is regarded as saturated, relative to the
+  // lowest observed one
+  private static final int LATENCY_TOLERANCE = 2;
+
+  // number of samples after which the lowest sign time is measured again
+  private static final int LATENCY_WINDOW = 1000;
+
+  private final ConcurrentContentSigner signer;
+
+  private final int maxBatchSize;
+
+  private final BlockingQueue<Request> queue;
+
+  private final ExecutorService workers;
+
+  private final Histogram queueWaitHistogram = new Histogram();
+
+  private final Histogram signTimeHistogram = new Histogram();
+
+  private final int maxWorkers;
+
+  private final AtomicInteger busyWorkers = new AtomicInteger(0);
+
+  private final Object limitLock = new Object();
+
+  // the fields below are guarded by limitLock
+  private int concurrencyLimit;
+
+  private long minLatencyNanos = Long.MAX_VALUE;
+
+  private int numLatencySamples;
+
+  private volatile boolean closed;
+
+  public SignService(ConcurrentContentSigner signer, int queueSize, int maxBatchSize) {
+    this.signer = Args.notNull(signer, "signer");
+    this.queue = new ArrayBlockingQueue<>(Args.positive(queueSize, "queueSize"));
+    this.maxBatchSize = Args.positive(maxBatchSize, "maxBatchSize");
+
+    final String threadPrefix = "signservice-" + signer.getName() + "-";
+    final int numWorkers = Math.max(1, signer.getParallelism());
+    this.maxWorkers = numWorkers;
+    this.concurrencyLimit = numWorkers;
+    this.workers = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+
+      private final AtomicInteger index = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, threadPrefix + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    });
+
+    for (int i = 0; i < numWorkers; i++) {
+      final int index = i;
+      workers.submit(new Runnable() {
+        @Override
+        public void run() {
+          work(index);
+        }
+      });
+    }
+  } // constructor
+
+  /**
+   * Signs the data.
+   *
+   * @param data
+   *          Data to be signed. Must not be {@code null}.
+   * @param timeoutMs
+   *          Maximal time in milliseconds to wait until the signing starts, 0 for infinitely.
+   * @return the signature.
+   * @throws NoIdleSignerException
+   *           If the queue is full or the signing has not started within the timeout.
+   * @throws SignatureException
+   *           If the data could not be signed.
+   */
+  public byte[] sign(byte[] data, int timeoutMs)
+      throws NoIdleSignerException, SignatureException {
+    Args.notNull(data, "data");
+    if (closed) {
+      throw new NoIdleSignerException("sign service is closed");
+    }
+
+    Request request = new Request(data);
+    if (!queue.offer(request)) {
+      throw new NoIdleSignerException("sign queue is full");
+    }
+
+    try {
+      boolean done = (timeoutMs == 0) ? waitInfinitely(request)
+          : request.done.await(timeoutMs, TimeUnit.MILLISECONDS);
+
+      if (!done) {
+        if (request.state.compareAndSet(Request.WAITING, Request.CANCELLED)) {
+          queue.remove(request);
+          throw new NoIdleSignerException("no idle signer available");
+        }
+
+        // the signing has already started
+        request.done.await();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      request.state.compareAndSet(Request.WAITING, Request.CANCELLED);
+      throw new NoIdleSignerException("interrupted", ex);
+    }
+
+    if (request.failure instanceof NoIdleSignerException) {
+      throw (NoIdleSignerException) request.failure;
+    } else if (request.failure instanceof SignatureException) {
+      throw (SignatureException) request.failure;
+    } else if (request.failure != null) {
+      throw new SignatureException(request.failure.getMessage(), request.failure);
+    }
+
+    return request.signature;
+  } // method sign
+
+  public int getQueueLength() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the current number of workers which may sign concurrently.
+   *
+   * @return the concurrency limit, between 1 and the parallelism of the signer.
+   */
+  public int getConcurrencyLimit() {
+    synchronized (limitLock) {
+      return concurrencyLimit;
+    }
+  }
+
+  /**
+   * Returns the histogram of the time between enqueuing a request and the start of its signing.
+   *
+   * @return the histogram of the queue-wait time.
+   */
+  public Histogram getQueueWaitHistogram() {
+    return queueWaitHistogram;
+  }
+
+  /**
+   * Returns the histogram of the time to sign a batch of requests.
+   *
+   * @return the histogram of the sign time.
+   */
+  public Histogram getSignTimeHistogram() {
+    return signTimeHistogram;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+
+    closed = true;
+    workers.shutdownNow();
+
+    Request request;
+    while ((request = queue.poll()) != null) {
+      request.complete(null, new NoIdleSignerException("sign service is closed"));
+    }
+
+    LOG.info("sign service of signer {}: queue-wait {}; sign-time {}; concurrency-limit {}/{}",
+        signer.getName(), queueWaitHistogram, signTimeHistogram, getConcurrencyLimit(),
+        maxWorkers);
+  } // method close
+
+  private static boolean waitInfinitely(Request request) throws InterruptedException {
+    request.done.await();
+    return true;
+  }
+
+  private void work(int index) {
+    List<Request> batch = new ArrayList<>(maxBatchSize);
+    while (!closed) {
+      try {
+        // the workers above the concurrency limit wait
+        synchronized (limitLock) {
+          while (index >= concurrencyLimit && !closed) {
+            limitLock.wait(100);
+          }
+        }
+
+        Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, getBatchSize() - 1);
+        busyWorkers.incrementAndGet();
+        try {
+          signBatch(batch);
+        } finally {
+          busyWorkers.decrementAndGet();
+        }
+      } catch (InterruptedException ex) {
+        if (!closed) {
+          LOG.warn("interrupted: {}", ex.getMessage());
+        }
+      } catch (Throwable th) {
+        LogUtil.error(LOG, th, "error while signing");
+        for (Request request : batch) {
+          request.complete(null, new SignatureException(th.getMessage(), th));
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  } // method work
+
+  /**
+   * Returns the maximal number of requests the calling worker takes at once, including the one
+   * it has already taken.
+   */
+  private int getBatchSize() {
+    if (signer.supportsBatchSign()) {
+      return maxBatchSize;
+    }
+
+    // the calling worker is not yet busy
+    int idleWorkers = Math.max(1, getConcurrencyLimit() - busyWorkers.get());
+    int waiting = queue.size() + 1;
+    return Math.min(maxBatchSize, (waiting + idleWorkers - 1) / idleWorkers);
+  } // method getBatchSize
+
+  private void signBatch(List<Request> batch) {
+    long start = System.nanoTime();
+
+    // skip the requests given up by the callers
+    Iterator<Request> it = batch.iterator();
+    while (it.hasNext()) {
+      Request request = it.next();
+      if (request.state.compareAndSet(Request.WAITING, Request.PROCESSING)) {
+        queueWaitHistogram.record(start - request.enqueueTime);
+      } else {
+        it.remove();
+      }
+    }
+
+    int size = batch.size();
+    if (size == 0) {
+      return;
+    }
+
+    byte[][] datas = new byte[size][];
+    for (int i = 0; i < size; i++) {
+      datas[i] = batch.get(i).data;
+    }
+
+    byte[][] signatures;
+    try {
+      signatures = signer.sign(datas);
+    } catch (NoIdleSignerException | SignatureException ex) {
+      signTimeHistogram.record(System.nanoTime() - start);
+      for (Request request : batch) {
+        request.complete(null, ex);
+      }
+      return;
+    }
+
+    long duration = System.nanoTime() - start;
+    signTimeHistogram.record(duration);
+    adaptConcurrencyLimit(duration / size);
+
+    for (int i = 0; i < size; i++) {
+      batch.get(i).complete(signatures[i], null);
+    }
+  } // method signBatch
+
+  private void adaptConcurrencyLimit(long latencyNanos) {
+    synchronized (limitLock) {
+      if (++numLatencySamples >= LATENCY_WINDOW) {
+        // the backend may have changed, e.g. another application uses the HSM now
+        numLatencySamples = 0;
+        minLatencyNanos = latencyNanos;
+      } else {
+        minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+      }
+
+      if (latencyNanos > minLatencyNanos * LATENCY_TOLERANCE) {
+        if (concurrencyLimit > 1) {
+          // multiplicative decrease
+          concurrencyLimit = Math.max(1, Math.min(concurrencyLimit - 1, concurrencyLimit * 9 / 10));
+        }
+      } else if (concurrencyLimit < maxWorkers && !queue.isEmpty()) {
+        // additive increase
+        concurrencyLimit++;
+        limitLock.notifyAll();
+      }
+    }
+  } // method adaptConcurrencyLimit
+
+}
@@ -0,0 +1,348 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.asn1;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.operator.ContentSigner;
+import org.xipki.security.XiContentSigner;
+import org.xipki.util.Args;
+
+/**
+ * Encoder of X.509 certificates (version 3) which writes the DER encoded fields of the
+ * TBSCertificate directly into a byte array, instead of building the ASN.1 object tree
+ * as X509v3CertificateBuilder does. The extensions are kept in their encoded form, and the
+ * certificate can be built several times, e.g. the pre-certificate and then the final
+ * certificate with SCTs, reusing the buffer of the TBSCertificate.
+ *
+ * <p>The result is identical to the one of X509v3CertificateBuilder. Not thread-safe.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+public class CertificateEncoder {
+
+  private static final byte TAG_INTEGER = 0x02;
+
+  private static final byte TAG_BIT_STRING = 0x03;
+
+  private static final byte TAG_OCTET_STRING = 0x04;
+
+  private static final byte TAG_UTC_TIME = 0x17;
+
+  private static final byte TAG_GENERALIZED_TIME = 0x18;
+
+  private static final byte TAG_SEQUENCE = 0x30;
+
+  private static final byte TAG_EXPLICIT_3 = (byte) 0xA3;
+
+  // [0] EXPLICIT INTEGER v3(2)
+  private static final byte[] VERSION_V3 = {(byte) 0xA0, 0x03, TAG_INTEGER, 0x01, 0x02};
+
+  private static final byte[] CRITICAL = {0x01, 0x01, (byte) 0xFF};
+
+  private static final ConcurrentMap<ASN1ObjectIdentifier, byte[]> ENCODED_OIDS =
+      new ConcurrentHashMap<>();
+
+  private final byte[] encodedIssuer;
+
+  private final byte[] serialNumber;
+
+  private final Date notBefore;
+
+  private final Date notAfter;
+
+  private final byte[] encodedSubject;
+
+  private final byte[] encodedPublicKeyInfo;
+
+  private final Map<ASN1ObjectIdentifier, byte[]> extensions = new LinkedHashMap<>();
+
+  private byte[] buffer;
+
+  /**
+   * Constructor.
+   *
+   * @param issuer
+   *          Issuer of the certificate. Must not be {@code null}.
+   * @param serialNumber
+   *          Serial number of the certificate. Must not be {@code null}.
+   * @param notBefore
+   *          notBefore of the certificate. Must not be {@code null}.
+   * @param notAfter
+   *          notAfter of the certificate. Must not be {@code null}.
+   * @param subject
+   *          Subject of the certificate. Must not be {@code null}.
+   * @param publicKeyInfo
+   *          Public key of the certificate. Must not be {@code null}.
+   * @throws IOException
+   *           If the names or the public key could not be encoded.
+   */
+  public CertificateEncoder(X500Name issuer, BigInteger serialNumber, Date notBefore,
+      Date notAfter, X500Name subject, SubjectPublicKeyInfo publicKeyInfo) throws IOException {
+    this.encodedIssuer = Args.notNull(issuer, "issuer").getEncoded(ASN1Encoding.DER);
+    this.serialNumber = Args.notNull(serialNumber, "serialNumber").toByteArray();
+    this.notBefore = Args.notNull(notBefore, "notBefore");
+    this.notAfter = Args.notNull(notAfter, "notAfter");
+    this.encodedSubject = Args.notNull(subject, "subject").getEncoded(ASN1Encoding.DER);
+    this.encodedPublicKeyInfo =
+        Args.notNull(publicKeyInfo, "publicKeyInfo").getEncoded(ASN1Encoding.DER);
+  } // constructor
+
+  /**
+   * Adds an extension.
+   *
+   * @param oid
+   *          Type of the extension. Must not be {@code null}.
+   * @param critical
+   *          Whether the extension is critical.
+   * @param encodedValue
+   *          DER encoded value of the extension. Must not be {@code null}.
+   */
+  public void addExtension(ASN1ObjectIdentifier oid, boolean critical, byte[] encodedValue) {
+    Args.notNull(oid, "oid");
+    Args.notNull(encodedValue, "encodedValue");
+    if (extensions.containsKey(oid)) {
+      throw new IllegalArgumentException("extension " + oid.getId() + " already added");
+    }
+
+    byte[] encodedOid = getEncodedOid(oid);
+    int bodyLen = encodedOid.length + (critical ? CRITICAL.length : 0)
+        + getLen(encodedValue.length);
+
+    byte[] encoded = new byte[getLen(bodyLen)];
+    int idx = writeHeader(TAG_SEQUENCE, bodyLen, encoded, 0);
+    idx += arraycopy(encodedOid, encoded, idx);
+    if (critical) {
+      idx += arraycopy(CRITICAL, encoded, idx);
+    }
+    idx += writeHeader(TAG_OCTET_STRING, encodedValue.length, encoded, idx);
+    arraycopy(encodedValue, encoded, idx);
+
+    extensions.put(oid, encoded);
+  } // method addExtension
+
+  public void addExtension(ASN1ObjectIdentifier oid, boolean critical, ASN1Encodable value)
+      throws IOException {
+    Args.notNull(value, "value");
+    addExtension(oid, critical, value.toASN1Primitive().getEncoded(ASN1Encoding.DER));
+  }
+
+  public void removeExtension(ASN1ObjectIdentifier oid) {
+    if (extensions.remove(oid) == null) {
+      throw new IllegalArgumentException("extension " + oid.getId() + " not present");
+    }
+  }
+
+  /**
+   * Builds and signs the certificate.
+   *
+   * @param signer
+   *          Signer to sign the certificate. Must not be {@code null}.
+   * @return the DER encoded certificate.
+   * @throws IOException
+   *           If the TBSCertificate could not be written to the signer.
+   */
+  public byte[] build(ContentSigner signer) throws IOException {
+    Args.notNull(signer, "signer");
+    byte[] sigAlgId = (signer instanceof XiContentSigner)
+        ? ((XiContentSigner) signer).getEncodedAlgorithmIdentifier()
+        : signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+
+    int tbsLen = writeTbsCertificate(sigAlgId);
+
+    OutputStream signerOut = signer.getOutputStream();
+    signerOut.write(buffer, 0, tbsLen);
+    signerOut.close();
+    byte[] signature = signer.getSignature();
+
+    int signatureValueBodyLen = 1 + signature.length;
+    int bodyLen = tbsLen + sigAlgId.length + getLen(signatureValueBodyLen);
+    byte[] encoded = new byte[getLen(bodyLen)];
+
+    int idx = writeHeader(TAG_SEQUENCE, bodyLen, encoded, 0);
+    System.arraycopy(buffer, 0, encoded, idx, tbsLen);
+    idx += tbsLen;
+    idx += arraycopy(sigAlgId, encoded, idx);
+    idx += writeHeader(TAG_BIT_STRING, signatureValueBodyLen, encoded, idx);
+    // no unused bits
+    encoded[idx++] = 0;
+    arraycopy(signature, encoded, idx);
+    return encoded;
+  } // method build
+
+  /**
+   * Writes the TBSCertificate to the buffer.
+   * @return the length of the TBSCertificate.
+   */
+  private int writeTbsCertificate(byte[] sigAlgId) {
+    int validityBodyLen = getTimeLen(notBefore) + getTimeLen(notAfter);
+
+    int extnsBodyLen = 0;
+    for (byte[] extn : extensions.values()) {
+      extnsBodyLen += extn.length;
+    }
+
+    int bodyLen = VERSION_V3.length + getLen(serialNumber.length) + sigAlgId.length
+        + encodedIssuer.length + getLen(validityBodyLen) + encodedSubject.length
+        + encodedPublicKeyInfo.length;
+    if (extnsBodyLen > 0) {
+      bodyLen += getLen(getLen(extnsBodyLen));
+    }
+
+    int tbsLen = getLen(bodyLen);
+    if (buffer == null || buffer.length < tbsLen) {
+      buffer = new byte[tbsLen];
+    }
+
+    byte[] out = buffer;
+    int idx = writeHeader(TAG_SEQUENCE, bodyLen, out, 0);
+    idx += arraycopy(VERSION_V3, out, idx);
+
+    idx += writeHeader(TAG_INTEGER, serialNumber.length, out, idx);
+    idx += arraycopy(serialNumber, out, idx);
+
+    idx += arraycopy(sigAlgId, out, idx);
+    idx += arraycopy(encodedIssuer, out, idx);
+
+    idx += writeHeader(TAG_SEQUENCE, validityBodyLen, out, idx);
+    idx += writeTime(notBefore, out, idx);
+    idx += writeTime(notAfter, out, idx);
+
+    idx += arraycopy(encodedSubject, out, idx);
+    idx += arraycopy(encodedPublicKeyInfo, out, idx);
+
+    if (extnsBodyLen > 0) {
+      idx += writeHeader(TAG_EXPLICIT_3, getLen(extnsBodyLen), out, idx);
+      idx += writeHeader(TAG_SEQUENCE, extnsBodyLen, out, idx);
+      for (byte[] extn : extensions.values()) {
+        idx += arraycopy(extn, out, idx);
+      }
+    }
+
+    return idx;
+  } // method writeTbsCertificate
+
+  private static byte[] getEncodedOid(ASN1ObjectIdentifier oid) {
+    byte[] encoded = ENCODED_OIDS.get(oid);
+    if (encoded == null) {
+      try {
+        encoded = oid.getEncoded(ASN1Encoding.DER);
+      } catch (IOException ex) {
+        throw new IllegalArgumentException("could not encode OID " + oid.getId(), ex);
+      }
+      ENCODED_OIDS.put(oid, encoded);
+    }
+    return encoded;
+  } // method getEncodedOid
+
+  private static boolean isUtcTime(int year) {
+    // RFC 5280, section 4.1.2.5
+    return year >= 1950 && year < 2050;
+  }
+
+  private static int getTimeLen(Date time) {
+    int year = time.toInstant().atOffset(ZoneOffset.UTC).getYear();
+    // YYMMDDHHMMSSZ or YYYYMMDDHHMMSSZ
+    return isUtcTime(year) ? 15 : 17;
+  }
+
+  private static int writeTime(Date time, byte[] out, int offset) {
+    OffsetDateTime offsetTime = time.toInstant().atOffset(ZoneOffset.UTC);
+    int year = offsetTime.getYear();
+
+    int idx = offset;
+    if (isUtcTime(year)) {
+      out[idx++] = TAG_UTC_TIME;
+      out[idx++] = 13;
+    } else {
+      out[idx++] = TAG_GENERALIZED_TIME;
+      out[idx++] = 15;
+      out[idx++] = (byte) ('0' + year / 1000);
+      out[idx++] = (byte) ('0' + year / 100 % 10);
+    }
+
+    idx += writeTwoDigits(year % 100, out, idx);
+    idx += writeTwoDigits(offsetTime.getMonthValue(), out, idx);
+    idx += writeTwoDigits(offsetTime.getDayOfMonth(), out, idx);
+    idx += writeTwoDigits(offsetTime.getHour(), out, idx);
+    idx += writeTwoDigits(offsetTime.getMinute(), out, idx);
+    idx += writeTwoDigits(offsetTime.getSecond(), out, idx);
+    out[idx++] = 'Z';
+    return idx - offset;
+  } // method writeTime
+
+  private static int writeTwoDigits(int value, byte[] out, int offset) {
+    out[offset] = (byte) ('0' + value / 10);
+    out[offset + 1] = (byte) ('0' + value % 10);
+    return 2;
+  }
+
+  private static int getLen(int bodyLen) {
+    return getHeaderLen(bodyLen) + bodyLen;
+  }
+
+  private static int getHeaderLen(int bodyLen) {
+    if (bodyLen < 0x80) {
+      return 2;
+    } else if (bodyLen < 0x100) {
+      return 3;
+    } else if (bodyLen < 0x10000) {
+      return 4;
+    } else if (bodyLen < 0x1000000) {
+      return 5;
+    } else {
+      return 6;
+    }
+  } // method getHeaderLen
+
+  private static int writeHeader(byte tag, int bodyLen, byte[] out, int offset) {
+    int idx = offset;
+    out[idx++] = tag;
+    int lenBytes = getHeaderLen(bodyLen) - 2;
+    if (lenBytes == 0) {
+      out[idx++] = (byte) bodyLen;
+    } else {
+      out[idx++] = (byte) (0x80 | lenBytes);
+      for (int i = lenBytes - 1; i >= 0; i--) {
+        out[idx++] = (byte) (bodyLen >> (8 * i));
+      }
+    }
+    return idx - offset;
+  } // method writeHeader
+
+  private static int arraycopy(byte[] src, byte[] dest, int destPos) {
+    System.arraycopy(src, 0, dest, destPos, src.length);
+    return src.length;
+  }
+
+}
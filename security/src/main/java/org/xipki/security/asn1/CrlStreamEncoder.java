@@ -0,0 +1,472 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.asn1;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERBitString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.operator.ContentSigner;
+import org.xipki.util.Args;
+import org.xipki.util.IoUtil;
+
+/**
+ * Both BouncyCastle and JDK build the whole CRL in memory before the signing. This class
+ * implements a stream based encoder of CRL (version 2) whose memory consumption does not
+ * depend on the number of revoked certificates.
+ *
+ * <p>The revoked certificates are sorted by the serial number in runs of limited size, which
+ * are written to temporary files, and merged while writing the revokedCertificates. The
+ * TBSCertList is streamed to the signer and then, together with the signature, to the
+ * CRL file. The output can be parsed by {@link CrlStreamParser}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+public class CrlStreamEncoder implements Closeable {
+
+  /**
+   * Encoded revokedCertificate with its serial number.
+   */
+  private static class RevokedCert {
+
+    private final BigInteger serialNumber;
+
+    private final byte[] encoded;
+
+    private RevokedCert(BigInteger serialNumber, byte[] encoded) {
+      this.serialNumber = serialNumber;
+      this.encoded = encoded;
+    }
+
+  } // class RevokedCert
+
+  /**
+   * Reader of the sorted revokedCertificates in a temporary file.
+   */
+  private static class RunReader implements Closeable {
+
+    private final BufferedInputStream instream;
+
+    private RevokedCert current;
+
+    private RunReader(File file) throws IOException {
+      this.instream = new BufferedInputStream(new FileInputStream(file));
+      next();
+    }
+
+    private void next() throws IOException {
+      instream.mark(1);
+      if (instream.read() == -1) {
+        current = null;
+        return;
+      }
+      instream.reset();
+
+      byte[] encoded = Asn1StreamParser.readBlock(
+          Asn1StreamParser.TAG_CONSTRUCTED_SEQUENCE, instream, "revokedCertificate");
+      BigInteger serialNumber =
+          ASN1Integer.getInstance(ASN1Sequence.getInstance(encoded).getObjectAt(0))
+            .getPositiveValue();
+      current = new RevokedCert(serialNumber, encoded);
+    }
+
+    @Override
+    public void close() throws IOException {
+      instream.close();
+    }
+
+  } // class RunReader
+
+  private static final Comparator<RevokedCert> SERIAL_COMPARATOR =
+      new Comparator<RevokedCert>() {
+        @Override
+        public int compare(RevokedCert o1, RevokedCert o2) {
+          return o1.serialNumber.compareTo(o2.serialNumber);
+        }
+      };
+
+  private static final Comparator<RunReader> RUN_COMPARATOR =
+      new Comparator<RunReader>() {
+        @Override
+        public int compare(RunReader o1, RunReader o2) {
+          return SERIAL_COMPARATOR.compare(o1.current, o2.current);
+        }
+      };
+
+  private static final int DFLT_RUN_SIZE = 100000;
+
+  private static final int TAG_SEQUENCE = Asn1StreamParser.TAG_CONSTRUCTED_SEQUENCE;
+
+  private final X500Name issuer;
+
+  private final Date thisUpdate;
+
+  private final Date nextUpdate;
+
+  private final File tmpDir;
+
+  private final int runSize;
+
+  private final List<Extension> extensions = new LinkedList<>();
+
+  private final List<File> runFiles = new LinkedList<>();
+
+  private List<RevokedCert> run;
+
+  private X500Name certificateIssuer;
+
+  private File revokedCertsFile;
+
+  private long revokedCertsLen;
+
+  private File crlFile;
+
+  public CrlStreamEncoder(X500Name issuer, Date thisUpdate, Date nextUpdate) {
+    this(issuer, thisUpdate, nextUpdate, null, DFLT_RUN_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param issuer
+   *          Issuer of the CRL. Must not be {@code null}.
+   * @param thisUpdate
+   *          thisUpdate of the CRL. Must not be {@code null}.
+   * @param nextUpdate
+   *          nextUpdate of the CRL. Could be {@code null}.
+   * @param tmpDir
+   *          Directory of the temporary files. {@code null} to use the default one.
+   * @param runSize
+   *          Maximal number of revoked certificates which are sorted in memory.
+   */
+  public CrlStreamEncoder(X500Name issuer, Date thisUpdate, Date nextUpdate, File tmpDir,
+      int runSize) {
+    this.issuer = Args.notNull(issuer, "issuer");
+    this.thisUpdate = Args.notNull(thisUpdate, "thisUpdate");
+    this.nextUpdate = nextUpdate;
+    this.tmpDir = tmpDir;
+    this.runSize = Args.positive(runSize, "runSize");
+    this.run = new ArrayList<>(Math.min(runSize, 1000));
+  }
+
+  /**
+   * Sets the certificateIssuer which will be added to the first revoked certificate. Used for
+   * the indirect CRL.
+   *
+   * @param certificateIssuer
+   *          Issuer of the revoked certificates. Could be {@code null}.
+   */
+  public void setCertificateIssuer(X500Name certificateIssuer) {
+    this.certificateIssuer = certificateIssuer;
+  }
+
+  public void addRevokedCert(BigInteger serialNumber, Date revocationDate,
+      Extensions crlEntryExtensions) throws IOException {
+    Args.notNull(serialNumber, "serialNumber");
+    Args.notNull(revocationDate, "revocationDate");
+    assertNotBuilt();
+
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(new ASN1Integer(serialNumber));
+    vec.add(new Time(revocationDate));
+    if (crlEntryExtensions != null) {
+      vec.add(crlEntryExtensions);
+    }
+
+    run.add(new RevokedCert(serialNumber, new DERSequence(vec).getEncoded(ASN1Encoding.DER)));
+    if (run.size() >= runSize) {
+      flushRun();
+    }
+  } // method addRevokedCert
+
+  public void addExtension(ASN1ObjectIdentifier oid, boolean critical, ASN1Encodable value)
+      throws IOException {
+    assertNotBuilt();
+    extensions.add(new Extension(oid, critical, value.toASN1Primitive().getEncoded(
+        ASN1Encoding.DER)));
+  }
+
+  /**
+   * Builds and signs the CRL.
+   *
+   * @param signer
+   *          Signer to sign the CRL. Must not be {@code null}.
+   * @return the file containing the DER encoded CRL. It will be deleted by {@link #close()}.
+   * @throws IOException
+   *           If error occurs while writing the temporary files.
+   */
+  public File build(ContentSigner signer) throws IOException {
+    Args.notNull(signer, "signer");
+    assertNotBuilt();
+
+    mergeRuns();
+
+    byte[] sigAlgId = signer.getAlgorithmIdentifier().getEncoded(ASN1Encoding.DER);
+
+    OutputStream signerOut = signer.getOutputStream();
+    long tbsLen = writeTbsCertList(sigAlgId, signerOut);
+    signerOut.close();
+
+    byte[] signatureValue = new DERBitString(signer.getSignature()).getEncoded(ASN1Encoding.DER);
+
+    crlFile = createTempFile("crl");
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(crlFile))) {
+      // TBSCertList with its tag and length, signatureAlgorithm and signatureValue
+      writeHeader(out, TAG_SEQUENCE,
+          getHeaderLen(tbsLen) + tbsLen + sigAlgId.length + signatureValue.length);
+      writeTbsCertList(sigAlgId, out);
+      out.write(sigAlgId);
+      out.write(signatureValue);
+    }
+
+    return crlFile;
+  } // method build
+
+  @Override
+  public void close() {
+    for (File runFile : runFiles) {
+      deleteFile(runFile);
+    }
+    runFiles.clear();
+
+    deleteFile(revokedCertsFile);
+    revokedCertsFile = null;
+    deleteFile(crlFile);
+    crlFile = null;
+  } // method close
+
+  private void assertNotBuilt() {
+    if (run == null) {
+      throw new IllegalStateException("CRL has been built");
+    }
+  }
+
+  private void flushRun() throws IOException {
+    if (run.isEmpty()) {
+      return;
+    }
+
+    Collections.sort(run, SERIAL_COMPARATOR);
+    File runFile = createTempFile("run");
+    runFiles.add(runFile);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(runFile))) {
+      for (RevokedCert entry : run) {
+        out.write(entry.encoded);
+      }
+    }
+    run.clear();
+  } // method flushRun
+
+  private void mergeRuns() throws IOException {
+    flushRun();
+    run = null;
+
+    revokedCertsFile = createTempFile("revoked");
+    revokedCertsLen = 0;
+
+    PriorityQueue<RunReader> readers = new PriorityQueue<>(Math.max(1, runFiles.size()),
+        RUN_COMPARATOR);
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(revokedCertsFile))) {
+      for (File runFile : runFiles) {
+        RunReader reader = new RunReader(runFile);
+        if (reader.current == null) {
+          reader.close();
+        } else {
+          readers.add(reader);
+        }
+      }
+
+      boolean first = true;
+      while (!readers.isEmpty()) {
+        RunReader reader = readers.poll();
+        byte[] encoded = reader.current.encoded;
+        if (first && certificateIssuer != null) {
+          encoded = addCertificateIssuer(encoded);
+        }
+        first = false;
+
+        out.write(encoded);
+        revokedCertsLen += encoded.length;
+
+        reader.next();
+        if (reader.current == null) {
+          reader.close();
+        } else {
+          readers.add(reader);
+        }
+      }
+    } finally {
+      for (RunReader reader : readers) {
+        IoUtil.closeQuietly(reader);
+      }
+    }
+
+    for (File runFile : runFiles) {
+      deleteFile(runFile);
+    }
+    runFiles.clear();
+  } // method mergeRuns
+
+  private byte[] addCertificateIssuer(byte[] encodedRevokedCert) throws IOException {
+    ASN1Sequence seq = ASN1Sequence.getInstance(encodedRevokedCert);
+    List<Extension> entryExtensions = new LinkedList<>();
+    if (seq.size() > 2) {
+      Extensions extns = Extensions.getInstance(seq.getObjectAt(2));
+      for (ASN1ObjectIdentifier oid : extns.getExtensionOIDs()) {
+        entryExtensions.add(extns.getExtension(oid));
+      }
+    }
+
+    GeneralNames generalNames = new GeneralNames(new GeneralName(certificateIssuer));
+    entryExtensions.add(new Extension(Extension.certificateIssuer, true,
+        generalNames.getEncoded(ASN1Encoding.DER)));
+
+    ASN1EncodableVector vec = new ASN1EncodableVector();
+    vec.add(seq.getObjectAt(0));
+    vec.add(seq.getObjectAt(1));
+    vec.add(new Extensions(entryExtensions.toArray(new Extension[0])));
+    return new DERSequence(vec).getEncoded(ASN1Encoding.DER);
+  } // method addCertificateIssuer
+
+  /**
+   * Writes the TBSCertList.
+   * @return the length of the content of TBSCertList.
+   */
+  private long writeTbsCertList(byte[] sigAlgId, OutputStream out) throws IOException {
+    byte[] version = new ASN1Integer(1).getEncoded(ASN1Encoding.DER);
+    byte[] encodedIssuer = issuer.getEncoded(ASN1Encoding.DER);
+    byte[] encodedThisUpdate = new Time(thisUpdate).getEncoded(ASN1Encoding.DER);
+    byte[] encodedNextUpdate = (nextUpdate == null)
+        ? null : new Time(nextUpdate).getEncoded(ASN1Encoding.DER);
+    byte[] encodedExtensions = extensions.isEmpty() ? null
+        : new DERTaggedObject(true, 0, new Extensions(extensions.toArray(new Extension[0])))
+            .getEncoded(ASN1Encoding.DER);
+
+    long len = version.length + sigAlgId.length + encodedIssuer.length
+        + encodedThisUpdate.length;
+    if (encodedNextUpdate != null) {
+      len += encodedNextUpdate.length;
+    }
+
+    if (revokedCertsLen > 0) {
+      len += getHeaderLen(revokedCertsLen) + revokedCertsLen;
+    }
+
+    if (encodedExtensions != null) {
+      len += encodedExtensions.length;
+    }
+
+    writeHeader(out, TAG_SEQUENCE, len);
+    out.write(version);
+    out.write(sigAlgId);
+    out.write(encodedIssuer);
+    out.write(encodedThisUpdate);
+    if (encodedNextUpdate != null) {
+      out.write(encodedNextUpdate);
+    }
+
+    if (revokedCertsLen > 0) {
+      writeHeader(out, TAG_SEQUENCE, revokedCertsLen);
+      try (InputStream in = new BufferedInputStream(new FileInputStream(revokedCertsFile))) {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+    }
+
+    if (encodedExtensions != null) {
+      out.write(encodedExtensions);
+    }
+
+    return len;
+  } // method writeTbsCertList
+
+  private static int getHeaderLen(long bodyLen) {
+    if (bodyLen < 0x80) {
+      return 2;
+    } else if (bodyLen < 0x100) {
+      return 3;
+    } else if (bodyLen < 0x10000) {
+      return 4;
+    } else if (bodyLen < 0x1000000) {
+      return 5;
+    } else {
+      return 6;
+    }
+  } // method getHeaderLen
+
+  private static void writeHeader(OutputStream out, int tag, long bodyLen) throws IOException {
+    if (bodyLen > Integer.MAX_VALUE) {
+      throw new IOException("CRL too large");
+    }
+
+    out.write(tag);
+    int lenBytes = getHeaderLen(bodyLen) - 2;
+    if (lenBytes == 0) {
+      out.write((int) bodyLen);
+    } else {
+      out.write(0x80 | lenBytes);
+      for (int i = lenBytes - 1; i >= 0; i--) {
+        out.write((int) (bodyLen >> (8 * i)) & 0xFF);
+      }
+    }
+  } // method writeHeader
+
+  private File createTempFile(String prefix) throws IOException {
+    return File.createTempFile("xipki-" + prefix + "-", ".tmp", tmpDir);
+  }
+
+  private static void deleteFile(File file) {
+    if (file != null && file.exists()) {
+      file.delete();
+    }
+  }
+
+}
@@ -34,6 +34,7 @@ import org.xipki.password.PasswordResolverException;
 import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.InvalidConfException;
+import org.xipki.util.IoUtil;
 import org.xipki.util.StringUtil;
 
 import iaik.pkcs.pkcs11.wrapper.Functions;
@@ -285,6 +286,137 @@ public class P11ModuleConf {
 
   } // class P11NewObjectConf
 
+  public static class P11SessionPoolConf {
+
+    private int minCount = 1;
+
+    /**
+     * 0 for the maximal number of sessions allowed by the token.
+     */
+    private int maxCount;
+
+    private int idleTimeout = 300;
+
+    private int checkInterval = 60;
+
+    public P11SessionPoolConf(Pkcs11conf.SessionPool conf) {
+      if (conf.getMinCount() != null) {
+        this.minCount = conf.getMinCount();
+      }
+
+      if (conf.getMaxCount() != null) {
+        this.maxCount = conf.getMaxCount();
+      }
+
+      if (conf.getIdleTimeout() != null) {
+        this.idleTimeout = conf.getIdleTimeout();
+      }
+
+      if (conf.getCheckInterval() != null) {
+        this.checkInterval = conf.getCheckInterval();
+      }
+    }
+
+    public P11SessionPoolConf() {
+    }
+
+    public int getMinCount() {
+      return minCount;
+    }
+
+    public void setMinCount(int minCount) {
+      this.minCount = Args.positive(minCount, "minCount");
+    }
+
+    public int getMaxCount() {
+      return maxCount;
+    }
+
+    public void setMaxCount(int maxCount) {
+      this.maxCount = Args.notNegative(maxCount, "maxCount");
+    }
+
+    /**
+     * Returns the idle timeout.
+     * @return the idle timeout in seconds.
+     */
+    public int getIdleTimeout() {
+      return idleTimeout;
+    }
+
+    public void setIdleTimeout(int idleTimeout) {
+      this.idleTimeout = Args.positive(idleTimeout, "idleTimeout");
+    }
+
+    /**
+     * Returns the interval to check the sessions.
+     * @return the interval in seconds.
+     */
+    public int getCheckInterval() {
+      return checkInterval;
+    }
+
+    public void setCheckInterval(int checkInterval) {
+      this.checkInterval = Args.positive(checkInterval, "checkInterval");
+    }
+
+  } // class P11SessionPoolConf
+
+  public static class P11ObjectDiscoveryConf {
+
+    private boolean lazy;
+
+    private int threads = 1;
+
+    private String cacheDir;
+
+    public P11ObjectDiscoveryConf(Pkcs11conf.ObjectDiscovery conf) {
+      if (conf.getLazy() != null) {
+        this.lazy = conf.getLazy();
+      }
+
+      if (conf.getThreads() != null) {
+        this.threads = conf.getThreads();
+      }
+
+      if (StringUtil.isNotBlank(conf.getCacheDir())) {
+        this.cacheDir = IoUtil.expandFilepath(conf.getCacheDir());
+      }
+    }
+
+    public P11ObjectDiscoveryConf() {
+    }
+
+    public boolean isLazy() {
+      return lazy;
+    }
+
+    public void setLazy(boolean lazy) {
+      this.lazy = lazy;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public void setThreads(int threads) {
+      this.threads = Args.positive(threads, "threads");
+    }
+
+    /**
+     * Returns the directory of the cache files.
+     * @return the directory, or {@code null} if no cache is used.
+     */
+    public String getCacheDir() {
+      return cacheDir;
+    }
+
+    public void setCacheDir(String cacheDir) {
+      this.cacheDir = cacheDir;
+    }
+
+  } // class P11ObjectDiscoveryConf
+
   private static final Logger LOG = LoggerFactory.getLogger(P11ModuleConf.class);
 
   private final String name;
@@ -309,6 +441,10 @@ public class P11ModuleConf {
 
   private final P11NewObjectConf newObjectConf;
 
+  private final P11SessionPoolConf sessionPoolConf;
+
+  private final P11ObjectDiscoveryConf objectDiscoveryConf;
+
   public P11ModuleConf(Pkcs11conf.Module moduleType, List<Pkcs11conf.MechanismSet> mechanismSets,
       PasswordResolver passwordResolver) throws InvalidConfException {
     Args.notNull(moduleType, "moduleType");
@@ -453,6 +589,13 @@ public class P11ModuleConf {
 
     this.newObjectConf = (moduleType.getNewObjectConf() == null) ? new P11NewObjectConf()
         : new P11NewObjectConf(moduleType.getNewObjectConf());
+
+    this.sessionPoolConf = (moduleType.getSessionPool() == null) ? new P11SessionPoolConf()
+        : new P11SessionPoolConf(moduleType.getSessionPool());
+
+    this.objectDiscoveryConf = (moduleType.getObjectDiscovery() == null)
+        ? new P11ObjectDiscoveryConf()
+        : new P11ObjectDiscoveryConf(moduleType.getObjectDiscovery());
   } // constructor
 
   public String getName() {
@@ -523,6 +666,14 @@ public class P11ModuleConf {
     return newObjectConf;
   }
 
+  public P11SessionPoolConf getP11SessionPoolConf() {
+    return sessionPoolConf;
+  }
+
+  public P11ObjectDiscoveryConf getP11ObjectDiscoveryConf() {
+    return objectDiscoveryConf;
+  }
+
   private static Set<P11SlotIdFilter> getSlotIdFilters(List<Pkcs11conf.Slot> slotTypes)
       throws InvalidConfException {
     if (CollectionUtil.isEmpty(slotTypes)) {
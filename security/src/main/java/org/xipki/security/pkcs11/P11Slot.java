@@ -47,6 +47,7 @@ import org.xipki.security.util.DSAParameterCache;
 import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.Hex;
+import org.xipki.util.LogUtil;
 import org.xipki.util.StringUtil;
 
 import iaik.pkcs.pkcs11.wrapper.Functions;
@@ -211,13 +212,14 @@ public abstract class P11Slot implements Closeable {
 
   private final SecureRandom random = new SecureRandom();
 
-  private final ConcurrentHashMap<P11ObjectIdentifier, P11Identity> identities =
+  // replaced as a whole by refresh(), so that the objects stay usable during a refresh
+  private volatile ConcurrentHashMap<P11ObjectIdentifier, P11Identity> identities =
       new ConcurrentHashMap<>();
 
-  private final ConcurrentHashMap<P11ObjectIdentifier, X509Cert> certificates =
+  private volatile ConcurrentHashMap<P11ObjectIdentifier, X509Cert> certificates =
       new ConcurrentHashMap<>();
 
-  private final Set<Long> mechanisms = new HashSet<>();
+  private volatile Set<Long> mechanisms = Collections.emptySet();
 
   private final P11MechanismFilter mechanismFilter;
 
@@ -432,6 +434,23 @@ public abstract class P11Slot implements Closeable {
 
   protected abstract P11SlotRefreshResult refresh0() throws P11TokenException;
 
+  /**
+   * Finds the identity with the given identifier and label on the token. Called if the identity
+   * is not known, e.g. if the objects are discovered lazily.
+   *
+   * @param keyId
+   *          Key identifier. Could be {@code null}.
+   * @param keyLabel
+   *          Key label. Could be {@code null}.
+   * @return the identity, or {@code null} if not found or not supported.
+   * @throws P11TokenException
+   *         if PKCS#11 token error occurs.
+   */
+  protected P11Identity discoverIdentity(byte[] keyId, String keyLabel)
+      throws P11TokenException {
+    return null;
+  }
+
   protected abstract void removeCerts0(P11ObjectIdentifier objectId) throws P11TokenException;
 
   @Override
@@ -528,26 +547,30 @@ public abstract class P11Slot implements Closeable {
     return null;
   } // method getIssuerForCert
 
-  public void refresh() throws P11TokenException {
+  public synchronized void refresh() throws P11TokenException {
     P11SlotRefreshResult res = refresh0(); // CHECKSTYLE:SKIP
 
-    mechanisms.clear();
-    certificates.clear();
-    identities.clear();
-
+    Set<Long> newMechanisms = new HashSet<>();
     List<Long> ignoreMechs = new ArrayList<>();
 
     for (Long mech : res.getMechanisms()) {
       if (mechanismFilter.isMechanismPermitted(slotId, mech)) {
-        mechanisms.add(mech);
+        newMechanisms.add(mech);
       } else {
         ignoreMechs.add(mech);
       }
     }
-    certificates.putAll(res.getCertificates());
-    identities.putAll(res.getIdentities());
 
-    updateCaCertsOfIdentities();
+    // the new objects replace the old ones at once, the slot may be in use
+    mechanisms = Collections.unmodifiableSet(newMechanisms);
+    certificates = new ConcurrentHashMap<>(res.getCertificates());
+
+    ConcurrentHashMap<P11ObjectIdentifier, P11Identity> newIdentities =
+        new ConcurrentHashMap<>(res.getIdentities());
+    for (P11Identity identity : newIdentities.values()) {
+      updateCaCertsOfIdentity(identity);
+    }
+    identities = newIdentities;
 
     if (LOG.isInfoEnabled()) {
       StringBuilder sb = new StringBuilder();
@@ -618,7 +641,7 @@ public abstract class P11Slot implements Closeable {
   }
 
   public Set<Long> getMechanisms() {
-    return Collections.unmodifiableSet(mechanisms);
+    return mechanisms;
   }
 
   public boolean supportsMechanism(long mechanism) {
@@ -652,14 +675,49 @@ public abstract class P11Slot implements Closeable {
     return readOnly;
   }
 
+  /**
+   * Returns the maximal number of operations the slot processes concurrently.
+   *
+   * @return the maximal number of concurrent operations.
+   */
+  public int getMaxSessionCount() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+
   public P11Identity getIdentity(P11ObjectIdentifier keyId) throws P11UnknownEntityException {
     P11Identity ident = identities.get(keyId);
     if (ident == null) {
-      throw new P11UnknownEntityException(slotId, keyId);
+      ident = discoverAndAddIdentity(keyId.getId(), keyId.getLabel());
+      if (ident == null || !keyId.equals(ident.getId().getKeyId())) {
+        throw new P11UnknownEntityException(slotId, keyId);
+      }
     }
     return ident;
   }
 
+  private P11Identity discoverAndAddIdentity(byte[] keyId, String keyLabel) {
+    P11Identity identity;
+    try {
+      identity = discoverIdentity(keyId, keyLabel);
+    } catch (P11TokenException ex) {
+      LogUtil.warn(LOG, ex, "could not discover identity " + getDescription(keyId, keyLabel));
+      return null;
+    }
+
+    if (identity == null) {
+      return null;
+    }
+
+    P11Identity old = identities.putIfAbsent(identity.getId().getKeyId(), identity);
+    if (old != null) {
+      return old;
+    }
+
+    updateCaCertsOfIdentity(identity);
+    LOG.info("discovered identity {}", identity.getId());
+    return identity;
+  } // method discoverAndAddIdentity
+
   protected void assertNoIdentityAndCert(byte[] id, String label)
       throws P11DuplicateEntityException {
     if (id == null && label == null) {
@@ -750,7 +808,8 @@ public abstract class P11Slot implements Closeable {
       }
     }
 
-    return null;
+    P11Identity identity = discoverAndAddIdentity(keyId, keyLabel);
+    return (identity == null) ? null : identity.getId();
   } // method getIdentityId
 
   /**
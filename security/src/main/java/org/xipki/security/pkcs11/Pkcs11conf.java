@@ -151,6 +151,10 @@ public class Pkcs11conf extends ValidatableConf {
 
     private List<MechanimFilter> mechanismFilters;
 
+    private SessionPool sessionPool;
+
+    private ObjectDiscovery objectDiscovery;
+
     public String getName() {
       return name;
     }
@@ -238,6 +242,22 @@ public class Pkcs11conf extends ValidatableConf {
       this.mechanismFilters = mechanismFilters;
     }
 
+    public SessionPool getSessionPool() {
+      return sessionPool;
+    }
+
+    public void setSessionPool(SessionPool sessionPool) {
+      this.sessionPool = sessionPool;
+    }
+
+    public ObjectDiscovery getObjectDiscovery() {
+      return objectDiscovery;
+    }
+
+    public void setObjectDiscovery(ObjectDiscovery objectDiscovery) {
+      this.objectDiscovery = objectDiscovery;
+    }
+
     public void setUser(String user) {
       this.user = user;
     }
@@ -266,6 +286,8 @@ public class Pkcs11conf extends ValidatableConf {
       validate(passwordSets);
       notEmpty(mechanismFilters, "mechanismFilters");
       validate(mechanismFilters);
+      validate(sessionPool);
+      validate(objectDiscovery);
     }
 
   } // class Module
@@ -400,6 +422,133 @@ public class Pkcs11conf extends ValidatableConf {
 
   } // class PasswordSet
 
+  public static class SessionPool extends ValidatableConf {
+
+    /**
+     * Number of sessions which are opened and logged in in advance and kept open.
+     * Default to 1.
+     */
+    private Integer minCount;
+
+    /**
+     * Maximal number of sessions. Default to the maximal number of sessions of the
+     * token minus 2, or 32 if the token does not limit the number of sessions.
+     */
+    private Integer maxCount;
+
+    /**
+     * Sessions above minCount which have not been used for the given seconds are closed.
+     * Default to 300.
+     */
+    private Integer idleTimeout;
+
+    /**
+     * Interval in seconds to check the idle sessions in the background. Default to 60.
+     */
+    private Integer checkInterval;
+
+    public Integer getMinCount() {
+      return minCount;
+    }
+
+    public void setMinCount(Integer minCount) {
+      this.minCount = minCount;
+    }
+
+    public Integer getMaxCount() {
+      return maxCount;
+    }
+
+    public void setMaxCount(Integer maxCount) {
+      this.maxCount = maxCount;
+    }
+
+    public Integer getIdleTimeout() {
+      return idleTimeout;
+    }
+
+    public void setIdleTimeout(Integer idleTimeout) {
+      this.idleTimeout = idleTimeout;
+    }
+
+    public Integer getCheckInterval() {
+      return checkInterval;
+    }
+
+    public void setCheckInterval(Integer checkInterval) {
+      this.checkInterval = checkInterval;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      positive(minCount, "minCount");
+      positive(maxCount, "maxCount");
+      positive(idleTimeout, "idleTimeout");
+      positive(checkInterval, "checkInterval");
+      if (minCount != null && maxCount != null && minCount > maxCount) {
+        throw new InvalidConfException("minCount must not be greater than maxCount");
+      }
+    }
+
+    private static void positive(Integer value, String name) throws InvalidConfException {
+      if (value != null && value < 1) {
+        throw new InvalidConfException(name + " must not be less than 1: " + value);
+      }
+    }
+
+  } // class SessionPool
+
+  public static class ObjectDiscovery extends ValidatableConf {
+
+    /**
+     * Whether the keys and certificates are discovered lazily: taken from the cache if present,
+     * otherwise found on the token on first use and in the background. Default to false.
+     */
+    private Boolean lazy;
+
+    /**
+     * Number of sessions used in parallel to analyse the keys. Default to 1.
+     */
+    private Integer threads;
+
+    /**
+     * Directory of the cache files of the keys and certificates. Default to no cache.
+     */
+    private String cacheDir;
+
+    public Boolean getLazy() {
+      return lazy;
+    }
+
+    public void setLazy(Boolean lazy) {
+      this.lazy = lazy;
+    }
+
+    public Integer getThreads() {
+      return threads;
+    }
+
+    public void setThreads(Integer threads) {
+      this.threads = threads;
+    }
+
+    public String getCacheDir() {
+      return cacheDir;
+    }
+
+    public void setCacheDir(String cacheDir) {
+      this.cacheDir = cacheDir;
+    }
+
+    @Override
+    public void validate() throws InvalidConfException {
+      if (threads != null && threads < 1) {
+        throw new InvalidConfException("threads must not be less than 1: " + threads);
+      }
+    }
+
+  } // class ObjectDiscovery
+
   public static class Slot extends ValidatableConf {
 
     private Integer index;
@@ -30,7 +30,6 @@ import org.xipki.security.pkcs11.P11Identity;
 import org.xipki.security.pkcs11.P11IdentityId;
 import org.xipki.security.pkcs11.P11Params;
 import org.xipki.security.pkcs11.P11TokenException;
-import org.xipki.util.Args;
 
 import iaik.pkcs.pkcs11.objects.Key;
 import iaik.pkcs.pkcs11.objects.PrivateKey;
@@ -45,20 +44,45 @@ import iaik.pkcs.pkcs11.objects.SecretKey;
 
 class IaikP11Identity extends P11Identity {
 
-  private final Key signingKey;
+  // null if not found yet, e.g. if the identity is read from the object cache
+  private volatile Key signingKey;
 
   private final int expectedSignatureLen;
 
+  /**
+   * Constructor.
+   *
+   * @param slot
+   *          Slot. Must not be {@code null}.
+   * @param identityId
+   *          Identity identifier. Must not be {@code null}.
+   * @param signingKey
+   *          Secret key. {@code null} to find it on the token on first use.
+   */
   IaikP11Identity(IaikP11Slot slot, P11IdentityId identityId, SecretKey signingKey) {
     super(slot, identityId, 0);
-    this.signingKey = Args.notNull(signingKey, "signingKey");
+    this.signingKey = signingKey;
     this.expectedSignatureLen = 0;
   }
 
+  /**
+   * Constructor.
+   *
+   * @param slot
+   *          Slot. Must not be {@code null}.
+   * @param identityId
+   *          Identity identifier. Must not be {@code null}.
+   * @param privateKey
+   *          Private key. {@code null} to find it on the token on first use.
+   * @param publicKey
+   *          Public key. Could be {@code null} if the certificate chain is present.
+   * @param certificateChain
+   *          Certificate chain. Could be {@code null}.
+   */
   IaikP11Identity(IaikP11Slot slot, P11IdentityId identityId, PrivateKey privateKey,
       PublicKey publicKey, X509Cert[] certificateChain) {
     super(slot, identityId, publicKey, certificateChain);
-    this.signingKey = Args.notNull(privateKey, "privateKey");
+    this.signingKey = privateKey;
 
     int keyBitLen = getSignatureKeyBitLength();
     if (publicKey instanceof RSAPublicKey) {
@@ -89,16 +113,17 @@ class IaikP11Identity extends P11Identity {
 
   @Override
   protected byte[] digestSecretKey0(long mechanism) throws P11TokenException {
-    if (! (signingKey instanceof SecretKey)) {
+    Key key = getSigningKey();
+    if (! (key instanceof SecretKey)) {
       throw new P11TokenException("could not digest asymmetric key");
     }
 
-    Boolean bv = ((SecretKey) signingKey).getExtractable().getBooleanValue();
+    Boolean bv = ((SecretKey) key).getExtractable().getBooleanValue();
     if (bv != null && !bv.booleanValue()) {
       throw new P11TokenException("could not digest unextractable key");
     }
 
-    bv = ((SecretKey) signingKey).getNeverExtractable().getBooleanValue();
+    bv = ((SecretKey) key).getNeverExtractable().getBooleanValue();
     if (bv != null && bv.booleanValue()) {
       throw new P11TokenException("could not digest unextractable key");
     }
@@ -112,8 +137,17 @@ class IaikP11Identity extends P11Identity {
     return ((IaikP11Slot) slot).sign(mechanism, parameters, content, this);
   }
 
-  Key getSigningKey() {
-    return signingKey;
+  Key getSigningKey() throws P11TokenException {
+    Key key = signingKey;
+    if (key == null) {
+      key = ((IaikP11Slot) slot).findSigningKey(this);
+      signingKey = key;
+    }
+    return key;
+  } // method getSigningKey
+
+  boolean isSigningKeyFound() {
+    return signingKey != null;
   }
 
   int getExpectedSignatureLen() {
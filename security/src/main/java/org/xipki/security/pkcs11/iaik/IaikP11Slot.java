@@ -17,7 +17,9 @@
 
 package org.xipki.security.pkcs11.iaik;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
@@ -30,8 +32,17 @@ import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
@@ -49,6 +60,8 @@ import org.xipki.security.pkcs11.P11Identity;
 import org.xipki.security.pkcs11.P11IdentityId;
 import org.xipki.security.pkcs11.P11ModuleConf.P11MechanismFilter;
 import org.xipki.security.pkcs11.P11ModuleConf.P11NewObjectConf;
+import org.xipki.security.pkcs11.P11ModuleConf.P11ObjectDiscoveryConf;
+import org.xipki.security.pkcs11.P11ModuleConf.P11SessionPoolConf;
 import org.xipki.security.pkcs11.P11ObjectIdentifier;
 import org.xipki.security.pkcs11.P11Params;
 import org.xipki.security.pkcs11.P11Slot;
@@ -61,7 +74,9 @@ import org.xipki.security.util.X509Util;
 import org.xipki.util.Args;
 import org.xipki.util.CollectionUtil;
 import org.xipki.util.LogUtil;
+import org.xipki.util.StringUtil;
 import org.xipki.util.concurrent.ConcurrentBag;
+import org.xipki.util.concurrent.ConcurrentBag.IConcurrentBagEntry;
 import org.xipki.util.concurrent.ConcurrentBagEntry;
 
 import iaik.pkcs.pkcs11.Mechanism;
@@ -71,6 +86,7 @@ import iaik.pkcs.pkcs11.Slot;
 import iaik.pkcs.pkcs11.State;
 import iaik.pkcs.pkcs11.Token;
 import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
 import iaik.pkcs.pkcs11.Util;
 import iaik.pkcs.pkcs11.objects.Attribute;
 import iaik.pkcs.pkcs11.objects.Certificate.CertificateType;
@@ -106,6 +122,20 @@ import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
  */
 class IaikP11Slot extends P11Slot {
 
+  private static class SessionEntry extends ConcurrentBagEntry<Session> {
+
+    // time in milliseconds when the session has been returned to the pool the last time
+    private volatile long lastAccess = System.currentTimeMillis();
+
+    // time in nanoseconds when the session has been borrowed, only accessed by the borrower
+    private long borrowedAt;
+
+    SessionEntry(Session session) {
+      super(session);
+    }
+
+  } // class SessionEntry
+
   private static final Logger LOG = LoggerFactory.getLogger(IaikP11Slot.class);
 
   private static final long DEFAULT_MAX_COUNT_SESSION = 32;
@@ -120,26 +150,52 @@ class IaikP11Slot extends P11Slot {
 
   private List<char[]> password;
 
+  private int minSessionCount;
+
   private int maxSessionCount;
 
+  private long sessionIdleTimeoutMs;
+
   private long timeOutWaitNewSession = 10000; // maximal wait for 10 second
 
   private final AtomicLong countSessions = new AtomicLong(0);
 
+  private final SessionPoolStatistics statistics = new SessionPoolStatistics();
+
+  private ScheduledExecutorService sessionChecker;
+
   private final SecureRandom random = new SecureRandom();
 
   private final P11NewObjectConf newObjectConf;
 
-  private final ConcurrentBag<ConcurrentBagEntry<Session>> sessions = new ConcurrentBag<>();
+  private final ConcurrentBag<SessionEntry> sessions = new ConcurrentBag<>();
 
   private final Vendor vendor;
 
+  private final boolean lazyDiscovery;
+
+  private final int discoveryThreads;
+
+  private P11ObjectCache objectCache;
+
+  private ExecutorService discoveryExecutor;
+
+  // true only during the first refresh if the objects are discovered lazily
+  private boolean lazyRefresh;
+
+  private boolean objectCacheLoaded;
+
   IaikP11Slot(String moduleName, P11SlotIdentifier slotId, Slot slot, boolean readOnly,
       long userType, List<char[]> password, int maxMessageSize, P11MechanismFilter mechanismFilter,
-      P11NewObjectConf newObjectConf, Vendor vendor) throws P11TokenException {
+      P11NewObjectConf newObjectConf, P11SessionPoolConf sessionPoolConf,
+      P11ObjectDiscoveryConf objectDiscoveryConf, Vendor vendor) throws P11TokenException {
     super(moduleName, slotId, readOnly, mechanismFilter);
 
     this.newObjectConf = Args.notNull(newObjectConf, "newObjectConf");
+    Args.notNull(sessionPoolConf, "sessionPoolConf");
+    Args.notNull(objectDiscoveryConf, "objectDiscoveryConf");
+    this.lazyDiscovery = objectDiscoveryConf.isLazy();
+    this.discoveryThreads = objectDiscoveryConf.getThreads();
     this.slot = Args.notNull(slot, "slot");
     this.maxMessageSize = Args.positive(maxMessageSize, "maxMessageSize");
     this.vendor = Args.notNull(vendor,"vendo r");
@@ -168,6 +224,7 @@ class IaikP11Slot extends P11Slot {
         LogUtil.error(LOG, ex, "openSession");
         throw ex;
       }
+      countSessions.incrementAndGet();
 
       try {
         firstLogin(session, password);
@@ -183,24 +240,58 @@ class IaikP11Slot extends P11Slot {
         throw new P11TokenException("could not getToken: " + ex.getMessage(), ex);
       }
 
-      long maxSessionCount2;
+      TokenInfo tokenInfo;
       try {
-        maxSessionCount2 = token.getTokenInfo().getMaxSessionCount();
+        tokenInfo = token.getTokenInfo();
       } catch (TokenException ex) {
         throw new P11TokenException("could not get tokenInfo: " + ex.getMessage(), ex);
       }
 
+      long maxSessionCount2 = tokenInfo.getMaxSessionCount();
+
       if (maxSessionCount2 == 0) {
         maxSessionCount2 = DEFAULT_MAX_COUNT_SESSION;
       } else {
         // 2 sessions as buffer, they may be used elsewhere.
         maxSessionCount2 = (maxSessionCount2 < 3) ? 1 : maxSessionCount2 - 2;
       }
+
+      if (sessionPoolConf.getMaxCount() > 0) {
+        maxSessionCount2 = Math.min(maxSessionCount2, sessionPoolConf.getMaxCount());
+      }
+
       this.maxSessionCount = (int) maxSessionCount2;
-      LOG.info("maxSessionCount: {}", this.maxSessionCount);
+      this.minSessionCount = Math.min(sessionPoolConf.getMinCount(), maxSessionCount);
+      this.sessionIdleTimeoutMs = sessionPoolConf.getIdleTimeout() * 1000L;
+      LOG.info("minSessionCount: {}, maxSessionCount: {}", minSessionCount, maxSessionCount);
+
+      sessions.add(new SessionEntry(session));
+      statistics.sessionOpened();
+      openMinSessions();
+
+      if (objectDiscoveryConf.getCacheDir() != null) {
+        String fileName = (moduleName + "-" + slotId.getIndex() + "-" + slotId.getId())
+            .replaceAll("[^A-Za-z0-9._-]", "_") + ".cache";
+        String tokenDesc = StringUtil.concat(tokenInfo.getManufacturerID().trim(), "/",
+            tokenInfo.getModel().trim(), "/", tokenInfo.getSerialNumber().trim(), "/",
+            tokenInfo.getLabel().trim());
+        this.objectCache = new P11ObjectCache(
+            new File(objectDiscoveryConf.getCacheDir(), fileName), tokenDesc);
+      }
 
-      sessions.add(new ConcurrentBagEntry<Session>(session));
-      refresh();
+      if (lazyDiscovery) {
+        lazyRefresh = true;
+        try {
+          refresh();
+        } finally {
+          lazyRefresh = false;
+        }
+        startDiscovery();
+      } else {
+        refresh();
+      }
+
+      startSessionChecker(sessionPoolConf.getCheckInterval());
       successful = true;
     } finally {
       if (!successful) {
@@ -213,6 +304,11 @@ class IaikP11Slot extends P11Slot {
     return slot;
   }
 
+  @Override
+  public int getMaxSessionCount() {
+    return maxSessionCount;
+  }
+
   @Override
   protected P11SlotRefreshResult refresh0() throws P11TokenException {
     Mechanism[] mechanisms;
@@ -229,8 +325,14 @@ class IaikP11Slot extends P11Slot {
       }
     }
 
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    if (lazyRefresh) {
+      // the objects are read from the cache, or discovered on first use and in the background
+      objectCacheLoaded = objectCache != null && objectCache.load(this, ret);
+      return ret;
+    }
 
+    List<PrivateKey> privKeys;
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       // secret keys
@@ -255,13 +357,74 @@ class IaikP11Slot extends P11Slot {
         }
       }
 
-      List<PrivateKey> privKeys = getAllPrivateObjects(session);
+      privKeys = getAllPrivateObjects(session);
+    } finally {
+      requiteSession(bagEntry);
+    }
+
+    analysePrivateKeys(privKeys, ret);
+
+    if (objectCache != null) {
+      objectCache.save(ret);
+    }
+    return ret;
+  } // method refresh0
+
+  /**
+   * Analyses the private keys in parallel with up to discoveryThreads sessions.
+   */
+  private void analysePrivateKeys(final List<PrivateKey> privKeys,
+      final P11SlotRefreshResult refreshResult) throws P11TokenException {
+    final int numThreads = Math.min(discoveryThreads, Math.min(maxSessionCount, privKeys.size()));
+    if (numThreads < 2) {
+      analysePrivateKeys(privKeys, 0, 1, refreshResult);
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads,
+        newThreadFactory("p11-analyse-" + moduleName + "-" + slotId.getId() + "-"));
+    try {
+      List<Future<Void>> futures = new ArrayList<>(numThreads);
+      for (int i = 0; i < numThreads; i++) {
+        final int offset = i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            analysePrivateKeys(privKeys, offset, numThreads, refreshResult);
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          throw (cause instanceof P11TokenException) ? (P11TokenException) cause
+              : new P11TokenException(cause.getMessage(), cause);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new P11TokenException("interrupted while analysing the private keys");
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  } // method analysePrivateKeys
 
-      for (PrivateKey privKey : privKeys) {
+  // analyses the private keys at the positions offset, offset + step, offset + 2 * step, ...
+  private void analysePrivateKeys(List<PrivateKey> privKeys, int offset, int step,
+      P11SlotRefreshResult refreshResult) throws P11TokenException {
+    SessionEntry bagEntry = borrowSession();
+    try {
+      Session session = bagEntry.value();
+      for (int i = offset; i < privKeys.size(); i += step) {
+        PrivateKey privKey = privKeys.get(i);
         byte[] keyId = privKey.getId().getByteArrayValue();
 
         try {
-          analyseSingleKey(session, privKey, ret);
+          analyseSingleKey(session, privKey, refreshResult);
         } catch (XiSecurityException ex) {
           LogUtil.error(LOG, ex, "XiSecurityException while initializing private key "
               + "with id " + hex(keyId));
@@ -276,20 +439,173 @@ class IaikP11Slot extends P11Slot {
           continue;
         }
       }
+    } finally {
+      requiteSession(bagEntry);
+    }
+  } // method analysePrivateKeys
+
+  /**
+   * Finds the PKCS#11 objects of the identities read from the cache in the background. Then
+   * scans the token, since the keys may have been replaced or deleted by another process since
+   * the cache was written. Without cache only the scan is done.
+   */
+  private void startDiscovery() {
+    discoveryExecutor = Executors.newFixedThreadPool(discoveryThreads,
+        newThreadFactory("p11-discovery-" + moduleName + "-" + slotId.getId() + "-"));
+
+    Runnable scanner = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          refresh();
+        } catch (Throwable th) {
+          LogUtil.error(LOG, th, "could not discover the objects of slot " + slotId);
+        }
+      }
+    };
 
-      return ret;
+    if (!objectCacheLoaded) {
+      discoveryExecutor.submit(scanner);
+    } else {
+      final List<IaikP11Identity> identities = new ArrayList<>();
+      for (P11ObjectIdentifier keyId : getIdentityKeyIds()) {
+        try {
+          identities.add((IaikP11Identity) getIdentity(keyId));
+        } catch (P11UnknownEntityException ex) {
+          // CHECKSTYLE:SKIP
+        }
+      }
+
+      final int numThreads = discoveryThreads;
+      for (int i = 0; i < numThreads; i++) {
+        final int offset = i;
+        discoveryExecutor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int j = offset; j < identities.size() && slot != null; j += numThreads) {
+              IaikP11Identity identity = identities.get(j);
+              try {
+                identity.getSigningKey();
+              } catch (P11TokenException ex) {
+                LogUtil.warn(LOG, ex, "could not find the key of identity " + identity.getId());
+              } catch (Throwable th) {
+                LogUtil.error(LOG, th, "could not find the key of identity " + identity.getId());
+              }
+            }
+          }
+        });
+      }
+
+      discoveryExecutor.submit(scanner);
+    }
+
+    // the threads terminate after the tasks
+    discoveryExecutor.shutdown();
+  } // method startDiscovery
+
+  /**
+   * Finds the key object of an identity read from the object cache.
+   */
+  Key findSigningKey(IaikP11Identity identity) throws P11TokenException {
+    P11ObjectIdentifier keyId = identity.getId().getKeyId();
+    Key key;
+    SessionEntry bagEntry = borrowSession();
+    try {
+      Session session = bagEntry.value();
+      key = (identity.getPublicKey() == null)
+          ? getSecretKeyObject(session, keyId.getId(), keyId.getLabelChars())
+          : getPrivateKeyObject(session, keyId.getId(), keyId.getLabelChars());
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
-  } // method refresh0
+
+    if (key == null) {
+      throw new P11UnknownEntityException(identity.getId());
+    }
+    return key;
+  } // method findSigningKey
+
+  @Override
+  protected P11Identity discoverIdentity(byte[] keyId, String keyLabel)
+      throws P11TokenException {
+    if (!lazyDiscovery || (keyId == null && keyLabel == null)) {
+      return null;
+    }
+
+    char[] labelChars = (keyLabel == null) ? null : keyLabel.toCharArray();
+    P11SlotRefreshResult refreshResult = new P11SlotRefreshResult();
+    SessionEntry bagEntry = borrowSession();
+    try {
+      Session session = bagEntry.value();
+      PrivateKey privKey = getPrivateKeyObject(session, keyId, labelChars);
+      if (privKey != null) {
+        byte[] id = privKey.getId().getByteArrayValue();
+        if (id != null) {
+          X509PublicKeyCertificate p11Cert = getCertificateObject(session, id, null);
+          if (p11Cert != null && p11Cert.getLabel().getCharArrayValue() != null) {
+            refreshResult.addCertificate(new P11ObjectIdentifier(id,
+                new String(p11Cert.getLabel().getCharArrayValue())), parseCert(p11Cert));
+          }
+        }
+
+        try {
+          analyseSingleKey(session, privKey, refreshResult);
+        } catch (XiSecurityException ex) {
+          throw new P11TokenException(ex.getMessage(), ex);
+        }
+      } else {
+        SecretKey secretKey = getSecretKeyObject(session, keyId, labelChars);
+        if (secretKey != null) {
+          analyseSingleKey(secretKey, refreshResult);
+        }
+      }
+    } finally {
+      requiteSession(bagEntry);
+    }
+
+    Map<P11ObjectIdentifier, P11Identity> identities = refreshResult.getIdentities();
+    return identities.isEmpty() ? null : identities.values().iterator().next();
+  } // method discoverIdentity
+
+  private void invalidateObjectCache() {
+    if (objectCache != null) {
+      objectCache.invalidate();
+    }
+  }
+
+  private static ThreadFactory newThreadFactory(final String threadPrefix) {
+    return new ThreadFactory() {
+
+      private final AtomicInteger index = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, threadPrefix + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    };
+  } // method newThreadFactory
 
   @Override
   public final void close() {
+    if (discoveryExecutor != null) {
+      discoveryExecutor.shutdownNow();
+      discoveryExecutor = null;
+    }
+
+    if (sessionChecker != null) {
+      sessionChecker.shutdownNow();
+      sessionChecker = null;
+    }
+
     if (slot != null) {
+      LOG.info("session pool of slot {}: {}", slotId, formatStatistics());
       try {
         LOG.info("close all sessions on token: {}", slot.getSlotID());
 
-        for (ConcurrentBagEntry<Session> session : sessions.values()) {
+        for (SessionEntry session : sessions.values()) {
           session.value().closeSession();
         }
       } catch (Throwable th) {
@@ -351,7 +667,10 @@ class IaikP11Slot extends P11Slot {
     X509Cert[] certs = (cert == null) ? null : new X509Cert[]{cert};
     IaikP11Identity identity = new IaikP11Identity(this,
         new P11IdentityId(slotId, objectId, pubKeyLabel, certLabel), privKey, pubKey, certs);
-    refreshResult.addIdentity(identity);
+    // the private keys may be analysed in parallel
+    synchronized (refreshResult) {
+      refreshResult.addIdentity(identity);
+    }
   } // method analyseSingleKey
 
   byte[] digestKey(long mechanism, IaikP11Identity identity) throws P11TokenException {
@@ -385,15 +704,19 @@ class IaikP11Slot extends P11Slot {
       throw new P11TokenException("unsupported mechnism " + mechanism);
     }
 
-    ConcurrentBagEntry<Session> session0 = borrowSession();
+    SessionEntry session0 = borrowSession(false);
     Mechanism mechanismObj = Mechanism.get(mechanism);
 
+    boolean sessionUsable = true;
     try {
       Session session = session0.value();
       try {
         return digestKey0(session, digestLen, mechanismObj, (SecretKey) key);
       } catch (PKCS11Exception ex) {
-        if (ex.getErrorCode() != PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+        long errorCode = ex.getErrorCode();
+        statistics.error(errorCode);
+        if (errorCode != PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
+          sessionUsable = !isSessionBroken(errorCode);
           throw new P11TokenException(ex.getMessage(), ex);
         }
 
@@ -409,7 +732,7 @@ class IaikP11Slot extends P11Slot {
         throw new P11TokenException(ex.getMessage(), ex);
       }
     } finally {
-      sessions.requite(session0);
+      returnSession(session0, sessionUsable);
     }
   } // method digestKey
 
@@ -452,23 +775,27 @@ class IaikP11Slot extends P11Slot {
     Mechanism mechanismObj = getMechanism(mechanism, parameters);
     Key signingKey = identity.getSigningKey();
 
-    ConcurrentBagEntry<Session> session0 = borrowSession();
+    // the login state of idle sessions is checked in the background
+    SessionEntry session0 = borrowSession(false);
+    boolean sessionUsable = true;
     try {
       Session session = session0.value();
       try {
         return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
       } catch (PKCS11Exception ex) {
         long errorCode = ex.getErrorCode();
+        statistics.error(errorCode);
         if (errorCode == PKCS11Constants.CKR_USER_NOT_LOGGED_IN) {
           LOG.info("sign ended with ERROR CKR_USER_NOT_LOGGED_IN, login and then retry it");
           // force the login
           forceLogin(session);
           return sign0(session, expectedSignatureLen, mechanismObj, content, signingKey);
         } else {
+          sessionUsable = !isSessionBroken(errorCode);
           throw ex;
         }
       } finally {
-        sessions.requite(session0);
+        returnSession(session0, sessionUsable);
       }
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
@@ -531,48 +858,263 @@ class IaikP11Slot extends P11Slot {
   } // method getMechanism
 
   private Session openSession() throws P11TokenException {
-    Session session;
     try {
       boolean rw = !isReadOnly();
-      session = slot.getToken().openSession(Token.SessionType.SERIAL_SESSION, rw, null, null);
+      return slot.getToken().openSession(Token.SessionType.SERIAL_SESSION, rw, null, null);
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
     }
-    countSessions.incrementAndGet();
-    return session;
   } // method openSession
 
-  private ConcurrentBagEntry<Session> borrowSession() throws P11TokenException {
-    ConcurrentBagEntry<Session> session = null;
-    synchronized (sessions) {
-      if (countSessions.get() < maxSessionCount) {
-        try {
-          session = sessions.borrow(1, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
-        }
+  private static void closeSession(Session session) {
+    try {
+      session.closeSession();
+    } catch (Throwable th) {
+      LogUtil.warn(LOG, th, "could not close session");
+    }
+  } // method closeSession
+
+  /**
+   * Increases the number of sessions by 1 if the maximal number of sessions is not reached.
+   *
+   * @return whether the number of sessions has been increased.
+   */
+  private boolean reserveSessionCount() {
+    while (true) {
+      long count = countSessions.get();
+      if (count >= maxSessionCount) {
+        return false;
+      }
 
-        if (session == null) {
-          // create new session
-          sessions.add(new ConcurrentBagEntry<>(openSession()));
+      if (countSessions.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  } // method reserveSessionCount
+
+  /**
+   * Opens and logs in sessions until there are at least minSessionCount sessions.
+   */
+  private void openMinSessions() {
+    while (countSessions.get() < minSessionCount && reserveSessionCount()) {
+      Session session = null;
+      try {
+        session = openSession();
+        login(session);
+        sessions.add(new SessionEntry(session));
+        statistics.sessionOpened();
+      } catch (P11TokenException | IllegalStateException ex) {
+        countSessions.decrementAndGet();
+        if (session != null) {
+          closeSession(session);
         }
+        LogUtil.warn(LOG, ex, "could not open session in advance");
+        return;
       }
     }
+  } // method openMinSessions
+
+  /**
+   * Opens a new session which is already borrowed if the maximal number of sessions is not
+   * reached.
+   *
+   * @return the new session, or {@code null} if no new session could be opened.
+   */
+  private SessionEntry openBorrowedSession() {
+    if (!reserveSessionCount()) {
+      return null;
+    }
+
+    Session session = null;
+    try {
+      session = openSession();
+      SessionEntry entry = new SessionEntry(session);
+      entry.setState(IConcurrentBagEntry.STATE_IN_USE);
+      sessions.add(entry);
+      statistics.sessionOpened();
+      return entry;
+    } catch (P11TokenException | IllegalStateException ex) {
+      countSessions.decrementAndGet();
+      if (session != null) {
+        closeSession(session);
+      }
+      LogUtil.warn(LOG, ex, "could not open new session, wait for an idle one");
+      return null;
+    }
+  } // method openBorrowedSession
+
+  private SessionEntry borrowSession() throws P11TokenException {
+    return borrowSession(true);
+  }
+
+  /**
+   * Borrows a session. If all sessions are in use, a new session is opened if the maximal number
+   * of sessions is not reached, otherwise waits for a session to be returned.
+   *
+   * @param checkLogin
+   *          Whether to check the login state of the session.
+   * @return the borrowed session.
+   * @throws P11TokenException
+   *           if no session is available within the timeout.
+   */
+  private SessionEntry borrowSession(boolean checkLogin) throws P11TokenException {
+    final long start = System.nanoTime();
+
+    SessionEntry session = null;
+    try {
+      session = sessions.borrow(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+    }
 
+    boolean waited = false;
     if (session == null) {
-      try {
-        session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
-      } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+      session = openBorrowedSession();
+      if (session == null) {
+        waited = true;
+        try {
+          session = sessions.borrow(timeOutWaitNewSession, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) { // CHECKSTYLE:SKIP
+        }
       }
     }
 
     if (session == null) {
+      statistics.borrowTimedOut();
       throw new P11TokenException("no idle session");
     }
 
-    login(session.value());
+    session.borrowedAt = System.nanoTime();
+    statistics.sessionBorrowed(session.borrowedAt - start, waited);
+
+    if (checkLogin) {
+      try {
+        login(session.value());
+      } catch (P11TokenException ex) {
+        requiteSession(session);
+        throw ex;
+      }
+    }
     return session;
   } // method borrowSession
 
+  private void requiteSession(SessionEntry session) {
+    statistics.sessionReturned(System.nanoTime() - session.borrowedAt);
+    session.lastAccess = System.currentTimeMillis();
+    sessions.requite(session);
+  } // method requiteSession
+
+  private void returnSession(SessionEntry session, boolean usable) {
+    if (usable) {
+      requiteSession(session);
+    } else {
+      statistics.sessionReturned(System.nanoTime() - session.borrowedAt);
+      statistics.sessionDiscarded();
+      LOG.warn("discard broken session of slot {}", slotId);
+      removeSession(session);
+    }
+  } // method returnSession
+
+  /**
+   * Removes the borrowed or reserved session from the pool and closes it.
+   */
+  private void removeSession(SessionEntry session) {
+    if (sessions.remove(session)) {
+      countSessions.decrementAndGet();
+    }
+    closeSession(session.value());
+  } // method removeSession
+
+  private static boolean isSessionBroken(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+        || errorCode == PKCS11Constants.CKR_SESSION_CLOSED
+        || errorCode == PKCS11Constants.CKR_DEVICE_REMOVED
+        || errorCode == PKCS11Constants.CKR_DEVICE_ERROR
+        || errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT;
+  } // method isSessionBroken
+
+  private void startSessionChecker(int checkInterval) {
+    final String threadName = "p11-sessions-" + moduleName + "-" + slotId.getId();
+    sessionChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    });
+
+    sessionChecker.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          checkSessions();
+        } catch (Throwable th) {
+          LogUtil.error(LOG, th, "could not check the sessions of slot " + slotId);
+        }
+      }
+    }, checkInterval, checkInterval, TimeUnit.SECONDS);
+  } // method startSessionChecker
+
+  /**
+   * Closes the sessions which have been idle for too long, checks the login state of the other
+   * idle sessions, and opens sessions until there are minSessionCount sessions.
+   */
+  private void checkSessions() {
+    if (slot == null) {
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    for (SessionEntry session : sessions.values(IConcurrentBagEntry.STATE_NOT_IN_USE)) {
+      if (!sessions.reserve(session)) {
+        // borrowed in the meantime
+        continue;
+      }
+
+      if (countSessions.get() > minSessionCount
+          && now - session.lastAccess > sessionIdleTimeoutMs) {
+        statistics.idleSessionClosed();
+        removeSession(session);
+        continue;
+      }
+
+      try {
+        if (!checkSessionLoggedIn(session.value())) {
+          login(session.value());
+        }
+        sessions.unreserve(session);
+      } catch (P11TokenException ex) {
+        if (ex.getCause() instanceof PKCS11Exception) {
+          statistics.error(((PKCS11Exception) ex.getCause()).getErrorCode());
+        }
+        LogUtil.warn(LOG, ex, "discard unusable session of slot " + slotId);
+        statistics.sessionDiscarded();
+        removeSession(session);
+      }
+    }
+
+    openMinSessions();
+    statistics.sample(countSessions.get());
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("session pool of slot {}: {}", slotId, formatStatistics());
+    }
+  } // method checkSessions
+
+  private String formatStatistics() {
+    return statistics.format((int) countSessions.get(), minSessionCount, maxSessionCount);
+  }
+
+  @Override
+  public void showDetails(OutputStream stream, boolean verbose) throws IOException {
+    super.showDetails(stream, verbose);
+
+    String text = "\tSession pool:\n\t\t" + formatStatistics().replace("\n", "\n\t\t") + "\n";
+    stream.write(StringUtil.toUtf8Bytes(text));
+  } // method showDetails
+
   private void firstLogin(Session session, List<char[]> password) throws P11TokenException {
     try {
       boolean isProtectedAuthenticationPath =
@@ -950,7 +1492,8 @@ class IaikP11Slot extends P11Slot {
   } // method removeObjects
 
   private int removeObjects(Storage template, String desc) throws P11TokenException {
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    invalidateObjectCache();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       List<Storage> objects = getObjects(session, template);
@@ -972,17 +1515,18 @@ class IaikP11Slot extends P11Slot {
       LogUtil.error(LOG, ex, "could not remove " + desc);
       throw new P11TokenException(ex.getMessage(), ex);
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method removeObjects
 
   @Override
   protected void removeCerts0(P11ObjectIdentifier objectId) throws P11TokenException {
+    invalidateObjectCache();
     if (vendor == Vendor.YUBIKEY) {
       throw new P11TokenException("Unsupported operation removeCerts() in yubikey token");
     }
 
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       X509PublicKeyCertificate[] existingCerts = getCertificateObjects(session, objectId.getId(),
@@ -998,14 +1542,15 @@ class IaikP11Slot extends P11Slot {
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method removeCerts0
 
   @Override
   protected P11ObjectIdentifier addCert0(X509Cert cert, P11NewObjectControl control)
       throws P11TokenException {
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    invalidateObjectCache();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       X509PublicKeyCertificate newCertTemp = createPkcs11Template(session, cert, control);
@@ -1017,13 +1562,14 @@ class IaikP11Slot extends P11Slot {
     } catch (TokenException ex) {
       throw new P11TokenException(ex.getMessage(), ex);
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method addCert0
 
   @Override
   protected P11Identity generateSecretKey0(long keyType, int keysize, P11NewKeyControl control)
       throws P11TokenException {
+    invalidateObjectCache();
     if (keysize % 8 != 0) {
       throw new IllegalArgumentException("keysize is not multiple of 8: " + keysize);
     }
@@ -1098,7 +1644,7 @@ class IaikP11Slot extends P11Slot {
 
     Mechanism mechanism = Mechanism.get(mech);
     SecretKey key;
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       if (labelChars != null && labelExists(session, labelChars)) {
@@ -1126,14 +1672,14 @@ class IaikP11Slot extends P11Slot {
 
       return new IaikP11Identity(this, entityId, key);
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method generateSecretKey0
 
   @Override
   protected P11Identity importSecretKey0(long keyType, byte[] keyValue, P11NewKeyControl control)
       throws P11TokenException {
-
+    invalidateObjectCache();
     ValuedSecretKey template = new ValuedSecretKey(keyType);
     template.getToken().setBooleanValue(true);
 
@@ -1177,7 +1723,7 @@ class IaikP11Slot extends P11Slot {
     }
 
     SecretKey key;
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       if (labelChars != null && labelExists(session, labelChars)) {
@@ -1207,7 +1753,7 @@ class IaikP11Slot extends P11Slot {
 
       return new IaikP11Identity(this, entityId, key);
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method importSecretKey0
 
@@ -1331,6 +1877,7 @@ class IaikP11Slot extends P11Slot {
 
   private P11Identity generateKeyPair(long mech, byte[] id, PrivateKey privateKeyTemplate,
       PublicKey publicKeyTemplate) throws P11TokenException {
+    invalidateObjectCache();
     char[] labelChars = null;
     if (privateKeyTemplate.getLabel() != null) {
       labelChars = privateKeyTemplate.getLabel().getCharArrayValue();
@@ -1340,7 +1887,7 @@ class IaikP11Slot extends P11Slot {
 
     try {
       KeyPair keypair;
-      ConcurrentBagEntry<Session> bagEntry = borrowSession();
+      SessionEntry bagEntry = borrowSession();
       try {
         Session session = bagEntry.value();
         if (labelChars != null && labelExists(session, labelChars)) {
@@ -1400,7 +1947,7 @@ class IaikP11Slot extends P11Slot {
         succ = true;
         return ret;
       } finally {
-        sessions.requite(bagEntry);
+        requiteSession(bagEntry);
       }
     } finally {
       if (!succ && (id != null || labelChars != null)) {
@@ -1531,6 +2078,7 @@ class IaikP11Slot extends P11Slot {
   @Override
   protected void updateCertificate0(P11ObjectIdentifier keyId, X509Cert newCert)
       throws P11TokenException {
+    invalidateObjectCache();
     try {
       removeCerts(keyId);
     } catch (P11UnknownEntityException ex) {
@@ -1544,7 +2092,7 @@ class IaikP11Slot extends P11Slot {
     }
 
     P11NewObjectControl control = new P11NewObjectControl(keyId.getId(), keyId.getLabel());
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       X509PublicKeyCertificate newCertTemp = createPkcs11Template(session, newCert, control);
@@ -1552,7 +2100,7 @@ class IaikP11Slot extends P11Slot {
     } catch (TokenException ex) {
       throw new P11TokenException("could not createObject: " + ex.getMessage(), ex);
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method updateCertificate0
 
@@ -1583,7 +2131,8 @@ class IaikP11Slot extends P11Slot {
 
   @Override
   protected void removeIdentity0(P11IdentityId identityId) throws P11TokenException {
-    ConcurrentBagEntry<Session> bagEntry = borrowSession();
+    invalidateObjectCache();
+    SessionEntry bagEntry = borrowSession();
     try {
       Session session = bagEntry.value();
       P11ObjectIdentifier keyId = identityId.getKeyId();
@@ -1646,7 +2195,7 @@ class IaikP11Slot extends P11Slot {
         }
       }
     } finally {
-      sessions.requite(bagEntry);
+      requiteSession(bagEntry);
     }
   } // method removeIdentity0
 
@@ -0,0 +1,259 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.iaik;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Map;
+
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.HashAlgo;
+import org.xipki.security.X509Cert;
+import org.xipki.security.pkcs11.P11Identity;
+import org.xipki.security.pkcs11.P11IdentityId;
+import org.xipki.security.pkcs11.P11ObjectIdentifier;
+import org.xipki.security.pkcs11.P11Slot.P11SlotRefreshResult;
+import org.xipki.security.pkcs11.P11SlotIdentifier;
+import org.xipki.security.util.KeyUtil;
+import org.xipki.security.util.X509Util;
+import org.xipki.util.Args;
+import org.xipki.util.Base64;
+import org.xipki.util.Hex;
+import org.xipki.util.LogUtil;
+
+/**
+ * Persisted cache of the keys and certificates of a PKCS#11 slot, so that the slot does not need
+ * to be scanned after a restart. The cache contains the IDs and labels of the keys, the public
+ * keys and the certificates, but no object handles. It is ignored if it was written for another
+ * token or if its checksum does not match. Since another process may have changed the token,
+ * the slot scans the token in the background after the cache has been loaded.
+ *
+ * <p>The file is a text file with the lines:
+ * <pre>
+ * version=1
+ * token=&lt;base64 of the token description&gt;
+ * cert=&lt;hex id&gt;:&lt;base64 label&gt;:&lt;base64 certificate&gt;
+ * secretkey=&lt;hex id&gt;:&lt;base64 label&gt;
+ * privatekey=&lt;hex id&gt;:&lt;base64 label&gt;:&lt;base64 public key label&gt;
+ *     :&lt;base64 certificate label&gt;:&lt;base64 SubjectPublicKeyInfo&gt;
+ * checksum=&lt;hex SHA-256 of the preceding lines&gt;
+ * </pre>
+ * Absent labels are written as {@code -}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class P11ObjectCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(P11ObjectCache.class);
+
+  private static final String VERSION = "version=1";
+
+  private static final String NULL_VALUE = "-";
+
+  private final File file;
+
+  private final String token;
+
+  P11ObjectCache(File file, String token) {
+    this.file = Args.notNull(file, "file");
+    this.token = Base64.encodeToString(
+        Args.notNull(token, "token").getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads the keys and certificates from the cache. The identities are created without the
+   * PKCS#11 objects, these are found on first use.
+   *
+   * @param slot
+   *          Slot the identities belong to.
+   * @param result
+   *          Refresh result the keys and certificates are added to.
+   * @return whether the cache could be used.
+   */
+  boolean load(IaikP11Slot slot, P11SlotRefreshResult result) {
+    if (!file.exists()) {
+      LOG.info("object cache {} does not exist", file.getPath());
+      return false;
+    }
+
+    String[] lines;
+    try {
+      lines = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).split("\n");
+    } catch (IOException ex) {
+      LogUtil.warn(LOG, ex, "could not read object cache " + file.getPath());
+      return false;
+    }
+
+    int n = lines.length;
+    if (n < 3 || !VERSION.equals(lines[0]) || !("token=" + token).equals(lines[1])) {
+      LOG.warn("ignore object cache {}, it is of unknown version or for another token",
+          file.getPath());
+      return false;
+    }
+
+    String checksum = checksum(lines, n - 1);
+    if (!("checksum=" + checksum).equals(lines[n - 1])) {
+      LOG.warn("ignore object cache {}, checksum does not match", file.getPath());
+      return false;
+    }
+
+    P11SlotIdentifier slotId = slot.getSlotId();
+    P11SlotRefreshResult tmpResult = new P11SlotRefreshResult();
+    for (Long mech : result.getMechanisms()) {
+      tmpResult.addMechanism(mech);
+    }
+
+    try {
+      // certificates first, they are referenced by the private keys
+      for (int i = 2; i < n - 1; i++) {
+        if (lines[i].startsWith("cert=")) {
+          String[] tokens = lines[i].substring(5).split(":", -1);
+          P11ObjectIdentifier objectId = new P11ObjectIdentifier(Hex.decode(tokens[0]),
+              decodeText(tokens[1]));
+          tmpResult.addCertificate(objectId, X509Util.parseCert(Base64.decode(tokens[2])));
+        }
+      }
+
+      for (int i = 2; i < n - 1; i++) {
+        String line = lines[i];
+        if (line.startsWith("secretkey=")) {
+          String[] tokens = line.substring(10).split(":", -1);
+          P11ObjectIdentifier objectId = new P11ObjectIdentifier(Hex.decode(tokens[0]),
+              decodeText(tokens[1]));
+          tmpResult.addIdentity(new IaikP11Identity(slot,
+              new P11IdentityId(slotId, objectId, null, null), null));
+        } else if (line.startsWith("privatekey=")) {
+          String[] tokens = line.substring(11).split(":", -1);
+          byte[] id = Hex.decode(tokens[0]);
+          P11ObjectIdentifier objectId = new P11ObjectIdentifier(id, decodeText(tokens[1]));
+          PublicKey publicKey = KeyUtil.generatePublicKey(
+              SubjectPublicKeyInfo.getInstance(Base64.decode(tokens[4])));
+
+          X509Cert cert = tmpResult.getCertForId(id);
+          X509Cert[] certs = (cert == null) ? null : new X509Cert[]{cert};
+          P11IdentityId identityId = new P11IdentityId(slotId, objectId,
+              decodeText(tokens[2]), decodeText(tokens[3]));
+          tmpResult.addIdentity(new IaikP11Identity(slot, identityId, null, publicKey, certs));
+        } else if (!line.startsWith("cert=")) {
+          throw new IllegalArgumentException("unknown line " + (i + 1));
+        }
+      }
+    } catch (RuntimeException | CertificateException | InvalidKeySpecException ex) {
+      LogUtil.warn(LOG, ex, "ignore invalid object cache " + file.getPath());
+      return false;
+    }
+
+    result.getCertificates().putAll(tmpResult.getCertificates());
+    result.getIdentities().putAll(tmpResult.getIdentities());
+    LOG.info("read {} identities and {} certificates from the object cache {}",
+        tmpResult.getIdentities().size(), tmpResult.getCertificates().size(), file.getPath());
+    return true;
+  } // method load
+
+  void save(P11SlotRefreshResult result) {
+    StringBuilder sb = new StringBuilder(1000);
+    sb.append(VERSION).append("\n");
+    sb.append("token=").append(token).append("\n");
+
+    for (Map.Entry<P11ObjectIdentifier, X509Cert> entry : result.getCertificates().entrySet()) {
+      P11ObjectIdentifier objectId = entry.getKey();
+      sb.append("cert=").append(objectId.getIdHex()).append(":")
+        .append(encodeText(objectId.getLabel())).append(":")
+        .append(Base64.encodeToString(entry.getValue().getEncoded())).append("\n");
+    }
+
+    for (P11Identity identity : result.getIdentities().values()) {
+      P11IdentityId identityId = identity.getId();
+      P11ObjectIdentifier objectId = identityId.getKeyId();
+      PublicKey publicKey = identity.getPublicKey();
+      if (publicKey == null) {
+        sb.append("secretkey=").append(objectId.getIdHex()).append(":")
+          .append(encodeText(objectId.getLabel())).append("\n");
+      } else {
+        P11ObjectIdentifier publicKeyId = identityId.getPublicKeyId();
+        P11ObjectIdentifier certId = identityId.getCertId();
+        sb.append("privatekey=").append(objectId.getIdHex()).append(":")
+          .append(encodeText(objectId.getLabel())).append(":")
+          .append(encodeText(publicKeyId == null ? null : publicKeyId.getLabel())).append(":")
+          .append(encodeText(certId == null ? null : certId.getLabel())).append(":")
+          .append(Base64.encodeToString(publicKey.getEncoded())).append("\n");
+      }
+    }
+
+    String[] lines = sb.toString().split("\n");
+    sb.append("checksum=").append(checksum(lines, lines.length));
+
+    File tmpFile = new File(file.getPath() + ".tmp");
+    try {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (parent != null && !parent.exists()) {
+        parent.mkdirs();
+      }
+
+      Files.write(tmpFile.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      LOG.info("saved {} identities and {} certificates in the object cache {}",
+          result.getIdentities().size(), result.getCertificates().size(), file.getPath());
+    } catch (IOException ex) {
+      LogUtil.warn(LOG, ex, "could not save the object cache " + file.getPath());
+      tmpFile.delete();
+    }
+  } // method save
+
+  /**
+   * Deletes the cache, called if the objects on the token have been changed.
+   */
+  void invalidate() {
+    if (file.exists()) {
+      if (file.delete()) {
+        LOG.info("deleted the object cache {}", file.getPath());
+      } else {
+        LOG.warn("could not delete the object cache {}", file.getPath());
+      }
+    }
+  } // method invalidate
+
+  private static String checksum(String[] lines, int numLines) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < numLines; i++) {
+      sb.append(lines[i]).append("\n");
+    }
+    return HashAlgo.SHA256.hexHash(sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String encodeText(String text) {
+    return (text == null) ? NULL_VALUE
+        : Base64.encodeToString(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String decodeText(String encoded) {
+    return NULL_VALUE.equals(encoded) ? null
+        : new String(Base64.decode(encoded), StandardCharsets.UTF_8);
+  }
+
+}
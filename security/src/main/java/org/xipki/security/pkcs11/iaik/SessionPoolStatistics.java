@@ -0,0 +1,172 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.iaik;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import iaik.pkcs.pkcs11.wrapper.Functions;
+
+/**
+ * Usage statistics of the session pool of a PKCS#11 slot: utilisation, wait times to get a
+ * session and the error codes returned by the PKCS#11 device.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class SessionPoolStatistics {
+
+  private final long startTime = System.nanoTime();
+
+  private final AtomicLong numBorrowed = new AtomicLong();
+
+  private final AtomicLong numWaited = new AtomicLong();
+
+  private final AtomicLong numTimeouts = new AtomicLong();
+
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  private final AtomicLong maxWaitNanos = new AtomicLong();
+
+  private final AtomicLong busyNanos = new AtomicLong();
+
+  private final AtomicInteger inUse = new AtomicInteger();
+
+  private final AtomicInteger peakInUse = new AtomicInteger();
+
+  private final AtomicLong numOpened = new AtomicLong();
+
+  private final AtomicLong numClosedIdle = new AtomicLong();
+
+  private final AtomicLong numDiscarded = new AtomicLong();
+
+  private final ConcurrentMap<Long, AtomicLong> errors = new ConcurrentHashMap<>();
+
+  // sum of (number of open sessions * time), updated by the session checker
+  private long sessionNanos;
+
+  private long lastSampleTime = startTime;
+
+  void sessionBorrowed(long waitedNanos, boolean waited) {
+    numBorrowed.incrementAndGet();
+    if (waited) {
+      numWaited.incrementAndGet();
+    }
+    waitNanos.addAndGet(waitedNanos);
+
+    long max = maxWaitNanos.get();
+    while (waitedNanos > max && !maxWaitNanos.compareAndSet(max, waitedNanos)) {
+      max = maxWaitNanos.get();
+    }
+
+    int current = inUse.incrementAndGet();
+    int peak = peakInUse.get();
+    while (current > peak && !peakInUse.compareAndSet(peak, current)) {
+      peak = peakInUse.get();
+    }
+  } // method sessionBorrowed
+
+  void sessionReturned(long heldNanos) {
+    inUse.decrementAndGet();
+    busyNanos.addAndGet(heldNanos);
+  }
+
+  void borrowTimedOut() {
+    numTimeouts.incrementAndGet();
+  }
+
+  void sessionOpened() {
+    numOpened.incrementAndGet();
+  }
+
+  void idleSessionClosed() {
+    numClosedIdle.incrementAndGet();
+  }
+
+  void sessionDiscarded() {
+    numDiscarded.incrementAndGet();
+  }
+
+  void error(long errorCode) {
+    AtomicLong counter = errors.get(errorCode);
+    if (counter == null) {
+      AtomicLong newCounter = new AtomicLong();
+      counter = errors.putIfAbsent(errorCode, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.incrementAndGet();
+  } // method error
+
+  /**
+   * Records the number of open sessions since the last call, used to compute the utilisation.
+   *
+   * @param numSessions
+   *          Number of currently open sessions.
+   */
+  synchronized void sample(long numSessions) {
+    long now = System.nanoTime();
+    sessionNanos += numSessions * (now - lastSampleTime);
+    lastSampleTime = now;
+  }
+
+  synchronized String format(int numSessions, int minCount, int maxCount) {
+    long now = System.nanoTime();
+    long totalSessionNanos = sessionNanos + numSessions * (now - lastSampleTime);
+
+    long borrowed = numBorrowed.get();
+    StringBuilder sb = new StringBuilder(300);
+    sb.append("sessions: ").append(numSessions).append(" (min ").append(minCount)
+      .append(", max ").append(maxCount).append("), in use: ").append(inUse.get())
+      .append(", peak in use: ").append(peakInUse.get())
+      .append(", utilisation: ")
+      .append(totalSessionNanos == 0 ? 0 : busyNanos.get() * 100 / totalSessionNanos)
+      .append("%\n");
+
+    sb.append("borrowed: ").append(borrowed).append(", waited: ").append(numWaited.get())
+      .append(", timed out: ").append(numTimeouts.get())
+      .append(", average wait: ").append(borrowed == 0 ? 0 : waitNanos.get() / borrowed / 1000)
+      .append(" us, max wait: ").append(maxWaitNanos.get() / 1000).append(" us\n");
+
+    sb.append("opened: ").append(numOpened.get())
+      .append(", closed (idle): ").append(numClosedIdle.get())
+      .append(", discarded (broken): ").append(numDiscarded.get()).append("\n");
+
+    sb.append("errors:");
+    if (errors.isEmpty()) {
+      sb.append(" none");
+    } else {
+      List<Long> codes = new ArrayList<>(errors.keySet());
+      Collections.sort(codes);
+      for (Long code : codes) {
+        sb.append(" ").append(Functions.errorCodeToString(code)).append("=")
+          .append(errors.get(code).get());
+      }
+    }
+
+    return sb.toString();
+  } // method format
+
+}
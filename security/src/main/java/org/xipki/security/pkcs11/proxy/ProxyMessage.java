@@ -19,6 +19,7 @@ package org.xipki.security.pkcs11.proxy;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -1880,6 +1881,170 @@ public abstract class ProxyMessage extends ASN1Object {
     }
   } // class SignTemplate
 
+  /**
+   * Definition of SignBatchTemplate.
+   *
+   * <pre>
+   * SignBatchTemplate ::= SEQUENCE OF SignTemplate
+   * </pre>
+   */
+  public static class SignBatchTemplate extends ProxyMessage {
+
+    private final List<SignTemplate> templates;
+
+    private SignBatchTemplate(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      List<SignTemplate> list = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        list.add(SignTemplate.getInstance(seq.getObjectAt(i)));
+      }
+      this.templates = Collections.unmodifiableList(list);
+    }
+
+    public SignBatchTemplate(List<SignTemplate> templates) {
+      this.templates = Collections.unmodifiableList(Args.notEmpty(templates, "templates"));
+    }
+
+    public static SignBatchTemplate getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignBatchTemplate) {
+        return (SignBatchTemplate) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignBatchTemplate((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vector = new ASN1EncodableVector();
+      for (SignTemplate template : templates) {
+        vector.add(template);
+      }
+      return new DERSequence(vector);
+    }
+
+    public List<SignTemplate> getTemplates() {
+      return templates;
+    }
+
+  } // class SignBatchTemplate
+
+  /**
+   * Definition of SignBatchResult, the results are in the same order as the templates in
+   * SignBatchTemplate.
+   *
+   * <pre>
+   * SignBatchResult ::= SEQUENCE OF SignResult
+   *
+   * SignResult ::= CHOICE {
+   *     signature      OCTET STRING,
+   *     returnCode     INTEGER }
+   * </pre>
+   */
+  public static class SignBatchResult extends ProxyMessage {
+
+    private final byte[][] signatures;
+
+    private final short[] returnCodes;
+
+    private SignBatchResult(ASN1Sequence seq) throws BadAsn1ObjectException {
+      final int size = seq.size();
+      this.signatures = new byte[size][];
+      this.returnCodes = new short[size];
+      for (int i = 0; i < size; i++) {
+        ASN1Encodable obj = seq.getObjectAt(i);
+        if (obj instanceof ASN1OctetString) {
+          signatures[i] = ((ASN1OctetString) obj).getOctets();
+        } else if (obj instanceof ASN1Integer) {
+          returnCodes[i] = ((ASN1Integer) obj).getValue().shortValue();
+          if (returnCodes[i] == P11ProxyConstants.RC_SUCCESS) {
+            throw new BadAsn1ObjectException("returnCode must not be RC_SUCCESS");
+          }
+        } else {
+          throw new BadAsn1ObjectException("invalid SignResult: " + obj.getClass().getName());
+        }
+      }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param signatures
+     *          Signatures, {@code null} at the position of failed templates.
+     * @param returnCodes
+     *          Return codes of the failed templates, ignored if the signature is present.
+     */
+    public SignBatchResult(byte[][] signatures, short[] returnCodes) {
+      this.signatures = Args.notNull(signatures, "signatures");
+      this.returnCodes = Args.notNull(returnCodes, "returnCodes");
+      if (signatures.length != returnCodes.length) {
+        throw new IllegalArgumentException("signatures and returnCodes have different lengths");
+      }
+    }
+
+    public static SignBatchResult getInstance(Object obj) throws BadAsn1ObjectException {
+      if (obj == null || obj instanceof SignBatchResult) {
+        return (SignBatchResult) obj;
+      }
+
+      try {
+        if (obj instanceof ASN1Sequence) {
+          return new SignBatchResult((ASN1Sequence) obj);
+        } else if (obj instanceof byte[]) {
+          return getInstance(ASN1Primitive.fromByteArray((byte[]) obj));
+        } else {
+          throw new BadAsn1ObjectException("unknown object: " + obj.getClass().getName());
+        }
+      } catch (IOException | IllegalArgumentException ex) {
+        throw new BadAsn1ObjectException("unable to parse encoded object: " + ex.getMessage(),
+            ex);
+      }
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive() {
+      ASN1EncodableVector vector = new ASN1EncodableVector();
+      for (int i = 0; i < signatures.length; i++) {
+        if (signatures[i] != null) {
+          vector.add(new DEROctetString(signatures[i]));
+        } else {
+          vector.add(new ASN1Integer(returnCodes[i]));
+        }
+      }
+      return new DERSequence(vector);
+    }
+
+    public int size() {
+      return signatures.length;
+    }
+
+    /**
+     * Returns the signature of the template at the given position.
+     *
+     * @param index
+     *          Position of the template.
+     * @return the signature, or {@code null} if the template could not be signed.
+     */
+    public byte[] getSignature(int index) {
+      return signatures[index];
+    }
+
+    public short getReturnCode(int index) {
+      return signatures[index] != null ? P11ProxyConstants.RC_SUCCESS : returnCodes[index];
+    }
+
+  } // class SignBatchResult
+
   private static void requireRange(ASN1Sequence seq, int minSize, int maxSize)
       throws BadAsn1ObjectException {
     int size = seq.size();
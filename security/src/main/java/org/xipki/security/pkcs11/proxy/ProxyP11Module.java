@@ -40,7 +40,9 @@ import javax.net.ssl.SSLSocketFactory;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
 import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xipki.security.BadAsn1ObjectException;
@@ -85,6 +87,16 @@ public class ProxyP11Module extends P11Module {
 
   private static final String PROP_SSL_HOStNAMEVERIFIER = "ssl.hostnameVerifier";
 
+  private static final String PROP_SIGN_CONNECTIONS = "sign.connections";
+
+  private static final String PROP_SIGN_MAX_BATCH_SIZE = "sign.maxBatchSize";
+
+  // the JDK keeps at most 5 idle connections per server alive (system property
+  // http.maxConnections), leave one for the other actions.
+  private static final int DFLT_SIGN_CONNECTIONS = 4;
+
+  private static final int DFLT_SIGN_MAX_BATCH_SIZE = 100;
+
   private static final Logger LOG = LoggerFactory.getLogger(ProxyP11Module.class);
 
   private static final String REQUEST_MIMETYPE = "application/x-xipki-pkcs11";
@@ -107,6 +119,12 @@ public class ProxyP11Module extends P11Module {
 
   private HostnameVerifier hostnameVerifier;
 
+  private final int signConnections;
+
+  private final int signMaxBatchSize;
+
+  private ProxySignBatcher signBatcher;
+
   private ProxyP11Module(P11ModuleConf moduleConf) throws P11TokenException {
     super(moduleConf);
 
@@ -139,6 +157,11 @@ public class ProxyP11Module extends P11Module {
       throw new P11TokenException("invalid module: " + moduleStr);
     }
 
+    this.signConnections = getPositiveInt(confPairs, PROP_SIGN_CONNECTIONS,
+        DFLT_SIGN_CONNECTIONS);
+    this.signMaxBatchSize = getPositiveInt(confPairs, PROP_SIGN_MAX_BATCH_SIZE,
+        DFLT_SIGN_MAX_BATCH_SIZE);
+
     String sslStoreType = confPairs.value(PROP_SSL_STORETYPE);
     String sslKeystore = confPairs.value(PROP_SSL_KEYSTORE);
     String sslKeystorePassword = confPairs.value(PROP_SSL_KEYSTOREPASSWORD);
@@ -188,6 +211,23 @@ public class ProxyP11Module extends P11Module {
     refresh();
   } // constructor
 
+  private static int getPositiveInt(ConfPairs confPairs, String name, int dfltValue)
+      throws P11TokenException {
+    String str = confPairs.value(name);
+    if (str == null) {
+      return dfltValue;
+    }
+
+    try {
+      int value = Integer.parseInt(str.trim());
+      if (value > 0) {
+        return value;
+      }
+    } catch (NumberFormatException ex) { // CHECKSTYLE:SKIP
+    }
+    throw new P11TokenException("invalid " + name + ": " + str);
+  } // method getPositiveInt
+
   public static P11Module getInstance(P11ModuleConf moduleConf) throws P11TokenException {
     Args.notNull(moduleConf, "moduleConf");
     return new ProxyP11Module(moduleConf);
@@ -213,6 +253,15 @@ public class ProxyP11Module extends P11Module {
     }
     this.readOnly = caps.isReadOnly();
 
+    if (caps.getVersions().contains(P11ProxyConstants.VERSION_V1_1)) {
+      if (signBatcher == null) {
+        signBatcher = new ProxySignBatcher(this, signConnections, signMaxBatchSize);
+      }
+    } else if (signBatcher != null) {
+      signBatcher.close();
+      signBatcher = null;
+    }
+
     resp = send(P11ProxyConstants.ACTION_GET_SLOT_IDS, null);
 
     ASN1Sequence seq;
@@ -258,6 +307,11 @@ public class ProxyP11Module extends P11Module {
 
   @Override
   public void close() {
+    if (signBatcher != null) {
+      signBatcher.close();
+      signBatcher = null;
+    }
+
     for (P11SlotIdentifier slotId : getSlotIds()) {
       try {
         getSlot(slotId).close();
@@ -284,27 +338,20 @@ public class ProxyP11Module extends P11Module {
     httpUrlConnection.setDoOutput(true);
     httpUrlConnection.setUseCaches(false);
 
-    int size = request.length;
-
     httpUrlConnection.setRequestMethod("POST");
     httpUrlConnection.setRequestProperty("Content-Type", REQUEST_MIMETYPE);
-    httpUrlConnection.setRequestProperty("Content-Length", Integer.toString(size));
+    // write the request directly to the connection instead of buffering it
+    httpUrlConnection.setFixedLengthStreamingMode(request.length);
     OutputStream outputstream = httpUrlConnection.getOutputStream();
     outputstream.write(request);
     outputstream.flush();
 
     if (httpUrlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+      // read the whole response, so that the connection can be reused
       try {
-        try {
-          InputStream is = httpUrlConnection.getInputStream();
-          if (is != null) {
-            is.close();
-          }
-        } catch (IOException ex) {
-          InputStream errStream = httpUrlConnection.getErrorStream();
-          if (errStream != null) {
-            errStream.close();
-          }
+        InputStream errStream = httpUrlConnection.getErrorStream();
+        if (errStream != null) {
+          readFully(errStream, -1);
         }
       } catch (Throwable th) {
         // ignore it
@@ -325,34 +372,48 @@ public class ProxyP11Module extends P11Module {
       throw ex;
     }
 
+    String responseContentType = httpUrlConnection.getContentType();
+    if (responseContentType == null || !responseContentType.equalsIgnoreCase(RESPONSE_MIMETYPE)) {
+      inputstream.close();
+      throw new IOException("bad response: mime type " + responseContentType
+          + " is not supported!");
+    }
+
+    // the connection is kept alive if the response has been read completely
+    return readFully(inputstream, httpUrlConnection.getContentLength());
+  } // method send
+
+  private static byte[] readFully(InputStream inputstream, int contentLength)
+      throws IOException {
     try {
-      String responseContentType = httpUrlConnection.getContentType();
-      boolean isValidContentType = false;
-      if (responseContentType != null) {
-        if (responseContentType.equalsIgnoreCase(RESPONSE_MIMETYPE)) {
-          isValidContentType = true;
-        }
-      }
-      if (!isValidContentType) {
-        throw new IOException("bad response: mime type " + responseContentType
-            + " is not supported!");
+      if (contentLength < 0) {
+        byte[] buf = new byte[4096];
+        ByteArrayOutputStream bytearrayoutputstream = new ByteArrayOutputStream();
+        do {
+          int readedByte = inputstream.read(buf);
+          if (readedByte == -1) {
+            break;
+          }
+          bytearrayoutputstream.write(buf, 0, readedByte);
+        } while (true);
+
+        return bytearrayoutputstream.toByteArray();
       }
 
-      byte[] buf = new byte[4096];
-      ByteArrayOutputStream bytearrayoutputstream = new ByteArrayOutputStream();
-      do {
-        int readedByte = inputstream.read(buf);
+      byte[] bytes = new byte[contentLength];
+      int offset = 0;
+      while (offset < contentLength) {
+        int readedByte = inputstream.read(bytes, offset, contentLength - offset);
         if (readedByte == -1) {
-          break;
+          throw new IOException("response too short: " + offset + " < " + contentLength);
         }
-        bytearrayoutputstream.write(buf, 0, readedByte);
-      } while (true);
-
-      return bytearrayoutputstream.toByteArray();
+        offset += readedByte;
+      }
+      return bytes;
     } finally {
       inputstream.close();
     }
-  } // method send
+  } // method readFully
 
   /**
    * The request is constructed as follows.
@@ -387,8 +448,10 @@ public class ProxyP11Module extends P11Module {
 
     byte[] request = new byte[10 + bodyLen];
 
-    // version
-    IoUtil.writeShort(version, request, 0);
+    // version, the batch messages have been introduced in version 1.1
+    short reqVersion = (action == P11ProxyConstants.ACTION_SIGN_BATCH)
+        ? P11ProxyConstants.VERSION_V1_1 : version;
+    IoUtil.writeShort(reqVersion, request, 0);
 
     // transaction id
     byte[] transactionId = randomTransactionId();
@@ -436,7 +499,7 @@ public class ProxyP11Module extends P11Module {
 
     // Version
     short respVersion = IoUtil.parseShort(response, 0);
-    if (version != respVersion) {
+    if (reqVersion != respVersion) {
       throw new P11TokenException("version of response and request unmatch");
     }
 
@@ -464,6 +527,36 @@ public class ProxyP11Module extends P11Module {
     return respContent;
   } // method send
 
+  /**
+   * Signs the template. If the server supports {@link P11ProxyConstants#ACTION_SIGN_BATCH},
+   * concurrent requests are sent together in one message.
+   *
+   * @param signTemplate
+   *          Template to be signed. Must not be {@code null}.
+   * @return the signature.
+   * @throws P11TokenException
+   *           If error occurred.
+   */
+  byte[] sign(ProxyMessage.SignTemplate signTemplate) throws P11TokenException {
+    ProxySignBatcher batcher = signBatcher;
+    if (batcher != null) {
+      return batcher.sign(signTemplate);
+    }
+
+    return getSignature(send(P11ProxyConstants.ACTION_SIGN, signTemplate));
+  } // method sign
+
+  static byte[] getSignature(byte[] result) throws P11TokenException {
+    ASN1OctetString octetString;
+    try {
+      octetString = DEROctetString.getInstance(result);
+    } catch (IllegalArgumentException ex) {
+      throw new P11TokenException("the returned result is not OCTET STRING");
+    }
+
+    return (octetString == null) ? null : octetString.getOctets();
+  } // method getSignature
+
   private byte[] randomTransactionId() {
     byte[] tid = new byte[4];
     random.nextBytes(tid);
@@ -0,0 +1,219 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.pkcs11.proxy;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.security.BadAsn1ObjectException;
+import org.xipki.security.pkcs11.P11TokenException;
+import org.xipki.util.Args;
+import org.xipki.util.LogUtil;
+
+/**
+ * Sends the sign requests of a {@link ProxyP11Module} via a fixed number of sender threads, so
+ * that at most as many HTTP connections are used and they are kept alive. Each sender takes all
+ * waiting requests, up to the maximal batch size, and sends them in one
+ * {@link P11ProxyConstants#ACTION_SIGN_BATCH} message. The more requests are waiting, the larger
+ * the batches are; a single waiting request is sent via {@link P11ProxyConstants#ACTION_SIGN}.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+
+class ProxySignBatcher implements Closeable {
+
+  private static class SignRequest {
+
+    private final ProxyMessage.SignTemplate template;
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private byte[] signature;
+
+    private P11TokenException error;
+
+    SignRequest(ProxyMessage.SignTemplate template) {
+      this.template = template;
+    }
+
+    void finish(byte[] signature, P11TokenException error) {
+      this.signature = signature;
+      this.error = error;
+      latch.countDown();
+    }
+
+  } // class SignRequest
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProxySignBatcher.class);
+
+  private final ProxyP11Module module;
+
+  private final int maxBatchSize;
+
+  private final BlockingQueue<SignRequest> queue = new LinkedBlockingQueue<>();
+
+  private final ExecutorService senders;
+
+  private volatile boolean closed;
+
+  ProxySignBatcher(ProxyP11Module module, int numSenders, int maxBatchSize) {
+    this.module = Args.notNull(module, "module");
+    this.maxBatchSize = Args.positive(maxBatchSize, "maxBatchSize");
+    Args.positive(numSenders, "numSenders");
+
+    final String threadPrefix = "p11proxy-" + module.getName() + "-";
+    this.senders = Executors.newFixedThreadPool(numSenders, new ThreadFactory() {
+
+      private final AtomicInteger index = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, threadPrefix + index.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+
+    });
+
+    for (int i = 0; i < numSenders; i++) {
+      senders.submit(new Runnable() {
+        @Override
+        public void run() {
+          work();
+        }
+      });
+    }
+  } // constructor
+
+  byte[] sign(ProxyMessage.SignTemplate template) throws P11TokenException {
+    if (closed) {
+      throw new P11TokenException("ProxySignBatcher has been closed");
+    }
+
+    SignRequest request = new SignRequest(template);
+    queue.add(request);
+    if (closed && queue.remove(request)) {
+      throw new P11TokenException("ProxySignBatcher has been closed");
+    }
+
+    try {
+      request.latch.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new P11TokenException("interrupted while waiting for the signature");
+    }
+
+    if (request.error != null) {
+      throw new P11TokenException(request.error.getMessage(), request.error);
+    }
+    return request.signature;
+  } // method sign
+
+  private void work() {
+    while (!closed) {
+      SignRequest first;
+      try {
+        first = queue.take();
+      } catch (InterruptedException ex) {
+        break;
+      }
+
+      List<SignRequest> batch = new ArrayList<>(Math.min(maxBatchSize, 1 + queue.size()));
+      batch.add(first);
+      queue.drainTo(batch, maxBatchSize - 1);
+
+      try {
+        send(batch);
+      } catch (P11TokenException ex) {
+        finish(batch, ex);
+      } catch (RuntimeException ex) {
+        LogUtil.error(LOG, ex, "could not send sign requests");
+        finish(batch, new P11TokenException(ex.getMessage(), ex));
+      }
+    }
+  } // method work
+
+  private void send(List<SignRequest> batch) throws P11TokenException {
+    final int size = batch.size();
+    if (size == 1) {
+      SignRequest request = batch.get(0);
+      byte[] result = module.send(P11ProxyConstants.ACTION_SIGN, request.template);
+      request.finish(ProxyP11Module.getSignature(result), null);
+      return;
+    }
+
+    List<ProxyMessage.SignTemplate> templates = new ArrayList<>(size);
+    for (SignRequest request : batch) {
+      templates.add(request.template);
+    }
+
+    byte[] resp = module.send(P11ProxyConstants.ACTION_SIGN_BATCH,
+        new ProxyMessage.SignBatchTemplate(templates));
+
+    ProxyMessage.SignBatchResult result;
+    try {
+      result = ProxyMessage.SignBatchResult.getInstance(resp);
+    } catch (BadAsn1ObjectException ex) {
+      throw new P11TokenException("response is not a valid SignBatchResult", ex);
+    }
+
+    if (result == null || result.size() != size) {
+      throw new P11TokenException("number of results and requests unmatch");
+    }
+
+    for (int i = 0; i < size; i++) {
+      byte[] signature = result.getSignature(i);
+      if (signature != null) {
+        batch.get(i).finish(signature, null);
+      } else {
+        batch.get(i).finish(null, new P11TokenException("server returned RC "
+            + P11ProxyConstants.getReturnCodeName(result.getReturnCode(i))));
+      }
+    }
+  } // method send
+
+  private static void finish(List<SignRequest> batch, P11TokenException error) {
+    for (SignRequest request : batch) {
+      if (request.latch.getCount() > 0) {
+        request.finish(null, error);
+      }
+    }
+  } // method finish
+
+  @Override
+  public void close() {
+    closed = true;
+    senders.shutdownNow();
+
+    List<SignRequest> remaining = new ArrayList<>(queue.size());
+    queue.drainTo(remaining);
+    finish(remaining, new P11TokenException("ProxySignBatcher has been closed"));
+  } // method close
+
+}
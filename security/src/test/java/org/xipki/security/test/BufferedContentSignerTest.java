@@ -0,0 +1,103 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xipki.security.test;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.security.BufferedContentSigner;
+import org.xipki.security.DfltConcurrentContentSigner;
+import org.xipki.security.SignatureSigner;
+import org.xipki.security.XiContentSigner;
+
+import junit.framework.Assert;
+
+/**
+ * BufferedContentSigner test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+public class BufferedContentSignerTest {
+
+  private static final AlgorithmIdentifier SIG_ALGID =
+      new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+
+  private static KeyPair keypair;
+
+  private static DfltConcurrentContentSigner signer;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keypair = kpGen.generateKeyPair();
+
+    List<XiContentSigner> signers = new ArrayList<>(1);
+    signers.add(new SignatureSigner(SIG_ALGID, Signature.getInstance("SHA256withRSA"),
+        keypair.getPrivate()));
+    signer = new DfltConcurrentContentSigner(false, signers);
+  }
+
+  @Test
+  public void signInSeveralWrites() throws Exception {
+    BufferedContentSigner bufferedSigner = new BufferedContentSigner(signer);
+    Assert.assertEquals("algorithm identifier", SIG_ALGID,
+        bufferedSigner.getAlgorithmIdentifier());
+    Assert.assertTrue("encoded algorithm identifier", Arrays.equals(SIG_ALGID.getEncoded(),
+        bufferedSigner.getEncodedAlgorithmIdentifier()));
+
+    byte[] data = "data to be signed".getBytes(StandardCharsets.UTF_8);
+    OutputStream os = bufferedSigner.getOutputStream();
+    os.write(data, 0, 5);
+    os.write(data[5]);
+    os.write(data, 6, data.length - 6);
+    Assert.assertTrue("signature", verify(data, bufferedSigner.getSignature()));
+  }
+
+  @Test
+  public void signTwice() throws Exception {
+    BufferedContentSigner bufferedSigner = new BufferedContentSigner(signer);
+    byte[] data1 = "first data".getBytes(StandardCharsets.UTF_8);
+    bufferedSigner.getOutputStream().write(data1);
+    Assert.assertTrue("first signature", verify(data1, bufferedSigner.getSignature()));
+
+    // getOutputStream() discards the data written before
+    byte[] data2 = "second data".getBytes(StandardCharsets.UTF_8);
+    bufferedSigner.getOutputStream().write(data2);
+    Assert.assertTrue("second signature", verify(data2, bufferedSigner.getSignature()));
+  }
+
+  private static boolean verify(byte[] data, byte[] signature) throws Exception {
+    Signature verifier = Signature.getInstance("SHA256withRSA");
+    verifier.initVerify(keypair.getPublic());
+    verifier.update(data);
+    return verifier.verify(signature);
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xipki.security.test;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.security.ObjectIdentifiers;
+import org.xipki.security.asn1.CertificateEncoder;
+
+import junit.framework.Assert;
+
+/**
+ * CertificateEncoder test, the certificates must be identical to those built by BouncyCastle.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+public class CertificateEncoderTest {
+
+  private static KeyPair keypair;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    if (Security.getProvider("BC") == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keypair = kpGen.generateKeyPair();
+  }
+
+  @Test
+  public void encodeCertWithoutExtensions() throws Exception {
+    encodeCert(BigInteger.ONE, new Date(1000000000000L), new Date(1600000000000L), false);
+  }
+
+  @Test
+  public void encodeCertWithExtensions() throws Exception {
+    // notAfter after 2049 is encoded as GeneralizedTime
+    encodeCert(new BigInteger("00ff0123456789abcdef0123456789abcdef012345", 16),
+        new Date(1577836800000L), new Date(2556143999000L), true);
+  }
+
+  @Test
+  public void encodeCertWithNegativeSerial() throws Exception {
+    encodeCert(BigInteger.valueOf(-128), new Date(), new Date(System.currentTimeMillis()
+        + 365L * 24 * 3600 * 1000), true);
+  }
+
+  private static void encodeCert(BigInteger serialNumber, Date notBefore, Date notAfter,
+      boolean withExtensions) throws Exception {
+    X500Name issuer = new X500Name("CN=issuer,O=xipki,C=DE");
+    StringBuilder sb = new StringBuilder("CN=subject");
+    for (int i = 0; i < 20; i++) {
+      sb.append(",OU=organization unit ").append(i);
+    }
+    X500Name subject = new X500Name(sb.toString());
+
+    SubjectPublicKeyInfo publicKeyInfo =
+        SubjectPublicKeyInfo.getInstance(keypair.getPublic().getEncoded());
+
+    X509v3CertificateBuilder bcBuilder = new X509v3CertificateBuilder(issuer, serialNumber,
+        notBefore, notAfter, subject, publicKeyInfo);
+    CertificateEncoder encoder = new CertificateEncoder(issuer, serialNumber,
+        notBefore, notAfter, subject, publicKeyInfo);
+
+    if (withExtensions) {
+      BasicConstraints bc = new BasicConstraints(false);
+      bcBuilder.addExtension(Extension.basicConstraints, true, bc);
+      encoder.addExtension(Extension.basicConstraints, true, bc.getEncoded());
+
+      KeyUsage ku = new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment);
+      bcBuilder.addExtension(Extension.keyUsage, true, ku);
+      encoder.addExtension(Extension.keyUsage, true, ku);
+
+      GeneralName[] names = new GeneralName[50];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = new GeneralName(GeneralName.dNSName, "host" + i + ".example.com");
+      }
+      GeneralNames san = new GeneralNames(names);
+      bcBuilder.addExtension(Extension.subjectAlternativeName, false, san);
+      encoder.addExtension(Extension.subjectAlternativeName, false, san);
+
+      // precertificate poison, removed afterwards
+      bcBuilder.addExtension(ObjectIdentifiers.Extn.id_precertificate, true, DERNull.INSTANCE);
+      encoder.addExtension(ObjectIdentifiers.Extn.id_precertificate, true, DERNull.INSTANCE);
+
+      byte[] bcPrecert = bcBuilder.build(newSigner()).getEncoded();
+      byte[] precert = encoder.build(newSigner());
+      Assert.assertTrue("precertificate", Arrays.equals(bcPrecert, precert));
+
+      bcBuilder.removeExtension(ObjectIdentifiers.Extn.id_precertificate);
+      encoder.removeExtension(ObjectIdentifiers.Extn.id_precertificate);
+
+      DEROctetString scts = new DEROctetString(new byte[300]);
+      bcBuilder.addExtension(ObjectIdentifiers.Extn.id_SCTs, false, scts);
+      encoder.addExtension(ObjectIdentifiers.Extn.id_SCTs, false, scts);
+    }
+
+    byte[] bcCert = bcBuilder.build(newSigner()).getEncoded();
+    byte[] cert = encoder.build(newSigner());
+    Assert.assertTrue("certificate", Arrays.equals(bcCert, cert));
+  }
+
+  private static ContentSigner newSigner() throws Exception {
+    // RSA PKCS#1 v1.5 signatures are deterministic
+    return new JcaContentSignerBuilder("SHA256withRSA").setProvider("BC")
+        .build(keypair.getPrivate());
+  }
+
+}
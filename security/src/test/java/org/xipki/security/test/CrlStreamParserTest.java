@@ -23,19 +23,32 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
 import java.security.Security;
+import java.util.Arrays;
+import java.util.Date;
 
 import javax.security.cert.CertificateEncodingException;
 
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Certificate;
+import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.Extensions;
+import org.bouncycastle.cert.X509CRLHolder;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.xipki.security.ObjectIdentifiers;
 import org.xipki.security.asn1.CrlCertSetStreamParser;
 import org.xipki.security.asn1.CrlCertSetStreamParser.CrlCertsIterator;
+import org.xipki.security.asn1.CrlStreamEncoder;
 import org.xipki.security.asn1.CrlStreamParser;
+import org.xipki.security.asn1.CrlStreamParser.RevokedCert;
 import org.xipki.security.asn1.CrlStreamParser.RevokedCertsIterator;
 import org.xipki.security.util.X509Util;
 
@@ -210,6 +223,68 @@ public class CrlStreamParserTest {
     Assert.assertEquals("#revokedCertificates", 0, numRevokedCerts);
   }
 
+  @Test
+  public void parseEncodedCrl() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+    kpGen.initialize(256);
+    KeyPair keypair = kpGen.generateKeyPair();
+    ContentSigner signer = new JcaContentSignerBuilder("SHA256withECDSA")
+        .build(keypair.getPrivate());
+
+    X500Name issuer = new X500Name("CN=issuer");
+    X500Name certIssuer = new X500Name("CN=cert-issuer");
+    Date thisUpdate = new Date((System.currentTimeMillis() / 1000) * 1000);
+    Date nextUpdate = new Date(thisUpdate.getTime() + 24L * 3600 * 1000);
+
+    final int numRevokedCerts = 10;
+    SecureRandom random = new SecureRandom();
+
+    // runs of 3 entries, the entries must be merged
+    try (CrlStreamEncoder encoder = new CrlStreamEncoder(issuer, thisUpdate, nextUpdate,
+        null, 3)) {
+      encoder.setCertificateIssuer(certIssuer);
+      for (int i = 0; i < numRevokedCerts; i++) {
+        encoder.addRevokedCert(new BigInteger(64, random).add(BigInteger.ONE), thisUpdate,
+            null);
+      }
+      encoder.addExtension(Extension.cRLNumber, false, new ASN1Integer(7));
+
+      File crlFile = encoder.build(signer);
+
+      CrlStreamParser parser = new CrlStreamParser(crlFile);
+      Assert.assertEquals("version", 1, parser.getVersion());
+      Assert.assertEquals("issuer", issuer, parser.getIssuer());
+      Assert.assertEquals("nextUpdate", nextUpdate, parser.getNextUpdate());
+      Assert.assertEquals("CRL number", BigInteger.valueOf(7), parser.getCrlNumber());
+      Assert.assertTrue("signature", parser.verifySignature(keypair.getPublic()));
+
+      int num = 0;
+      BigInteger prevSerial = BigInteger.ZERO;
+      try (RevokedCertsIterator iterator = parser.revokedCertificates()) {
+        while (iterator.hasNext()) {
+          RevokedCert revokedCert = iterator.next();
+          Assert.assertTrue("sorted", revokedCert.getSerialNumber().compareTo(prevSerial) > 0);
+          prevSerial = revokedCert.getSerialNumber();
+          if (num == 0) {
+            Assert.assertEquals("certificateIssuer", certIssuer,
+                revokedCert.getCertificateIssuer());
+          }
+          num++;
+        }
+      }
+
+      Assert.assertEquals("#revokedCertificates", numRevokedCerts, num);
+
+      // the CRL must be parseable by BouncyCastle, and DER encoded
+      byte[] encodedCrl = Files.readAllBytes(crlFile.toPath());
+      X509CRLHolder crl = X509Util.parseCrl(encodedCrl);
+      Assert.assertEquals("issuer", issuer, crl.getIssuer());
+      Assert.assertEquals("#revokedCertificates", numRevokedCerts,
+          crl.getRevokedCertificates().size());
+      Assert.assertTrue("DER encoding", Arrays.equals(encodedCrl, crl.getEncoded()));
+    }
+  }
+
   private static Certificate parseCert(String fileName)
       throws IOException, CertificateEncodingException {
     try {
@@ -0,0 +1,137 @@
+/*
+ *
+ * Copyright (c) 2013 - 2020 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xipki.security.test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.pkcs.PKCSObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xipki.security.DfltConcurrentContentSigner;
+import org.xipki.security.NoIdleSignerException;
+import org.xipki.security.SignService;
+import org.xipki.security.SignatureSigner;
+import org.xipki.security.XiContentSigner;
+
+import junit.framework.Assert;
+
+/**
+ * SignService test.
+ *
+ * @author Lijun Liao
+ * @since 5.3.8
+ */
+public class SignServiceTest {
+
+  private static final int PARALLELISM = 4;
+
+  private static KeyPair keypair;
+
+  private static DfltConcurrentContentSigner signer;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+    kpGen.initialize(2048);
+    keypair = kpGen.generateKeyPair();
+
+    AlgorithmIdentifier sigAlgId =
+        new AlgorithmIdentifier(PKCSObjectIdentifiers.sha256WithRSAEncryption, DERNull.INSTANCE);
+    List<XiContentSigner> signers = new ArrayList<>(PARALLELISM);
+    for (int i = 0; i < PARALLELISM; i++) {
+      signers.add(new SignatureSigner(sigAlgId, Signature.getInstance("SHA256withRSA"),
+          keypair.getPrivate()));
+    }
+    signer = new DfltConcurrentContentSigner(false, signers);
+  }
+
+  @Test
+  public void signConcurrently() throws Exception {
+    final int numThreads = 8;
+    final int numPerThread = 20;
+
+    final SignService service = new SignService(signer, 100, 10);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>(numThreads);
+      for (int i = 0; i < numThreads; i++) {
+        final int threadIndex = i;
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            for (int j = 0; j < numPerThread; j++) {
+              byte[] data = ("data " + threadIndex + "-" + j).getBytes(StandardCharsets.UTF_8);
+              if (!verify(data, service.sign(data, 0))) {
+                return false;
+              }
+            }
+            return true;
+          }
+        }));
+      }
+
+      for (Future<Boolean> future : futures) {
+        Assert.assertTrue("signature valid", future.get(60, TimeUnit.SECONDS));
+      }
+
+      Assert.assertTrue("signed requests",
+          service.getQueueWaitHistogram().getCount() == numThreads * numPerThread);
+      Assert.assertTrue("signed batches", service.getSignTimeHistogram().getCount() > 0);
+
+      int limit = service.getConcurrencyLimit();
+      Assert.assertTrue("concurrency limit " + limit, limit >= 1 && limit <= PARALLELISM);
+    } finally {
+      executor.shutdownNow();
+      service.close();
+    }
+  }
+
+  @Test
+  public void rejectAfterClose() throws Exception {
+    SignService service = new SignService(signer, 10, 10);
+    byte[] data = "data".getBytes(StandardCharsets.UTF_8);
+    Assert.assertTrue("signature valid", verify(data, service.sign(data, 1000)));
+
+    service.close();
+    try {
+      service.sign(data, 1000);
+      Assert.fail("NoIdleSignerException expected");
+    } catch (NoIdleSignerException ex) {
+      // expected
+    }
+  }
+
+  private static boolean verify(byte[] data, byte[] signature) throws Exception {
+    Signature verifier = Signature.getInstance("SHA256withRSA");
+    verifier.initVerify(keypair.getPublic());
+    verifier.update(data);
+    return verifier.verify(signature);
+  }
+
+}